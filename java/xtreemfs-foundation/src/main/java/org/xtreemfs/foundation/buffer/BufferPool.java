@@ -8,48 +8,109 @@
 
 package org.xtreemfs.foundation.buffer;
 
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A concurrent pool for buffer recycling.
  *
+ * Buffers are pooled in size classes. Each thread keeps a small cache of free buffers per class in front of a
+ * shared depot, so that most allocate and free operations neither contend for a lock nor update shared counters.
+ * A thread cache exchanges half of its buffers with the depot at once if it runs empty or full. The buffers of a
+ * class in a thread cache are limited in size as well as in number, so that idle threads cannot hold a large part
+ * of the pooled memory; the largest buffers are not cached at all. Buffers in the caches of terminated threads are
+ * moved back to the depot.
+ *
+ * New buffers are carved out of direct memory slabs. All classes share one budget of direct memory, thus the
+ * number of buffers of each class follows the sizes actually requested. Only if the budget is used up, heap
+ * buffers are created which are not pooled.
+ *
  * @author bjko
  */
 public final class BufferPool {
 
     /**
-     * size of buffers for each class.
+     * default size of buffers for each class.
+     */
+    public static final int[]       BUFF_SIZES                = { 8192, 65536, 131072, 524288, 2097152 };
+
+    /**
+     * default max number of buffers per class and thread in the thread caches
+     */
+    public static final int         DEFAULT_THREAD_CACHE_SIZE = 16;
+
+    /**
+     * max total size of the buffers of one class in a thread cache
+     */
+    static final int                MAX_THREAD_CACHE_BYTES    = 1024 * 1024;
+
+    /**
+     * default max amount of direct memory allocated by the pool
+     */
+    public static final long        DEFAULT_MAX_POOLED_BYTES  = 64L * 1024 * 1024;
+
+    /**
+     * size of the direct memory slabs smaller buffers are carved out of. Larger buffers are allocated one by one.
+     */
+    static final int                SLAB_SIZE                 = 1024 * 1024;
+
+    /**
+     * size of buffers for each class
+     */
+    private final int[]             sizes;
+
+    /**
+     * max number of buffers of each class in a thread cache, 0 if threads use the depot of the class directly
+     */
+    private final int[]             cacheSizes;
+
+    /**
+     * max amount of direct memory allocated for the pooled buffers
+     */
+    private final long              maxPooledBytes;
+
+    /**
+     * shared buffers for each class
      */
-    public static final int[] BUFF_SIZES = {8192, 65536, 131072, 524288,
-            2097152};
+    private final Depot[]           depots;
+
+    private final ThreadLocal<ThreadCache> threadCache;
 
     /**
-     * max pool size for each class
+     * caches of all threads which used the pool, to compute statistics and to reclaim the buffers of terminated
+     * threads
      */
-    public static final int[] MAX_POOL_SIZES = {2000, 200, 100, 10, 5};
+    private final List<ThreadCache> threadCaches;
 
     /**
-     * queues to store buffers in
+     * the slab of each class which is currently carved into buffers, guarded by "this"
      */
-    private final ConcurrentLinkedQueue<ByteBuffer>[] pools;
+    private final ByteBuffer[]      slabs;
 
     /**
-     * pool sizes to avoid counting elements on each access
+     * direct memory allocated for slabs, guarded by "this"
      */
-    private final AtomicInteger[] poolSizes;
+    private long                    allocatedBytes;
 
     /**
-     * stats for num requests and creates of buffers per class
+     * time of the last search for caches of terminated threads
      */
-    private final AtomicLong[] requests, creates, deletes;
+    private volatile long           lastReclaim;
+
+    /**
+     * stats for creates of buffers per class and deletes of unpooled buffers, and the stats of terminated threads
+     */
+    private final AtomicLong[]      creates, deletes, retiredRequests;
 
     /**
      * singleton pattern.
      */
-    private static final BufferPool instance = new BufferPool();
+    private static volatile BufferPool instance = new BufferPool(BUFF_SIZES, DEFAULT_THREAD_CACHE_SIZE,
+                                                        DEFAULT_MAX_POOLED_BYTES);
 
     /**
      * if true all allocate/free operations record the stack trace. Useful to
@@ -59,29 +120,79 @@ public final class BufferPool {
 
     /**
      * Creates a new instance of BufferPool
+     *
+     * @param sizes
+     *            the sizes of the buffer classes in ascending order
+     * @param threadCacheSize
+     *            max number of buffers per class and thread in the thread caches, 0 to disable the caches. A
+     *            thread caches at most {@link #MAX_THREAD_CACHE_BYTES} of each class.
+     * @param maxPooledBytes
+     *            max amount of direct memory allocated for pooled buffers
      */
-    @SuppressWarnings("unchecked")
-    private BufferPool() {
+    BufferPool(int[] sizes, int threadCacheSize, long maxPooledBytes) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] <= 0 || (i > 0 && sizes[i] <= sizes[i - 1])) {
+                throw new IllegalArgumentException("buffer sizes must be positive and in ascending order");
+            }
+        }
+        if (threadCacheSize < 0 || maxPooledBytes < 0) {
+            throw new IllegalArgumentException("thread cache size and max pooled bytes must not be negative");
+        }
+
+        this.sizes = sizes.clone();
+        this.maxPooledBytes = maxPooledBytes;
 
-        pools = new ConcurrentLinkedQueue[BUFF_SIZES.length];
+        cacheSizes = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            cacheSizes[i] = Math.min(threadCacheSize, MAX_THREAD_CACHE_BYTES / sizes[i]);
+        }
 
-        creates = new AtomicLong[BUFF_SIZES.length];
-        for (int i = 0; i < creates.length; i++) {
+        depots = new Depot[sizes.length];
+        slabs = new ByteBuffer[sizes.length];
+        creates = new AtomicLong[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            depots[i] = new Depot();
             creates[i] = new AtomicLong();
         }
 
-        requests = new AtomicLong[BUFF_SIZES.length + 1];
-        deletes = new AtomicLong[BUFF_SIZES.length + 1];
-        for (int i = 0; i < BUFF_SIZES.length + 1; i++) {
-            requests[i] = new AtomicLong();
+        deletes = new AtomicLong[sizes.length + 1];
+        retiredRequests = new AtomicLong[sizes.length + 1];
+        for (int i = 0; i < sizes.length + 1; i++) {
             deletes[i] = new AtomicLong();
+            retiredRequests[i] = new AtomicLong();
         }
 
-        poolSizes = new AtomicInteger[BUFF_SIZES.length];
-        for (int i = 0; i < BUFF_SIZES.length; i++) {
-            pools[i] = new ConcurrentLinkedQueue<ByteBuffer>();
-            poolSizes[i] = new AtomicInteger(0);
+        threadCaches = new ArrayList<ThreadCache>();
+        threadCache = new ThreadLocal<ThreadCache>() {
+            @Override
+            protected ThreadCache initialValue() {
+                ThreadCache cache = new ThreadCache(cacheSizes);
+                synchronized (threadCaches) {
+                    threadCaches.add(cache);
+                }
+                return cache;
+            }
+        };
+    }
+
+    /**
+     * Replaces the pool configuration. Must be called before the first buffer is allocated.
+     *
+     * @param sizes
+     *            the sizes of the buffer classes in ascending order
+     * @param threadCacheSize
+     *            max number of buffers per class and thread in the thread caches, 0 to disable the caches. A
+     *            thread caches at most {@link #MAX_THREAD_CACHE_BYTES} of each class.
+     * @param maxPooledBytes
+     *            max amount of direct memory allocated for pooled buffers
+     * @throws IllegalStateException
+     *             if buffers were already allocated
+     */
+    public static synchronized void configure(int[] sizes, int threadCacheSize, long maxPooledBytes) {
+        if (instance.getNumRequests() > 0) {
+            throw new IllegalStateException("the BufferPool cannot be configured after buffers were allocated");
         }
+        instance = new BufferPool(sizes, threadCacheSize, maxPooledBytes);
     }
 
     /**
@@ -116,66 +227,102 @@ public final class BufferPool {
         }
     }
 
+    /**
+     * Returns the index of the smallest class with buffers of at least size bytes, or -1 if there is none.
+     */
+    private int getSizeClass(int size) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (size <= sizes[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Returns a buffer which has at least size bytes.
      *
      * @attention The returned buffer can be larger than requested!
      */
-    private ReusableBuffer getNewBuffer(int size) {
+    ReusableBuffer getNewBuffer(int size) {
 
         try {
 
-            // if there is a pooled buffer with sufficient capacity ...
-            for (int i = 0; i < BUFF_SIZES.length; i++) {
-
-                if (size <= BUFF_SIZES[i]) {
-
-                    ByteBuffer buf = pools[i].poll();
-
-                    // if no free buffer is available in the pool ...
-                    if (buf == null) {
-                        
-                        /*
-                        ... create
-                        - a direct buffer if the pool is not full yet,
-                        - a non-direct buffer if the pool is full
-
-                        Thus, the first MAX_POOL_SIZES[i] buffers will be
-                        pooled, whereas any additional buffers will be
-                        allocated on demand and freed by the garbage
-                        collector.
-                        */
-
-                        buf = creates[i].get() < MAX_POOL_SIZES[i] ? ByteBuffer.allocateDirect(BUFF_SIZES[i])
-                                : ByteBuffer.allocate(BUFF_SIZES[i]);
-                        creates[i].incrementAndGet();
-                    }
+            final ThreadCache cache = threadCache.get();
+            final int i = getSizeClass(size);
 
-                    // otherwise, decrement the pool size to indicate that the
-                    // pooled buffer was handed out to the application
-                    else {
-                        poolSizes[i].decrementAndGet();
-                    }
+            // ... create an unpooled buffer if the size exceeds the largest class
+            if (i < 0) {
+                cache.requests[sizes.length]++;
+                return new ReusableBuffer(ByteBuffer.allocate(size), size);
+            }
 
-                    requests[i].incrementAndGet();
-                    return new ReusableBuffer(buf, size);
+            cache.requests[i]++;
 
+            ByteBuffer buf = null;
+            if (cacheSizes[i] > 0) {
+                // refill the thread cache from the depot if it is empty
+                if (cache.counts[i] == 0) {
+                    cache.counts[i] = depots[i].take(cache.buffers[i], getTransferSize(i));
                 }
-
+                if (cache.counts[i] > 0) {
+                    final int last = --cache.counts[i];
+                    buf = cache.buffers[i][last];
+                    cache.buffers[i][last] = null;
+                }
+            } else {
+                buf = depots[i].take();
             }
 
-            // ... otherwise, create an unpooled buffer
-            requests[BUFF_SIZES.length].incrementAndGet();
+            // if no free buffer is available in the pool, create one
+            if (buf == null) {
+                reclaimThreadCaches(false);
+                buf = createBuffer(i);
+            }
 
-            ByteBuffer buf = ByteBuffer.allocate(size);
             return new ReusableBuffer(buf, size);
 
         } catch (OutOfMemoryError ex) {
-            System.out.println(getStatus());
+            System.out.println(getStatusString());
             throw ex;
         }
     }
 
+    /**
+     * Creates a buffer of class i. The buffer is carved out of a direct memory slab as long as the budget of direct
+     * memory allows it. Otherwise, a heap buffer is created which will not be pooled.
+     */
+    private synchronized ByteBuffer createBuffer(int i) {
+
+        final int size = sizes[i];
+
+        ByteBuffer slab = slabs[i];
+        if (slab == null || slab.remaining() < size) {
+            final int slabSize = Math.max(size, SLAB_SIZE / size * size);
+            if (allocatedBytes + slabSize > maxPooledBytes) {
+                return ByteBuffer.allocate(size);
+            }
+            slab = ByteBuffer.allocateDirect(slabSize);
+            allocatedBytes += slabSize;
+            slabs[i] = slab;
+        }
+
+        slab.limit(slab.position() + size);
+        ByteBuffer buf = slab.slice();
+        slab.position(slab.limit());
+        slab.limit(slab.capacity());
+
+        creates[i].incrementAndGet();
+        return buf;
+    }
+
+    /**
+     * Returns the number of buffers of class i moved between a thread cache and the depot at once.
+     */
+    private int getTransferSize(int i) {
+        return Math.max(1, cacheSizes[i] / 2);
+    }
+
     private void returnBuffer(ReusableBuffer buffer) {
         returnBuffer(buffer, false);
     }
@@ -183,7 +330,7 @@ public final class BufferPool {
     /**
      * return a buffer to the pool
      */
-    private void returnBuffer(ReusableBuffer buffer, boolean callFromView) {
+    void returnBuffer(ReusableBuffer buffer, boolean callFromView) {
 
         if (!buffer.isReusable())
             return;
@@ -231,25 +378,41 @@ public final class BufferPool {
 
             ByteBuffer buf = buffer.getParent();
             buf.clear();
-            
+
             /*
             determine the pool to which the buffer is supposed to be
             returned
             */
-            for (int i = 0; i < BUFF_SIZES.length; i++) {
+            for (int i = 0; i < sizes.length; i++) {
 
-                if (buf.capacity() == BUFF_SIZES[i]) {
+                if (buf.capacity() == sizes[i]) {
 
                     // return direct buffers to the pool
                     if (buf.isDirect()) {
 
-                        poolSizes[i].incrementAndGet();
-                        pools[i].add(buf);
-                        
+                        final int cacheSize = cacheSizes[i];
+                        if (cacheSize > 0) {
+                            final ThreadCache cache = threadCache.get();
+                            // move the older half of a full thread cache to the depot
+                            if (cache.counts[i] == cacheSize) {
+                                final int transfer = getTransferSize(i);
+                                depots[i].put(cache.buffers[i], transfer);
+                                System.arraycopy(cache.buffers[i], transfer, cache.buffers[i], 0, cacheSize
+                                        - transfer);
+                                cache.counts[i] -= transfer;
+                                for (int j = cache.counts[i]; j < cacheSize; j++) {
+                                    cache.buffers[i][j] = null;
+                                }
+                            }
+                            cache.buffers[i][cache.counts[i]++] = buf;
+                        } else {
+                            depots[i].put(buf);
+                        }
+
                         /*
                         since only direct buffers will be returned to the
-                        pool, which have been counted on allocation, there is
-                        no need to check the pool size here
+                        pool, which are limited by the budget of direct
+                        memory, there is no need to check the pool size here
                         */
 
                         return;
@@ -271,7 +434,7 @@ public final class BufferPool {
 
             assert (!buf.isDirect()) : "encountered direct buffer that does not fit in any of the pools (size="
                     + buf.capacity() + "): " + buffer.freeStack;
-            
+
             /*
             if the buffer did not fit in any of the pools,
             increment the delete counter for the unpooled buffers
@@ -282,39 +445,146 @@ public final class BufferPool {
     }
 
     /**
-     * Get the current pool size for a specific buffer size.
-     *
-     * @throws IllegalArgumentException when bufferSize is not in the pool
+     * Moves the buffers and statistics of the caches of terminated threads to the depots. Unless forced, caches are
+     * searched at most once per second.
      */
-    public static int getPoolSize(int bufferSize) {
-        for (int i = 0; i < BUFF_SIZES.length; i++) {
-            if (BUFF_SIZES[i] == bufferSize) {
-                return instance.poolSizes[i].get();
+    void reclaimThreadCaches(boolean force) {
+        final long now = System.currentTimeMillis();
+        if (!force && now - lastReclaim < 1000) {
+            return;
+        }
+        lastReclaim = now;
+
+        synchronized (threadCaches) {
+            Iterator<ThreadCache> iter = threadCaches.iterator();
+            while (iter.hasNext()) {
+                final ThreadCache cache = iter.next();
+                final Thread owner = cache.owner.get();
+                if (owner != null && owner.isAlive()) {
+                    continue;
+                }
+
+                iter.remove();
+                for (int i = 0; i < sizes.length; i++) {
+                    depots[i].put(cache.buffers[i], cache.counts[i]);
+                    cache.counts[i] = 0;
+                }
+                for (int i = 0; i < cache.requests.length; i++) {
+                    retiredRequests[i].addAndGet(cache.requests[i]);
+                }
             }
         }
-        throw new IllegalArgumentException("Specified buffer size is not pooled. Check BufferPool configuration.");
     }
 
     /**
-     * Returns a textual representation of the pool status.
-     *
-     * @return a textual representation of the pool status.
+     * Returns the number of free buffers of class i in the depot and the thread caches. The numbers in the caches
+     * of other threads may be slightly outdated.
      */
-    public static String getStatus() {
+    private int getNumPooledBuffers(int i) {
+        int count = depots[i].size();
+        synchronized (threadCaches) {
+            for (ThreadCache cache : threadCaches) {
+                count += cache.counts[i];
+            }
+        }
+        return count;
+    }
+
+    private long getNumRequests(int i) {
+        long count = retiredRequests[i].get();
+        synchronized (threadCaches) {
+            for (ThreadCache cache : threadCaches) {
+                count += cache.requests[i];
+            }
+        }
+        return count;
+    }
+
+    private long getNumRequests() {
+        long count = 0;
+        for (int i = 0; i < sizes.length + 1; i++) {
+            count += getNumRequests(i);
+        }
+        return count;
+    }
+
+    private long getPooledBytes() {
+        long bytes = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            bytes += (long) getNumPooledBuffers(i) * sizes[i];
+        }
+        return bytes;
+    }
+
+    synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    int getPoolSizeOfClass(int bufferSize) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] == bufferSize) {
+                return getNumPooledBuffers(i);
+            }
+        }
+        throw new IllegalArgumentException("Specified buffer size is not pooled. Check BufferPool configuration.");
+    }
+
+    private String getStatusString() {
+
+        reclaimThreadCaches(false);
 
         String str = "";
-        for (int i = 0; i < BUFF_SIZES.length; i++) {
+        for (int i = 0; i < sizes.length; i++) {
             str += String.format(
                     "%8d:      poolSize = %5d    numRequests = %8d    creates = %8d   deletes = %8d\n",
-                    BUFF_SIZES[i], instance.poolSizes[i].get(), instance.requests[i].get(), instance.creates[i]
-                            .get(), instance.deletes[i].get());
+                    sizes[i], getNumPooledBuffers(i), getNumRequests(i), creates[i].get(), deletes[i].get());
         }
-        str += String.format("unpooled (> %8d)    numRequests = creates = %8d   deletes = %8d",
-                BUFF_SIZES[BUFF_SIZES.length - 1], instance.requests[instance.requests.length - 1].get(),
-                instance.deletes[instance.deletes.length - 1].get());
+        str += String.format("unpooled (> %8d)    numRequests = creates = %8d   deletes = %8d\n",
+                sizes[sizes.length - 1], getNumRequests(sizes.length), deletes[deletes.length - 1].get());
+        str += String.format("direct memory:        allocated = %d bytes    free = %d bytes    max = %d bytes",
+                getAllocatedBytes(), getPooledBytes(), maxPooledBytes);
         return str;
     }
 
+    /**
+     * Get the current pool size for a specific buffer size.
+     *
+     * @throws IllegalArgumentException when bufferSize is not in the pool
+     */
+    public static int getPoolSize(int bufferSize) {
+        return instance.getPoolSizeOfClass(bufferSize);
+    }
+
+    /**
+     * Returns the amount of direct memory which was allocated for pooled buffers.
+     */
+    public static long getAllocatedDirectMemory() {
+        return instance.getAllocatedBytes();
+    }
+
+    /**
+     * Returns the total size of the free buffers in the pool.
+     */
+    public static long getFreeDirectMemory() {
+        return instance.getPooledBytes();
+    }
+
+    /**
+     * Returns the max amount of direct memory which is allocated for pooled buffers.
+     */
+    public static long getMaxDirectMemory() {
+        return instance.maxPooledBytes;
+    }
+
+    /**
+     * Returns a textual representation of the pool status.
+     *
+     * @return a textual representation of the pool status.
+     */
+    public static String getStatus() {
+        return instance.getStatusString();
+    }
+
     /**
      * Specifies whether stack traces shall be recorded when allocating and
      * freeing buffers. Since recording stack traces leads to some overhead, it
@@ -324,4 +594,91 @@ public final class BufferPool {
         recordStackTraces = record;
     }
 
+    /**
+     * The free buffers of one class shared by all threads.
+     */
+    private static final class Depot {
+
+        private ByteBuffer[] buffers = new ByteBuffer[16];
+
+        private volatile int count;
+
+        synchronized ByteBuffer take() {
+            if (count == 0) {
+                return null;
+            }
+            ByteBuffer buf = buffers[--count];
+            buffers[count] = null;
+            return buf;
+        }
+
+        /**
+         * Moves up to max buffers to the beginning of dst and returns their number.
+         */
+        synchronized int take(ByteBuffer[] dst, int max) {
+            final int n = Math.min(max, count);
+            System.arraycopy(buffers, count - n, dst, 0, n);
+            for (int i = count - n; i < count; i++) {
+                buffers[i] = null;
+            }
+            count -= n;
+            return n;
+        }
+
+        synchronized void put(ByteBuffer buf) {
+            ensureCapacity(count + 1);
+            buffers[count++] = buf;
+        }
+
+        /**
+         * Moves the first n buffers of src to the depot.
+         */
+        synchronized void put(ByteBuffer[] src, int n) {
+            ensureCapacity(count + n);
+            System.arraycopy(src, 0, buffers, count, n);
+            count += n;
+        }
+
+        int size() {
+            return count;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffers.length) {
+                ByteBuffer[] tmp = new ByteBuffer[Math.max(capacity, buffers.length * 2)];
+                System.arraycopy(buffers, 0, tmp, 0, count);
+                buffers = tmp;
+            }
+        }
+    }
+
+    /**
+     * The free buffers and statistics of one thread. Only the owner modifies them, other threads only read the
+     * counters for statistics. Once the owner terminated, the cache is reclaimed by
+     * {@link BufferPool#reclaimThreadCaches(boolean)}.
+     */
+    private static final class ThreadCache {
+
+        final WeakReference<Thread> owner;
+
+        final ByteBuffer[][]        buffers;
+
+        final int[]                 counts;
+
+        /**
+         * number of requests per class, the last element counts requests for unpooled buffers
+         */
+        final long[]                requests;
+
+        ThreadCache(int[] cacheSizes) {
+            owner = new WeakReference<Thread>(Thread.currentThread());
+            buffers = new ByteBuffer[cacheSizes.length][];
+            for (int i = 0; i < cacheSizes.length; i++) {
+                buffers[i] = new ByteBuffer[cacheSizes[i]];
+            }
+            counts = new int[cacheSizes.length];
+            requests = new long[cacheSizes.length + 1];
+        }
+    }
+
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.buffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * A range of a file that is sent to a channel without copying it to a buffer
+ * first, by means of {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+ * <p>
+ * The region owns the file it refers to, or a reference to a shared channel,
+ * which is closed when the region is released. A region has to be released
+ * exactly once, like a {@link ReusableBuffer} has to be freed.
+ */
+public final class FileRegion {
+
+    private final FileChannel      channel;
+
+    private final Closeable        owner;
+
+    private final long             position;
+
+    private final int              length;
+
+    private int                    transferred;
+
+    /**
+     * Creates a new region.
+     *
+     * @param file
+     *            the file, which is closed when the region is released
+     * @param position
+     *            the offset of the region in the file
+     * @param length
+     *            the length of the region
+     */
+    public FileRegion(RandomAccessFile file, long position, int length) {
+        this(file.getChannel(), file, position, length);
+    }
+
+    /**
+     * Creates a new region of a channel that is shared with its owner.
+     *
+     * @param channel
+     *            the channel
+     * @param owner
+     *            the reference to the channel, which is closed when the
+     *            region is released
+     * @param position
+     *            the offset of the region in the file
+     * @param length
+     *            the length of the region
+     */
+    public FileRegion(FileChannel channel, Closeable owner, long position, int length) {
+        assert (position >= 0 && length >= 0);
+        this.channel = channel;
+        this.owner = owner;
+        this.position = position;
+        this.length = length;
+    }
+
+    /**
+     * Transfers the remaining bytes of the region to the given channel. If the
+     * channel is non-blocking, fewer bytes may be transferred.
+     *
+     * @param target
+     *            the target channel
+     * @return the number of bytes transferred
+     * @throws IOException
+     *             if an I/O error occurs, or if the file has been truncated
+     *             since the region was created
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+
+        final long n = channel.transferTo(position + transferred, length - transferred, target);
+
+        // transferTo() does not indicate the end of the file; make sure that
+        // the remaining bytes of the region still exist
+        if (n == 0 && position + transferred >= channel.size())
+            throw new IOException("file region is no longer available: file was truncated to "
+                + channel.size() + " bytes");
+
+        transferred += n;
+        return n;
+    }
+
+    /**
+     * @return the length of the region
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return <code>true</code>, if not all bytes of the region have been
+     *         transferred yet
+     */
+    public boolean hasRemaining() {
+        return transferred < length;
+    }
+
+    /**
+     * Closes the file of the region, or releases the reference to it.
+     */
+    public void release() {
+        try {
+            owner.close();
+        } catch (IOException exc) {
+            Logging.logMessage(Logging.LEVEL_WARN, Category.buffer, this, "could not close file region: %s",
+                exc.getMessage());
+        }
+    }
+
+    public String toString() {
+        return "FileRegion(position=" + position + ", length=" + length + ", transferred=" + transferred + ")";
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with buckets of exponentially increasing width. Bucket i counts the latencies below 2^i
+ * microseconds which do not fall into a lower bucket. Recording a latency costs one atomic increment.<br>
+ * NOTE: This class is thread-safe.
+ */
+public class LatencyHistogram {
+
+    private static final int      NUM_BUCKETS = 32;
+
+    private final AtomicLongArray buckets;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *            the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        final long micros = nanos / 1000;
+        final int bucket = micros <= 0 ? 0 : Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+    }
+
+    /**
+     * Adds the latencies recorded by another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets.addAndGet(i, other.buckets.get(i));
+        }
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile of the recorded latencies.
+     *
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the upper bound in microseconds, or 0 if no latencies were recorded
+     */
+    public long getPercentile(double percentile) {
+        final long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            count += counts[i];
+            if (count >= rank && counts[i] > 0) {
+                return 1L << i;
+            }
+        }
+        return 1L << (NUM_BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d samples, 50%% < %d us, 99%% < %d us, max < %d us", getCount(), getPercentile(50),
+                getPercentile(99), getPercentile(100));
+    }
+
+}
@@ -20,6 +20,8 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.security.cert.Certificate;
 
+import org.xtreemfs.foundation.buffer.FileRegion;
+
 /**
  * A abstraction of the SocketChannel
  *
@@ -86,6 +88,26 @@ public class ChannelIO {
             return channel.write(src);
     }
 
+    /**
+     * Transfers the remaining bytes of a file region to the channel without
+     * copying them to user space.
+     *
+     * @return the number of bytes transferred
+     * @throws IOException
+     */
+    public long transferFrom(FileRegion region) throws IOException {
+            return region.transferTo(channel);
+    }
+
+    /**
+     * @return true, if file regions can be sent with
+     *         {@link #transferFrom(FileRegion)}, i.e. if the data is written
+     *         to the socket as is
+     */
+    public boolean isTransferSupported() {
+        return true;
+    }
+
     public boolean finishConnect() throws IOException {
             return this.channel.finishConnect();
     }
@@ -25,6 +25,7 @@ import javax.net.ssl.SSLPeerUnverifiedException;
 
 import org.xtreemfs.foundation.SSLOptions;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -311,6 +312,22 @@ public class SSLChannelIO extends ChannelIO {
         return returnValue;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isTransferSupported() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long transferFrom(FileRegion region) throws IOException {
+        throw new IOException("file regions cannot be sent over SSL connections");
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -152,6 +152,13 @@ public class RPCClientConnection {
         return sendQueue;
     }
 
+    /**
+     * Returns the number of requests which are queued or sent and not yet answered.
+     */
+    synchronized int getNumOutstandingRequests() {
+        return sendQueue.size() + requests.size() + (pendingRequest != null ? 1 : 0);
+    }
+
     
     /**
      * @return the requestFragHdr
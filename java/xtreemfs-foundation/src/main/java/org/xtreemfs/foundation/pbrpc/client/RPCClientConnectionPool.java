@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.pbrpc.client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The connections of an {@link RPCNIOSocketClient} to one endpoint.
+ *
+ * The first connection is the control lane which carries all small requests, e.g. metadata and lock requests.
+ * The other connections form the bulk lane which carries the requests with a data payload and the requests of
+ * procedures registered as bulk procedures. A bulk request is sent over the connection with the fewest
+ * outstanding requests. Thus, a large transfer does not delay small requests.
+ *
+ * If there is no bulk lane, all requests share the control lane.
+ */
+class RPCClientConnectionPool {
+
+    private final RPCClientConnection[] connections;
+
+    RPCClientConnectionPool(InetSocketAddress endpoint, int numBulkConnections) {
+        connections = new RPCClientConnection[numBulkConnections + 1];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new RPCClientConnection(endpoint);
+        }
+    }
+
+    /**
+     * Returns the connection a request is sent over.
+     */
+    RPCClientConnection getConnection(boolean bulk) {
+        if (!bulk || connections.length == 1) {
+            return connections[0];
+        }
+
+        RPCClientConnection leastLoaded = null;
+        int leastOutstanding = Integer.MAX_VALUE;
+        for (int i = 1; i < connections.length; i++) {
+            final int outstanding = connections[i].getNumOutstandingRequests();
+            if (outstanding < leastOutstanding) {
+                leastLoaded = connections[i];
+                leastOutstanding = outstanding;
+            }
+        }
+        return leastLoaded;
+    }
+
+    RPCClientConnection[] getConnections() {
+        return connections;
+    }
+
+    /**
+     * Returns the time the most recently used connection was used last.
+     */
+    long getLastUsed() {
+        long lastUsed = 0;
+        for (RPCClientConnection con : connections) {
+            lastUsed = Math.max(lastUsed, con.getLastUsed());
+        }
+        return lastUsed;
+    }
+}
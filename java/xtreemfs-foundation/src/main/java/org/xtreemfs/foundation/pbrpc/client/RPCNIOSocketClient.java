@@ -20,6 +20,7 @@ import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -27,6 +28,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -62,7 +64,7 @@ public class RPCNIOSocketClient extends LifeCycleThread {
      */
     public static final int TIMEOUT_GRANULARITY = 250;
 
-    private final Map<InetSocketAddress, RPCClientConnection> connections;
+    private final Map<InetSocketAddress, RPCClientConnectionPool> connections;
 
     private final int requestTimeout;
 
@@ -86,6 +88,20 @@ public class RPCNIOSocketClient extends LifeCycleThread {
 
     private final SocketAddress localBindPoint;
 
+    /**
+     * number of connections per endpoint for bulk requests, 0 if all requests share one connection
+     */
+    private volatile int numBulkConnections;
+
+    /**
+     * max number of requests per connection which were sent and not yet answered, 0 for no limit
+     */
+    private volatile int maxRequestsInFlight;
+
+    /**
+     * procedures (interface id in the upper, proc id in the lower 32 bits) which are sent as bulk requests
+     */
+    private final Set<Long> bulkProcedures;
 
     /**
      * on some platforms (e.g. FreeBSD 7.2 with openjdk6) Selector.select(int timeout)
@@ -133,7 +149,10 @@ public class RPCNIOSocketClient extends LifeCycleThread {
         this.sendBufferSize = sendBufferSize;
         this.receiveBufferSize = receiveBufferSize;
         this.localBindPoint = localBindPoint;
-        connections = new HashMap<InetSocketAddress, RPCClientConnection>();
+        connections = new HashMap<InetSocketAddress, RPCClientConnectionPool>();
+        numBulkConnections = 0;
+        maxRequestsInFlight = 0;
+        bulkProcedures = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
         selector = Selector.open();
         this.sslOptions = sslOptions;
         quit = false;
@@ -147,18 +166,54 @@ public class RPCNIOSocketClient extends LifeCycleThread {
     }
 
 
+    /**
+     * Configures the connections to each endpoint. Must be called before the first request is sent.
+     *
+     * Requests with a data payload and requests of procedures added with
+     * {@link #addBulkProcedure(int, int)} are bulk requests. If "numBulkConnections" is greater than 0, they are sent
+     * over that many additional connections per endpoint, the one with the fewest outstanding requests first, and
+     * cannot delay the other requests. The order of bulk requests sent concurrently over different connections is
+     * not preserved.
+     *
+     * @param numBulkConnections
+     *            number of connections per endpoint for bulk requests, 0 to send all requests over one connection
+     * @param maxRequestsInFlight
+     *            max number of requests sent over a connection and not yet answered, further requests wait in the
+     *            send queue. 0 for no limit.
+     */
+    public void setConnectionPool(int numBulkConnections, int maxRequestsInFlight) {
+        if (numBulkConnections < 0 || maxRequestsInFlight < 0) {
+            throw new IllegalArgumentException("number of connections and requests in flight must not be negative");
+        }
+        this.numBulkConnections = numBulkConnections;
+        this.maxRequestsInFlight = maxRequestsInFlight;
+    }
+
+    /**
+     * Sends the requests of a procedure as bulk requests, e.g. because its responses carry large data.
+     */
+    public void addBulkProcedure(int interfaceId, int procId) {
+        bulkProcedures.add(getProcedureKey(interfaceId, procId));
+    }
+
+    private static long getProcedureKey(int interfaceId, int procId) {
+        return ((long) interfaceId << 32) | (procId & 0xFFFFFFFFL);
+    }
+
     public void sendRequest(InetSocketAddress server, Auth auth, UserCredentials uCred, int interface_id, int proc_id, Message message, ReusableBuffer data,
                             RPCResponse response, boolean highPriority) {
         try {
             RPCClientRequest rq = new RPCClientRequest(auth, uCred, transactionId.incrementAndGet(), interface_id, proc_id, message, data, response);
-            internalSendRequest(server, rq, highPriority);
+            final boolean bulk = data != null || bulkProcedures.contains(getProcedureKey(interface_id, proc_id));
+            internalSendRequest(server, rq, highPriority, bulk);
         } catch (Throwable e) { // CancelledKeyException, RuntimeException (caused by missing TimeSyncThread)
             //e.printStackTrace();
             response.requestFailed(e.toString());
         }
     }
 
-    private void internalSendRequest(InetSocketAddress server, RPCClientRequest request, boolean highPriority) {
+    private void internalSendRequest(InetSocketAddress server, RPCClientRequest request, boolean highPriority,
+            boolean bulk) {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, "sending request %s no %d", request
                     .toString(), transactionId.get());
@@ -166,11 +221,12 @@ public class RPCNIOSocketClient extends LifeCycleThread {
         // get connection
         RPCClientConnection con = null;
         synchronized (connections) {
-            con = connections.get(server);
-            if (con == null) {
-                con = new RPCClientConnection(server);
-                connections.put(server, con);
+            RPCClientConnectionPool pool = connections.get(server);
+            if (pool == null) {
+                pool = new RPCClientConnectionPool(server, numBulkConnections);
+                connections.put(server, pool);
             }
+            con = pool.getConnection(bulk);
         }
         synchronized (con) {
             boolean isEmpty = con.getSendQueue().isEmpty();
@@ -299,21 +355,23 @@ public class RPCNIOSocketClient extends LifeCycleThread {
         }
 
         synchronized (connections) {
-            for (RPCClientConnection con : connections.values()) {
-                synchronized (con) {
-                    for (RPCClientRequest rq : con.getSendQueue()) {
-                        rq.getResponse().requestFailed("RPC cancelled due to client shutdown");
-                        rq.freeBuffers();
-                    }
-                    for (RPCClientRequest rq : con.getRequests().values()) {
-                        rq.getResponse().requestFailed("RPC cancelled due to client shutdown");
-                        rq.freeBuffers();
-                    }
-                    try {
-                        if (con.getChannel() != null)
-                            con.getChannel().close();
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
+            for (RPCClientConnectionPool pool : connections.values()) {
+                for (RPCClientConnection con : pool.getConnections()) {
+                    synchronized (con) {
+                        for (RPCClientRequest rq : con.getSendQueue()) {
+                            rq.getResponse().requestFailed("RPC cancelled due to client shutdown");
+                            rq.freeBuffers();
+                        }
+                        for (RPCClientRequest rq : con.getRequests().values()) {
+                            rq.getResponse().requestFailed("RPC cancelled due to client shutdown");
+                            rq.freeBuffers();
+                        }
+                        try {
+                            if (con.getChannel() != null)
+                                con.getChannel().close();
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                        }
                     }
                 }
             }
@@ -569,6 +627,7 @@ public class RPCNIOSocketClient extends LifeCycleThread {
             RPCResponse response = rq.getResponse();
             rq.setResponseHeader(header);
             con.setResponseBuffers(null);
+            resumeWriting(key, con);
 
             response.responseAvailable(rq, receiveBuffers[1], receiveBuffers[2]);
         } catch (IOException ex) {
@@ -597,6 +656,11 @@ public class RPCNIOSocketClient extends LifeCycleThread {
                                     key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
                                     break;
                                 }
+                                if (isInFlightLimitReached(con)) {
+                                    // wait for responses, see resumeWriting()
+                                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                                    break;
+                                }
                                 send = con.getSendQueue().remove(0);
                             }
                             assert (send != null);
@@ -664,6 +728,30 @@ public class RPCNIOSocketClient extends LifeCycleThread {
         }
     }
 
+    private boolean isInFlightLimitReached(RPCClientConnection con) {
+        final int limit = maxRequestsInFlight;
+        return limit > 0 && con.getRequests().size() >= limit;
+    }
+
+    /**
+     * Continues sending the queued requests of a connection which stopped writing because too many requests were in
+     * flight. Must be called from the selector thread after a request was removed.
+     */
+    private void resumeWriting(SelectionKey key, RPCClientConnection con) {
+        if (maxRequestsInFlight == 0 || key == null) {
+            return;
+        }
+        synchronized (con) {
+            if (!con.getSendQueue().isEmpty() && !isInFlightLimitReached(con)) {
+                try {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                } catch (CancelledKeyException e) {
+                    // Ignore it since the timeout mechanism will deal with it.
+                }
+            }
+        }
+    }
+
     private void connectConnection(SelectionKey key) {
         final RPCClientConnection con = (RPCClientConnection) key.attachment();
         final ChannelIO channel = con.getChannel();
@@ -729,49 +817,26 @@ public class RPCNIOSocketClient extends LifeCycleThread {
         if (now >= lastCheck.get() + TIMEOUT_GRANULARITY) {
             // check for timed out requests
             synchronized (connections) {
-                Iterator<RPCClientConnection> conIter = connections.values().iterator();
-                while (conIter.hasNext()) {
-                    final RPCClientConnection con = conIter.next();
+                Iterator<RPCClientConnectionPool> poolIter = connections.values().iterator();
+                while (poolIter.hasNext()) {
+                    final RPCClientConnectionPool pool = poolIter.next();
 
-                    if (con.getLastUsed() < (now - connectionTimeout)) {
+                    if (pool.getLastUsed() < (now - connectionTimeout)) {
                         if (Logging.isDebug()) {
                             Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
                                     "removing idle connection");
                         }
-                        try {
-                            conIter.remove();
-                            closeConnection(con.getChannel().keyFor(selector), null);
-                        } catch (Exception ex) {
-                        }
-                    } else {
-                        // check for request timeout
-                        List<RPCClientRequest> cancelRq = new LinkedList<RPCClientRequest>();
-                        synchronized (con) {
-                            Iterator<RPCClientRequest> iter = con.getRequests().values().iterator();
-                            while (iter.hasNext()) {
-                                final RPCClientRequest rq = iter.next();
-                                if (rq.getTimeQueued() + requestTimeout < now) {
-                                    cancelRq.add(rq);
-                                    iter.remove();
-                                }
-                            }
-                            iter = con.getSendQueue().iterator();
-                            while (iter.hasNext()) {
-                                final RPCClientRequest rq = iter.next();
-                                if (rq.getTimeQueued() + requestTimeout < now) {
-                                    cancelRq.add(rq);
-                                    iter.remove();
-                                } else {
-                                    // requests are ordered :-)
-                                    break;
-                                }
+                        poolIter.remove();
+                        for (RPCClientConnection con : pool.getConnections()) {
+                            try {
+                                closeConnection(con.getChannel().keyFor(selector), null);
+                            } catch (Exception ex) {
                             }
                         }
-                        for (RPCClientRequest rq : cancelRq) {
-                            rq.getResponse().requestFailed("sending RPC failed: request timed out");
-                            rq.freeBuffers();
+                    } else {
+                        for (RPCClientConnection con : pool.getConnections()) {
+                            checkForRequestTimeouts(con, now);
                         }
-
                     }
                 }
 
@@ -780,6 +845,38 @@ public class RPCNIOSocketClient extends LifeCycleThread {
         }
     }
 
+    private void checkForRequestTimeouts(RPCClientConnection con, long now) {
+        List<RPCClientRequest> cancelRq = new LinkedList<RPCClientRequest>();
+        synchronized (con) {
+            Iterator<RPCClientRequest> iter = con.getRequests().values().iterator();
+            while (iter.hasNext()) {
+                final RPCClientRequest rq = iter.next();
+                if (rq.getTimeQueued() + requestTimeout < now) {
+                    cancelRq.add(rq);
+                    iter.remove();
+                }
+            }
+            iter = con.getSendQueue().iterator();
+            while (iter.hasNext()) {
+                final RPCClientRequest rq = iter.next();
+                if (rq.getTimeQueued() + requestTimeout < now) {
+                    cancelRq.add(rq);
+                    iter.remove();
+                } else {
+                    // requests are ordered :-)
+                    break;
+                }
+            }
+        }
+        for (RPCClientRequest rq : cancelRq) {
+            rq.getResponse().requestFailed("sending RPC failed: request timed out");
+            rq.freeBuffers();
+        }
+        if (!cancelRq.isEmpty() && con.getChannel() != null) {
+            resumeWriting(con.getChannel().keyFor(selector), con);
+        }
+    }
+
     @Override
     public void shutdown() {
         this.quit = true;
@@ -792,13 +889,18 @@ public class RPCNIOSocketClient extends LifeCycleThread {
      * @return an array with the number of bytes received [0] and sent [1]
      */
     public long[] getTransferStats(InetSocketAddress server) {
-        RPCClientConnection con = null;
+        RPCClientConnectionPool pool = null;
         synchronized (connections) {
-            con = connections.get(server);
+            pool = connections.get(server);
         }
-        if (con == null)
+        if (pool == null)
             return null;
-        else
-            return new long[]{con.bytesRX, con.bytesTX};
+
+        long[] stats = new long[2];
+        for (RPCClientConnection con : pool.getConnections()) {
+            stats[0] += con.bytesRX;
+            stats[1] += con.bytesTX;
+        }
+        return stats;
     }
 }
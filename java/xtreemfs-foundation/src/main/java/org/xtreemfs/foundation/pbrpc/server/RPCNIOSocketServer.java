@@ -15,30 +15,33 @@ import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
-import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.SSLOptions;
-import org.xtreemfs.foundation.buffer.BufferPool;
-import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.pbrpc.channels.ChannelIO;
 import org.xtreemfs.foundation.pbrpc.channels.SSLChannelIO;
 import org.xtreemfs.foundation.pbrpc.channels.SSLHandshakeOnlyChannelIO;
-import org.xtreemfs.foundation.util.OutputUtils;
 
 /**
+ * Server for PBRPC over TCP.
+ * <p>
+ * By default, the server thread accepts connections and executes all reads and
+ * writes on a single selector. If a number of selector threads is configured,
+ * the server thread only accepts connections and assigns each of them to the
+ * selector thread with the fewest connections, which then handles all I/O of
+ * that connection.
+ *
  * @author bjko
  */
 public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInterface {
@@ -82,14 +85,30 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     /**
      * Number of requests received but not answered
      */
-    private long pendingRequests;
+    private final AtomicLong pendingRequests;
 
     /**
      * Port on which the server listens for incoming connections.
      */
     private final int bindPort;
 
-    private final List<RPCNIOSocketServerConnection> connections;
+    /**
+     * The event loops that handle the I/O of the connections. If no selector
+     * threads are used, this only contains the event loop of the server
+     * thread.
+     */
+    private final RPCNIOSocketServerEventLoop[] eventLoops;
+
+    /**
+     * Threads executing the event loops, empty if all I/O is done by the
+     * server thread.
+     */
+    private final SelectorThread[] selectorThreads;
+
+    /**
+     * Error that caused a selector thread to crash.
+     */
+    private volatile Throwable selectorThreadError;
 
     /**
      * maximum number of pending client requests to allow
@@ -104,6 +123,12 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
 
     public static final int DEFAULT_MAX_CLIENT_Q_LENGTH = 100;
 
+    /**
+     * Default number of selector threads; 0 means that all I/O is done by the
+     * server thread.
+     */
+    public static final int DEFAULT_NUM_SELECTOR_THREADS = 0;
+
     public RPCNIOSocketServer(int bindPort, InetAddress bindAddr, RPCServerRequestListener rl,
                               SSLOptions sslOptions) throws IOException {
         this(bindPort, bindAddr, rl, sslOptions, 0, -1);
@@ -122,6 +147,18 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     public RPCNIOSocketServer(int bindPort, InetAddress bindAddr, RPCServerRequestListener rl,
                               SSLOptions sslOptions, int bindRetries, int receiveBufferSize,
                               int maxClientQLength) throws IOException {
+        this(bindPort, bindAddr, rl, sslOptions, bindRetries, receiveBufferSize, maxClientQLength,
+                DEFAULT_NUM_SELECTOR_THREADS);
+    }
+
+    /**
+     * @param numSelectorThreads
+     *            number of threads that handle connection I/O; if 0, all I/O
+     *            is done by the thread that accepts the connections
+     */
+    public RPCNIOSocketServer(int bindPort, InetAddress bindAddr, RPCServerRequestListener rl,
+                              SSLOptions sslOptions, int bindRetries, int receiveBufferSize,
+                              int maxClientQLength, int numSelectorThreads) throws IOException {
         super("PBRPCSrv@" + bindPort);
 
         // open server socket
@@ -195,7 +232,19 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
 
         this.numConnections = new AtomicInteger(0);
 
-        this.connections = new LinkedList<RPCNIOSocketServerConnection>();
+        this.pendingRequests = new AtomicLong(0);
+
+        if (numSelectorThreads > 0) {
+            this.eventLoops = new RPCNIOSocketServerEventLoop[numSelectorThreads];
+            this.selectorThreads = new SelectorThread[numSelectorThreads];
+            for (int i = 0; i < numSelectorThreads; i++) {
+                eventLoops[i] = new RPCNIOSocketServerEventLoop(this, Selector.open());
+                selectorThreads[i] = new SelectorThread("PBRPCSrv@" + bindPort + "-sel" + i, eventLoops[i]);
+            }
+        } else {
+            this.eventLoops = new RPCNIOSocketServerEventLoop[] { new RPCNIOSocketServerEventLoop(this, selector) };
+            this.selectorThreads = new SelectorThread[0];
+        }
 
         this.maxClientQLength = maxClientQLength;
         this.clientQThreshold = (maxClientQLength / 2 >= 0) ? maxClientQLength / 2 : 0;
@@ -235,20 +284,14 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
         assert (connection.getServer() == this);
 
         if (!connection.isConnectionClosed()) {
-            synchronized (connection) {
-                boolean isEmpty = connection.getPendingResponses().isEmpty();
-                connection.addPendingResponse(response);
-                if (isEmpty) {
-                    final SelectionKey key = connection.getChannel().keyFor(selector);
-                    if (key != null) {
-                        try {
-                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                        } catch (CancelledKeyException e) {
-                            // Ignore it since the timeout mechanism will deal with it.
-                        }
-                    }
-                    selector.wakeup();
-                }
+            connection.addPendingResponse(response);
+            if (connection.setWriteScheduled()) {
+                connection.getEventLoop().scheduleWrite(connection);
+            }
+            // the connection may have been closed concurrently, in which case
+            // nobody else will free the response
+            if (connection.isConnectionClosed()) {
+                connection.freePendingResponses();
             }
         } else {
             // ignore and free buffers
@@ -273,12 +316,26 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
             Logging.logMessage(Logging.LEVEL_INFO, Category.net, this, "PBRPC Srv %d ready %s", bindPort, sslMode);
         }
 
+        // if no selector threads are used, the server thread does all I/O
+        final RPCNIOSocketServerEventLoop ownLoop = selectorThreads.length == 0 ? eventLoops[0] : null;
+
         try {
+            for (SelectorThread thr : selectorThreads) {
+                thr.start();
+            }
+            for (SelectorThread thr : selectorThreads) {
+                thr.waitForStartup();
+            }
+
             while (!quit) {
+                if (selectorThreadError != null) {
+                    throw selectorThreadError;
+                }
+
                 // try to select events...
                 int numKeys = 0;
                 try {
-                    numKeys = selector.select();
+                    numKeys = (ownLoop != null) ? ownLoop.select() : selector.select();
                 } catch (CancelledKeyException ex) {
                     // who cares
                 } catch (IOException ex) {
@@ -302,12 +359,8 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
 
                             if (key.isAcceptable()) {
                                 acceptConnection();
-                            }
-                            if (key.isReadable()) {
-                                readConnection(key);
-                            }
-                            if (key.isWritable()) {
-                                writeConnection(key);
+                            } else if (ownLoop != null) {
+                                ownLoop.processKey(key);
                             }
                         } catch (CancelledKeyException ex) {
                             // nobody cares...
@@ -317,16 +370,22 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
                 }
             }
 
-            for (RPCNIOSocketServerConnection con : connections) {
-                try {
-                    con.getChannel().close();
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
+            // clear the interrupt flag set by shutdown() before waiting for the
+            // selector threads
+            Thread.interrupted();
+            for (SelectorThread thr : selectorThreads) {
+                thr.shutdown();
+            }
+            for (SelectorThread thr : selectorThreads) {
+                thr.waitForShutdown();
             }
 
-            // close socket
-            selector.close();
+            // close connections and socket
+            if (ownLoop != null) {
+                ownLoop.close();
+            } else {
+                selector.close();
+            }
             socket.close();
 
             if (Logging.isInfo())
@@ -336,314 +395,14 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
             notifyStopped();
         } catch (Throwable thr) {
             Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this, "PBRPC Server %d CRASHED!", bindPort);
+            for (SelectorThread selThr : selectorThreads) {
+                selThr.shutdown();
+            }
             notifyCrashed(thr);
         }
 
     }
 
-    /**
-     * read data from a readable connection
-     *
-     * @param key a readable key
-     */
-    private void readConnection(SelectionKey key) {
-
-        final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
-        final ChannelIO channel = con.getChannel();
-
-        try {
-
-            if (!channel.isShutdownInProgress()) {
-                if (channel.doHandshake(key)) {
-                    while (true) {
-                        if (con.getOpenRequests().get() > maxClientQLength) {
-                            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
-                            Logging.logMessage(Logging.LEVEL_WARN, Category.net, this,
-                                    "client sent too many requests... not accepting new requests from %s, q=%d", con
-                                            .getChannel().socket().getRemoteSocketAddress().toString(), con.getOpenRequests().get());
-                            return;
-                        }
-
-                        ByteBuffer buf = null;
-                        switch (con.getReceiveState()) {
-                            case RECORD_MARKER: {
-                                buf = con.getReceiveRecordMarker();
-                                break;
-                            }
-                            case RPC_HEADER: {
-                                buf = con.getReceiveBuffers()[0].getBuffer();
-                                break;
-                            }
-                            case RPC_MESSAGE: {
-                                buf = con.getReceiveBuffers()[1].getBuffer();
-                                break;
-                            }
-                            case DATA: {
-                                buf = con.getReceiveBuffers()[2].getBuffer();
-                                break;
-                            }
-                        }
-
-                        // read fragment header
-                        final int numBytesRead = readData(key, channel, buf);
-                        if (numBytesRead == -1) {
-                            // connection closed
-                            if (Logging.isInfo()) {
-                                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
-                                        "client closed connection (EOF): %s", channel.socket()
-                                                .getRemoteSocketAddress().toString());
-                            }
-                            closeConnection(key);
-                            return;
-                        }
-                        if (buf.hasRemaining()) {
-                            // not enough data...
-                            break;
-                        }
-
-                        switch (con.getReceiveState()) {
-                            case RECORD_MARKER: {
-                                buf.position(0);
-                                final int hdrLen = buf.getInt();
-                                final int msgLen = buf.getInt();
-                                final int dataLen = buf.getInt();
-
-                                if ((hdrLen <= 0) || (hdrLen >= MAX_FRAGMENT_SIZE)
-                                        || (msgLen < 0) || (msgLen >= MAX_FRAGMENT_SIZE)
-                                        || (dataLen < 0) || (dataLen >= MAX_FRAGMENT_SIZE)) {
-                                    Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this,
-                                            "invalid record marker size (%d/%d/%d) received, closing connection to client %s",
-                                            hdrLen, msgLen, dataLen, channel.socket()
-                                                    .getRemoteSocketAddress().toString());
-                                    closeConnection(key);
-                                    return;
-                                }
-                                final ReusableBuffer[] buffers = new ReusableBuffer[]{BufferPool.allocate(hdrLen),
-                                        ((msgLen > 0) ? BufferPool.allocate(msgLen) : null),
-                                        ((dataLen > 0) ? BufferPool.allocate(dataLen) : null)};
-                                con.setReceiveBuffers(buffers);
-                                con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.RPC_HEADER);
-                                continue;
-                            }
-
-                            case RPC_HEADER: {
-                                if (con.getReceiveBuffers()[1] != null) {
-                                    con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.RPC_MESSAGE);
-                                    continue;
-                                } else {
-                                    if (con.getReceiveBuffers()[2] != null) {
-                                        con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.DATA);
-                                        continue;
-                                    } else {
-                                        break;
-                                    }
-                                }
-                            }
-                            case RPC_MESSAGE: {
-                                if (con.getReceiveBuffers()[2] != null) {
-                                    con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.DATA);
-                                    continue;
-                                } else {
-                                    break;
-                                }
-
-                            }
-                        }
-
-                        //assemble ServerRequest
-                        con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.RECORD_MARKER);
-                        con.getReceiveRecordMarker().clear();
-
-                        ReusableBuffer[] receiveBuffers = con.getReceiveBuffers();
-                        receiveBuffers[0].flip();
-                        if (receiveBuffers[1] != null)
-                            receiveBuffers[1].flip();
-                        if (receiveBuffers[2] != null)
-                            receiveBuffers[2].flip();
-                        con.setReceiveBuffers(null);
-
-                        RPCServerRequest rq = null;
-                        try {
-                            rq = new RPCServerRequest(con, receiveBuffers[0], receiveBuffers[1], receiveBuffers[2]);
-                        } catch (IOException ex) {
-                            // close connection if the header cannot be parsed
-                            Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this, "invalid PBRPC header received: " + ex);
-                            if (Logging.isDebug()) {
-                                Logging.logError(Logging.LEVEL_DEBUG, this, ex);
-                            }
-                            closeConnection(key);
-                            BufferPool.free(receiveBuffers[1]);
-                            BufferPool.free(receiveBuffers[2]);
-                            return;
-                        }
-                        // request is 
-                        // complete... send to receiver
-                        if (Logging.isDebug()) {
-                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, rq
-                                    .toString());
-                        }
-                        con.getOpenRequests().incrementAndGet();
-                        if (Logging.isDebug())
-                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
-                                    "request received (request %s)",
-                                               rq.getHeader().getCallId());
-                        pendingRequests++;
-                        if (!receiveRequest(rq, con)) {
-                            closeConnection(key);
-                            return;
-                        }
-                    }
-                }
-            }
-        } catch (CancelledKeyException ex) {
-            if (Logging.isInfo()) {
-                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
-                        "client closed connection (CancelledKeyException): %s", channel.socket().getRemoteSocketAddress()
-                                .toString());
-            }
-            closeConnection(key);
-        } catch (ClosedByInterruptException ex) {
-            if (Logging.isInfo()) {
-                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
-                        "client closed connection (EOF): %s", channel.socket().getRemoteSocketAddress()
-                                .toString());
-            }
-            if (Logging.isDebug()) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
-                        "connection to %s closed by remote peer", con.getChannel().socket()
-                                .getRemoteSocketAddress().toString());
-            }
-            closeConnection(key);
-        } catch (IOException ex) {
-            // simply close the connection
-            if (Logging.isDebug()) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, OutputUtils
-                        .stackTraceToString(ex));
-            }
-            closeConnection(key);
-        }
-    }
-
-    /**
-     * write data to a writeable connection
-     *
-     * @param key the writable key
-     */
-    private void writeConnection(SelectionKey key) {
-
-        final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
-        final ChannelIO channel = con.getChannel();
-
-        try {
-
-            if (!channel.isShutdownInProgress()) {
-                if (channel.doHandshake(key)) {
-
-                    while (true) {
-
-                        // final ByteBuffer fragmentHeader =
-                        // con.getSendFragHdr();
-
-                        ByteBuffer[] response = con.getSendBuffers();
-                        if (response == null) {
-                            synchronized (con) {
-                                RPCServerResponse rq = con.getPendingResponses().peek();
-                                if (rq == null) {
-                                    // no more responses, stop writing...
-                                    con.setSendBuffers(null);
-                                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
-                                    break;
-                                }
-                                response = rq.packBuffers(con.getSendFragHdr());
-                                con.setSendBuffers(response);
-                                con.setExpectedRecordSize(rq.getRpcMessageSize());
-                            }
-                        }
-
-                        /*
-                         * if (fragmentHeader.hasRemaining()) { final int
-                         * numBytesWritten = writeData(key, channel,
-                         * fragmentHeader); if (numBytesWritten == -1) {
-                         * //connection closed closeConnection(key); return; }
-                         * if (fragmentHeader.hasRemaining()) { //not enough
-                         * data... break; } //finished sending... send fragment
-                         * data now... } else {
-                         */
-                        // send fragment data
-                        assert (response != null);
-                        final long numBytesWritten = channel.write(response);
-                        if (numBytesWritten == -1) {
-                            if (Logging.isInfo()) {
-                                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
-                                        "client closed connection (EOF): %s", channel.socket()
-                                                .getRemoteSocketAddress().toString());
-                            }
-                            // connection closed
-                            closeConnection(key);
-                            return;
-                        }
-                        con.recordBytesSent(numBytesWritten);
-
-                        if (response[response.length - 1].hasRemaining()) {
-                            // not enough data...
-                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-                            break;
-                        }
-                        con.checkEnoughBytesSent();
-                        // finished sending fragment
-                        // clean up :-) request finished
-                        pendingRequests--;
-                        RPCServerResponse rq = con.getPendingResponses().poll();
-                        if (Logging.isDebug()) {
-                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
-                                    "sent response for %s", rq.toString());
-                        }
-                        rq.freeBuffers();
-                        con.setSendBuffers(null);
-                        con.getSendFragHdr().clear();
-                        int numRq = con.getOpenRequests().decrementAndGet();
-
-                        if ((key.interestOps() & SelectionKey.OP_READ) == 0) {
-                            if (numRq < clientQThreshold) {
-                                // read from client again
-                                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
-                                Logging.logMessage(Logging.LEVEL_WARN, Category.net, this,
-                                        "client allowed to send data again: %s, q=%d", con.getChannel().socket()
-                                                .getRemoteSocketAddress().toString(), numRq);
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (CancelledKeyException ex) {
-            if (Logging.isInfo()) {
-                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
-                        "client closed connection (CancelledKeyException): %s", channel.socket().getRemoteSocketAddress()
-                                .toString());
-            }
-            closeConnection(key);
-        } catch (ClosedByInterruptException ex) {
-            if (Logging.isInfo()) {
-                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
-                        "client closed connection (EOF): %s", channel.socket().getRemoteSocketAddress()
-                                .toString());
-            }
-            if (Logging.isDebug()) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
-                        "connection to %s closed by remote peer", con.getChannel().socket()
-                                .getRemoteSocketAddress().toString());
-            }
-            closeConnection(key);
-        } catch (IOException ex) {
-            // simply close the connection
-            if (Logging.isDebug()) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, OutputUtils
-                        .stackTraceToString(ex));
-            }
-            closeConnection(key);
-        }
-    }
-
     /**
      * Reads data from the socket, ensures that SSL connection is ready
      *
@@ -670,34 +429,6 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
          */
     }
 
-    /**
-     * close a connection
-     *
-     * @param key matching key
-     */
-    private void closeConnection(SelectionKey key) {
-        final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
-        final ChannelIO channel = con.getChannel();
-
-        // remove the connection from the selector and close socket
-        try {
-            connections.remove(con);
-            con.setConnectionClosed(true);
-            key.cancel();
-            channel.close();
-        } catch (Exception ex) {
-        } finally {
-            // adjust connection count and make sure buffers are freed
-            numConnections.decrementAndGet();
-            con.freeBuffers();
-        }
-
-        if (Logging.isDebug()) {
-            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, "closing connection to %s", channel
-                    .socket().getRemoteSocketAddress().toString());
-        }
-    }
-
     /**
      * accept a new incoming connection
      */
@@ -726,12 +457,12 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
             // and configure it to be non blocking
             // IMPORTANT!
             client.configureBlocking(false);
-            client.register(selector, SelectionKey.OP_READ, con);
             client.socket().setTcpNoDelay(true);
 
             numConnections.incrementAndGet();
 
-            this.connections.add(con);
+            // the connection is registered with the selector by the event loop
+            selectEventLoop().registerConnection(con);
 
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, "connect from client at %s",
@@ -759,12 +490,25 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
         }
     }
 
+    /**
+     * @return the event loop with the fewest connections
+     */
+    private RPCNIOSocketServerEventLoop selectEventLoop() {
+        RPCNIOSocketServerEventLoop loop = eventLoops[0];
+        for (int i = 1; i < eventLoops.length; i++) {
+            if (eventLoops[i].getNumConnections() < loop.getNumConnections()) {
+                loop = eventLoops[i];
+            }
+        }
+        return loop;
+    }
+
     /**
      * @param request
      * @param con
      * @return true on success, false on error
      */
-    private boolean receiveRequest(RPCServerRequest request, RPCNIOSocketServerConnection con) {
+    boolean receiveRequest(RPCServerRequest request, RPCNIOSocketServerConnection con) {
         try {
             request.getHeader();
 
@@ -784,6 +528,103 @@ public class RPCNIOSocketServer extends LifeCycleThread implements RPCServerInte
     }
 
     public long getPendingRequests() {
-        return this.pendingRequests;
+        return this.pendingRequests.get();
+    }
+
+    /**
+     * @return the number of threads handling connection I/O
+     */
+    public int getNumSelectorThreads() {
+        return this.selectorThreads.length;
+    }
+
+    int getMaxClientQLength() {
+        return maxClientQLength;
+    }
+
+    int getClientQThreshold() {
+        return clientQThreshold;
+    }
+
+    void requestReceived() {
+        pendingRequests.incrementAndGet();
+    }
+
+    void responseSent() {
+        pendingRequests.decrementAndGet();
+    }
+
+    void connectionClosed() {
+        numConnections.decrementAndGet();
+    }
+
+    private void selectorThreadCrashed(Throwable error) {
+        selectorThreadError = error;
+        selector.wakeup();
+    }
+
+    /**
+     * Thread that executes an event loop for a subset of the connections.
+     */
+    private final class SelectorThread extends LifeCycleThread {
+
+        private final RPCNIOSocketServerEventLoop loop;
+
+        private volatile boolean                  quit;
+
+        SelectorThread(String name, RPCNIOSocketServerEventLoop loop) {
+            super(name);
+            this.loop = loop;
+        }
+
+        @Override
+        public void shutdown() {
+            this.quit = true;
+            loop.getSelector().wakeup();
+        }
+
+        @Override
+        public void run() {
+
+            notifyStarted();
+
+            try {
+                while (!quit) {
+                    int numKeys = 0;
+                    try {
+                        numKeys = loop.select();
+                    } catch (CancelledKeyException ex) {
+                        // who cares
+                    } catch (IOException ex) {
+                        Logging.logMessage(Logging.LEVEL_WARN, Category.net, this,
+                                "Exception while selecting: %s", ex.toString());
+                        continue;
+                    }
+
+                    if (numKeys > 0) {
+                        Iterator<SelectionKey> iter = loop.getSelector().selectedKeys().iterator();
+                        while (iter.hasNext()) {
+                            SelectionKey key = iter.next();
+                            iter.remove();
+                            try {
+                                loop.processKey(key);
+                            } catch (CancelledKeyException ex) {
+                                // nobody cares...
+                                continue;
+                            }
+                        }
+                    }
+                }
+
+                loop.close();
+
+                notifyStopped();
+            } catch (Throwable thr) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this, "PBRPC Server %d selector thread CRASHED!",
+                        bindPort);
+                selectorThreadCrashed(thr);
+                notifyCrashed(thr);
+            }
+        }
     }
 }
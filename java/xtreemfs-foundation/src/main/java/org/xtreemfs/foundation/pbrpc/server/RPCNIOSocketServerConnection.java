@@ -12,6 +12,7 @@ import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.foundation.buffer.BufferPool;
@@ -59,11 +60,22 @@ public class RPCNIOSocketServerConnection implements RPCServerConnectionInterfac
     
     private int                 expectedRecordSize;
 
+    /**
+     * the event loop that owns the connection
+     */
+    private RPCNIOSocketServerEventLoop eventLoop;
+
+    /**
+     * true if the owning event loop has been notified about pending responses
+     */
+    private final AtomicBoolean writeScheduled;
+
     public RPCNIOSocketServerConnection(RPCServerInterface server, ChannelIO channel) {
         assert(server != null);
         assert(channel != null);
         this.channel = channel;
         this.openRequests = new AtomicInteger(0);
+        this.writeScheduled = new AtomicBoolean(false);
         this.pendingResponses = new ConcurrentLinkedQueue<RPCServerResponse>();
         this.connectionClosed = false;
         this.receiveRecordMarker = ByteBuffer.allocate(RecordMarker.HDR_SIZE);
@@ -104,8 +116,18 @@ public class RPCNIOSocketServerConnection implements RPCServerConnectionInterfac
         if (receiveBuffers != null) {
             for (ReusableBuffer buffer : receiveBuffers)
                 BufferPool.free(buffer);
+            receiveBuffers = null;
         }
-        for (RPCServerResponse r : pendingResponses) {
+        freePendingResponses();
+    }
+
+    /**
+     * Removes all pending responses and frees their buffers. Responses may be
+     * added concurrently, hence each response is removed before it is freed.
+     */
+    void freePendingResponses() {
+        RPCServerResponse r = null;
+        while ((r = pendingResponses.poll()) != null) {
             r.freeBuffers();
         }
     }
@@ -151,6 +173,34 @@ public class RPCNIOSocketServerConnection implements RPCServerConnectionInterfac
         this.pendingResponses.add(rq);
     }
 
+    /**
+     * @return the event loop that owns the connection
+     */
+    RPCNIOSocketServerEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * @param eventLoop the event loop that owns the connection
+     */
+    void setEventLoop(RPCNIOSocketServerEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Marks the connection as scheduled for writing.
+     *
+     * @return true, if the connection was not scheduled before and the caller
+     *         has to hand it over to the event loop
+     */
+    boolean setWriteScheduled() {
+        return writeScheduled.compareAndSet(false, true);
+    }
+
+    void clearWriteScheduled() {
+        writeScheduled.set(false);
+    }
+
     /**
      * @return the fragmentHeader
      */
@@ -0,0 +1,536 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.pbrpc.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.channels.ChannelIO;
+import org.xtreemfs.foundation.util.OutputUtils;
+
+/**
+ * A selector together with the set of connections registered on it. All reads
+ * and writes of a connection are executed by the thread owning the event loop.
+ * Other threads only interact with the loop through lock-free queues: new
+ * connections are handed over by the acceptor, and connections with pending
+ * responses are handed over by {@link RPCNIOSocketServer#sendResponse}.
+ */
+final class RPCNIOSocketServerEventLoop {
+
+    private final RPCNIOSocketServer                         server;
+
+    private final Selector                                   selector;
+
+    /**
+     * connections owned by this loop, only accessed by the loop thread
+     */
+    private final List<RPCNIOSocketServerConnection>         connections;
+
+    /**
+     * connections accepted but not yet registered with the selector
+     */
+    private final Queue<RPCNIOSocketServerConnection>        newConnections;
+
+    /**
+     * connections for which responses have been enqueued but OP_WRITE has not
+     * been set yet
+     */
+    private final Queue<RPCNIOSocketServerConnection>        pendingWrites;
+
+    private final AtomicInteger                              numConnections;
+
+    /**
+     * the thread executing the loop, set on the first call to select()
+     */
+    private volatile Thread                                  loopThread;
+
+    RPCNIOSocketServerEventLoop(RPCNIOSocketServer server, Selector selector) {
+        this.server = server;
+        this.selector = selector;
+        this.connections = new LinkedList<RPCNIOSocketServerConnection>();
+        this.newConnections = new ConcurrentLinkedQueue<RPCNIOSocketServerConnection>();
+        this.pendingWrites = new ConcurrentLinkedQueue<RPCNIOSocketServerConnection>();
+        this.numConnections = new AtomicInteger(0);
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * @return the number of connections owned by this loop
+     */
+    int getNumConnections() {
+        return numConnections.get();
+    }
+
+    /**
+     * Hands a newly accepted connection over to this loop. May be called from
+     * any thread.
+     */
+    void registerConnection(RPCNIOSocketServerConnection con) {
+        con.setEventLoop(this);
+        numConnections.incrementAndGet();
+        newConnections.add(con);
+        wakeup();
+    }
+
+    /**
+     * Notifies the loop that responses are pending for the given connection.
+     * May be called from any thread.
+     */
+    void scheduleWrite(RPCNIOSocketServerConnection con) {
+        pendingWrites.add(con);
+        wakeup();
+    }
+
+    /**
+     * Waits for events on the selector. Before blocking, all connections and
+     * write requests handed over by other threads are processed.
+     *
+     * @return the number of selected keys
+     */
+    int select() throws IOException {
+        if (loopThread == null) {
+            loopThread = Thread.currentThread();
+        }
+        processPendingTasks();
+        return selector.select();
+    }
+
+    /**
+     * Processes a readable and/or writable key owned by this loop.
+     */
+    void processKey(SelectionKey key) {
+        if (key.isReadable()) {
+            readConnection(key);
+        }
+        if (key.isValid() && key.isWritable()) {
+            writeConnection(key);
+        }
+    }
+
+    /**
+     * Closes all connections and the selector. Must be called by the loop
+     * thread after it has left its loop.
+     */
+    void close() throws IOException {
+        RPCNIOSocketServerConnection con = null;
+        while ((con = newConnections.poll()) != null) {
+            connections.add(con);
+        }
+        for (RPCNIOSocketServerConnection c : connections) {
+            try {
+                c.setConnectionClosed(true);
+                c.getChannel().close();
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            } finally {
+                c.freeBuffers();
+            }
+        }
+        connections.clear();
+        pendingWrites.clear();
+        selector.close();
+    }
+
+    private void wakeup() {
+        // the loop thread will process its queues before the next select
+        if (Thread.currentThread() != loopThread) {
+            selector.wakeup();
+        }
+    }
+
+    private void processPendingTasks() {
+
+        RPCNIOSocketServerConnection con = null;
+        while ((con = newConnections.poll()) != null) {
+            try {
+                con.getChannel().register(selector, SelectionKey.OP_READ, con);
+                connections.add(con);
+            } catch (ClosedChannelException ex) {
+                if (Logging.isDebug())
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                            "cannot register connection: %s", ex.toString());
+                numConnections.decrementAndGet();
+                server.connectionClosed();
+                con.setConnectionClosed(true);
+                con.freeBuffers();
+            }
+        }
+
+        while ((con = pendingWrites.poll()) != null) {
+            if (con.isConnectionClosed()) {
+                con.freePendingResponses();
+                continue;
+            }
+            final SelectionKey key = con.getChannel().keyFor(selector);
+            if (key != null) {
+                try {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                } catch (CancelledKeyException e) {
+                    // Ignore it since the timeout mechanism will deal with it.
+                }
+            }
+        }
+    }
+
+    /**
+     * read data from a readable connection
+     *
+     * @param key
+     *            a readable key
+     */
+    private void readConnection(SelectionKey key) {
+
+        final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
+        final ChannelIO channel = con.getChannel();
+
+        try {
+
+            if (!channel.isShutdownInProgress()) {
+                if (channel.doHandshake(key)) {
+                    while (true) {
+                        if (con.getOpenRequests().get() > server.getMaxClientQLength()) {
+                            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                            Logging.logMessage(Logging.LEVEL_WARN, Category.net, this,
+                                    "client sent too many requests... not accepting new requests from %s, q=%d", con
+                                            .getChannel().socket().getRemoteSocketAddress().toString(), con.getOpenRequests().get());
+                            return;
+                        }
+
+                        ByteBuffer buf = null;
+                        switch (con.getReceiveState()) {
+                            case RECORD_MARKER: {
+                                buf = con.getReceiveRecordMarker();
+                                break;
+                            }
+                            case RPC_HEADER: {
+                                buf = con.getReceiveBuffers()[0].getBuffer();
+                                break;
+                            }
+                            case RPC_MESSAGE: {
+                                buf = con.getReceiveBuffers()[1].getBuffer();
+                                break;
+                            }
+                            case DATA: {
+                                buf = con.getReceiveBuffers()[2].getBuffer();
+                                break;
+                            }
+                        }
+
+                        // read fragment header
+                        final int numBytesRead = RPCNIOSocketServer.readData(key, channel, buf);
+                        if (numBytesRead == -1) {
+                            // connection closed
+                            if (Logging.isInfo()) {
+                                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                                        "client closed connection (EOF): %s", channel.socket()
+                                                .getRemoteSocketAddress().toString());
+                            }
+                            closeConnection(key);
+                            return;
+                        }
+                        if (buf.hasRemaining()) {
+                            // not enough data...
+                            break;
+                        }
+
+                        switch (con.getReceiveState()) {
+                            case RECORD_MARKER: {
+                                buf.position(0);
+                                final int hdrLen = buf.getInt();
+                                final int msgLen = buf.getInt();
+                                final int dataLen = buf.getInt();
+
+                                if ((hdrLen <= 0) || (hdrLen >= RPCNIOSocketServer.MAX_FRAGMENT_SIZE)
+                                        || (msgLen < 0) || (msgLen >= RPCNIOSocketServer.MAX_FRAGMENT_SIZE)
+                                        || (dataLen < 0) || (dataLen >= RPCNIOSocketServer.MAX_FRAGMENT_SIZE)) {
+                                    Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this,
+                                            "invalid record marker size (%d/%d/%d) received, closing connection to client %s",
+                                            hdrLen, msgLen, dataLen, channel.socket()
+                                                    .getRemoteSocketAddress().toString());
+                                    closeConnection(key);
+                                    return;
+                                }
+                                final ReusableBuffer[] buffers = new ReusableBuffer[]{BufferPool.allocate(hdrLen),
+                                        ((msgLen > 0) ? BufferPool.allocate(msgLen) : null),
+                                        ((dataLen > 0) ? BufferPool.allocate(dataLen) : null)};
+                                con.setReceiveBuffers(buffers);
+                                con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.RPC_HEADER);
+                                continue;
+                            }
+
+                            case RPC_HEADER: {
+                                if (con.getReceiveBuffers()[1] != null) {
+                                    con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.RPC_MESSAGE);
+                                    continue;
+                                } else {
+                                    if (con.getReceiveBuffers()[2] != null) {
+                                        con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.DATA);
+                                        continue;
+                                    } else {
+                                        break;
+                                    }
+                                }
+                            }
+                            case RPC_MESSAGE: {
+                                if (con.getReceiveBuffers()[2] != null) {
+                                    con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.DATA);
+                                    continue;
+                                } else {
+                                    break;
+                                }
+
+                            }
+                        }
+
+                        //assemble ServerRequest
+                        con.setReceiveState(RPCNIOSocketServerConnection.ReceiveState.RECORD_MARKER);
+                        con.getReceiveRecordMarker().clear();
+
+                        ReusableBuffer[] receiveBuffers = con.getReceiveBuffers();
+                        receiveBuffers[0].flip();
+                        if (receiveBuffers[1] != null)
+                            receiveBuffers[1].flip();
+                        if (receiveBuffers[2] != null)
+                            receiveBuffers[2].flip();
+                        con.setReceiveBuffers(null);
+
+                        RPCServerRequest rq = null;
+                        try {
+                            rq = new RPCServerRequest(con, receiveBuffers[0], receiveBuffers[1], receiveBuffers[2]);
+                        } catch (IOException ex) {
+                            // close connection if the header cannot be parsed
+                            Logging.logMessage(Logging.LEVEL_ERROR, Category.net, this, "invalid PBRPC header received: " + ex);
+                            if (Logging.isDebug()) {
+                                Logging.logError(Logging.LEVEL_DEBUG, this, ex);
+                            }
+                            closeConnection(key);
+                            BufferPool.free(receiveBuffers[1]);
+                            BufferPool.free(receiveBuffers[2]);
+                            return;
+                        }
+                        // request is
+                        // complete... send to receiver
+                        if (Logging.isDebug()) {
+                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, rq
+                                    .toString());
+                        }
+                        con.getOpenRequests().incrementAndGet();
+                        if (Logging.isDebug())
+                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                                    "request received (request %s)",
+                                               rq.getHeader().getCallId());
+                        server.requestReceived();
+                        if (!server.receiveRequest(rq, con)) {
+                            closeConnection(key);
+                            return;
+                        }
+                    }
+                }
+            }
+        } catch (CancelledKeyException ex) {
+            if (Logging.isInfo()) {
+                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
+                        "client closed connection (CancelledKeyException): %s", channel.socket().getRemoteSocketAddress()
+                                .toString());
+            }
+            closeConnection(key);
+        } catch (ClosedByInterruptException ex) {
+            if (Logging.isInfo()) {
+                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
+                        "client closed connection (EOF): %s", channel.socket().getRemoteSocketAddress()
+                                .toString());
+            }
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                        "connection to %s closed by remote peer", con.getChannel().socket()
+                                .getRemoteSocketAddress().toString());
+            }
+            closeConnection(key);
+        } catch (IOException ex) {
+            // simply close the connection
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, OutputUtils
+                        .stackTraceToString(ex));
+            }
+            closeConnection(key);
+        }
+    }
+
+    /**
+     * write data to a writeable connection
+     *
+     * @param key
+     *            the writable key
+     */
+    private void writeConnection(SelectionKey key) {
+
+        final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
+        final ChannelIO channel = con.getChannel();
+
+        try {
+
+            if (!channel.isShutdownInProgress()) {
+                if (channel.doHandshake(key)) {
+
+                    while (true) {
+
+                        ByteBuffer[] response = con.getSendBuffers();
+                        if (response == null) {
+                            RPCServerResponse rq = con.getPendingResponses().peek();
+                            if (rq == null) {
+                                // no more responses, stop writing...
+                                con.setSendBuffers(null);
+                                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                                con.clearWriteScheduled();
+                                // A response may have been enqueued after the
+                                // peek but before the flag was cleared; in this
+                                // case, nobody else has scheduled a write.
+                                if (con.getPendingResponses().isEmpty() || !con.setWriteScheduled()) {
+                                    break;
+                                }
+                                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                                continue;
+                            }
+                            response = rq.packBuffers(con.getSendFragHdr());
+                            con.setSendBuffers(response);
+                            con.setExpectedRecordSize(rq.getRpcMessageSize());
+                        }
+
+                        // send fragment data
+                        assert (response != null);
+                        final long numBytesWritten = channel.write(response);
+                        if (numBytesWritten == -1) {
+                            if (Logging.isInfo()) {
+                                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
+                                        "client closed connection (EOF): %s", channel.socket()
+                                                .getRemoteSocketAddress().toString());
+                            }
+                            // connection closed
+                            closeConnection(key);
+                            return;
+                        }
+                        con.recordBytesSent(numBytesWritten);
+
+                        if (response[response.length - 1].hasRemaining()) {
+                            // not enough data...
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                            break;
+                        }
+                        final FileRegion fileData = con.getPendingResponses().peek().getFileData();
+                        if (fileData != null && fileData.hasRemaining()) {
+                            // send the data directly from the file
+                            con.recordBytesSent(channel.transferFrom(fileData));
+                            if (fileData.hasRemaining()) {
+                                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                                break;
+                            }
+                        }
+                        con.checkEnoughBytesSent();
+                        // finished sending fragment
+                        // clean up :-) request finished
+                        server.responseSent();
+                        RPCServerResponse rq = con.getPendingResponses().poll();
+                        if (Logging.isDebug()) {
+                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                                    "sent response for %s", rq.toString());
+                        }
+                        rq.freeBuffers();
+                        con.setSendBuffers(null);
+                        con.getSendFragHdr().clear();
+                        int numRq = con.getOpenRequests().decrementAndGet();
+
+                        if ((key.interestOps() & SelectionKey.OP_READ) == 0) {
+                            if (numRq < server.getClientQThreshold()) {
+                                // read from client again
+                                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                                Logging.logMessage(Logging.LEVEL_WARN, Category.net, this,
+                                        "client allowed to send data again: %s, q=%d", con.getChannel().socket()
+                                                .getRemoteSocketAddress().toString(), numRq);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (CancelledKeyException ex) {
+            if (Logging.isInfo()) {
+                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
+                        "client closed connection (CancelledKeyException): %s", channel.socket().getRemoteSocketAddress()
+                                .toString());
+            }
+            closeConnection(key);
+        } catch (ClosedByInterruptException ex) {
+            if (Logging.isInfo()) {
+                Logging.logMessage(Logging.LEVEL_INFO, Category.net, this,
+                        "client closed connection (EOF): %s", channel.socket().getRemoteSocketAddress()
+                                .toString());
+            }
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this,
+                        "connection to %s closed by remote peer", con.getChannel().socket()
+                                .getRemoteSocketAddress().toString());
+            }
+            closeConnection(key);
+        } catch (IOException ex) {
+            // simply close the connection
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, OutputUtils
+                        .stackTraceToString(ex));
+            }
+            closeConnection(key);
+        }
+    }
+
+    /**
+     * close a connection
+     *
+     * @param key
+     *            matching key
+     */
+    private void closeConnection(SelectionKey key) {
+        final RPCNIOSocketServerConnection con = (RPCNIOSocketServerConnection) key.attachment();
+        final ChannelIO channel = con.getChannel();
+
+        // remove the connection from the selector and close socket
+        try {
+            connections.remove(con);
+            con.setConnectionClosed(true);
+            key.cancel();
+            channel.close();
+        } catch (Exception ex) {
+        } finally {
+            // adjust connection count and make sure buffers are freed
+            numConnections.decrementAndGet();
+            server.connectionClosed();
+            con.freeBuffers();
+        }
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, "closing connection to %s", channel
+                    .socket().getRemoteSocketAddress().toString());
+        }
+    }
+
+}
@@ -12,8 +12,10 @@ import com.google.protobuf.Message;
 import java.io.IOException;
 import java.net.SocketAddress;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.channels.ChannelIO;
 import org.xtreemfs.foundation.pbrpc.utils.ReusableBufferInputStream;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC;
 
@@ -103,6 +105,18 @@ public class RPCServerRequest {
         getConnection().getServer().sendResponse(this, response);
     }
 
+    /**
+     * Sends a response whose data is transferred directly from a file region.
+     * Must only be used if the channel of the connection supports transfers
+     * (see {@link ChannelIO#isTransferSupported()}).
+     */
+    public void sendFileRegionResponse(Message message, FileRegion data) throws IOException {
+        RPC.RPCHeader rqHdr = getHeader();
+        RPC.RPCHeader respHdr = RPC.RPCHeader.newBuilder().setCallId(rqHdr.getCallId()).setMessageType(RPC.MessageType.RPC_RESPONSE_SUCCESS).build();
+        RPCServerResponse response = new RPCServerResponse(respHdr, message, null, data);
+        getConnection().getServer().sendResponse(this, response);
+    }
+
     public SocketAddress getSenderAddress() {
         return connection.getSender();
     }
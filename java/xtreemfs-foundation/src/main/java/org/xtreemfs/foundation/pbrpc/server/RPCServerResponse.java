@@ -12,6 +12,7 @@ import com.google.protobuf.Message;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.pbrpc.utils.ReusableBufferOutputStream;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC;
@@ -30,13 +31,30 @@ public class RPCServerResponse {
     final int msgLen;
     final int dataLen;
 
+    /**
+     * file region that is sent as data after the buffers, or null
+     */
+    final FileRegion fileData;
+
     public RPCServerResponse(RPC.RPCHeader header, Message message, ReusableBuffer data) throws IOException {
+        this(header, message, data, null);
+    }
+
+    /**
+     * Creates a response whose data is either contained in a buffer, or sent
+     * directly from a file region. The region is released together with the
+     * buffers of the response.
+     */
+    public RPCServerResponse(RPC.RPCHeader header, Message message, ReusableBuffer data, FileRegion fileData)
+            throws IOException {
+        assert (data == null || fileData == null);
         ReusableBufferOutputStream os = new ReusableBufferOutputStream(ReusableBufferOutputStream.BUFF_SIZE);
         callId = header.getCallId();
 
         hdrLen = header.getSerializedSize();
         msgLen = (message != null) ? message.getSerializedSize() : 0;
-        dataLen = (data != null) ? data.capacity() : 0;
+        dataLen = (data != null) ? data.capacity() : ((fileData != null) ? fileData.getLength() : 0);
+        this.fileData = fileData;
 
         assert(hdrLen > 0);
         assert(msgLen >= 0);
@@ -67,11 +85,21 @@ public class RPCServerResponse {
         return arr;
     }
 
+    /**
+     * @return the file region that has to be sent after the buffers, or null
+     */
+    public FileRegion getFileData() {
+        return fileData;
+    }
+
     public void freeBuffers() {
         for (int i = 0; i < buffers.length; i++) {
             BufferPool.free(buffers[i]);
             buffers[i] = null;
         }
+        if (fileData != null) {
+            fileData.release();
+        }
     }
 
     public String toString() {
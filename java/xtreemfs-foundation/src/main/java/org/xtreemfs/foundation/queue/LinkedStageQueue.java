@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.queue;
+
+import java.util.Collection;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An unbounded {@link StageQueue} backed by a {@link LinkedBlockingQueue}. Adding a request never fails or blocks.
+ */
+public class LinkedStageQueue<E> implements StageQueue<E> {
+
+    private final LinkedBlockingQueue<E> q;
+
+    public LinkedStageQueue() {
+        q = new LinkedBlockingQueue<E>();
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return q.offer(e);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        q.put(e);
+    }
+
+    @Override
+    public void add(E e) {
+        q.add(e);
+    }
+
+    @Override
+    public E poll() {
+        return q.poll();
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return q.poll(timeout, unit);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return q.take();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        return q.drainTo(c, maxElements);
+    }
+
+    @Override
+    public int size() {
+        return q.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return q.isEmpty();
+    }
+
+}
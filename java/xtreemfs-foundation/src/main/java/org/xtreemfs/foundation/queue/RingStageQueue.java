@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.queue;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free {@link StageQueue} for many producers and a single consumer.
+ *
+ * Requests are stored in a ring buffer. Each slot has a sequence number which tells producers whether the slot is
+ * free and the consumer whether it was filled, so that adding a request costs one CAS and removing one costs no
+ * atomic operation at all. No objects are allocated per request. The consumer is the thread which removed the first
+ * request. It is only woken up if it is waiting for requests.
+ *
+ * A producer that calls {@link #put(Object)} on a full queue waits until the consumer removed a request. Requests
+ * added with {@link #add(Object)}, and requests the consumer adds to its own queue, must not wait. If the ring
+ * buffer is full, they are kept in an unbounded overflow list, which is processed after the ring buffer. As long as
+ * the overflow list is not empty, no request is added to the ring buffer, so that the requests keep their order.
+ *
+ * @param <E>
+ *            the type of the requests
+ */
+public class RingStageQueue<E> implements StageQueue<E> {
+
+    /**
+     * time a producer waits before it checks a full queue again
+     */
+    private static final long             FULL_WAIT_NANOS = 10000;
+
+    /**
+     * number of times a producer yields before it waits for a full queue, and the consumer polls an empty queue
+     * before it waits for requests
+     */
+    private static final int              SPIN_TRIES      = 64;
+
+    private final int                     mask;
+
+    private final AtomicReferenceArray<E> elements;
+
+    /**
+     * sequence number of each slot: the position a producer may write next if it equals the position, the position
+     * plus one once the request was written
+     */
+    private final AtomicLongArray         sequences;
+
+    /**
+     * next position to write
+     */
+    private final AtomicLong              tail;
+
+    /**
+     * next position to read, only modified by the consumer
+     */
+    private volatile long                 head;
+
+    private volatile Thread               consumer;
+
+    private volatile boolean              consumerWaiting;
+
+    /**
+     * requests added without waiting while the ring buffer was full
+     */
+    private final ConcurrentLinkedQueue<E> overflow;
+
+    private final AtomicInteger           overflowSize;
+
+    /**
+     * @param capacity
+     *            min number of requests the queue can hold, rounded up to the next power of two
+     */
+    public RingStageQueue(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+
+        mask = size - 1;
+        elements = new AtomicReferenceArray<E>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        tail = new AtomicLong();
+        head = 0;
+        overflow = new ConcurrentLinkedQueue<E>();
+        overflowSize = new AtomicInteger();
+    }
+
+    /**
+     * Returns the number of requests the ring buffer can hold.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (overflowSize.get() > 0) {
+            if (Thread.currentThread() != consumer) {
+                return false;
+            }
+            // keep the order of the requests the consumer added
+            addToOverflow(e);
+            return true;
+        }
+        if (!tryAdd(e)) {
+            return false;
+        }
+        signalConsumer();
+        return true;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (Thread.currentThread() == consumer) {
+            add(e);
+            return;
+        }
+        // requests in the overflow list come first
+        for (int tries = 0; overflowSize.get() > 0 || !tryAdd(e); tries++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (tries < SPIN_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+            }
+        }
+        signalConsumer();
+    }
+
+    @Override
+    public void add(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (overflowSize.get() > 0 || !tryAdd(e)) {
+            addToOverflow(e);
+        }
+        if (Thread.currentThread() != consumer) {
+            signalConsumer();
+        }
+    }
+
+    private boolean tryAdd(E e) {
+        long t = tail.get();
+        for (;;) {
+            final int index = (int) t & mask;
+            final long diff = sequences.get(index) - t;
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    elements.lazySet(index, e);
+                    // volatile write, must not be reordered with the read of consumerWaiting in signalConsumer()
+                    sequences.set(index, t + 1);
+                    return true;
+                }
+                t = tail.get();
+            } else if (diff < 0) {
+                // the slot was not yet freed by the consumer
+                return false;
+            } else {
+                // another producer took the slot
+                t = tail.get();
+            }
+        }
+    }
+
+    private void addToOverflow(E e) {
+        overflow.add(e);
+        // volatile write, must not be reordered with the read of consumerWaiting in signalConsumer()
+        overflowSize.incrementAndGet();
+    }
+
+    private void signalConsumer() {
+        if (consumerWaiting) {
+            final Thread c = consumer;
+            if (c != null) {
+                LockSupport.unpark(c);
+            }
+        }
+    }
+
+    private E pollRing() {
+        final long h = head;
+        final int index = (int) h & mask;
+        if (sequences.get(index) != h + 1) {
+            return null;
+        }
+        final E e = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.lazySet(index, h + mask + 1);
+        head = h + 1;
+        return e;
+    }
+
+    @Override
+    public E poll() {
+        if (consumer == null) {
+            consumer = Thread.currentThread();
+        }
+        assert (consumer == Thread.currentThread()) : "queue has more than one consumer";
+
+        E e = pollRing();
+        if (e == null && overflowSize.get() > 0) {
+            e = overflow.poll();
+            if (e != null) {
+                overflowSize.decrementAndGet();
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (;;) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            E e = poll();
+            if (e != null) {
+                return e;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            consumerWaiting = true;
+            e = poll();
+            if (e != null) {
+                consumerWaiting = false;
+                return e;
+            }
+            LockSupport.parkNanos(this, remaining);
+            consumerWaiting = false;
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        for (;;) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            E e = spinPoll();
+            if (e != null) {
+                return e;
+            }
+            consumerWaiting = true;
+            e = poll();
+            if (e != null) {
+                consumerWaiting = false;
+                return e;
+            }
+            LockSupport.park(this);
+            consumerWaiting = false;
+        }
+    }
+
+    /**
+     * Polls the queue several times, as waking up the consumer is more expensive than a few polls if requests arrive
+     * at a high rate.
+     */
+    private E spinPoll() {
+        for (int tries = 0; tries < SPIN_TRIES; tries++) {
+            final E e = poll();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        // read head first, it is never ahead of tail
+        final long h = head;
+        final long size = tail.get() - h;
+        return (int) Math.max(0, size) + overflowSize.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+}
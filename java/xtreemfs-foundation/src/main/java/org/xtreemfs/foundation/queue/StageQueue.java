@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.queue;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The request queue of a stage. Any number of threads may add requests, but only the stage thread removes them.
+ *
+ * @param <E>
+ *            the type of the requests
+ */
+public interface StageQueue<E> {
+
+    /**
+     * Adds a request if the queue is not full.
+     *
+     * @return false, if the queue is full
+     */
+    public boolean offer(E e);
+
+    /**
+     * Adds a request and waits for free space if the queue is full.
+     */
+    public void put(E e) throws InterruptedException;
+
+    /**
+     * Adds a request without waiting, even if the queue is full. Meant for requests a server issues itself, since
+     * stages which add requests to each other's queues could otherwise wait for each other forever.
+     */
+    public void add(E e);
+
+    /**
+     * Removes the next request, or returns null if the queue is empty.
+     */
+    public E poll();
+
+    /**
+     * Removes the next request and waits up to the given time if the queue is empty.
+     *
+     * @return the request, or null if the time elapsed
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Removes the next request and waits until one is available.
+     */
+    public E take() throws InterruptedException;
+
+    /**
+     * Removes up to maxElements requests without waiting and adds them to c.
+     *
+     * @return the number of requests added to c
+     */
+    public int drainTo(Collection<? super E> c, int maxElements);
+
+    /**
+     * Returns the number of requests in the queue. The number may be slightly outdated if other threads modify the
+     * queue concurrently, but it is cheap enough to be checked for each request.
+     */
+    public int size();
+
+    public boolean isEmpty();
+
+}
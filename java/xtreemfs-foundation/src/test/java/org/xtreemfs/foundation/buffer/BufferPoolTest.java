@@ -9,6 +9,8 @@ package org.xtreemfs.foundation.buffer;
 
 import static org.junit.Assert.*;
 
+import java.util.concurrent.CountDownLatch;
+
 import org.junit.Test;
 
 /**
@@ -100,6 +102,109 @@ public class BufferPoolTest {
                 BufferPool.getPoolSize(TEST_BUFFER_SIZE));
     }
 
+    @Test
+    public final void testHeapBuffersWhenDirectMemoryIsUsedUp() {
+        BufferPool pool = new BufferPool(new int[] { TEST_BUFFER_SIZE }, 4, 2 * BufferPool.SLAB_SIZE);
+        int buffersPerSlab = BufferPool.SLAB_SIZE / TEST_BUFFER_SIZE;
+
+        ReusableBuffer[] bufs = new ReusableBuffer[2 * buffersPerSlab + 1];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = pool.getNewBuffer(TEST_BUFFER_SIZE);
+        }
+        for (int i = 0; i < bufs.length - 1; i++) {
+            assertTrue(bufs[i].getParent().isDirect());
+        }
+        assertFalse("Direct memory is used up, the buffer must be created on the heap.",
+                bufs[bufs.length - 1].getParent().isDirect());
+
+        for (ReusableBuffer buf : bufs) {
+            pool.returnBuffer(buf, false);
+        }
+        assertEquals("Heap buffers must not be pooled.", 2 * buffersPerSlab, pool.getPoolSizeOfClass(TEST_BUFFER_SIZE));
+    }
+
+    @Test
+    public final void testBuffersOfTerminatedThreadsAreReclaimed() throws Exception {
+        final BufferPool pool = new BufferPool(new int[] { TEST_BUFFER_SIZE }, 4, BufferPool.SLAB_SIZE);
+        final ReusableBuffer[] bufs = new ReusableBuffer[3];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = pool.getNewBuffer(TEST_BUFFER_SIZE);
+        }
+
+        // Free the buffers in another thread, i.e. into its thread cache.
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                for (ReusableBuffer buf : bufs) {
+                    pool.returnBuffer(buf, false);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(bufs.length, pool.getPoolSizeOfClass(TEST_BUFFER_SIZE));
+
+        pool.reclaimThreadCaches(true);
+        assertEquals(bufs.length, pool.getPoolSizeOfClass(TEST_BUFFER_SIZE));
+
+        // The buffers must be taken from the depot instead of creating new ones.
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = pool.getNewBuffer(TEST_BUFFER_SIZE);
+        }
+        assertEquals(0, pool.getPoolSizeOfClass(TEST_BUFFER_SIZE));
+        assertEquals(BufferPool.SLAB_SIZE, pool.getAllocatedBytes());
+        for (ReusableBuffer buf : bufs) {
+            pool.returnBuffer(buf, false);
+        }
+    }
+
+    @Test
+    public final void testThreadCachesAreLimitedInSize() throws Exception {
+        final int largeSize = 2 * BufferPool.MAX_THREAD_CACHE_BYTES;
+        final int numBuffers = 4;
+        final BufferPool pool = new BufferPool(new int[] { TEST_BUFFER_SIZE, largeSize }, 16,
+                numBuffers * largeSize);
+        final CountDownLatch freed = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Allocate and free large buffers in a thread which stays alive, but idle.
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                ReusableBuffer[] bufs = new ReusableBuffer[numBuffers];
+                for (int i = 0; i < bufs.length; i++) {
+                    bufs[i] = pool.getNewBuffer(largeSize);
+                }
+                for (ReusableBuffer buf : bufs) {
+                    pool.returnBuffer(buf, false);
+                }
+                freed.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException ex) {
+                }
+            }
+        };
+        thread.start();
+        try {
+            freed.await();
+
+            // The buffers must not be held by the cache of the idle thread.
+            ReusableBuffer[] bufs = new ReusableBuffer[numBuffers];
+            for (int i = 0; i < bufs.length; i++) {
+                bufs[i] = pool.getNewBuffer(largeSize);
+                assertTrue("The buffer must be taken from the depot.", bufs[i].getParent().isDirect());
+            }
+            assertEquals(numBuffers * largeSize, pool.getAllocatedBytes());
+            for (ReusableBuffer buf : bufs) {
+                pool.returnBuffer(buf, false);
+            }
+        } finally {
+            done.countDown();
+            thread.join();
+        }
+    }
+
     private void assertThatAssertionsAreEnabled() {
         boolean assertOn = false;
         // *assigns* true if assertions are on.
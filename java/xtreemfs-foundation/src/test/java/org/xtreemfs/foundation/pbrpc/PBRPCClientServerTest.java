@@ -22,6 +22,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.xtreemfs.foundation.SSLOptions;
@@ -254,6 +258,109 @@ public class PBRPCClientServerTest {
 
     }
 
+    @Test
+    public void testBulkRequestsUseSeparateConnection() throws Exception {
+        final List<SocketAddress> senders = Collections.synchronizedList(new ArrayList<SocketAddress>());
+        ResponseCreator creator = new ResponseCreator() {
+            @Override
+            public void answer(RPCServerRequest rq, PingRequest pRq) throws Exception {
+                senders.add(rq.getSenderAddress());
+                Ping.PingResponse.PingResult result = Ping.PingResponse.PingResult.newBuilder().setText(pRq.getText()).build();
+                rq.sendResponse(Ping.PingResponse.newBuilder().setResult(result).build(), null);
+            }
+        };
+
+        TestExecutor exec = new TestExecutor() {
+
+            @Override
+            public void execTest(RPCNIOSocketClient client) throws Exception {
+                client.setConnectionPool(2, 0);
+                PingServiceClient psClient = new PingServiceClient(client,null);
+                InetSocketAddress server = new InetSocketAddress("localhost", TEST_PORT);
+                RPC.UserCredentials userCred = RPC.UserCredentials.newBuilder().setUsername("test").addGroups("tester").build();
+                senders.clear();
+
+                RPCResponse<PingResponse> response = psClient.doPing(server, RPCAuthentication.authNone, userCred, "small", false, null);
+                response.get();
+                response.freeBuffers();
+                response = psClient.doPing(server, RPCAuthentication.authNone, userCred, "bulk", false, ReusableBuffer.wrap(new byte[1024]));
+                response.get();
+                response.freeBuffers();
+                response = psClient.doPing(server, RPCAuthentication.authNone, userCred, "small", false, null);
+                response.get();
+                response.freeBuffers();
+
+                assertEquals(3, senders.size());
+                assertEquals(senders.get(0), senders.get(2));
+                assertFalse(senders.get(0).equals(senders.get(1)));
+            }
+        };
+        for (String scheme: schemes)
+            runTest(scheme, creator, exec);
+    }
+
+    @Test
+    public void testMaxRequestsInFlight() throws Exception {
+        final List<RPCServerRequest> received = new ArrayList<RPCServerRequest>();
+        ResponseCreator creator = new ResponseCreator() {
+            @Override
+            public void answer(RPCServerRequest rq, PingRequest pRq) throws Exception {
+                synchronized (received) {
+                    received.add(rq);
+                    received.notifyAll();
+                }
+            }
+        };
+
+        TestExecutor exec = new TestExecutor() {
+
+            @Override
+            public void execTest(RPCNIOSocketClient client) throws Exception {
+                client.setConnectionPool(0, 1);
+                PingServiceClient psClient = new PingServiceClient(client,null);
+                InetSocketAddress server = new InetSocketAddress("localhost", TEST_PORT);
+                RPC.UserCredentials userCred = RPC.UserCredentials.newBuilder().setUsername("test").addGroups("tester").build();
+                synchronized (received) {
+                    received.clear();
+                }
+
+                RPCResponse<PingResponse> first = psClient.doPing(server, RPCAuthentication.authNone, userCred, "first", false, null);
+                RPCResponse<PingResponse> second = psClient.doPing(server, RPCAuthentication.authNone, userCred, "second", false, null);
+
+                // The second request is not sent before the first one is answered.
+                waitForRequests(received, 1);
+                Thread.sleep(200);
+                synchronized (received) {
+                    assertEquals(1, received.size());
+                }
+                answerPing(received.get(0), "first");
+                assertEquals("first", first.get().getResult().getText());
+                first.freeBuffers();
+
+                waitForRequests(received, 2);
+                answerPing(received.get(1), "second");
+                assertEquals("second", second.get().getResult().getText());
+                second.freeBuffers();
+            }
+        };
+        runTest(Schemes.SCHEME_PBRPC, creator, exec);
+    }
+
+    private static void waitForRequests(List<RPCServerRequest> received, int count) throws InterruptedException {
+        synchronized (received) {
+            long end = System.currentTimeMillis() + 5000;
+            while (received.size() < count && System.currentTimeMillis() < end) {
+                received.wait(100);
+            }
+            assertEquals(count, received.size());
+        }
+    }
+
+    private static void answerPing(RPCServerRequest rq, String text) throws IOException {
+        Ping.PingResponse.PingResult result = Ping.PingResponse.PingResult.newBuilder().setText(text).build();
+        rq.sendResponse(Ping.PingResponse.newBuilder().setResult(result).build(), null);
+    }
+
     public void runTest(String pbrpcScheme, ResponseCreator creator, TestExecutor exec) throws Exception {
         RPCNIOSocketClient client = null;
         RPCNIOSocketServer server = null;
@@ -28,7 +28,12 @@ import org.xtreemfs.foundation.pbrpc.server.RPCServerRequestListener;
 import org.xtreemfs.foundation.pbrpc.utils.ReusableBufferInputStream;
 import org.xtreemfs.foundation.util.OutputUtils;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.*;
 
@@ -253,4 +258,96 @@ public class PBRPCTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSelectorThreads() throws Exception {
+        final int NUM_CLIENTS = 6;
+        final int NUM_REQUESTS = 50;
+
+        RPCNIOSocketClient[] clients = new RPCNIOSocketClient[NUM_CLIENTS];
+        RPCNIOSocketServer server = null;
+        final ExecutorService responder = Executors.newSingleThreadExecutor();
+
+        try {
+
+            server = new RPCNIOSocketServer(TEST_PORT, null, new RPCServerRequestListener() {
+
+                @Override
+                public void receiveRecord(final RPCServerRequest rq) {
+                    try {
+                        ReusableBufferInputStream is = new ReusableBufferInputStream(rq.getMessage());
+                        final Ping.PingRequest pingRq = Ping.PingRequest.parseFrom(is);
+
+                        // responses are sent from another thread and handed over to the selector threads
+                        responder.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                Ping.PingResponse.PingResult result = Ping.PingResponse.PingResult.newBuilder()
+                                        .setText(pingRq.getText()).build();
+                                Ping.PingResponse resp = Ping.PingResponse.newBuilder().setResult(result).build();
+                                try {
+                                    rq.sendResponse(resp, null);
+                                } catch (IOException ex) {
+                                    ex.printStackTrace();
+                                }
+                            }
+                        });
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        rq.sendError(RPC.RPCHeader.ErrorResponse.newBuilder().setErrorType(RPC.ErrorType.GARBAGE_ARGS).setErrorMessage(ex.getMessage()).setDebugInfo(OutputUtils.stackTraceToString(ex)).build());
+                        fail(ex.toString());
+
+                    }
+                }
+            }, null, 0, -1, RPCNIOSocketServer.DEFAULT_MAX_CLIENT_Q_LENGTH, 4);
+
+            server.start();
+            server.waitForStartup();
+            assertEquals(4, server.getNumSelectorThreads());
+
+            RPC.UserCredentials userCred = RPC.UserCredentials.newBuilder().setUsername("test").addGroups("tester").build();
+
+            List<RPCResponse<PingResponse>> responses = new ArrayList<RPCResponse<PingResponse>>();
+            for (int i = 0; i < NUM_CLIENTS; i++) {
+                clients[i] = new RPCNIOSocketClient(null, 15000, 5*60*1000, "PBRPCTest::testSelectorThreads()");
+                clients[i].start();
+                clients[i].waitForStartup();
+            }
+
+            // every client has its own connection to the server
+            for (int j = 0; j < NUM_REQUESTS; j++) {
+                for (int i = 0; i < NUM_CLIENTS; i++) {
+                    PingServiceClient psClient = new PingServiceClient(clients[i], null);
+                    responses.add(psClient.doPing(new InetSocketAddress("localhost", TEST_PORT),
+                            RPCAuthentication.authNone, userCred, i + "/" + j, false, null));
+                }
+            }
+
+            int k = 0;
+            for (int j = 0; j < NUM_REQUESTS; j++) {
+                for (int i = 0; i < NUM_CLIENTS; i++) {
+                    RPCResponse<PingResponse> response = responses.get(k++);
+                    assertEquals(i + "/" + j, response.get().getResult().getText());
+                    response.freeBuffers();
+                }
+            }
+
+            assertEquals(NUM_CLIENTS, server.getNumConnections());
+
+        } finally {
+            //clean up
+            for (RPCNIOSocketClient client : clients) {
+                if (client != null) {
+                    client.shutdown();
+                    client.waitForShutdown();
+                }
+            }
+            if (server != null) {
+                server.shutdown();
+                server.waitForShutdown();
+            }
+            responder.shutdown();
+        }
+
+    }
+
+}
@@ -8,7 +8,10 @@
 
 package org.xtreemfs.foundation.pbrpc;
 
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
@@ -24,6 +27,7 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.pbrpc.server.RPCServerRequest;
 import org.xtreemfs.foundation.pbrpc.server.RPCServerRequestListener;
 import org.xtreemfs.foundation.pbrpc.utils.RecordMarker;
@@ -374,4 +378,87 @@ public class RPCNIOSocketServerTest {
         server.waitForShutdown();
     }
 
+
+    @Test
+    public void testFileRegionResponse() throws Exception {
+
+        final int CALLID = 5464566;
+        final int TEST_PORT = 9991;
+        // larger than the socket buffers, in order to require several transfers
+        final int REGION_OFFSET = 4096;
+        final int REGION_LENGTH = 4 * 1024 * 1024;
+
+        final File file = File.createTempFile("region", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        byte[] content = new byte[REGION_OFFSET + REGION_LENGTH];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        raf.write(content);
+        raf.close();
+
+        server = new RPCNIOSocketServer(TEST_PORT, null, new RPCServerRequestListener() {
+
+            @Override
+            public void receiveRecord(RPCServerRequest rq) {
+                try {
+                    assertTrue(rq.getConnection().getChannel().isTransferSupported());
+                    RPC.UserCredentials msg = RPC.UserCredentials.newBuilder().setUsername("region").build();
+                    rq.sendFileRegionResponse(msg, new FileRegion(new RandomAccessFile(file, "r"), REGION_OFFSET,
+                            REGION_LENGTH));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    fail(ex.toString());
+                } finally {
+                    rq.freeBuffers();
+                }
+            }
+        }, null);
+
+        server.start();
+        server.waitForStartup();
+
+        Socket sock = new Socket("localhost", TEST_PORT);
+        OutputStream out = sock.getOutputStream();
+        DataInputStream in = new DataInputStream(sock.getInputStream());
+
+        RPC.Auth auth = RPC.Auth.newBuilder().setAuthType(RPC.AuthType.AUTH_NONE).build();
+        RPC.UserCredentials ucred = RPC.UserCredentials.newBuilder().setUsername("test").addGroups("user").build();
+        RPC.RPCHeader.RequestHeader rqHdr = RPC.RPCHeader.RequestHeader.newBuilder().setAuthData(auth).setUserCreds(ucred).setProcId(2).setInterfaceId(2).build();
+        RPC.RPCHeader header = RPC.RPCHeader.newBuilder().setCallId(CALLID).setMessageType(RPC.MessageType.RPC_REQUEST).setRequestHeader(rqHdr).build();
+
+        byte[] hdr = header.toByteArray();
+        ByteBuffer recordMarker = ByteBuffer.allocate(RecordMarker.HDR_SIZE);
+        recordMarker.putInt(hdr.length);
+        recordMarker.putInt(0);
+        recordMarker.putInt(0);
+        out.write(recordMarker.array());
+        out.write(hdr);
+
+        int hdrLen = in.readInt();
+        int msgLen = in.readInt();
+        int dataLen = in.readInt();
+        assertEquals(REGION_LENGTH, dataLen);
+
+        byte[] hdrIn = new byte[hdrLen];
+        byte[] msgIn = new byte[msgLen];
+        byte[] dataIn = new byte[dataLen];
+        in.readFully(hdrIn);
+        in.readFully(msgIn);
+        in.readFully(dataIn);
+
+        RPC.RPCHeader respHdr = RPC.RPCHeader.parseFrom(hdrIn);
+        assertEquals(RPC.MessageType.RPC_RESPONSE_SUCCESS, respHdr.getMessageType());
+        assertEquals(CALLID, respHdr.getCallId());
+        assertEquals("region", RPC.UserCredentials.parseFrom(msgIn).getUsername());
+        for (int i = 0; i < dataLen; i++) {
+            assertEquals(content[REGION_OFFSET + i], dataIn[i]);
+        }
+
+        sock.close();
+        server.shutdown();
+        server.waitForShutdown();
+        file.delete();
+    }
 }
\ No newline at end of file
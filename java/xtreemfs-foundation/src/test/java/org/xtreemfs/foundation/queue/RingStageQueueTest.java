@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.foundation.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RingStageQueueTest {
+
+    @Test
+    public void testOfferAndPoll() {
+        RingStageQueue<Integer> q = new RingStageQueue<Integer>(5);
+        assertEquals(8, q.getCapacity());
+        assertTrue(q.isEmpty());
+
+        // wrap around several times
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 8; i++) {
+                assertTrue(q.offer(i));
+            }
+            assertFalse("queue must be full", q.offer(8));
+            assertEquals(8, q.size());
+
+            for (int i = 0; i < 8; i++) {
+                assertEquals(Integer.valueOf(i), q.poll());
+            }
+            assertNull(q.poll());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    public void testDrainTo() {
+        RingStageQueue<Integer> q = new RingStageQueue<Integer>(16);
+        for (int i = 0; i < 10; i++) {
+            q.offer(i);
+        }
+
+        List<Integer> batch = new ArrayList<Integer>();
+        assertEquals(4, q.drainTo(batch, 4));
+        assertEquals(6, q.drainTo(batch, 100));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), batch.get(i));
+        }
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void testConsumerPutsToFullQueue() throws Exception {
+        RingStageQueue<Integer> q = new RingStageQueue<Integer>(4);
+        // become the consumer
+        assertNull(q.poll());
+
+        for (int i = 0; i < 10; i++) {
+            q.put(i);
+        }
+        assertEquals(10, q.size());
+        // the consumer's requests must keep their order even if the ring buffer has room again
+        assertEquals(Integer.valueOf(0), q.poll());
+        assertTrue(q.offer(10));
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(Integer.valueOf(i), q.poll());
+        }
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void testAddDoesNotWaitForFullQueue() throws Exception {
+        final RingStageQueue<Integer> q = new RingStageQueue<Integer>(4);
+        // become the consumer
+        assertNull(q.poll());
+
+        // a producer other than the consumer adds more requests than the ring buffer can hold
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    q.add(i);
+                }
+            }
+        };
+        producer.start();
+        producer.join(10000);
+        assertFalse("add() must not wait for a full queue", producer.isAlive());
+        assertEquals(10, q.size());
+
+        // put() waits until the overflow list was processed
+        final boolean[] putDone = new boolean[1];
+        Thread putter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    q.put(11);
+                    putDone[0] = true;
+                } catch (InterruptedException e) {
+                    // the test will fail
+                }
+            }
+        };
+        putter.start();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), q.poll());
+        }
+        Thread.sleep(50);
+        assertTrue("put() must wait for the overflow list", putter.isAlive());
+
+        for (int i = 4; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), q.poll());
+        }
+        putter.join(10000);
+        assertTrue(putDone[0]);
+        assertEquals(Integer.valueOf(11), q.poll());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void testTakeWaitsForProducers() throws Exception {
+        final int numProducers = 4;
+        final int numPerProducer = 10000;
+        final RingStageQueue<int[]> q = new RingStageQueue<int[]>(64);
+
+        Thread[] producers = new Thread[numProducers];
+        for (int p = 0; p < numProducers; p++) {
+            final int producer = p;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < numPerProducer; i++) {
+                            q.put(new int[] { producer, i });
+                        }
+                    } catch (InterruptedException e) {
+                        // the test will fail
+                    }
+                }
+            };
+        }
+
+        // register the consumer before the producers fill the queue
+        assertNull(q.poll(10, TimeUnit.MILLISECONDS));
+        for (Thread producer : producers) {
+            producer.start();
+        }
+
+        int[] next = new int[numProducers];
+        for (int n = 0; n < numProducers * numPerProducer; n++) {
+            int[] e = q.take();
+            assertEquals("requests of a producer must not be reordered", next[e[0]], e[1]);
+            next[e[0]]++;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(q.isEmpty());
+    }
+
+}
@@ -68,6 +68,7 @@ public class ServiceConfig extends Config {
         FAILOVER_MAX_RETRIES("failover.retries", 15, Integer.class, false),
         FAILOVER_WAIT("failover.wait_ms", 15 * 1000, Integer.class, false),
         MAX_CLIENT_Q("max_client_queue", 100, Integer.class, false),
+        SELECTOR_THREADS("listen.selector_threads", 0, Integer.class, false),
         MAX_REQUEST_QUEUE_LENGTH("max_requests_queue_length", 1000, Integer.class, false),
         USE_MULTIHOMING("multihoming.enabled", false, Boolean.class, false),
         USE_RENEWAL_SIGNAL("multihoming.renewal_signal", false, Boolean.class, false ),
@@ -99,6 +100,8 @@ public class ServiceConfig extends Config {
         CAPABILITY_SECRET("capability_secret", null, String.class, true),
         CAPABILITY_TIMEOUT("capability_timeout", 600, Integer.class, false),
         RENEW_TIMED_OUT_CAPS("renew_to_caps", false, Boolean.class, false),
+        PROCESSING_READ_THREADS("processing.read_threads", 0, Integer.class, false),
+        PROCESSING_VOLUME_LANES("processing.volume_lanes", 0, Integer.class, false),
 
         /*
          * OSD specific configuration parameter
@@ -124,6 +127,15 @@ public class ServiceConfig extends Config {
         VIVALDI_MAX_REQUEST_TIMEOUT_IN_MS("vivaldi.max_request_timeout_ms", 10000, Integer.class, false),
         VIVALDI_TIMER_INTERVAL_IN_MS("vivaldi.timer_interval_ms", 60000, Integer.class, false),
         STORAGE_THREADS("storage_threads", 1, Integer.class, false),
+        METADATA_CACHE_MAX_ENTRIES("metadata_cache.max_entries", 100000, Integer.class, false),
+        METADATA_CACHE_MAX_BYTES("metadata_cache.max_bytes", 268435456L, Long.class, false), // 256 MiB
+        CHANNEL_CACHE_MAX_ENTRIES("channel_cache.max_entries", 128, Integer.class, false),
+        GROUP_COMMIT_MAX_DELAY_MS("group_commit.max_delay_ms", 0, Integer.class, false),
+        SEGMENT_LAYOUT_SEGMENT_SIZE("segment_layout.segment_size", 67108864, Integer.class, false), // 64 MiB
+        SEGMENT_LAYOUT_COMPACTION_THRESHOLD("segment_layout.compaction_threshold", 50, Integer.class, false),
+        ZERO_COPY_READS("zero_copy_reads", false, Boolean.class, false),
+        RWR_DELTA_SYNC_BLOCK_SIZE("rwr.delta_sync_block_size", 0, Integer.class, false),
+        RWR_CHAIN_REPLICATION("rwr.chain_replication", false, Boolean.class, false),
         HEALTH_CHECK("health_check", "", String.class, false),
 
         /*
@@ -707,6 +719,10 @@ public class ServiceConfig extends Config {
         return (Integer) parameter.get(Parameter.MAX_CLIENT_Q);
     }
 
+    public int getSelectorThreads() {
+        return (Integer) parameter.get(Parameter.SELECTOR_THREADS);
+    }
+
     public InetSocketAddress getDirectoryService() {
         return (InetSocketAddress) parameter.get(Parameter.DIRECTORY_SERVICE);
     }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+//JCIP import net.jcip.annotations.GuardedBy;
+
+/**
+ * The result of an asynchronous operation of a {@link Volume} or {@link FileHandle}.
+ * <p>
+ * The result can be waited for with {@link #getResult()} (or {@link #get()}), or processed by an
+ * {@link AsyncResultListener} without blocking a thread. Asynchronous operations cannot be cancelled.
+ */
+public class AsyncResult<T> implements Future<T> {
+
+// JCIP     @GuardedBy("this")
+    private boolean                        done;
+
+// JCIP     @GuardedBy("this")
+    private T                              value;
+
+// JCIP     @GuardedBy("this")
+    private IOException                    error;
+
+// JCIP     @GuardedBy("this")
+    private List<AsyncResultListener<T>>   listeners;
+
+    protected AsyncResult() {
+    }
+
+    /**
+     * Returns a result that already succeeded. Used if an operation completed synchronously.
+     */
+    public static <T> AsyncResult<T> succeeded(T value) {
+        AsyncResult<T> result = new AsyncResult<T>();
+        result.complete(value);
+        return result;
+    }
+
+    /**
+     * Returns a result that already failed. Used if an operation completed synchronously.
+     */
+    public static <T> AsyncResult<T> failed(IOException error) {
+        AsyncResult<T> result = new AsyncResult<T>();
+        result.fail(error);
+        return result;
+    }
+
+    /**
+     * Registers a listener that is called once the result is available. If it is available already, the
+     * listener is called immediately by the calling thread.
+     */
+    public void registerListener(AsyncResultListener<T> listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<AsyncResultListener<T>>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    /**
+     * Waits for the result.
+     *
+     * @return the value of the operation
+     * @throws IOException
+     *             the error of the operation, e.g. a {@link org.xtreemfs.common.libxtreemfs.exceptions.PosixErrorException}
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting
+     */
+    public synchronized T getResult() throws IOException, InterruptedException {
+        while (!done) {
+            wait();
+        }
+        if (error != null) {
+            throw error;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value of an operation that failed or succeeded already.
+     *
+     * @throws IOException
+     *             the error of the operation
+     */
+    protected synchronized T getCompletedResult() throws IOException {
+        assert (done);
+        if (error != null) {
+            throw error;
+        }
+        return value;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        try {
+            return getResult();
+        } catch (IOException e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Sets the value of the operation and notifies all listeners. Only the first completion counts.
+     */
+    protected void complete(T value) {
+        List<AsyncResultListener<T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.value = value;
+            done = true;
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        notifyListeners(toNotify);
+    }
+
+    /**
+     * Sets the error of the operation and notifies all listeners. Only the first completion counts.
+     */
+    protected void fail(IOException error) {
+        assert (error != null);
+        List<AsyncResultListener<T>> toNotify;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.error = error;
+            done = true;
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        notifyListeners(toNotify);
+    }
+
+    private void notifyListeners(List<AsyncResultListener<T>> toNotify) {
+        if (toNotify != null) {
+            for (AsyncResultListener<T> listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+    }
+
+    private void notifyListener(AsyncResultListener<T> listener) {
+        try {
+            listener.resultAvailable(this);
+        } catch (RuntimeException e) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this, "listener of an asynchronous "
+                    + "operation failed: %s", e.toString());
+            Logging.logError(Logging.LEVEL_ERROR, this, e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+/**
+ * Is notified when the result of an asynchronous operation is available.
+ */
+public interface AsyncResultListener<T> {
+
+    /**
+     * Called once the operation succeeded or failed. The listener is called by the thread that completed the
+     * operation, usually the network thread of the volume. It must therefore not block, e.g. by calling
+     * synchronous methods of the volume.
+     */
+    public void resultAvailable(AsyncResult<T> result);
+}
@@ -11,10 +11,15 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.xtreemfs.common.libxtreemfs.exceptions.AddressToUUIDNotFoundException;
 import org.xtreemfs.common.libxtreemfs.exceptions.UUIDIteratorListIsEmpyException;
 import org.xtreemfs.common.libxtreemfs.exceptions.XtreemFSException;
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -27,6 +32,7 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.writeRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
 
 import com.google.protobuf.Descriptors.EnumValueDescriptor;
@@ -35,6 +41,15 @@ import com.google.protobuf.Descriptors.EnumValueDescriptor;
 
 /**
  * Handles asynchronous writes. Used only internally.
+ * 
+ * Small writes which continue the previous write within the same object are combined in a coalescing buffer
+ * and sent as one write request once the buffer is full, the object ends, a write does not continue the
+ * buffered data, the coalescing delay has passed or {@link #waitForPendingWrites()} is called (e.g. by flush(),
+ * close(), read() or truncate() of a file handle).
+ * 
+ * Writes are sent while holding the sendLock, and buffered writes are taken from the coalescing buffer under
+ * the same lock. Thus writes reach the OSD in the order in which they were issued, even if a delayed flush of
+ * the coalescing buffer runs concurrently to a write of the application.
  */
 public class AsyncWriteHandler {
 
@@ -128,9 +143,38 @@ public class AsyncWriteHandler {
      */
     private int                    maxWriteTries;
 
+    /**
+     * Maximum number of bytes of small writes which are combined into one write request. 0 disables the
+     * coalescing of writes.
+     */
+    private final int              maxCoalescedBytes;
+
+    /**
+     * Time in ms after which a partially filled coalescing buffer is sent.
+     */
+    private final long             coalescingDelayMs;
+
+    /**
+     * Executes the delayed sending of partially filled coalescing buffers.
+     */
+    private final ScheduledExecutorService coalescingExecutor;
+
+    /**
+     * Buffered small writes which were not sent yet or null if there are none.
+     */
+// JCIP     @GuardedBy("this")
+    private CoalescedWrite         coalescedWrite;
+
+    /**
+     * Held while a write is taken from the coalescing buffer or passed to write() until it was sent. Must be
+     * acquired before the lock on this object.
+     */
+    private final ReentrantLock    sendLock;
+
     protected AsyncWriteHandler(FileInfo fileInfo, UUIDIterator uuidIterator, UUIDResolver uuidResolver,
             OSDServiceClient osdServiceClient, Auth authBogus, UserCredentials userCredentialsBogus,
-            int maxWriteahead, int maxWriteaheadRequests, int maxWriteTries) {
+            int maxWriteahead, int maxWriteaheadRequests, int maxWriteTries, int maxCoalescedBytes,
+            long coalescingDelayMs, ScheduledExecutorService coalescingExecutor) {
 
         this.fileInfo = fileInfo;
         this.uuidIterator = uuidIterator;
@@ -141,8 +185,12 @@ public class AsyncWriteHandler {
         this.maxWriteahead = maxWriteahead;
         this.maxWriteaheadRequests = maxWriteaheadRequests;
         this.maxWriteTries = maxWriteTries;
+        this.maxCoalescedBytes = Math.min(maxCoalescedBytes, maxWriteahead);
+        this.coalescingDelayMs = coalescingDelayMs;
+        this.coalescingExecutor = coalescingExecutor;
 
         writesInFlight = new ArrayList<AsyncWriteBuffer>();
+        sendLock = new ReentrantLock();
         allPendingWritesDidComplete = new Object();
         state = State.IDLE;
     }
@@ -151,6 +199,9 @@ public class AsyncWriteHandler {
      * Adds writeBuffer to the list of pending writes and sends it to the OSD specified by
      * writeBuffer.uuidIterator (or write_buffer.osdUuid if writeBuffer.useUuidIterator is false).
      * 
+     * Writes smaller than the coalescing size are copied into the coalescing buffer instead and sent later
+     * together with the following writes to the same object.
+     * 
      * Blocks if the number of pending bytes exceeds the maximum write-ahead or waitForPendingWrites() was
      * called beforehand.
      */
@@ -163,6 +214,132 @@ public class AsyncWriteHandler {
                     + " is smaller than the size of this write request: " + writeBuffer.getDataLength());
         }
 
+        sendLock.lock();
+        try {
+            if (writeBuffer.getDataLength() >= maxCoalescedBytes) {
+                // Keep the order of the writes.
+                flushCoalescedWrite();
+                send(writeBuffer);
+            } else {
+                coalesce(writeBuffer);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Copies "writeBuffer" into the coalescing buffer and sends the buffered writes which are complete.
+     * Requires the sendLock.
+     */
+    private void coalesce(AsyncWriteBuffer writeBuffer) throws AddressToUUIDNotFoundException,
+            XtreemFSException {
+        AsyncWriteBuffer previousWrite = null;
+        AsyncWriteBuffer completedWrite = null;
+        CoalescedWrite startedWrite = null;
+        synchronized (this) {
+            if (coalescedWrite != null && !coalescedWrite.append(writeBuffer)) {
+                previousWrite = coalescedWrite.toWriteBuffer();
+                coalescedWrite = null;
+            }
+            if (coalescedWrite == null) {
+                coalescedWrite = new CoalescedWrite(writeBuffer, maxCoalescedBytes);
+                startedWrite = coalescedWrite;
+            }
+            if (coalescedWrite.isFull()) {
+                completedWrite = coalescedWrite.toWriteBuffer();
+                coalescedWrite = null;
+                startedWrite = null;
+            }
+        }
+        // The data was copied into the coalescing buffer.
+        BufferPool.free(writeBuffer.getData());
+
+        if (previousWrite != null) {
+            send(previousWrite);
+        }
+        if (completedWrite != null) {
+            send(completedWrite);
+        }
+        if (startedWrite != null) {
+            scheduleFlush(startedWrite);
+        }
+    }
+
+    /**
+     * Sends the buffered small writes, if there are any.
+     */
+    protected void flushCoalescedWrite() throws AddressToUUIDNotFoundException, XtreemFSException {
+        sendLock.lock();
+        try {
+            AsyncWriteBuffer writeBuffer;
+            synchronized (this) {
+                if (coalescedWrite == null) {
+                    return;
+                }
+                writeBuffer = coalescedWrite.toWriteBuffer();
+                coalescedWrite = null;
+            }
+            send(writeBuffer);
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Sends "expectedWrite" after the coalescing delay unless it was sent already.
+     */
+    private void scheduleFlush(final CoalescedWrite expectedWrite) {
+        if (coalescingExecutor == null) {
+            return;
+        }
+        try {
+            coalescingExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // Do not block the executor, which is shared by all files, while a write is sent.
+                    if (!sendLock.tryLock()) {
+                        scheduleFlush(expectedWrite);
+                        return;
+                    }
+                    try {
+                        AsyncWriteBuffer writeBuffer;
+                        synchronized (AsyncWriteHandler.this) {
+                            if (coalescedWrite != expectedWrite) {
+                                return;
+                            }
+                            writeBuffer = coalescedWrite.toWriteBuffer();
+                            coalescedWrite = null;
+                        }
+                        sendOrMarkAsFailed(writeBuffer);
+                    } finally {
+                        sendLock.unlock();
+                    }
+                }
+            }, coalescingDelayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The volume is being closed. The buffer will be sent by the flush of the file handle.
+        }
+    }
+
+    /**
+     * Sends "writeBuffer" on behalf of a caller that cannot report errors. If it cannot be sent, the file
+     * handle is marked as failed so that its next operation fails.
+     */
+    private void sendOrMarkAsFailed(AsyncWriteBuffer writeBuffer) {
+        try {
+            send(writeBuffer);
+        } catch (XtreemFSException e) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this, "asyncWrite:"
+                    + " failed to send coalesced writes due to the following reasons: %s", e.getMessage());
+            writeBuffer.getFileHandle().markAsyncWritesAsFailed();
+        }
+    }
+
+    /**
+     * Sends "writeBuffer" to the OSD. See {@link #write(AsyncWriteBuffer)}. Requires the sendLock.
+     */
+    private void send(AsyncWriteBuffer writeBuffer) throws AddressToUUIDNotFoundException, XtreemFSException {
         // append to the list of write in flight
         synchronized (this) {
             while (writingPaused || (pendingBytes + writeBuffer.getDataLength()) > maxWriteahead
@@ -247,6 +424,22 @@ public class AsyncWriteHandler {
      * calls.
      */
     protected void waitForPendingWrites() {
+        sendLock.lock();
+        try {
+            AsyncWriteBuffer writeBuffer = null;
+            synchronized (this) {
+                if (coalescedWrite != null) {
+                    writeBuffer = coalescedWrite.toWriteBuffer();
+                    coalescedWrite = null;
+                }
+            }
+            if (writeBuffer != null) {
+                sendOrMarkAsFailed(writeBuffer);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+
         synchronized (this) {
             if (state != State.IDLE) {
                 writingPaused = false;
@@ -272,6 +465,13 @@ public class AsyncWriteHandler {
         }
     }
 
+    /**
+     * Returns true if writes are pending or buffered, i.e. if {@link #waitForPendingWrites()} would block.
+     */
+    protected synchronized boolean hasPendingWrites() {
+        return state != State.IDLE || coalescedWrite != null;
+    }
+
     /**
      * Implements callback for an async write request.
      */
@@ -346,4 +546,89 @@ public class AsyncWriteHandler {
         // Tell blocked writers there may be enough space/writing was unpaused now.
         this.notifyAll();
     }
+
+    /**
+     * Contiguous small writes to the same object which are sent as one write request.
+     */
+    private static class CoalescedWrite {
+
+        /**
+         * Request of the last appended write. Its offset is replaced by the offset of the first write.
+         */
+        private writeRequest                   lastRequest;
+
+        private final FileHandleImplementation fileHandle;
+
+        /**
+         * UUID of the OSD of a striped file or null if the UUIDIterator is used.
+         */
+        private final String                   osdUuid;
+
+        private final long                     objectNumber;
+
+        private final int                      offset;
+
+        private final ReusableBuffer           data;
+
+        /**
+         * Number of bytes which fit into this buffer without exceeding the coalescing size or the object.
+         */
+        private final int                      capacity;
+
+        CoalescedWrite(AsyncWriteBuffer writeBuffer, int maxCoalescedBytes) {
+            writeRequest request = writeBuffer.getWriteRequest();
+            int objectSize = request.getFileCredentials().getXlocs().getReplicas(0).getStripingPolicy()
+                    .getStripeSize() * 1024;
+
+            this.fileHandle = writeBuffer.getFileHandle();
+            this.osdUuid = writeBuffer.isUsingUuidIterator() ? null : writeBuffer.getOsdUuid();
+            this.objectNumber = request.getObjectNumber();
+            this.offset = request.getOffset();
+            this.capacity = Math.max(Math.min(maxCoalescedBytes, objectSize - offset), writeBuffer.getDataLength());
+            this.data = BufferPool.allocate(capacity);
+            copy(writeBuffer);
+        }
+
+        /**
+         * Copies the data of "writeBuffer" into this buffer if it continues the buffered data and fits.
+         * Returns false otherwise.
+         */
+        boolean append(AsyncWriteBuffer writeBuffer) {
+            writeRequest request = writeBuffer.getWriteRequest();
+            String uuid = writeBuffer.isUsingUuidIterator() ? null : writeBuffer.getOsdUuid();
+            if (writeBuffer.getFileHandle() != fileHandle || request.getObjectNumber() != objectNumber
+                    || request.getOffset() != offset + data.position()
+                    || data.position() + writeBuffer.getDataLength() > capacity
+                    || (uuid == null ? osdUuid != null : !uuid.equals(osdUuid))) {
+                return false;
+            }
+            copy(writeBuffer);
+            return true;
+        }
+
+        private void copy(AsyncWriteBuffer writeBuffer) {
+            ReusableBuffer source = writeBuffer.getData();
+            source.position(0);
+            data.put(source);
+            lastRequest = writeBuffer.getWriteRequest();
+        }
+
+        boolean isFull() {
+            return data.position() == capacity;
+        }
+
+        /**
+         * Returns the write request for all buffered writes. This object must not be used afterwards.
+         */
+        AsyncWriteBuffer toWriteBuffer() {
+            int length = data.position();
+            data.flip();
+            writeRequest request = lastRequest.toBuilder().setOffset(offset).build();
+            if (osdUuid == null) {
+                return new AsyncWriteBuffer(request, data, length, fileHandle);
+            } else {
+                return new AsyncWriteBuffer(request, data, length, fileHandle, osdUuid);
+            }
+        }
+    }
 }
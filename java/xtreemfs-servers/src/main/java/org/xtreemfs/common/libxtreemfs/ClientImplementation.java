@@ -111,6 +111,16 @@ public class ClientImplementation implements UUIDResolver, Client, AdminClient {
      */
     private RPCNIOSocketClient                     networkClient             = null;
 
+    /**
+     * Caches the object data of all volumes. Null if the cache is disabled.
+     */
+    private ObjectDataCache                        objectDataCache           = null;
+
+    /**
+     * Chooses the replicas of read-only files for reads of all volumes. Null if replica selection is disabled.
+     */
+    private ReplicaSelector                        replicaSelector           = null;
+
     /**
      * Random, non-persistent UUID to distinguish locks of different clients.
      */
@@ -152,6 +162,14 @@ public class ClientImplementation implements UUIDResolver, Client, AdminClient {
         }
 
         this.listOpenVolumes = new ConcurrentLinkedQueue<Volume>();
+
+        if (options.getObjectCacheSize() > 0) {
+            this.objectDataCache = new ObjectDataCache(options.getObjectCacheSize(), options.getObjectCacheTTL_ms());
+        }
+        if (options.isEnableReplicaSelection()) {
+            // A failed OSD is avoided until requests to it would be retried anyway.
+            this.replicaSelector = new ReplicaSelector(options.getRetryDelay_s() * 1000L);
+        }
     }
     @Override
     public void start() throws Exception {
@@ -1084,4 +1102,18 @@ public class ClientImplementation implements UUIDResolver, Client, AdminClient {
         return removedOSDs;
 
     }
+
+    /**
+     * Returns the cache of object data shared by all volumes, or null if it is disabled.
+     */
+    protected ObjectDataCache getObjectDataCache() {
+        return objectDataCache;
+    }
+
+    /**
+     * Returns the replica selector shared by all volumes, or null if it is disabled.
+     */
+    protected ReplicaSelector getReplicaSelector() {
+        return replicaSelector;
+    }
 }
@@ -68,6 +68,20 @@ public interface FileHandle {
             int dataOffset, int count, long offset) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Asynchronous version of {@link #read(UserCredentials, byte[], int, int, long)}. The objects of the
+     * request are read in parallel and copied directly into "data", which must not be accessed until the
+     * result is available.
+     * 
+     * @remark Asynchronous reads are not served by the read-ahead or the object cache. If the view of the
+     *         file is outdated, the result fails with an InvalidViewException instead of renewing the view and
+     *         retrying.
+     * 
+     * @return the result with the number of bytes read.
+     */
+    public AsyncResult<Integer> readAsync(UserCredentials userCredentials, byte[] data, int dataOffset,
+            int count, long offset);
+
     /**
      * Write to a file 'count' bytes at file offset 'offset' from 'buf'.
      * 
@@ -134,6 +148,20 @@ public interface FileHandle {
             int dataOffset, int count, long offset) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Asynchronous version of {@link #write(UserCredentials, byte[], int, int, long)}. The objects of the
+     * request are written in parallel. Unlike asynchronous writes enabled by the options, the result is not
+     * available before all OSDs acknowledged the write, so errors are reported by the result. "data" must not
+     * be modified until then.
+     * 
+     * @remark If the view of the file is outdated, the result fails with an InvalidViewException instead of
+     *         renewing the view and retrying.
+     * 
+     * @return the result with the number of bytes written.
+     */
+    public AsyncResult<Integer> writeAsync(UserCredentials userCredentials, byte[] data, int dataOffset,
+            int count, long offset);
+
     /**
      * Flushes pending writes and file size updates (corresponds to a fsync()
      * system call).
@@ -8,11 +8,15 @@ package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.xtreemfs.common.ReplicaUpdatePolicies;
+import org.xtreemfs.common.libxtreemfs.ObjectDataCache.CachedObject;
 import org.xtreemfs.common.libxtreemfs.RPCCaller.CallGenerator;
 import org.xtreemfs.common.libxtreemfs.exceptions.AddressToUUIDNotFoundException;
 import org.xtreemfs.common.libxtreemfs.exceptions.InternalServerErrorException;
@@ -22,13 +26,16 @@ import org.xtreemfs.common.libxtreemfs.exceptions.PosixErrorException;
 import org.xtreemfs.common.libxtreemfs.exceptions.UUIDIteratorListIsEmpyException;
 import org.xtreemfs.common.libxtreemfs.exceptions.UUIDNotInXlocSetException;
 import org.xtreemfs.common.libxtreemfs.exceptions.XtreemFSException;
+import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
 import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.osd.replication.ObjectSet;
@@ -163,11 +170,27 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
      */
     final private UserCredentials                   userCredentialsBogus;
 
+    /**
+     * Prefetches the objects following sequential reads. Null if read-ahead is disabled.
+     */
+    final private ReadAheadHandler                  readAheadHandler;
+
+    /**
+     * Caches the object data of all files of the client. Null if the cache is disabled.
+     */
+    final private ObjectDataCache                   objectDataCache;
+
+    /**
+     * Chooses the replicas of read-only files for reads. Null if replica selection is disabled.
+     */
+    final private ReplicaSelector                   replicaSelector;
+
     public FileHandleImplementation(VolumeImplementation volume, String clientUuid, FileInfo fileInfo, XCap xcap,
             UUIDIterator mrcUuidIterator, UUIDIterator osdUuidIterator, UUIDResolver uuidResolver,
             MRCServiceClient mrcServiceClient, OSDServiceClient osdServiceClient,
             Map<StripingPolicyType, StripeTranslator> stripeTranslators, boolean asyncWritesEnabled, Options options,
-            Auth authBogus, UserCredentials userCredentialsBogus) {
+            Auth authBogus, UserCredentials userCredentialsBogus, ObjectDataCache objectDataCache,
+            ReplicaSelector replicaSelector) {
         this.volume = volume;
         this.clientUuid = clientUuid;
         this.fileInfo = fileInfo;
@@ -182,9 +205,18 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
         this.volumeOptions = options;
         this.authBogus = authBogus;
         this.userCredentialsBogus = userCredentialsBogus;
+        this.objectDataCache = objectDataCache;
+        this.replicaSelector = replicaSelector;
 
         xcapRenewalPending = false;
         xcapRenewalPendingLock = new Object();
+
+        if (options.getMaxReadAhead() > 0) {
+            readAheadHandler = new ReadAheadHandler(osdUuidIterator, uuidResolver, osdServiceClient, authBogus,
+                    userCredentialsBogus, options.getMaxReadAhead(), options.getReadAheadBudget());
+        } else {
+            readAheadHandler = null;
+        }
     }
 
     /**
@@ -281,6 +313,14 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
                     + fileInfo.getPath());
         }
 
+        // Serve the read from prefetched objects, if possible.
+        if (readAheadHandler != null) {
+            int prefetchedData = readAheadHandler.read(fc, buf, offset, count);
+            if (prefetchedData >= 0) {
+                return prefetchedData;
+            }
+        }
+
         // Pick the first replica to determine striping policy.
         // (We assume that all replicas use the same striping policy.)
         StripingPolicy policy = fc.getXlocs().getReplicas(0).getStripingPolicy();
@@ -290,64 +330,371 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
         Vector<ReadOperation> operations = new Vector<ReadOperation>();
         translator.translateReadRequest(count, offset, policy, operations);
 
-        UUIDIterator tempUuidIteratorForStriping = new UUIDIterator();
-        // Read all objects
-        for (int j = 0; j < operations.size(); j++) {
-            readRequest.Builder readRqBuilder = readRequest.newBuilder();
+        final CallGenerator<readRequest, ObjectData> callGen = new CallGenerator<readRequest, ObjectData>() {
+
+            @Override
+            public RPCResponse<ObjectData> executeCall(InetSocketAddress server, Auth auth, UserCredentials userCreds,
+                    readRequest callRequest) throws IOException {
+                return osdServiceClient.read(server, auth, userCreds, callRequest);
 
-            readRqBuilder.setFileCredentials(fc);
-            readRqBuilder.setFileId(fc.getXcap().getFileId());
-            readRqBuilder.setObjectNumber(operations.get(j).getObjNumber());
-            readRqBuilder.setObjectVersion(0);
-            readRqBuilder.setOffset(operations.get(j).getReqOffset());
-            readRqBuilder.setLength(operations.get(j).getReqSize());
+            }
+        };
 
-            // Differ between striping and the rest (replication, no replication).
-            UUIDIterator uuidIterator;
-            if (readRqBuilder.getFileCredentials().getXlocs().getReplicas(0).getOsdUuidsCount() > 1) {
-                // Replica is striped. Pick UUID from xlocset.
-                tempUuidIteratorForStriping.clear();
-                
-                // Replicas may have different stripe widths. However, the current Java client
-                // StripeTranslator code only supports the same stripe width as the first replica has.
-                int stripeWidthFirstReplica = fc.getXlocs().getReplicas(0).getStripingPolicy().getWidth();
-
-                for (int replicaIdx = 0; replicaIdx < fc.getXlocs().getReplicasCount(); replicaIdx++) {
-                    if (fc.getXlocs().getReplicas(replicaIdx).getStripingPolicy().getWidth() == stripeWidthFirstReplica) {
-                        tempUuidIteratorForStriping.addUUID(Helper.getOSDUUIDFromXlocSet(fc.getXlocs(),
-                                                            replicaIdx,
-                                                            operations.get(j).getOsdOffset()));
+        // Read all objects. If the request spans several objects, up to
+        // maxParallelReadRequests requests are sent concurrently (i.e. to
+        // several OSDs of a striped replica), and the responses are processed
+        // in order.
+        final int numOperations = operations.size();
+        final int window = numOperations > 1 ? Math.max(1, volumeOptions.getMaxParallelReadRequests()) : 1;
+        final readRequest[] requests = new readRequest[numOperations];
+        final UUIDIterator[] uuidIterators = new UUIDIterator[numOperations];
+        final String[] sentToUuids = new String[numOperations];
+        @SuppressWarnings("unchecked")
+        final RPCResponse<ObjectData>[] responses = new RPCResponse[numOperations];
+        // Reads from replicas chosen by the replica selector, to report their latency.
+        final boolean selectReplicas = isReplicaSelectionEnabled(fc);
+        final ReplicaSelector.Request[] selectorRequests = new ReplicaSelector.Request[numOperations];
+
+        // If the object data cache is enabled, objects which are not cached are read and cached as a whole.
+        final CachedObject[] cachedObjects = new CachedObject[numOperations];
+        final String fileId = fc.getXcap().getFileId();
+        final int stripeSize = policy.getStripeSize() * 1024;
+        final long invalidationsBeforeRead = objectDataCache != null ? objectDataCache.getInvalidations() : 0;
+
+        int numSent = 0;
+        try {
+            for (int j = 0; j < numOperations; j++) {
+
+                // Fill the window.
+                for (; numSent < numOperations && numSent < j + window; numSent++) {
+                    ReadOperation operation = operations.get(numSent);
+                    if (objectDataCache != null) {
+                        cachedObjects[numSent] = objectDataCache.get(fileId, operation.getObjNumber(), fc.getXcap(),
+                                fc.getXlocs());
+                        if (cachedObjects[numSent] != null) {
+                            continue;
+                        }
+                        requests[numSent] = buildReadRequest(fc, operation.getObjNumber(), 0, stripeSize);
+                    } else {
+                        requests[numSent] = buildReadRequest(fc, operation.getObjNumber(), operation.getReqOffset(),
+                                operation.getReqSize());
+                    }
+                    uuidIterators[numSent] = getReadUUIDIterator(fc, operation);
+                    if (selectReplicas) {
+                        selectorRequests[numSent] = replicaSelector.requestStarted(uuidIterators[numSent]);
+                    }
+                    if (window > 1) {
+                        sendRead(numSent, requests, uuidIterators, sentToUuids, responses);
                     }
                 }
-                
-                uuidIterator = tempUuidIteratorForStriping;
-            } else {
-                // TODO(mberlin): Enhance UUIDIterator to read from different replicas.
-                uuidIterator = osdUuidIterator;
-            }
 
-            buf.position(operations.get(j).getBufferStart());
-            // If synccall gets a buffer it fill it with data from the response.
-            ObjectData objectData = RPCCaller.<readRequest, ObjectData> syncCall(SERVICES.OSD, userCredentialsBogus,
-                    authBogus, volumeOptions, uuidResolver, uuidIterator, false, readRqBuilder.build(), buf,
-                    new CallGenerator<readRequest, ObjectData>() {
-
-                        @Override
-                        public RPCResponse<ObjectData> executeCall(InetSocketAddress server, Auth auth,
-                                UserCredentials userCreds, readRequest callRequest) throws IOException {
-                            return osdServiceClient.read(server, auth, userCreds, callRequest);
+                final ReadOperation operation = operations.get(j);
+                buf.position(operation.getBufferStart());
+                if (cachedObjects[j] != null) {
+                    receivedData += cachedObjects[j].copyTo(buf, operation.getReqOffset(), operation.getReqSize());
+                    continue;
+                }
 
+                // The data of the response is copied to the buffer, or to a separate buffer for the whole object.
+                final ReusableBuffer target = objectDataCache != null ? BufferPool.allocate(stripeSize) : buf;
+                try {
+                    ObjectData objectData = null;
+                    if (responses[j] != null) {
+                        objectData = receiveRead(responses[j], uuidIterators[j], sentToUuids[j], target);
+                        responses[j] = null;
+                    }
+                    if (objectData == null) {
+                        objectData = RPCCaller.<readRequest, ObjectData> syncCall(SERVICES.OSD,
+                                userCredentialsBogus, authBogus, volumeOptions, uuidResolver, uuidIterators[j], false,
+                                requests[j], target, callGen);
+                    }
+                    if (selectorRequests[j] != null) {
+                        replicaSelector.requestFinished(selectorRequests[j], uuidIterators[j], true);
+                        selectorRequests[j] = null;
+                    }
+                    if (objectDataCache != null) {
+                        target.flip();
+                        CachedObject object = objectDataCache.put(fileId, operation.getObjNumber(), fc.getXcap(),
+                                fc.getXlocs(), target, objectData.getZeroPadding(), invalidationsBeforeRead);
+                        receivedData += object.copyTo(buf, operation.getReqOffset(), operation.getReqSize());
+                    } else {
+                        // if zeropadding > 0, put zeros at the end of the buffer.
+                        for (int i = 0; i < objectData.getZeroPadding(); i++) {
+                            buf.put((byte) 0);
                         }
-                    });
-            // if zeropadding > 0, put zeros at the end of the buffer.
-            for (int i = 0; i < objectData.getZeroPadding(); i++) {
-                buf.put((byte) 0);
+                        receivedData += buf.position() - operation.getBufferStart();
+                    }
+                } finally {
+                    if (target != buf) {
+                        BufferPool.free(target);
+                    }
+                }
+            }
+        } finally {
+            // Discard the responses of outstanding requests if a read failed.
+            for (int j = 0; j < numSent; j++) {
+                if (responses[j] != null) {
+                    discardRead(responses[j]);
+                }
+            }
+            // The objects are processed in order, i.e. the first remaining request is the one that failed.
+            boolean failedRequestFound = false;
+            for (int j = 0; j < numSent; j++) {
+                if (selectorRequests[j] != null) {
+                    if (failedRequestFound) {
+                        replicaSelector.requestCancelled(selectorRequests[j]);
+                    } else {
+                        replicaSelector.requestFinished(selectorRequests[j], uuidIterators[j], false);
+                        failedRequestFound = true;
+                    }
+                }
             }
-            receivedData += buf.position() - operations.get(j).getBufferStart();
+        }
+
+        if (readAheadHandler != null) {
+            readAheadHandler.readFinished(fc, offset, count, receivedData);
         }
         return receivedData;
     }
 
+    private readRequest buildReadRequest(FileCredentials fc, long objNo, int offset, int length) {
+        readRequest.Builder readRqBuilder = readRequest.newBuilder();
+
+        readRqBuilder.setFileCredentials(fc);
+        readRqBuilder.setFileId(fc.getXcap().getFileId());
+        readRqBuilder.setObjectNumber(objNo);
+        readRqBuilder.setObjectVersion(0);
+        readRqBuilder.setOffset(offset);
+        readRqBuilder.setLength(length);
+        return readRqBuilder.build();
+    }
+
+    /**
+     * Returns the UUIDIterator of the OSDs that may serve the given read operation.
+     */
+    private UUIDIterator getReadUUIDIterator(FileCredentials fc, ReadOperation operation) {
+        // Differ between striping and the rest (replication, no replication).
+        if (fc.getXlocs().getReplicas(0).getOsdUuidsCount() > 1) {
+            // Replica is striped. Pick UUID from xlocset.
+            List<String> uuids = new ArrayList<String>(fc.getXlocs().getReplicasCount());
+
+            // Replicas may have different stripe widths. However, the current Java client
+            // StripeTranslator code only supports the same stripe width as the first replica has.
+            int stripeWidthFirstReplica = fc.getXlocs().getReplicas(0).getStripingPolicy().getWidth();
+
+            for (int replicaIdx = 0; replicaIdx < fc.getXlocs().getReplicasCount(); replicaIdx++) {
+                if (fc.getXlocs().getReplicas(replicaIdx).getStripingPolicy().getWidth() == stripeWidthFirstReplica) {
+                    uuids.add(Helper.getOSDUUIDFromXlocSet(fc.getXlocs(), replicaIdx, operation.getOsdOffset()));
+                }
+            }
+
+            return isReplicaSelectionEnabled(fc) ? replicaSelector.getUUIDIterator(uuids) : new UUIDIterator(uuids);
+        } else if (isReplicaSelectionEnabled(fc)) {
+            return replicaSelector.getUUIDIterator(Helper.getOSDUUIDsFromXlocSet(fc.getXlocs()));
+        } else {
+            return osdUuidIterator;
+        }
+    }
+
+    /**
+     * Returns true if the reads of the file are spread across its replicas. Only the replicas of read-only files
+     * are equivalent, reads of read/write replicated files are served by the primary.
+     */
+    private boolean isReplicaSelectionEnabled(FileCredentials fc) {
+        return replicaSelector != null && fc.getXlocs().getReplicasCount() > 1
+                && ReplicaUpdatePolicies.isRO(fc.getXlocs().getReplicaUpdatePolicy());
+    }
+
+    /**
+     * Sends the j-th read request asynchronously to the current OSD of its UUIDIterator. If the request cannot be
+     * sent, no response is stored and the request will be retried synchronously.
+     */
+    private void sendRead(int j, readRequest[] requests, UUIDIterator[] uuidIterators, String[] sentToUuids,
+            RPCResponse<ObjectData>[] responses) {
+        try {
+            sentToUuids[j] = uuidIterators[j].getUUID();
+            InetSocketAddress server = RPCCaller.getInetSocketAddressFromAddress(
+                    uuidResolver.uuidToAddress(sentToUuids[j]), SERVICES.OSD);
+            responses[j] = osdServiceClient.read(server, authBogus, userCredentialsBogus, requests[j]);
+        } catch (IOException e) {
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                        "could not send read request for object %d: %s", requests[j].getObjectNumber(),
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits for the response of an asynchronously sent read request and copies its data to the buffer.
+     * 
+     * @return the object data, or null if the request failed and has to be retried synchronously (which handles
+     *         retries and errors like a sequential read)
+     */
+    private ObjectData receiveRead(RPCResponse<ObjectData> response, UUIDIterator uuidIterator, String uuid,
+            ReusableBuffer buf) throws IOException {
+        try {
+            ObjectData objectData = response.get();
+            if (response.getData() != null) {
+                buf.put(response.getData());
+                BufferPool.free(response.getData());
+            }
+            return objectData;
+        } catch (PBRPCException e) {
+            // Retry recoverable errors with the next OSD, like RPCCaller.syncCall() does.
+            if (e.getErrorType().equals(ErrorType.REDIRECT) || e.getErrorType().equals(ErrorType.IO_ERROR)
+                    || e.getErrorType().equals(ErrorType.INTERNAL_SERVER_ERROR)) {
+                uuidIterator.markUUIDAsFailed(uuid);
+            }
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                        "parallel read from %s failed, retrying: %s", uuid, e.getMessage());
+            }
+        } catch (IOException e) {
+            uuidIterator.markUUIDAsFailed(uuid);
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                        "parallel read from %s failed, retrying: %s", uuid, e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            // Let the synchronous retry handle the interrupt.
+            Thread.currentThread().interrupt();
+        } finally {
+            response.freeBuffers();
+        }
+        return null;
+    }
+
+    private void discardRead(RPCResponse<ObjectData> response) {
+        try {
+            response.get();
+            if (response.getData() != null) {
+                BufferPool.free(response.getData());
+            }
+        } catch (Exception e) {
+            // ignore, the read has already failed
+        } finally {
+            response.freeBuffers();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.FileHandle#readAsync(org.xtreemfs.foundation.pbrpc.generatedinterfaces.
+     * RPC.UserCredentials, byte[], int, int, long)
+     */
+    @Override
+    public AsyncResult<Integer> readAsync(UserCredentials userCredentials, final byte[] data, final int dataOffset,
+            final int count, final long offset) {
+        final AsyncResult<Integer> result = new AsyncResult<Integer>();
+        if (fileInfo.hasPendingAsyncWrites()) {
+            // Like read(), wait for pending asynchronous writes first, but by the executor of the volume.
+            volume.executeAsync(result, new Runnable() {
+                @Override
+                public void run() {
+                    fileInfo.waitForPendingAsyncWrites();
+                    sendReadAsync(result, data, dataOffset, count, offset);
+                }
+            });
+        } else {
+            sendReadAsync(result, data, dataOffset, count, offset);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the read requests for all objects of an asynchronous read. Each object is read directly into a
+     * view of "data".
+     */
+    private void sendReadAsync(final AsyncResult<Integer> result, byte[] data, int dataOffset, int count,
+            long offset) {
+        FileCredentials.Builder fcBuilder = FileCredentials.newBuilder();
+        synchronized (this) {
+            if (asyncWritesFailed) {
+                result.fail(new PosixErrorException(POSIXErrno.POSIX_ERROR_EIO, "A previous asynchronous"
+                        + " write did fail. No more actions on this file handle are allowed."));
+                return;
+            }
+            fcBuilder.setXcap(xcap.toBuilder());
+        }
+        FileCredentials fc = fcBuilder.setXlocs(fileInfo.getXLocSet()).build();
+
+        if (fc.getXlocs().getReplicasCount() == 0) {
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this, "No replica found for file %s",
+                    fileInfo.getPath());
+            result.fail(new PosixErrorException(POSIXErrno.POSIX_ERROR_EIO, "no replica found for file: "
+                    + fileInfo.getPath()));
+            return;
+        }
+
+        StripingPolicy policy = fc.getXlocs().getReplicas(0).getStripingPolicy();
+        Vector<ReadOperation> operations = new Vector<ReadOperation>();
+        try {
+            getStripeTranslator(policy.getType()).translateReadRequest(count, offset, policy, operations);
+        } catch (IOException e) {
+            result.fail(e);
+            return;
+        }
+        if (operations.isEmpty()) {
+            result.complete(0);
+            return;
+        }
+
+        final CallGenerator<readRequest, ObjectData> callGen = new CallGenerator<readRequest, ObjectData>() {
+            @Override
+            public RPCResponse<ObjectData> executeCall(InetSocketAddress server, Auth auth, UserCredentials userCreds,
+                    readRequest callRequest) throws IOException {
+                return osdServiceClient.read(server, auth, userCreds, callRequest);
+            }
+        };
+
+        // The result is completed with the sum of the bytes of all objects, like read() returns it. It is failed
+        // only once all reads finished, since the pending reads still write into the caller's array.
+        final AtomicInteger pendingOperations = new AtomicInteger(operations.size());
+        final AtomicInteger receivedData = new AtomicInteger();
+        final AtomicReference<IOException> firstError = new AtomicReference<IOException>();
+        final boolean selectReplicas = isReplicaSelectionEnabled(fc);
+        for (ReadOperation operation : operations) {
+            final ReusableBuffer view = ReusableBuffer.wrap(data, dataOffset + operation.getBufferStart(),
+                    operation.getReqSize());
+            final UUIDIterator uuidIterator = getReadUUIDIterator(fc, operation);
+            final ReplicaSelector.Request selectorRequest = selectReplicas ? replicaSelector
+                    .requestStarted(uuidIterator) : null;
+            RPCCaller.<readRequest, ObjectData> asyncCall(SERVICES.OSD, userCredentialsBogus, authBogus,
+                    volumeOptions, uuidResolver, uuidIterator, false,
+                    buildReadRequest(fc, operation.getObjNumber(), operation.getReqOffset(), operation.getReqSize()),
+                    view, callGen, volume.getAsyncExecutor()).registerListener(new AsyncResultListener<ObjectData>() {
+                @Override
+                public void resultAvailable(AsyncResult<ObjectData> response) {
+                    try {
+                        // if zeropadding > 0, put zeros at the end of the view.
+                        int zeroPadding = Math.min(response.getCompletedResult().getZeroPadding(), view.remaining());
+                        for (int i = 0; i < zeroPadding; i++) {
+                            view.put((byte) 0);
+                        }
+                        receivedData.addAndGet(view.position());
+                        if (selectorRequest != null) {
+                            replicaSelector.requestFinished(selectorRequest, uuidIterator, true);
+                        }
+                    } catch (IOException e) {
+                        if (selectorRequest != null) {
+                            replicaSelector.requestFinished(selectorRequest, uuidIterator, false);
+                        }
+                        firstError.compareAndSet(null, e);
+                    }
+                    if (pendingOperations.decrementAndGet() == 0) {
+                        if (firstError.get() != null) {
+                            result.fail(firstError.get());
+                        } else {
+                            result.complete(receivedData.get());
+                        }
+                    }
+                }
+            });
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -417,7 +764,6 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
 
         FileCredentials fileCredentials = fcBuilder.build();
 
-        String osdUuid = "";
         writeRequest.Builder request;
 
         if (asyncWritesEnabled) {
@@ -459,56 +805,274 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
                 // Processing of file size updates is handled by the FileInfo's AsyncWriteHandler.
             }
         } else {
-            // synchroneous write
-            for (int j = 0; j < operations.size(); j++) {
-                request = writeRequest.newBuilder();
-                request.setFileCredentials(fileCredentials);
-                request.setFileId(globalFileId);
-                request.setObjectNumber(operations.get(j).getObjNumber());
-                request.setObjectVersion(0);
-                request.setOffset(operations.get(j).getReqOffset());
-                request.setLeaseTimeout(0);
+            // Synchronous write. The objects are sent concurrently (i.e. to the OSDs of a striped replica), up to
+            // maxParallelWriteRequests at a time, as view buffers of the caller's data. The write returns once all
+            // objects were acknowledged.
+            final int numOperations = operations.size();
+            final int window = Math.max(1, volumeOptions.getMaxParallelWriteRequests());
+            @SuppressWarnings("unchecked")
+            final AsyncResult<OSDWriteResponse>[] results = new AsyncResult[numOperations];
+            OSDWriteResponse combinedResponse = null;
+            IOException error = null;
+
+            int numSent = 0;
+            for (int j = 0; j < numOperations; j++) {
+                // Fill the window, unless a write failed already.
+                for (; error == null && numSent < numOperations && numSent < j + window; numSent++) {
+                    results[numSent] = sendWrite(userCredentials, fileCredentials, xlocs, operations.get(numSent));
+                }
+                if (results[j] == null) {
+                    break;
+                }
 
-                ObjectData objectData = ObjectData.newBuilder().setChecksum(0).setInvalidChecksumOnOsd(false)
-                        .setZeroPadding(0).build();
+                try {
+                    OSDWriteResponse response = results[j].getResult();
+                    // Only the largest file size has to be written back to the MRC.
+                    if (response.hasSizeInBytes()
+                            && Helper.compareOSDWriteResponses(response, combinedResponse) == 1) {
+                        combinedResponse = response;
+                    }
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                } catch (InterruptedException e) {
+                    // Wait for the outstanding writes anyway, they still use the caller's buffer.
+                    if (error == null) {
+                        error = new IOException("Caught interrupt while waiting for write requests, aborting write");
+                    }
+                    waitForWrites(results, j, numSent);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
 
-                request.setObjectData(objectData);
+            // If the filesize has changed, remember OSDWriteResponse for later file size
+            // update towards the MRC (executed by PeriodicFileSizeUpdateThread).
+            if (combinedResponse != null) {
+                fileInfo.tryToUpdateOSDWriteResponse(combinedResponse, xcap);
+            }
 
-                // Differ between striping and the rest (replication, no replication).
-                UUIDIterator uuidIterator;
-                if (xlocs.getReplicas(0).getOsdUuidsCount() > 1) {
-                    // Replica is striped. Pick UUID from Xlocset. Use first and only replica.
-                    osdUuid = Helper.getOSDUUIDFromXlocSet(xlocs, 0, operations.get(j).getOsdOffset());
-                    uuidIterator = new UUIDIterator();
-                    uuidIterator.clearAndAddUUID(osdUuid);
-                } else {
-                    // TODO: enhance UUIDIterator to read from different replicas.
-                    uuidIterator = osdUuidIterator;
+            if (error != null) {
+                // Even a failed write may have changed some objects.
+                fileInfo.invalidateReadAhead();
+                if (objectDataCache != null) {
+                    for (WriteOperation operation : operations) {
+                        objectDataCache.invalidate(globalFileId, operation.getObjNumber());
+                    }
                 }
+                throw error;
+            }
+        }
 
-                final ReusableBuffer writeDataBuffer = operations.get(j).getReqData();
-                OSDWriteResponse response = RPCCaller.<writeRequest, OSDWriteResponse> syncCall(SERVICES.OSD,
-                        userCredentials, authBogus, volumeOptions, uuidResolver, uuidIterator, false, request.build(),
-                        new CallGenerator<writeRequest, OSDWriteResponse>() {
+        // Prefetched and cached data of the file is outdated now. (Reads wait for pending async writes before
+        // they read again.)
+        fileInfo.invalidateReadAhead();
+        if (objectDataCache != null) {
+            for (WriteOperation operation : operations) {
+                objectDataCache.invalidate(globalFileId, operation.getObjNumber());
+            }
+        }
+        return count;
+    }
 
-                            @Override
-                            public RPCResponse<OSDWriteResponse> executeCall(InetSocketAddress server, Auth authHeader,
-                                    UserCredentials userCreds, writeRequest input) throws IOException {
-                                return osdServiceClient.write(server, authHeader, userCreds, input,
-                                        writeDataBuffer.createViewBuffer());
-                            }
-                        });
+    /**
+     * Sends the write request of a single object of a synchronous write. Retries are handled like in
+     * RPCCaller.syncCall().
+     */
+    private AsyncResult<OSDWriteResponse> sendWrite(UserCredentials userCredentials, FileCredentials fc,
+            XLocSet xlocs, final WriteOperation operation) {
+        // Differ between striping and the rest (replication, no replication).
+        UUIDIterator uuidIterator;
+        if (xlocs.getReplicas(0).getOsdUuidsCount() > 1) {
+            // Replica is striped. Pick UUID from Xlocset. Use first and only replica.
+            uuidIterator = new UUIDIterator();
+            uuidIterator.clearAndAddUUID(Helper.getOSDUUIDFromXlocSet(xlocs, 0, operation.getOsdOffset()));
+        } else {
+            // TODO: enhance UUIDIterator to read from different replicas.
+            uuidIterator = osdUuidIterator;
+        }
 
-                assert (response != null);
+        return RPCCaller.<writeRequest, OSDWriteResponse> asyncCall(SERVICES.OSD, userCredentials, authBogus,
+                volumeOptions, uuidResolver, uuidIterator, false, buildWriteRequest(fc, operation), null,
+                new CallGenerator<writeRequest, OSDWriteResponse>() {
+                    @Override
+                    public RPCResponse<OSDWriteResponse> executeCall(InetSocketAddress server, Auth authHeader,
+                            UserCredentials userCreds, writeRequest input) throws IOException {
+                        return osdServiceClient.write(server, authHeader, userCreds, input, operation.getReqData()
+                                .createViewBuffer());
+                    }
+                }, volume.getAsyncExecutor());
+    }
 
-                // If the filesize has changed, remember OSDWriteResponse for later file size
-                // update towards the MRC (executed by PeriodicFileSizeUpdateThread).
-                if (response.hasSizeInBytes()) {
-                    fileInfo.tryToUpdateOSDWriteResponse(response, xcap);
+    /**
+     * Waits uninterruptibly until the writes from..to-1 are finished, ignoring their results. The caller restores
+     * the interrupt flag.
+     */
+    private void waitForWrites(AsyncResult<OSDWriteResponse>[] results, int from, int to) {
+        for (int j = from; j < to; j++) {
+            while (!results[j].isDone()) {
+                try {
+                    results[j].getResult();
+                } catch (InterruptedException e) {
+                    // keep waiting
+                } catch (IOException e) {
+                    // ignore, the write has already failed
                 }
             }
         }
-        return count;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.FileHandle#writeAsync(org.xtreemfs.foundation.pbrpc.generatedinterfaces.
+     * RPC.UserCredentials, byte[], int, int, long)
+     */
+    @Override
+    public AsyncResult<Integer> writeAsync(UserCredentials userCredentials, byte[] data, int dataOffset,
+            final int count, final long offset) {
+        final AsyncResult<Integer> result = new AsyncResult<Integer>();
+        final ReusableBuffer buffer = ReusableBuffer.wrap(data, dataOffset, count);
+        if (fileInfo.hasPendingAsyncWrites()) {
+            // Do not overtake pending asynchronous writes, wait for them by the executor of the volume.
+            volume.executeAsync(result, new Runnable() {
+                @Override
+                public void run() {
+                    fileInfo.waitForPendingAsyncWrites();
+                    sendWriteAsync(result, buffer, count, offset);
+                }
+            });
+        } else {
+            sendWriteAsync(result, buffer, count, offset);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the write requests for all objects of an asynchronous write.
+     */
+    private void sendWriteAsync(final AsyncResult<Integer> result, ReusableBuffer buffer, final int count,
+            long offset) {
+        FileCredentials.Builder fcBuilder = FileCredentials.newBuilder();
+        final XCap writeXcap;
+        synchronized (this) {
+            if (asyncWritesFailed) {
+                result.fail(new PosixErrorException(POSIXErrno.POSIX_ERROR_EIO, "A previous asynchronous "
+                        + "write did fail. No further writes on this file handle are allowed."));
+                return;
+            }
+            writeXcap = xcap;
+        }
+        FileCredentials fc = fcBuilder.setXcap(writeXcap).setXlocs(fileInfo.getXLocSet()).build();
+        XLocSet xlocs = fc.getXlocs();
+
+        if (xlocs.getReplicasCount() == 0) {
+            String error = "No replica found for file: " + fileInfo.getPath();
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, this, error);
+            result.fail(new PosixErrorException(POSIXErrno.POSIX_ERROR_EIO, error));
+            return;
+        }
+
+        StripingPolicy stripingPolicy = xlocs.getReplicas(0).getStripingPolicy();
+        final Vector<WriteOperation> operations = new Vector<WriteOperation>();
+        try {
+            getStripeTranslator(stripingPolicy.getType()).translateWriteRequest(count, offset, stripingPolicy,
+                    buffer, operations);
+        } catch (IOException e) {
+            result.fail(e);
+            return;
+        }
+        if (operations.isEmpty()) {
+            result.complete(0);
+            return;
+        }
+
+        // The responses are processed by the executor of the volume once all objects were written, since
+        // invalidating the read-ahead may block.
+        final OSDWriteResponse[] responses = new OSDWriteResponse[operations.size()];
+        final IOException[] errors = new IOException[operations.size()];
+        final AtomicInteger pendingOperations = new AtomicInteger(operations.size());
+        final Runnable writeFinished = new Runnable() {
+            @Override
+            public void run() {
+                for (OSDWriteResponse response : responses) {
+                    // If the filesize has changed, remember OSDWriteResponse for later file size
+                    // update towards the MRC (executed by PeriodicFileSizeUpdateThread).
+                    if (response != null && response.hasSizeInBytes()) {
+                        fileInfo.tryToUpdateOSDWriteResponse(response, writeXcap);
+                    }
+                }
+
+                // Even a failed write may have changed some objects.
+                fileInfo.invalidateReadAhead();
+                if (objectDataCache != null) {
+                    for (WriteOperation operation : operations) {
+                        objectDataCache.invalidate(writeXcap.getFileId(), operation.getObjNumber());
+                    }
+                }
+
+                for (IOException error : errors) {
+                    if (error != null) {
+                        result.fail(error);
+                        return;
+                    }
+                }
+                result.complete(count);
+            }
+        };
+
+        for (int j = 0; j < operations.size(); j++) {
+            final int index = j;
+            final WriteOperation operation = operations.get(j);
+
+            // Differ between striping and the rest (replication, no replication).
+            UUIDIterator uuidIterator;
+            if (xlocs.getReplicas(0).getOsdUuidsCount() > 1) {
+                uuidIterator = new UUIDIterator();
+                uuidIterator.clearAndAddUUID(Helper.getOSDUUIDFromXlocSet(xlocs, 0, operation.getOsdOffset()));
+            } else {
+                uuidIterator = osdUuidIterator;
+            }
+
+            RPCCaller.<writeRequest, OSDWriteResponse> asyncCall(SERVICES.OSD, userCredentialsBogus, authBogus,
+                    volumeOptions, uuidResolver, uuidIterator, false, buildWriteRequest(fc, operation), null,
+                    new CallGenerator<writeRequest, OSDWriteResponse>() {
+                        @Override
+                        public RPCResponse<OSDWriteResponse> executeCall(InetSocketAddress server, Auth authHeader,
+                                UserCredentials userCreds, writeRequest input) throws IOException {
+                            return osdServiceClient.write(server, authHeader, userCreds, input, operation
+                                    .getReqData().createViewBuffer());
+                        }
+                    }, volume.getAsyncExecutor()).registerListener(new AsyncResultListener<OSDWriteResponse>() {
+                @Override
+                public void resultAvailable(AsyncResult<OSDWriteResponse> response) {
+                    try {
+                        responses[index] = response.getCompletedResult();
+                    } catch (IOException e) {
+                        errors[index] = e;
+                    }
+                    if (pendingOperations.decrementAndGet() == 0) {
+                        volume.executeAsync(result, writeFinished);
+                    }
+                }
+            });
+        }
+    }
+
+    private writeRequest buildWriteRequest(FileCredentials fc, WriteOperation operation) {
+        writeRequest.Builder request = writeRequest.newBuilder();
+        request.setFileCredentials(fc);
+        request.setFileId(fc.getXcap().getFileId());
+        request.setObjectNumber(operation.getObjNumber());
+        request.setObjectVersion(0);
+        request.setOffset(operation.getReqOffset());
+        request.setLeaseTimeout(0);
+
+        ObjectData objectData = ObjectData.newBuilder().setChecksum(0).setInvalidChecksumOnOsd(false)
+                .setZeroPadding(0).build();
+        request.setObjectData(objectData);
+        return request.build();
     }
 
     /*
@@ -659,6 +1223,11 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
         // register the new OSDWriteResponse to this file's FileInfo.
         fileInfo.tryToUpdateOSDWriteResponse(response, xCapCopy);
 
+        fileInfo.invalidateReadAhead();
+        if (objectDataCache != null) {
+            objectDataCache.invalidateFile(xCapCopy.getFileId());
+        }
+
         // 3. Update the file size at the MRC.
         fileInfo.flushPendingFileSizeUpdate(this);
 
@@ -1008,10 +1577,20 @@ public class FileHandleImplementation implements FileHandle, AdminFileHandle {
             // TODO: handle exception
             e.printStackTrace();
         } finally {
+            invalidateReadAhead();
             fileInfo.closeFileHandle(this);
         }
     }
 
+    /**
+     * Discards the objects prefetched by this file handle, if read-ahead is enabled.
+     */
+    protected void invalidateReadAhead() {
+        if (readAheadHandler != null) {
+            readAheadHandler.invalidate();
+        }
+    }
+
     protected void writeBackFileSizeAsync() throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
         xtreemfs_update_file_sizeRequest.Builder rqBuilder = xtreemfs_update_file_sizeRequest.newBuilder();
 
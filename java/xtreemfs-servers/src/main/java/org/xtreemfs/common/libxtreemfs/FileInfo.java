@@ -189,7 +189,8 @@ public class FileInfo {
             asyncWriteHandler = new AsyncWriteHandler(this, osdUuidIterator, volume.getUUIDResolver(),
                     volume.getOsdServiceClient(), volume.getAuthBogus(), volume.getUserCredentialsBogus(), volume
                             .getOptions().getMaxWriteahead(), volume.getOptions().getMaxWriteaheadRequests(), volume
-                            .getOptions().getMaxWriteTries());
+                            .getOptions().getMaxWriteTries(), volume.getOptions().getMaxWriteCoalescing(), volume
+                            .getOptions().getWriteCoalescingDelay_ms(), volume.getAsyncExecutor());
         }
 
         pendingFilesizeUpdates = new ArrayList<FileHandle>(volume.getOptions().getMaxWriteahead());
@@ -255,7 +256,7 @@ public class FileInfo {
                 xcap, volume.getMrcUuidIterator(), osdUuidIterator, volume.getUUIDResolver(),
                 volume.getMrcServiceClient(), volume.getOsdServiceClient(), volume.getStripeTranslators(),
                 asyncWritesEnabled, volume.getOptions(), volume.getAuthBogus(),
-                volume.getUserCredentialsBogus());
+                volume.getUserCredentialsBogus(), volume.getObjectDataCache(), volume.getReplicaSelector());
 
         // increase reference count and add it to openFileHandles
         referenceCount.incrementAndGet();
@@ -264,6 +265,15 @@ public class FileInfo {
         return fileHandleImplementation;
     }
 
+    /**
+     * Discards the prefetched objects of all open file handles. Called after the file was written or truncated.
+     */
+    protected void invalidateReadAhead() {
+        for (FileHandleImplementation fileHandle : openFileHandles) {
+            fileHandle.invalidateReadAhead();
+        }
+    }
+
     /**
      * Deregisters a closed FileHandle. Called by FileHandle.close().
      */
@@ -620,6 +630,13 @@ public class FileInfo {
         }
     }
 
+    /**
+     * Returns true if asynchronous writes are pending, i.e. if waitForPendingAsyncWrites() would block.
+     */
+    protected boolean hasPendingAsyncWrites() {
+        return asyncWriteHandler != null && asyncWriteHandler.hasPendingWrites();
+    }
+
     /**
      * Same as flushPendingFileSizeUpdate(), takes special actions if called by close().
      * 
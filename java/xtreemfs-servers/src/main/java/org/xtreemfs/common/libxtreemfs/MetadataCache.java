@@ -6,11 +6,13 @@
  */
 package org.xtreemfs.common.libxtreemfs;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -26,39 +28,49 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.listxattrResponse;
 
 /**
  * Caches metadata for libxtreemfs.
+ * <p>
+ * The entries are distributed by the hash of their path over a number of segments, each of which is guarded
+ * by its own lock. Lookups of different paths therefore do not block each other, and lookups of the same
+ * path only take a shared lock. Every segment evicts its oldest entries once it holds its share of
+ * "maxNumberOfEntries", i.e. the eviction order is LRU per segment and only approximately LRU for the whole
+ * cache. Small caches use a single segment and are strictly LRU.
+ * <p>
+ * The paths of all cached entries are kept in a trie of their path components, so that
+ * {@link #invalidatePrefix(String)} and {@link #renamePrefix(String, String)} only visit the entries below
+ * the given directory.
  */
 public class MetadataCache {
 
-    private final long                                maxNumberOfEntries;
-
-    private final long                                ttlS;
-
-    private boolean                                   enabled;
-
     /**
-     * A map containing all {@link MetadataCacheEntry} in insertion order. Also it is possible to access an
-     * entry in a hashmap like way in time O(1).
+     * Maximum number of segments of the cache.
      */
-    private final LinkedHashMap<String, MetadataCacheEntry> cache;
+    private static final int                          MAX_SEGMENTS            = 16;
 
     /**
-     * A map sorted by the path. This is used to iterate recursively over a path when a directory is
-     * invalidated to delete all subdirectories and files belonging to the invalidated directory from the
-     * cache.
+     * Minimum number of entries per segment. Caches too small to give every segment this many entries use
+     * fewer segments.
      */
-    private final SortedSet<String>                         pathIndex;
+    private static final int                          MIN_ENTRIES_PER_SEGMENT = 64;
 
-    private final ReadWriteLock                             readWriteLock;
+    private final long                                maxNumberOfEntries;
+
+    private final long                                ttlS;
+
+    private boolean                                   enabled;
 
     /**
-     * Lock that is used when writing to the "pathIndex" and "cache" together.
+     * The segments of the cache. The length is a power of two.
      */
-    private final Lock                                      writeLock;
+    private final Segment[]                           segments;
 
     /**
-     * Lock that is used when reading "pathIndex" and "cache" together.
+     * An index of all cached paths. This is used to find all subdirectories and files belonging to a
+     * directory when the directory is invalidated or renamed.
+     * 
+     * A path is added to the index when its entry is added to its segment, and removed when the entry is
+     * removed, both while holding the lock of the segment.
      */
-    private final Lock                                      readLock;
+    private final PathIndex                           pathIndex;
 
     /**
      * MetadataCache for Stat, listxattrResponse and XAttr objects per path.
@@ -70,12 +82,17 @@ public class MetadataCache {
 
         enabled = maxNumberOfEntries > 0 ? true : false;
 
-        cache = new LinkedHashMap<String, MetadataCacheEntry>();
-        pathIndex = new TreeSet<String>();
+        int numSegments = 1;
+        while (numSegments < MAX_SEGMENTS && numSegments * 2L * MIN_ENTRIES_PER_SEGMENT <= maxNumberOfEntries) {
+            numSegments *= 2;
+        }
+        long maxEntriesPerSegment = (maxNumberOfEntries + numSegments - 1) / numSegments;
 
-        readWriteLock = new ReentrantReadWriteLock();
-        writeLock = readWriteLock.writeLock();
-        readLock = readWriteLock.readLock();
+        segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment(maxEntriesPerSegment);
+        }
+        pathIndex = new PathIndex();
     }
 
     /**
@@ -89,12 +106,12 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            cache.remove(path);
-            pathIndex.remove(path);
+            removeUnmutexed(segment, path);
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -108,35 +125,17 @@ public class MetadataCache {
         if (path.isEmpty() || !enabled) {
             return;
         }
-        // collect all entries that should be removed from pathIndex to remove them at the end.
-        List<String> indicesToRemove = new ArrayList<String>();
-
-        writeLock.lock();
-        try {
-            // At first, delete "path" from "cache" and "pathIndex"
-            cache.remove(path);
-            pathIndex.remove(path);
-
-            // At second, remove all entries which have "path" respectively "path+'/'"
-            if (!path.endsWith("/")) {
-                path = path + "/";
-            }
 
-            for (String deletePath : pathIndex.tailSet(path)) {
-                // if the we reach the first element which don't have "path" as
-                // prefix we are finished.
-                if (!deletePath.startsWith(path)) {
-                    break;
-                }
-
-                // else delete this element from "pathIndex"and "cache"
-                cache.remove(deletePath);
-                indicesToRemove.add(deletePath);
+        // Remove "path" and all paths below it from the index first. Entries which are added again in the
+        // meantime are added to the index again and removed below together with their index entry.
+        for (String deletePath : pathIndex.removePrefix(path)) {
+            Segment segment = segmentFor(deletePath);
+            segment.writeLock.lock();
+            try {
+                removeUnmutexed(segment, deletePath);
+            } finally {
+                segment.writeLock.unlock();
             }
-            // do the removing after looping over "pathIndex" to avoid ConcurrentModificationException
-            pathIndex.removeAll(indicesToRemove);
-        } finally {
-            writeLock.unlock();
         }
     }
 
@@ -152,45 +151,46 @@ public class MetadataCache {
         if (path.isEmpty() || !enabled) {
             return;
         }
-        // Temporary TreeSet to store the new paths
-        TreeSet<String> tempPaths = new TreeSet<String>();
 
-        writeLock.lock();
-        try {
-            // At first, rename the directory itself.
-            MetadataCacheEntry entry = cache.remove(path);
-            cache.put(newPath, entry);
-
-            // Seconde, rename all entries with prefix that matches "path" respectively "path+'/'"
-            if (!path.endsWith("/"))
-                path = path + "/";
-            if (!newPath.endsWith("/"))
-                newPath = newPath + "/";
-
-            for (String renamePath : pathIndex.tailSet(path)) {
-                // if the we reach the first element which don't have "path" as
-                // prefix we are finished.
-                if (!renamePath.startsWith(path)) {
-                    break;
-                }
-
-                // delete object from cache and insert it with new path
-                entry = cache.remove(renamePath);
-                cache.put(renamePath.replaceFirst(path, newPath), entry);
+        String prefix = path.endsWith("/") ? path : path + "/";
+        String newPrefix = newPath.endsWith("/") ? newPath : newPath + "/";
+
+        for (String renamePath : pathIndex.removePrefix(path)) {
+            // delete object from cache ...
+            MetadataCacheEntry entry;
+            Segment segment = segmentFor(renamePath);
+            segment.writeLock.lock();
+            try {
+                entry = removeUnmutexed(segment, renamePath);
+            } finally {
+                segment.writeLock.unlock();
+            }
 
-                // add the oldPath to the "tempPaths" in order to remove them later from "pathIndex"
-                // and add them with the new path
-                tempPaths.add(renamePath.replaceFirst(path, newPath));
+            String renamedPath;
+            if (entry == null) {
+                continue;
+            } else if (renamePath.equals(path)) {
+                renamedPath = newPath;
+            } else if (renamePath.startsWith(prefix)) {
+                renamedPath = newPrefix + renamePath.substring(prefix.length());
+            } else {
+                // The path has the same components as a path below "path" but is spelled differently, e.g.
+                // with duplicate slashes. Leave it invalidated.
+                continue;
             }
 
-            // remove all collected tempPaths to the "pathIndex" and readd them with the correct new
-            // path
-            for (String tmpPath : tempPaths) {
-                pathIndex.remove(tmpPath);
-                pathIndex.add(tmpPath.replace(path, newPath));
+            // ... and insert it with new path
+            segment = segmentFor(renamedPath);
+            segment.writeLock.lock();
+            try {
+                if (segment.cache.remove(renamedPath) == null) {
+                    evictUnmutexed(segment, 1);
+                    pathIndex.add(renamedPath);
+                }
+                segment.cache.put(renamedPath, entry);
+            } finally {
+                segment.writeLock.unlock();
             }
-        } finally {
-            writeLock.unlock();
         }
     }
 
@@ -206,9 +206,11 @@ public class MetadataCache {
             return null;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        MetadataCacheEntry expiredEntry = null;
+        segment.readLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             if (entry != null) { // cache hit
                 // We must never have cached a hard link.
                 assert (entry.getStat() == null || entry.getStat().getNlink() == 1);
@@ -226,20 +228,22 @@ public class MetadataCache {
                     // Only delete object, if the maximum timeout of all three objects is
                     // reached.
                     if (entry.getTimeoutS() < currentTimeS) {
-                        // Free MetadataCacheEntry and delete from Index. This increases the
-                        // run time of GetStat() roughly by factor 3.
-                        cache.remove(path);
-                        pathIndex.remove(path);
+                        expiredEntry = entry;
                     }
                 }
             } else { // cache miss
                 if (Logging.isDebug()) {
                     Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                            "MetadataCache getStat miss: ", cache.size());
+                            "MetadataCache getStat miss: %s", path);
                 }
             }
         } finally {
-            writeLock.unlock();
+            segment.readLock.unlock();
+        }
+
+        if (expiredEntry != null) {
+            // Free MetadataCacheEntry and delete from Index. This requires the write lock of the segment.
+            removeExpired(segment, path, expiredEntry);
         }
         return null;
     }
@@ -257,35 +261,92 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            // remove entry if it exists in the cache
-            MetadataCacheEntry entry = cache.remove(path);
-            if (entry == null) { // cache miss. entry has to be created
+            updateStatUnmutexed(segment, path, stat, System.currentTimeMillis() / 1000 + ttlS);
+        } finally {
+            segment.writeLock.unlock();
+        }
+    }
 
-                if (Logging.isDebug()) {
-                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                            "MetadataCache: registering %s", path);
-                }
-                entry = new MetadataCacheEntry();
+    /**
+     * Stores/updates the stat objects of several paths, e.g. of the entries of a directory listing, with the
+     * same timeout. Stat objects of hard links are not cached; their paths are invalidated instead.
+     * 
+     * @param paths
+     *            Paths related to the {@link Stat} objects.
+     * @param stats
+     *            The {@link Stat} objects which should be cached under the path with the same index.
+     */
+    protected void updateStats(List<String> paths, List<Stat> stats) {
+        assert (paths.size() == stats.size());
+        if (paths.isEmpty() || !enabled) {
+            return;
+        }
 
-                // entry doesn't exists yet in cache => there is no entry "pathIndex" for it. We
-                // have to create one.
-                pathIndex.add(path);
+        long timeoutS = System.currentTimeMillis() / 1000 + ttlS;
+
+        // Group the paths by segment to lock every segment only once.
+        List<List<Integer>> indicesBySegment = new ArrayList<List<Integer>>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            indicesBySegment.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < paths.size(); i++) {
+            if (!paths.get(i).isEmpty()) {
+                indicesBySegment.get(segmentIndexFor(paths.get(i))).add(i);
+            }
+        }
+
+        for (int s = 0; s < segments.length; s++) {
+            List<Integer> indices = indicesBySegment.get(s);
+            if (indices.isEmpty()) {
+                continue;
+            }
+
+            Segment segment = segments[s];
+            segment.writeLock.lock();
+            try {
+                for (int i : indices) {
+                    if (stats.get(i).getNlink() > 1) { // Do not cache hard links.
+                        removeUnmutexed(segment, paths.get(i));
+                    } else {
+                        updateStatUnmutexed(segment, paths.get(i), stats.get(i), timeoutS);
+                    }
+                }
+            } finally {
+                segment.writeLock.unlock();
             }
+        }
+    }
 
-            // set net stat object and update timeouts
-            entry.setStat(stat);
-            entry.setStatTimeoutS(System.currentTimeMillis() / 1000 + ttlS);
-            entry.setTimeoutS(entry.getStatTimeoutS());
+    /**
+     * Stores/updates stat in "segment" for path. The caller has to hold the write lock of "segment".
+     */
+    private void updateStatUnmutexed(Segment segment, String path, Stat stat, long timeoutS) {
+        // remove entry if it exists in the cache
+        MetadataCacheEntry entry = segment.cache.remove(path);
+        if (entry == null) { // cache miss. entry has to be created
 
-            // (re-)add entry to "cache"
-            evictUnmutexed(1);
-            cache.put(path, entry);
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                        "MetadataCache: registering %s", path);
+            }
+            entry = new MetadataCacheEntry();
 
-        } finally {
-            writeLock.unlock();
+            // entry doesn't exists yet in cache => there is no entry "pathIndex" for it. We
+            // have to create one.
+            pathIndex.add(path);
         }
+
+        // set net stat object and update timeouts
+        entry.setStat(stat);
+        entry.setStatTimeoutS(timeoutS);
+        entry.setTimeoutS(entry.getStatTimeoutS());
+
+        // (re-)add entry to "cache"
+        evictUnmutexed(segment, 1);
+        segment.cache.put(path, entry);
     }
 
     /**
@@ -306,9 +367,10 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
 
             if (entry != null) {
                 if (entry.getStat() == null) {
@@ -338,11 +400,11 @@ public class MetadataCache {
                 entry.setTimeoutS(entry.getStatTimeoutS());
 
                 // readd the entry in the cache
-                cache.remove(path);
-                cache.put(path, entry);
+                segment.cache.remove(path);
+                segment.cache.put(path, entry);
             }
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -361,9 +423,10 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
 
             if (entry != null) {
                 if (entry.getStat() == null) {
@@ -434,11 +497,11 @@ public class MetadataCache {
                 entry.setStatTimeoutS(System.currentTimeMillis() / 1000 + ttlS);
                 entry.setTimeoutS(entry.getStatTimeoutS());
 
-                cache.remove(path);
-                cache.put(path, entry);
+                segment.cache.remove(path);
+                segment.cache.put(path, entry);
             }
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -455,9 +518,10 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             if (entry != null) {
                 if (entry.getStat() == null) {
                     return;
@@ -474,7 +538,7 @@ public class MetadataCache {
                 }
             }
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -495,9 +559,11 @@ public class MetadataCache {
             return null;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        MetadataCacheEntry expiredEntry = null;
+        segment.readLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             if (entry != null && entry.getDirectoryEntries() != null) {
                 long currentTimeS = System.currentTimeMillis() / 1000;
                 if (entry.getDirectoryEntriesTimeoutS() >= currentTimeS) { // entry is valid => use it
@@ -508,14 +574,14 @@ public class MetadataCache {
                     if (offset == 0 && count >= entry.getDirectoryEntries().getEntriesCount()) {
                         if (Logging.isDebug()) {
                             Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                                    "MetadataCache getDirEntries() hit: %s [%s]", path, cache.size());
+                                    "MetadataCache getDirEntries() hit: %s [%s]", path, segment.cache.size());
                         }
                         result = entry.getDirectoryEntries().toBuilder();
                     } else { // copy just the selected entries from cache
                         if (Logging.isDebug()) {
                             Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
                                     "MetadataCache getDirectoryEntries() hit (partial copy): "
-                                            + "%s [%s] offset: %s", path, cache.size(), offset);
+                                            + "%s [%s] offset: %s", path, segment.cache.size(), offset);
                         }
                         result = DirectoryEntries.newBuilder();
                         for (int i = offset; i < offset + count; i++) {
@@ -531,14 +597,17 @@ public class MetadataCache {
 
                     // Only delete object, if the maximum timeout is reached.
                     if (entry.getTimeoutS() < currentTimeS) {
-                        cache.remove(path);
-                        pathIndex.remove(path);
+                        expiredEntry = entry;
                     }
-                    return null;
                 }
             }
         } finally {
-            writeLock.unlock();
+            segment.readLock.unlock();
+        }
+
+        if (expiredEntry != null) {
+            removeExpired(segment, path, expiredEntry);
+            return null;
         }
 
         if (Logging.isDebug()) {
@@ -559,15 +628,16 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             if (entry != null) {
                 entry.setStat(null);
                 entry.setStatTimeoutS(0);
             }
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -587,9 +657,10 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             boolean created = false;
 
             if (entry == null) { // entry does not exist, create new one
@@ -607,15 +678,15 @@ public class MetadataCache {
             entry.setTimeoutS(entry.getDirectoryEntriesTimeoutS());
 
             if (created) {
-                evictUnmutexed(1);
+                evictUnmutexed(segment, 1);
                 pathIndex.add(path);
-                cache.put(path, entry);
+                segment.cache.put(path, entry);
             } else {
-                cache.remove(path);
-                cache.put(path, entry);
+                segment.cache.remove(path);
+                segment.cache.put(path, entry);
             }
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -632,9 +703,10 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(pathToDirectory);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(pathToDirectory);
+            MetadataCacheEntry entry = segment.cache.get(pathToDirectory);
             if (entry != null) {
                 if (entry.getDirectoryEntries() == null) {
                     return;
@@ -652,7 +724,7 @@ public class MetadataCache {
             }
 
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -667,15 +739,16 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             if (entry != null) {
                 entry.setDirectoryEntries(null);
                 entry.setDirectoryEntriesTimeoutS(0);
             }
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -699,9 +772,11 @@ public class MetadataCache {
             return new Tupel<String, Boolean>(null, xattrsCached);
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        MetadataCacheEntry expiredEntry = null;
+        segment.readLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             long currentTimeMS = System.currentTimeMillis() / 1000;
 
             if (entry != null && entry.getXattrs() != null) {
@@ -713,7 +788,7 @@ public class MetadataCache {
                         if (xattr.getName().equals(name)) {
                             if (Logging.isDebug()) {
                                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                                        "MetadataCache getXattr() hit: %s [%s]", path, cache.size());
+                                        "MetadataCache getXattr() hit: %s [%s]", path, segment.cache.size());
                             }
                             return new Tupel<String, Boolean>(xattr.getValue(), xattrsCached);
                         }
@@ -728,20 +803,22 @@ public class MetadataCache {
                     }
                     // Only delete object if maximum timeout is reached.
                     if (entry.getTimeoutS() < currentTimeMS) {
-                        cache.remove(path);
-                        pathIndex.remove(path);
+                        expiredEntry = entry;
                     }
-                    return new Tupel<String, Boolean>(null, xattrsCached);
                 }
             }
 
         } finally {
-            writeLock.unlock();
+            segment.readLock.unlock();
+        }
+
+        if (expiredEntry != null) {
+            removeExpired(segment, path, expiredEntry);
         }
 
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                    "MetadataCache getXattr() miss: %s [%s]", path, cache.size());
+                    "MetadataCache getXattr() miss: %s", path);
         }
         return new Tupel<String, Boolean>(null, xattrsCached);
     }
@@ -762,9 +839,11 @@ public class MetadataCache {
     protected Tupel<Integer, Boolean> getXAttrSize(String path, String name) {
         boolean xattrCached = false;
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        MetadataCacheEntry expiredEntry = null;
+        segment.readLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             long currentTimeS = System.currentTimeMillis() / 1000;
 
             if (entry != null && entry.getXattrs() != null) {
@@ -775,7 +854,7 @@ public class MetadataCache {
 
                             if (Logging.isDebug()) {
                                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                                        "MetadataCache getXattrSize() hit: %s [%s]", path, cache.size());
+                                        "MetadataCache getXattrSize() hit: %s [%s]", path, segment.cache.size());
                             }
                             return new Tupel<Integer, Boolean>(xattr.getValue().length(), xattrCached);
                         }
@@ -789,19 +868,22 @@ public class MetadataCache {
 
                     // only delete entry when overall timeout is expired
                     if (entry.getTimeoutS() < currentTimeS) {
-                        cache.remove(path);
-                        pathIndex.remove(path);
+                        expiredEntry = entry;
                     }
                 }
             }
 
         } finally {
-            writeLock.unlock();
+            segment.readLock.unlock();
+        }
+
+        if (expiredEntry != null) {
+            removeExpired(segment, path, expiredEntry);
         }
 
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                    "MetadataCache getXattrSize() miss: %s [%s]", path, cache.size());
+                    "MetadataCache getXattrSize() miss: %s", path);
         }
         return new Tupel<Integer, Boolean>(0, xattrCached);
     }
@@ -814,9 +896,11 @@ public class MetadataCache {
      * @return {@link listxattrResponse} or null.
      */
     protected listxattrResponse getXAttrs(String path) {
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        MetadataCacheEntry expiredEntry = null;
+        segment.readLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             long currentTimeS = System.currentTimeMillis() / 1000;
 
             if (entry != null && entry.getXattrs() != null) {
@@ -824,30 +908,32 @@ public class MetadataCache {
 
                     if (Logging.isDebug()) {
                         Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                                "MetadataCache getXattrs() hit: %s [%s]", path, cache.size());
+                                "MetadataCache getXattrs() hit: %s [%s]", path, segment.cache.size());
                     }
                     return entry.getXattrs();
 
                 } else { // entry is expired => remove it
                     if (Logging.isDebug()) {
                         Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                                "MetadataCache getXattrs() expired: %s", path, cache.size());
+                                "MetadataCache getXattrs() expired: %s", path, segment.cache.size());
                     }
 
                     // only delete object when overall timeout is expired
                     if (entry.getTimeoutS() < currentTimeS) {
-                        cache.remove(path);
-                        pathIndex.remove(path);
+                        expiredEntry = entry;
                     }
-                    return null;
                 }
             }
         } finally {
-            writeLock.unlock();
+            segment.readLock.unlock();
+        }
+
+        if (expiredEntry != null) {
+            removeExpired(segment, path, expiredEntry);
         }
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
-                    "MetadataCache getXattrs() miss %s [%s]", path, cache.size());
+                    "MetadataCache getXattrs() miss %s", path);
         }
         return null;
     }
@@ -868,10 +954,11 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
             // check if there is already an entry for "path"
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             if (entry == null) {
                 // Don't create a new entry with an incomplete xattr list.
                 return;
@@ -910,7 +997,7 @@ public class MetadataCache {
             // Replace the existing entry in cache - do not update TTL
             entry.setXattrs(newXattrs.build());
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -929,9 +1016,10 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             // create a new entry if there isn't one in cache
             if (entry == null) {
 
@@ -949,12 +1037,13 @@ public class MetadataCache {
 
             // we have to remove and readd the entry. If it was not in cache we are dealing with a
             // new entry and we have to insert in "pathIndex" too
-            if (cache.remove(path) == null) {
+            if (segment.cache.remove(path) == null) {
+                evictUnmutexed(segment, 1);
                 pathIndex.add(path);
             }
-            cache.put(path, entry);
+            segment.cache.put(path, entry);
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -971,9 +1060,10 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             if (entry == null) {
                 // there is no entry in the cache => nothing to do
                 return;
@@ -1001,7 +1091,7 @@ public class MetadataCache {
             entry.setXattrs(xattrs.build());
 
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -1016,16 +1106,17 @@ public class MetadataCache {
             return;
         }
 
-        writeLock.lock();
+        Segment segment = segmentFor(path);
+        segment.writeLock.lock();
         try {
-            MetadataCacheEntry entry = cache.get(path);
+            MetadataCacheEntry entry = segment.cache.get(path);
             if (entry != null) {
                 entry.setXattrs(null);
                 entry.setXattrTimeoutS(0);
             }
 
         } finally {
-            writeLock.unlock();
+            segment.writeLock.unlock();
         }
     }
 
@@ -1035,12 +1126,16 @@ public class MetadataCache {
      * @return long
      */
     protected long size() {
-        readLock.lock();
-        try {
-            return cache.size();
-        } finally {
-            readLock.unlock();
+        long size = 0;
+        for (Segment segment : segments) {
+            segment.readLock.lock();
+            try {
+                size += segment.cache.size();
+            } finally {
+                segment.readLock.unlock();
+            }
         }
+        return size;
     }
 
     /**
@@ -1053,22 +1148,227 @@ public class MetadataCache {
     }
 
     /**
-     * Evicts first n oldest entries from cache.
+     * Returns the segment responsible for "path".
+     */
+    private Segment segmentFor(String path) {
+        return segments[segmentIndexFor(path)];
+    }
+
+    private int segmentIndexFor(String path) {
+        int hash = path.hashCode();
+        // Spread the higher bits, as only the lower bits select the segment.
+        hash ^= (hash >>> 16);
+        return hash & (segments.length - 1);
+    }
+
+    /**
+     * Removes the entry for "path" from "segment" and from the index. The caller has to hold the write lock
+     * of "segment".
+     * 
+     * @return The removed entry or null if there was none.
+     */
+    private MetadataCacheEntry removeUnmutexed(Segment segment, String path) {
+        MetadataCacheEntry entry = segment.cache.remove(path);
+        if (entry != null) {
+            pathIndex.remove(path);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes "entry" from "segment" if it is still cached for "path" and its maximum timeout is reached.
+     * Used by the lookups, which only hold the read lock when they find an expired entry.
+     */
+    private void removeExpired(Segment segment, String path, MetadataCacheEntry entry) {
+        segment.writeLock.lock();
+        try {
+            if (segment.cache.get(path) == entry && entry.getTimeoutS() < System.currentTimeMillis() / 1000) {
+                removeUnmutexed(segment, path);
+            }
+        } finally {
+            segment.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts first n oldest entries from the segment. The caller has to hold the write lock of "segment".
      * 
      * @param n
      *            Number of elements that should be evicted.
      */
-    private void evictUnmutexed(int n) {
-        while (cache.size() > maxNumberOfEntries - n) {
+    private void evictUnmutexed(Segment segment, int n) {
+        while (segment.cache.size() > segment.maxNumberOfEntries - n) {
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
                         "MetadataCache evictUnmutexed: Deleting one entry from cache; "
-                                + "entries in total: %s", cache.size());
+                                + "entries in segment: %s", segment.cache.size());
             }
             // get first element of keys of the LinkedHashMap "cache".
-            String path = cache.keySet().iterator().next();
-            cache.remove(path);
-            pathIndex.remove(path);
+            String path = segment.cache.keySet().iterator().next();
+            removeUnmutexed(segment, path);
+        }
+    }
+
+    /**
+     * A part of the cache with its own lock.
+     */
+    private static final class Segment {
+
+        private final long                                    maxNumberOfEntries;
+
+        /**
+         * A map containing all {@link MetadataCacheEntry} of the segment in insertion order. Also it is
+         * possible to access an entry in a hashmap like way in time O(1).
+         */
+// JCIP     @GuardedBy("readWriteLock")
+        private final LinkedHashMap<String, MetadataCacheEntry> cache;
+
+        private final ReadWriteLock                           readWriteLock;
+
+        /**
+         * Lock that is used when modifying "cache" or its entries.
+         */
+        private final Lock                                    writeLock;
+
+        /**
+         * Lock that is used when only reading "cache" and its entries.
+         */
+        private final Lock                                    readLock;
+
+        Segment(long maxNumberOfEntries) {
+            this.maxNumberOfEntries = maxNumberOfEntries;
+            cache = new LinkedHashMap<String, MetadataCacheEntry>();
+            readWriteLock = new ReentrantReadWriteLock();
+            writeLock = readWriteLock.writeLock();
+            readLock = readWriteLock.readLock();
+        }
+    }
+
+    /**
+     * A trie of the components of all cached paths. Every node lists the cached paths that consist of the
+     * components on the way to the node, which usually is a single path. Nodes without paths and children are
+     * removed.
+     */
+    private static final class PathIndex {
+
+        private static final class Node {
+
+            private final Node              parent;
+
+            private final String            name;
+
+            private HashMap<String, Node>   children;
+
+            private List<String>            paths;
+
+            Node(Node parent, String name) {
+                this.parent = parent;
+                this.name = name;
+            }
+
+            boolean isEmpty() {
+                return (children == null || children.isEmpty()) && (paths == null || paths.isEmpty());
+            }
+        }
+
+// JCIP     @GuardedBy("this")
+        private final Node root = new Node(null, null);
+
+        synchronized void add(String path) {
+            Node node = find(path, true);
+            if (node.paths == null) {
+                node.paths = new ArrayList<String>(1);
+            }
+            if (!node.paths.contains(path)) {
+                node.paths.add(path);
+            }
+        }
+
+        synchronized void remove(String path) {
+            Node node = find(path, false);
+            if (node != null && node.paths != null && node.paths.remove(path)) {
+                prune(node);
+            }
+        }
+
+        /**
+         * Removes "path" and all paths below it from the index.
+         * 
+         * @return The removed paths. Besides the paths starting with "path" or path+"/", this may contain
+         *         paths that only differ in the number of slashes.
+         */
+        synchronized List<String> removePrefix(String path) {
+            Node node = find(path, false);
+            if (node == null) {
+                return Collections.emptyList();
+            }
+
+            if (node == root) {
+                root.children = null;
+                root.paths = null;
+            } else {
+                node.parent.children.remove(node.name);
+                prune(node.parent);
+            }
+
+            List<String> removedPaths = new ArrayList<String>();
+            Deque<Node> nodes = new ArrayDeque<Node>();
+            nodes.push(node);
+            while (!nodes.isEmpty()) {
+                Node current = nodes.pop();
+                if (current.paths != null) {
+                    removedPaths.addAll(current.paths);
+                }
+                if (current.children != null) {
+                    for (Node child : current.children.values()) {
+                        nodes.push(child);
+                    }
+                }
+            }
+            return removedPaths;
+        }
+
+        /**
+         * Returns the node for the components of "path". If "create" is false, null is returned if there is
+         * no such node.
+         */
+        private Node find(String path, boolean create) {
+            Node node = root;
+            int start = 0;
+            while (start < path.length()) {
+                int end = path.indexOf('/', start);
+                if (end < 0) {
+                    end = path.length();
+                }
+                // skip empty components, e.g. the leading slash
+                if (end > start) {
+                    String name = path.substring(start, end);
+                    Node child = (node.children == null) ? null : node.children.get(name);
+                    if (child == null) {
+                        if (!create) {
+                            return null;
+                        }
+                        if (node.children == null) {
+                            node.children = new HashMap<String, Node>();
+                        }
+                        child = new Node(node, name);
+                        node.children.put(name, child);
+                    }
+                    node = child;
+                }
+                start = end + 1;
+            }
+            return node;
+        }
+
+        /**
+         * Removes "node" and its ancestors as long as they are empty.
+         */
+        private void prune(Node node) {
+            while (node != root && node.isEmpty()) {
+                node.parent.children.remove(node.name);
+                node = node.parent;
+            }
         }
     }
 }
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+
+/**
+ * Caches the data of whole objects for all volumes of a client. Used only internally.
+ * <p>
+ * Objects are identified by the global file id and the object number. Each object records the version of
+ * the file it was read from, i.e. the truncate epoch of the XCap and the version of the XLocSet. A lookup with
+ * a different version does not return the object.
+ * <p>
+ * The cache is invalidated by the writes and truncates of this client only. Writes of other clients that do
+ * not change the versions remain invisible until an object expires, i.e. the cache trades consistency for
+ * fewer reads. Therefore, an object expires after a short TTL, and at the latest with the XCap it was read
+ * with.
+ * <p>
+ * If the cache exceeds its maximum size, the least recently used objects are evicted.
+ */
+public class ObjectDataCache {
+
+    /**
+     * The immutable data of a cached object.
+     */
+    static class CachedObject {
+
+        private final byte[] data;
+
+        private final int    zeroPadding;
+
+        private final long   truncateEpoch;
+
+        private final int    xLocSetVersion;
+
+        /**
+         * Local time in ms at which the object expires.
+         */
+        private final long   expireTimeMs;
+
+        CachedObject(byte[] data, int zeroPadding, long truncateEpoch, int xLocSetVersion, long expireTimeMs) {
+            this.data = data;
+            this.zeroPadding = zeroPadding;
+            this.truncateEpoch = truncateEpoch;
+            this.xLocSetVersion = xLocSetVersion;
+            this.expireTimeMs = expireTimeMs;
+        }
+
+        /**
+         * @return the number of bytes of the object, including zero padding
+         */
+        int getLength() {
+            return data.length + zeroPadding;
+        }
+
+        /**
+         * Copies up to "length" bytes of the object, starting at "offset", to "buf".
+         *
+         * @return the number of bytes copied, which is less than "length" if the object ends before
+         */
+        int copyTo(ReusableBuffer buf, int offset, int length) {
+            final int n = Math.min(length, getLength() - offset);
+            if (n <= 0) {
+                return 0;
+            }
+
+            if (offset < data.length) {
+                buf.put(data, offset, Math.min(n, data.length - offset));
+            }
+            // The rest is zero padding.
+            for (int i = Math.max(offset, data.length); i < offset + n; i++) {
+                buf.put((byte) 0);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Key of a cached object.
+     */
+    private static final class ObjectKey {
+
+        private final String fileId;
+
+        private final long   objNo;
+
+        ObjectKey(String fileId, long objNo) {
+            this.fileId = fileId;
+            this.objNo = objNo;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ObjectKey)) {
+                return false;
+            }
+            ObjectKey other = (ObjectKey) obj;
+            return objNo == other.objNo && fileId.equals(other.fileId);
+        }
+
+        @Override
+        public int hashCode() {
+            return fileId.hashCode() * 31 + (int) (objNo ^ (objNo >>> 32));
+        }
+    }
+
+    private final long                                    maxSize;
+
+    /**
+     * Time in ms after which a cached object expires.
+     */
+    private final long                                    ttlMs;
+
+    /**
+     * All cached objects in access order, i.e. the least recently used object comes first.
+     */
+    private final LinkedHashMap<ObjectKey, CachedObject> cache;
+
+    /**
+     * Sum of the lengths of the data of all cached objects.
+     */
+    private long                                          size;
+
+    /**
+     * Number of invalidations so far. Data that was read before an invalidation is not cached, because it may
+     * have been read before the write or truncate that caused the invalidation.
+     */
+    private long                                          invalidations;
+
+    private long                                          hits;
+
+    private long                                          misses;
+
+    /**
+     * Creates a cache for at most "maxSize" bytes of object data, each of which is used for at most "ttlMs"
+     * milliseconds.
+     */
+    protected ObjectDataCache(long maxSize, long ttlMs) {
+        this.maxSize = maxSize;
+        this.ttlMs = ttlMs;
+        this.cache = new LinkedHashMap<ObjectKey, CachedObject>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the cached object, if it was read with the same truncate epoch and XLocSet version as given by
+     * "xcap" and "xlocs" and neither its TTL nor the XCap it was read with expired yet.
+     *
+     * @return the object or null
+     */
+    protected synchronized CachedObject get(String fileId, long objNo, XCap xcap, XLocSet xlocs) {
+        ObjectKey key = new ObjectKey(fileId, objNo);
+        CachedObject object = cache.get(key);
+        if (object != null) {
+            if (object.truncateEpoch == xcap.getTruncateEpoch() && object.xLocSetVersion == xlocs.getVersion()
+                    && object.expireTimeMs > System.currentTimeMillis()) {
+                hits++;
+                return object;
+            }
+            // Outdated.
+            remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Returns the number of invalidations so far. Has to be retrieved before an object is read and passed to
+     * {@link #put(String, long, XCap, XLocSet, ReusableBuffer, int, long)}.
+     */
+    protected synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Caches the data of an object that was read with "xcap" and "xlocs". The remaining bytes of "data" are
+     * copied; the buffer is not freed. The object is not cached if the cache was invalidated since
+     * "invalidationsBeforeRead" was retrieved.
+     *
+     * @return the cached object, which is also returned if it was not cached
+     */
+    protected CachedObject put(String fileId, long objNo, XCap xcap, XLocSet xlocs, ReusableBuffer data,
+            int zeroPadding, long invalidationsBeforeRead) {
+        byte[] bytes = new byte[data == null ? 0 : data.remaining()];
+        if (data != null) {
+            data.get(bytes);
+        }
+        CachedObject object = new CachedObject(bytes, zeroPadding, xcap.getTruncateEpoch(), xlocs.getVersion(),
+                System.currentTimeMillis() + Math.min(ttlMs, xcap.getExpireTimeoutS() * 1000L));
+        if (bytes.length > maxSize) {
+            return object;
+        }
+
+        synchronized (this) {
+            if (invalidations != invalidationsBeforeRead) {
+                return object;
+            }
+            ObjectKey key = new ObjectKey(fileId, objNo);
+            remove(key);
+            cache.put(key, object);
+            size += bytes.length;
+
+            // Evict the least recently used objects.
+            Iterator<CachedObject> it = cache.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                size -= it.next().data.length;
+                it.remove();
+            }
+        }
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "cached object %d of file %s (%d bytes)",
+                    objNo, fileId, bytes.length);
+        }
+        return object;
+    }
+
+    /**
+     * Removes an object from the cache, e.g. because it was written.
+     */
+    protected synchronized void invalidate(String fileId, long objNo) {
+        invalidations++;
+        remove(new ObjectKey(fileId, objNo));
+    }
+
+    /**
+     * Removes all objects of a file from the cache, e.g. because it was truncated.
+     */
+    protected synchronized void invalidateFile(String fileId) {
+        invalidations++;
+        for (Iterator<Entry<ObjectKey, CachedObject>> it = cache.entrySet().iterator(); it.hasNext();) {
+            Entry<ObjectKey, CachedObject> entry = it.next();
+            if (entry.getKey().fileId.equals(fileId)) {
+                size -= entry.getValue().data.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all objects from the cache.
+     */
+    protected synchronized void clear() {
+        invalidations++;
+        cache.clear();
+        size = 0;
+    }
+
+    protected synchronized int getNumEntries() {
+        return cache.size();
+    }
+
+    protected synchronized long getSize() {
+        return size;
+    }
+
+    protected synchronized long getHits() {
+        return hits;
+    }
+
+    protected synchronized long getMisses() {
+        return misses;
+    }
+
+    private void remove(ObjectKey key) {
+        CachedObject object = cache.remove(key);
+        if (object != null) {
+            size -= object.data.length;
+        }
+    }
+}
@@ -45,6 +45,60 @@ public class Options {
      */
     private final int     maxWriteaheadRequests             = 10;
 
+    /**
+     * Maximum number of bytes of small contiguous async writes to the same object which are combined into one
+     * write request. Limited by the object size and maxWriteahead. 0 disables write coalescing. Default: 128 KB
+     */
+    private int           maxWriteCoalescing                = 128 * 1024;
+
+    /**
+     * Time in ms after which combined small async writes are sent at the latest. Default: 50
+     */
+    private long          writeCoalescingDelay_ms           = 50;
+
+    /**
+     * Maximum number of object read requests of a single read that are sent concurrently (e.g. to the OSDs of a
+     * striped file). Default: 16
+     */
+    private int           maxParallelReadRequests           = 16;
+
+    /**
+     * Maximum number of object write requests of a single synchronous write that are sent concurrently (e.g. to
+     * the OSDs of a striped file). Default: 16
+     */
+    private int           maxParallelWriteRequests          = 16;
+
+    /**
+     * Maximum number of bytes a file handle prefetches ahead of sequential reads. The read-ahead window grows
+     * up to this size if the application consumes the prefetched objects faster than they arrive. 0 disables
+     * read-ahead. Default: 0
+     */
+    private int           maxReadAhead                      = 0;
+
+    /**
+     * Maximum number of bytes held by the read-ahead buffers of all file handles of the process. Default: 64 MB
+     */
+    private long          readAheadBudget                   = 64 * 1024 * 1024;
+
+    /**
+     * Maximum number of bytes of object data cached by the client for all volumes. 0 disables the cache.
+     * Default: 0
+     */
+    private long          objectCacheSize                   = 0;
+
+    /**
+     * Maximum time in ms for which cached object data is used. The cache is invalidated by the writes and
+     * truncates of this client only; writes of other clients become visible once the data expires. A longer
+     * TTL saves more reads, but reads may return outdated data for that long. Default: 1000
+     */
+    private long          objectCacheTTL_ms                 = 1000;
+
+    /**
+     * Spread the reads of read-only replicated files across the replicas by their measured latency and number of
+     * outstanding requests instead of always reading from the first available replica. Default: true
+     */
+    private boolean       enableReplicaSelection            = true;
+
     /**
      * Number of retrieved entries per readdir request. Default: 1024
      */
@@ -92,6 +146,18 @@ public class Options {
      */
     private final int     lingerTimeout_s                   = 600;
 
+    /**
+     * Number of connections per server for requests which transfer file data (reads and writes), in addition to the
+     * connection used by all other requests. Thus, large transfers do not delay metadata and lock requests. The
+     * order of concurrent writes is only preserved for one connection. Default: 1
+     */
+    private int           bulkConnectionsPerServer          = 1;
+
+    /**
+     * Maximum number of requests per connection which were sent and not yet answered, 0 for no limit. Default: 0
+     */
+    private int           maxRequestsInFlightPerConnection  = 0;
+
     // SSL options.
     private final String  sslPemCertPath                    = "";
     private final String  sslPemPath                        = "";
@@ -230,6 +296,94 @@ public class Options {
         return maxWriteaheadRequests;
     }
 
+    public int getMaxWriteCoalescing() {
+        return maxWriteCoalescing;
+    }
+
+    public void setMaxWriteCoalescing(int maxWriteCoalescing) {
+        this.maxWriteCoalescing = maxWriteCoalescing;
+    }
+
+    public long getWriteCoalescingDelay_ms() {
+        return writeCoalescingDelay_ms;
+    }
+
+    public void setWriteCoalescingDelay_ms(long writeCoalescingDelay_ms) {
+        this.writeCoalescingDelay_ms = writeCoalescingDelay_ms;
+    }
+
+    public int getMaxParallelReadRequests() {
+        return maxParallelReadRequests;
+    }
+
+    public void setMaxParallelReadRequests(int maxParallelReadRequests) {
+        this.maxParallelReadRequests = maxParallelReadRequests;
+    }
+
+    public int getMaxParallelWriteRequests() {
+        return maxParallelWriteRequests;
+    }
+
+    public void setMaxParallelWriteRequests(int maxParallelWriteRequests) {
+        this.maxParallelWriteRequests = maxParallelWriteRequests;
+    }
+
+    public int getMaxReadAhead() {
+        return maxReadAhead;
+    }
+
+    public void setMaxReadAhead(int maxReadAhead) {
+        this.maxReadAhead = maxReadAhead;
+    }
+
+    public long getReadAheadBudget() {
+        return readAheadBudget;
+    }
+
+    public void setReadAheadBudget(long readAheadBudget) {
+        this.readAheadBudget = readAheadBudget;
+    }
+
+    public long getObjectCacheSize() {
+        return objectCacheSize;
+    }
+
+    public void setObjectCacheSize(long objectCacheSize) {
+        this.objectCacheSize = objectCacheSize;
+    }
+
+    public long getObjectCacheTTL_ms() {
+        return objectCacheTTL_ms;
+    }
+
+    public void setObjectCacheTTL_ms(long objectCacheTTL_ms) {
+        this.objectCacheTTL_ms = objectCacheTTL_ms;
+    }
+
+    public boolean isEnableReplicaSelection() {
+        return enableReplicaSelection;
+    }
+
+    public void setEnableReplicaSelection(boolean enableReplicaSelection) {
+        this.enableReplicaSelection = enableReplicaSelection;
+    }
+
+    public int getBulkConnectionsPerServer() {
+        return bulkConnectionsPerServer;
+    }
+
+    public void setBulkConnectionsPerServer(int bulkConnectionsPerServer) {
+        this.bulkConnectionsPerServer = bulkConnectionsPerServer;
+    }
+
+    public int getMaxRequestsInFlightPerConnection() {
+        return maxRequestsInFlightPerConnection;
+    }
+
+    public void setMaxRequestsInFlightPerConnection(int maxRequestsInFlightPerConnection) {
+        this.maxRequestsInFlightPerConnection = maxRequestsInFlightPerConnection;
+    }
+
     public int getReaddirChunkSize() {
         return readdirChunkSize;
     }
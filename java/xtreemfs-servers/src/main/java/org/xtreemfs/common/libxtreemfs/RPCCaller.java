@@ -8,6 +8,9 @@ package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.xtreemfs.common.libxtreemfs.exceptions.AddressToUUIDNotFoundException;
 import org.xtreemfs.common.libxtreemfs.exceptions.InternalServerErrorException;
@@ -20,6 +23,7 @@ import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
@@ -200,6 +204,189 @@ public class RPCCaller {
         return null;
     }
 
+    /**
+     * Asynchronous counterpart of
+     * {@link #syncCall(SERVICES, UserCredentials, Auth, Options, UUIDResolver, UUIDIterator, boolean, Object, ReusableBuffer, CallGenerator)}
+     * . Errors are retried like by syncCall(), but no thread is blocked: REDIRECTs are retried immediately and
+     * other recoverable errors after the retry delay, both by a thread of "executor". The first attempt is sent by
+     * the calling thread.
+     * <p>
+     * If "buffer" is not null, the data piggybacked in the response is copied to it. The result is completed by
+     * the network thread, or by a thread of "executor" if the call failed.
+     */
+    protected static <C, R extends Message> AsyncResult<R> asyncCall(SERVICES service, UserCredentials userCreds,
+            Auth auth, Options options, UUIDResolver uuidResolver, UUIDIterator it,
+            boolean uuidIteratorHasAddresses, C callRequest, ReusableBuffer buffer, CallGenerator<C, R> callGen,
+            ScheduledExecutorService executor) {
+        AsyncCall<C, R> call = new AsyncCall<C, R>(service, userCreds, auth, options, uuidResolver, it,
+                uuidIteratorHasAddresses, callRequest, buffer, callGen, executor);
+        call.run();
+        return call;
+    }
+
+    /**
+     * State of a call sent by asyncCall(). Each run() sends the next attempt.
+     */
+    private static class AsyncCall<C, R extends Message> extends AsyncResult<R> implements
+            RPCResponseAvailableListener<R>, Runnable {
+
+        private final SERVICES                 service;
+
+        private final UserCredentials          userCreds;
+
+        private final Auth                     auth;
+
+        private final Options                  options;
+
+        private final UUIDResolver             uuidResolver;
+
+        private final UUIDIterator             it;
+
+        private final boolean                  uuidIteratorHasAddresses;
+
+        private final C                        callRequest;
+
+        private final ReusableBuffer           buffer;
+
+        private final CallGenerator<C, R>      callGen;
+
+        private final ScheduledExecutorService executor;
+
+        /**
+         * Attempts are sent one after another, so the following fields are only accessed by one thread at a time.
+         */
+        private int                            maxTries;
+
+        private int                            attempt;
+
+        /**
+         * UUID the current attempt was sent to.
+         */
+        private String                         uuid;
+
+        AsyncCall(SERVICES service, UserCredentials userCreds, Auth auth, Options options,
+                UUIDResolver uuidResolver, UUIDIterator it, boolean uuidIteratorHasAddresses, C callRequest,
+                ReusableBuffer buffer, CallGenerator<C, R> callGen, ScheduledExecutorService executor) {
+            this.service = service;
+            this.userCreds = userCreds;
+            this.auth = auth;
+            this.options = options;
+            this.uuidResolver = uuidResolver;
+            this.it = it;
+            this.uuidIteratorHasAddresses = uuidIteratorHasAddresses;
+            this.callRequest = callRequest;
+            this.buffer = buffer;
+            this.callGen = callGen;
+            this.executor = executor;
+            this.maxTries = options.getMaxTries();
+        }
+
+        @Override
+        public void run() {
+            if (executor.isShutdown()) {
+                fail(new IOException("the request was not sent because the volume was closed"));
+                return;
+            }
+            attempt++;
+            try {
+                uuid = it.getUUID();
+                InetSocketAddress server;
+                if (uuidIteratorHasAddresses) {
+                    server = getInetSocketAddressFromAddress(uuid, service);
+                } else {
+                    server = getInetSocketAddressFromAddress(uuidResolver.uuidToAddress(uuid), service);
+                }
+                callGen.executeCall(server, auth, userCreds, callRequest).registerListener(this);
+            } catch (IOException e) {
+                handleError(e);
+            }
+        }
+
+        @Override
+        public void responseAvailable(RPCResponse<R> r) {
+            try {
+                R response = r.get();
+                if (r.getData() != null) {
+                    if (buffer != null) {
+                        buffer.put(r.getData());
+                    }
+                    BufferPool.free(r.getData());
+                }
+                complete(response);
+            } catch (IOException e) {
+                handleError(e);
+            } catch (InterruptedException e) {
+                // Does not happen, the response is available already.
+                fail(new IOException("interrupted while receiving the response"));
+            } finally {
+                r.freeBuffers();
+            }
+        }
+
+        /**
+         * Same error handling as in syncCall().
+         */
+        private void handleError(IOException error) {
+            boolean retry = false;
+            if (error instanceof PBRPCException) {
+                PBRPCException pbe = (PBRPCException) error;
+                if (pbe.getErrorType().equals(ErrorType.REDIRECT)) {
+                    assert (pbe.getRedirectToServerUUID() != null);
+                    if (Logging.isInfo()) {
+                        Logging.logMessage(Logging.LEVEL_INFO, Category.misc, pbe,
+                                "The server %s redirected to the current master: %s at attempt: %d", uuid,
+                                pbe.getRedirectToServerUUID(), attempt);
+                    }
+                    if (maxTries != 0 && attempt == maxTries) {
+                        // This was the last retry, but we give it another chance.
+                        maxTries++;
+                    }
+                    // Do a fast retry and do not delay until next attempt.
+                    it.markUUIDAsFailed(uuid);
+                    retryAfter(0);
+                    return;
+                }
+
+                if (pbe.getErrorType().equals(ErrorType.IO_ERROR)
+                        || pbe.getErrorType().equals(ErrorType.INTERNAL_SERVER_ERROR)) {
+                    it.markUUIDAsFailed(uuid);
+                    retry = true;
+                }
+            } else {
+                it.markUUIDAsFailed(uuid);
+                retry = true;
+            }
+
+            // Log only the first retry.
+            if (attempt == 1 && maxTries != 1) {
+                String retriesLeft = (maxTries == 0) ? ("infinite") : (String.valueOf(maxTries - attempt));
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.misc, error, "Got no response from %s, "
+                        + "retrying (%s attemps left, waiting at least %s seconds between two attemps) Error was: %s",
+                        uuid, retriesLeft, options.getRetryDelay_s(), error.getMessage());
+            }
+
+            if (retry && (attempt < maxTries || maxTries == 0)) {
+                retryAfter(options.getRetryDelay_s());
+            } else if (error instanceof PBRPCException) {
+                try {
+                    handleErrorAfterMaxTriesExceeded((PBRPCException) error, it);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            } else {
+                fail(error);
+            }
+        }
+
+        private void retryAfter(long delay_s) {
+            try {
+                executor.schedule(this, delay_s, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                fail(new IOException("the request could not be retried because the volume was closed"));
+            }
+        }
+    }
+
     /**
      * Blocks the thread for delay_s seconds and throws an exception if interrupted.
      * 
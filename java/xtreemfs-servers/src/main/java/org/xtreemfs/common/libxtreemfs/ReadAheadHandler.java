@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SERVICES;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.readRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+//JCIP import net.jcip.annotations.GuardedBy;
+
+/**
+ * Prefetches the objects following sequential reads of a file handle. Used only internally.
+ * <p>
+ * A read is sequential if it starts where the previous read of the file handle ended. After a sequential
+ * read, the objects following it are requested asynchronously, and later reads that are completely covered
+ * by prefetched objects are served from their buffers.
+ * <p>
+ * The number of objects prefetched ahead of the current position (the window) starts at one object. It is
+ * doubled whenever a read has to wait for a prefetched object, i.e. the application consumes the data faster
+ * than it arrives, and halved whenever prefetched objects are discarded without being read. The window is
+ * limited by {@link Options#getMaxReadAhead()}; the buffers of all file handles of the process are limited by
+ * {@link Options#getReadAheadBudget()}.
+ * <p>
+ * Prefetched objects are discarded if the file is written or truncated by a file handle of this client, or if
+ * the XLocSet of the file changed.
+ */
+public class ReadAheadHandler {
+
+    /**
+     * An object that was requested ahead of the reads.
+     */
+    private static class PrefetchedObject {
+
+        final long                       objNo;
+
+        /**
+         * Number of bytes reserved from the read-ahead budget.
+         */
+        final int                        reservedBytes;
+
+        /**
+         * The response of the read request. Set to null once the response was processed.
+         */
+        RPCResponse<ObjectData>          response;
+
+        /**
+         * Set by the network thread if the response arrived.
+         */
+        volatile boolean                 arrived;
+
+        /**
+         * The data of the object, valid once the response was processed. May be null for empty objects.
+         */
+        ReusableBuffer                   data;
+
+        int                              zeroPadding;
+
+        PrefetchedObject(long objNo, int reservedBytes) {
+            this.objNo = objNo;
+            this.reservedBytes = reservedBytes;
+        }
+
+        /**
+         * @return the number of bytes of the object, including zero padding
+         */
+        int getLength() {
+            return (data == null ? 0 : data.limit()) + zeroPadding;
+        }
+    }
+
+    /**
+     * Number of bytes reserved by the prefetched objects of all file handles of the process.
+     */
+    private static final AtomicLong              reservedBytes = new AtomicLong();
+
+    /**
+     * Prefetched objects, ordered by object number.
+     */
+// JCIP     @GuardedBy("this")
+    private final TreeMap<Long, PrefetchedObject> objects;
+
+    /**
+     * Offset at which the last read of the file handle ended.
+     */
+// JCIP     @GuardedBy("this")
+    private long                                  lastReadEnd;
+
+    /**
+     * Current number of objects prefetched ahead of the reads.
+     */
+// JCIP     @GuardedBy("this")
+    private int                                   window;
+
+    /**
+     * Number of the last object of the file, or -1 if it is unknown. No objects beyond it are prefetched.
+     */
+// JCIP     @GuardedBy("this")
+    private long                                  lastObjNo;
+
+    /**
+     * Version of the XLocSet the prefetched objects were read with.
+     */
+// JCIP     @GuardedBy("this")
+    private int                                   xLocSetVersion;
+
+    /**
+     * Pointer to the UUIDIterator of the FileInfo object. Used for files that are not striped.
+     */
+    private final UUIDIterator                    uuidIterator;
+
+    /**
+     * Required for resolving UUIDs to addresses.
+     */
+    private final UUIDResolver                    uuidResolver;
+
+    /**
+     * Client which is used to send out the reads.
+     */
+    private final OSDServiceClient                osdServiceClient;
+
+    /**
+     * Auth needed for ServiceClients. Always set to AUTH_NONE by Volume.
+     */
+    private final Auth                            authBogus;
+
+    /**
+     * For same reason needed as authBogus. Always set to user "xtreemfs".
+     */
+    private final UserCredentials                 userCredentialsBogus;
+
+    /**
+     * Maximum number of bytes which may be prefetched by this file handle.
+     */
+    private final int                             maxReadAhead;
+
+    /**
+     * Maximum number of bytes which may be prefetched by all file handles.
+     */
+    private final long                            readAheadBudget;
+
+    protected ReadAheadHandler(UUIDIterator uuidIterator, UUIDResolver uuidResolver,
+            OSDServiceClient osdServiceClient, Auth authBogus, UserCredentials userCredentialsBogus,
+            int maxReadAhead, long readAheadBudget) {
+        this.uuidIterator = uuidIterator;
+        this.uuidResolver = uuidResolver;
+        this.osdServiceClient = osdServiceClient;
+        this.authBogus = authBogus;
+        this.userCredentialsBogus = userCredentialsBogus;
+        this.maxReadAhead = maxReadAhead;
+        this.readAheadBudget = readAheadBudget;
+
+        objects = new TreeMap<Long, PrefetchedObject>();
+        lastReadEnd = 0;
+        window = 1;
+        lastObjNo = -1;
+    }
+
+    /**
+     * Serves a read from the prefetched objects, if they cover it completely, and prefetches the objects
+     * following it.
+     *
+     * @return the number of bytes copied to "buf", or -1 if the read has to be sent to the OSDs. In the latter
+     *         case, {@link #readFinished(FileCredentials, long, int, int)} has to be called after the read.
+     */
+    synchronized int read(FileCredentials fc, ReusableBuffer buf, long offset, int count) {
+        if (objects.isEmpty() || count <= 0) {
+            return -1;
+        }
+        if (fc.getXlocs().getVersion() != xLocSetVersion) {
+            discardAll();
+            return -1;
+        }
+
+        final int stripeSize = getStripeSize(fc.getXlocs());
+        final long firstObjNo = offset / stripeSize;
+        long endObjNo = (offset + count - 1) / stripeSize;
+
+        // Make sure that all objects of the read are available. A short object marks the end of the file.
+        boolean waited = false;
+        for (long objNo = firstObjNo; objNo <= endObjNo; objNo++) {
+            PrefetchedObject object = objects.get(objNo);
+            if (object == null) {
+                return -1;
+            }
+            if (object.response != null) {
+                waited |= !object.arrived;
+                if (!receive(object)) {
+                    return -1;
+                }
+            }
+            if (object.getLength() < stripeSize) {
+                lastObjNo = objNo;
+                endObjNo = objNo;
+            }
+        }
+
+        int copied = 0;
+        for (long objNo = firstObjNo; objNo <= endObjNo; objNo++) {
+            int objOffset = (objNo == firstObjNo) ? (int) (offset % stripeSize) : 0;
+            copied += copy(objects.get(objNo), objOffset, count - copied, buf);
+        }
+
+        if (waited) {
+            window = Math.min(window * 2, getMaxWindow(stripeSize));
+        }
+
+        advance(fc, stripeSize, offset, copied);
+        return copied;
+    }
+
+    /**
+     * Records a read that was sent to the OSDs and prefetches the objects following it, if it was sequential.
+     *
+     * @param count
+     *            the number of requested bytes
+     * @param received
+     *            the number of bytes read
+     */
+    synchronized void readFinished(FileCredentials fc, long offset, int count, int received) {
+        final int stripeSize = getStripeSize(fc.getXlocs());
+        if (received < count) {
+            lastObjNo = (offset + received) / stripeSize;
+        }
+        advance(fc, stripeSize, offset, received);
+    }
+
+    /**
+     * Discards all prefetched objects, e.g. because the file was modified.
+     */
+    synchronized void invalidate() {
+        discardAll();
+        lastObjNo = -1;
+    }
+
+    /**
+     * @return the number of bytes reserved by the prefetched objects of all file handles
+     */
+    static long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+// JCIP     @GuardedBy("this")
+    private void advance(FileCredentials fc, int stripeSize, long offset, int length) {
+        final boolean sequential = offset == lastReadEnd;
+        final long end = offset + length;
+        lastReadEnd = end;
+
+        if (!sequential) {
+            // Random access. Prefetched objects are not going to be read.
+            if (discardAll() > 0) {
+                window = Math.max(1, window / 2);
+            }
+            return;
+        }
+
+        // Free the objects which were read completely.
+        final long nextObjNo = end / stripeSize;
+        for (Iterator<PrefetchedObject> it = objects.headMap(nextObjNo).values().iterator(); it.hasNext();) {
+            discard(it.next());
+            it.remove();
+        }
+
+        if (objects.isEmpty()) {
+            xLocSetVersion = fc.getXlocs().getVersion();
+        } else if (xLocSetVersion != fc.getXlocs().getVersion()) {
+            discardAll();
+            xLocSetVersion = fc.getXlocs().getVersion();
+        }
+
+        long limit = nextObjNo + window;
+        if (lastObjNo >= 0) {
+            limit = Math.min(limit, lastObjNo + 1);
+        }
+        for (long objNo = nextObjNo; objNo < limit; objNo++) {
+            if (!objects.containsKey(objNo) && !prefetch(fc, objNo, stripeSize)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Sends the read request for a whole object.
+     *
+     * @return false if the object was not requested, because the budget is exhausted or the request could not be
+     *         sent
+     */
+// JCIP     @GuardedBy("this")
+    private boolean prefetch(FileCredentials fc, long objNo, int stripeSize) {
+        if (!reserve(stripeSize)) {
+            return false;
+        }
+
+        final PrefetchedObject object = new PrefetchedObject(objNo, stripeSize);
+        try {
+            readRequest request = readRequest.newBuilder().setFileCredentials(fc)
+                    .setFileId(fc.getXcap().getFileId()).setObjectNumber(objNo).setObjectVersion(0).setOffset(0)
+                    .setLength(stripeSize).build();
+
+            // Differ between striping and the rest (replication, no replication).
+            String uuid;
+            XLocSet xlocs = fc.getXlocs();
+            if (xlocs.getReplicas(0).getOsdUuidsCount() > 1) {
+                int width = xlocs.getReplicas(0).getStripingPolicy().getWidth();
+                uuid = Helper.getOSDUUIDFromXlocSet(xlocs, 0, (int) (objNo % width));
+            } else {
+                uuid = uuidIterator.getUUID();
+            }
+            InetSocketAddress server = RPCCaller.getInetSocketAddressFromAddress(uuidResolver.uuidToAddress(uuid),
+                    SERVICES.OSD);
+
+            object.response = osdServiceClient.read(server, authBogus, userCredentialsBogus, request);
+        } catch (IOException e) {
+            release(stripeSize);
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                        "could not prefetch object %d: %s", objNo, e.getMessage());
+            }
+            return false;
+        }
+
+        object.response.registerListener(new RPCResponseAvailableListener<ObjectData>() {
+            @Override
+            public void responseAvailable(RPCResponse<ObjectData> r) {
+                object.arrived = true;
+            }
+        });
+        objects.put(objNo, object);
+        return true;
+    }
+
+    /**
+     * Waits for the response of a prefetched object. If the read failed, the object and all objects following
+     * it are discarded; the read is then sent again (and its errors handled) like any other read.
+     *
+     * @return true if the data of the object is available
+     */
+// JCIP     @GuardedBy("this")
+    private boolean receive(PrefetchedObject object) {
+        RPCResponse<ObjectData> response = object.response;
+        try {
+            ObjectData objectData = response.get();
+            object.data = response.getData();
+            object.zeroPadding = objectData.getZeroPadding();
+            object.response = null;
+            response.freeBuffers();
+            return true;
+        } catch (IOException e) {
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this,
+                        "prefetching object %d failed: %s", object.objNo, e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            // Let the read handle the interrupt.
+            Thread.currentThread().interrupt();
+        }
+
+        for (Iterator<PrefetchedObject> it = objects.tailMap(object.objNo).values().iterator(); it.hasNext();) {
+            discard(it.next());
+            it.remove();
+        }
+        return false;
+    }
+
+    /**
+     * Copies up to "count" bytes of the object, starting at "objOffset", to "buf".
+     *
+     * @return the number of bytes copied
+     */
+    private int copy(PrefetchedObject object, int objOffset, int count, ReusableBuffer buf) {
+        final int n = Math.min(count, object.getLength() - objOffset);
+        if (n <= 0) {
+            return 0;
+        }
+
+        final int dataLength = object.data == null ? 0 : object.data.limit();
+        if (objOffset < dataLength) {
+            int end = Math.min(objOffset + n, dataLength);
+            object.data.position(objOffset);
+            object.data.limit(end);
+            buf.put(object.data);
+            object.data.limit(dataLength);
+        }
+        // The rest is zero padding.
+        for (int i = Math.max(objOffset, dataLength); i < objOffset + n; i++) {
+            buf.put((byte) 0);
+        }
+        return n;
+    }
+
+    /**
+     * Discards all prefetched objects.
+     *
+     * @return the number of discarded objects
+     */
+// JCIP     @GuardedBy("this")
+    private int discardAll() {
+        int discarded = objects.size();
+        for (PrefetchedObject object : objects.values()) {
+            discard(object);
+        }
+        objects.clear();
+        return discarded;
+    }
+
+    /**
+     * Frees the buffers of an object. If the response is still outstanding, they are freed when it arrives.
+     */
+    private void discard(final PrefetchedObject object) {
+        if (object.response == null) {
+            if (object.data != null) {
+                BufferPool.free(object.data);
+                object.data = null;
+            }
+            release(object.reservedBytes);
+            return;
+        }
+
+        object.response.registerListener(new RPCResponseAvailableListener<ObjectData>() {
+            @Override
+            public void responseAvailable(RPCResponse<ObjectData> r) {
+                try {
+                    r.get();
+                    if (r.getData() != null) {
+                        BufferPool.free(r.getData());
+                    }
+                } catch (Exception e) {
+                    // ignore, the object is not needed anymore
+                } finally {
+                    r.freeBuffers();
+                    release(object.reservedBytes);
+                }
+            }
+        });
+        object.response = null;
+    }
+
+    private boolean reserve(int bytes) {
+        long current;
+        do {
+            current = reservedBytes.get();
+            if (current + bytes > readAheadBudget) {
+                return false;
+            }
+        } while (!reservedBytes.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    private static void release(int bytes) {
+        reservedBytes.addAndGet(-bytes);
+    }
+
+    private int getMaxWindow(int stripeSize) {
+        return Math.max(1, maxReadAhead / stripeSize);
+    }
+
+    private static int getStripeSize(XLocSet xlocs) {
+        // We assume that all replicas use the same striping policy.
+        return xlocs.getReplicas(0).getStripingPolicy().getStripeSize() * 1024;
+    }
+}
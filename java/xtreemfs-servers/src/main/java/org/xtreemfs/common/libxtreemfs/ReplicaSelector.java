@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.xtreemfs.common.libxtreemfs.exceptions.UUIDIteratorListIsEmpyException;
+
+/**
+ * Chooses the replica of a read-only file a read is sent to. Shared by all files of a client.
+ *
+ * The OSDs are ordered by their expected response time, i.e. the moving average of the latency of their reads
+ * multiplied with the number of reads which are currently outstanding at this client plus one. OSDs without a
+ * measured latency come first, so that every replica is tried. OSDs which failed recently come last, but are
+ * still contained in the returned {@link UUIDIterator} to fail over to. Replicas with the same expected response
+ * time are ordered randomly to spread the reads.
+ */
+public class ReplicaSelector {
+
+    /**
+     * Weight of a new latency sample in the moving average (1/8, as for the TCP round-trip time).
+     */
+    private static final int LATENCY_SMOOTHING_SHIFT = 3;
+
+    /**
+     * Statistics of the reads sent to an OSD.
+     */
+    private static class OSDStatistics {
+
+        /**
+         * Moving average of the latency in ns, 0 if unknown.
+         */
+        long averageLatencyNs;
+
+        int  outstandingRequests;
+
+        /**
+         * Time in ms of the last failed read, 0 if there was none.
+         */
+        long lastFailureMs;
+    }
+
+    /**
+     * A read of which the start was recorded by {@link ReplicaSelector#requestStarted(UUIDIterator)}.
+     */
+    public static class Request {
+
+        private final String uuid;
+
+        private final long   startNs;
+
+        private Request(String uuid, long startNs) {
+            this.uuid = uuid;
+            this.startNs = startNs;
+        }
+    }
+
+    private final Map<String, OSDStatistics> statistics;
+
+    /**
+     * Time in ms an OSD is placed behind all others after a failed read.
+     */
+    private final long                       failureTimeoutMs;
+
+    private final Random                     random;
+
+    public ReplicaSelector(long failureTimeoutMs) {
+        this.failureTimeoutMs = failureTimeoutMs;
+        this.statistics = new HashMap<String, OSDStatistics>();
+        this.random = new Random();
+    }
+
+    /**
+     * Returns an iterator over "uuids", the OSD with the shortest expected response time first.
+     */
+    public UUIDIterator getUUIDIterator(List<String> uuids) {
+        final long now = System.currentTimeMillis();
+        List<String> ordered = new ArrayList<String>(uuids);
+        Collections.shuffle(ordered, random);
+
+        final Map<String, Long> expectedResponseTimes = new HashMap<String, Long>();
+        synchronized (this) {
+            for (String uuid : ordered) {
+                OSDStatistics osd = statistics.get(uuid);
+                long expected = 0;
+                if (osd != null) {
+                    if (osd.lastFailureMs != 0 && now - osd.lastFailureMs < failureTimeoutMs) {
+                        expected = Long.MAX_VALUE;
+                    } else {
+                        expected = osd.averageLatencyNs * (osd.outstandingRequests + 1);
+                    }
+                }
+                expectedResponseTimes.put(uuid, expected);
+            }
+        }
+
+        // The sort is stable, i.e. the random order of equal replicas is kept.
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String uuid1, String uuid2) {
+                long expected1 = expectedResponseTimes.get(uuid1);
+                long expected2 = expectedResponseTimes.get(uuid2);
+                return expected1 < expected2 ? -1 : (expected1 == expected2 ? 0 : 1);
+            }
+        });
+        return new UUIDIterator(ordered);
+    }
+
+    /**
+     * Records that a read is sent to the current OSD of "uuidIterator". Returns null if the iterator is empty.
+     */
+    public Request requestStarted(UUIDIterator uuidIterator) {
+        String uuid;
+        try {
+            uuid = uuidIterator.getUUID();
+        } catch (UUIDIteratorListIsEmpyException e) {
+            return null;
+        }
+        synchronized (this) {
+            getStatistics(uuid).outstandingRequests++;
+        }
+        return new Request(uuid, System.nanoTime());
+    }
+
+    /**
+     * Records the end of "request". The read failed at its OSD if it was not successful or if "uuidIterator" moved
+     * on to another OSD in the meantime.
+     */
+    public void requestFinished(Request request, UUIDIterator uuidIterator, boolean successful) {
+        if (request == null) {
+            return;
+        }
+        long latencyNs = System.nanoTime() - request.startNs;
+        if (successful) {
+            try {
+                successful = request.uuid.equals(uuidIterator.getUUID());
+            } catch (UUIDIteratorListIsEmpyException e) {
+                successful = false;
+            }
+        }
+
+        synchronized (this) {
+            OSDStatistics osd = getStatistics(request.uuid);
+            osd.outstandingRequests--;
+            if (!successful) {
+                osd.lastFailureMs = System.currentTimeMillis();
+            } else {
+                osd.lastFailureMs = 0;
+                // Avoid 0, which stands for an unknown latency.
+                latencyNs = Math.max(latencyNs, 1);
+                if (osd.averageLatencyNs == 0) {
+                    osd.averageLatencyNs = latencyNs;
+                } else {
+                    osd.averageLatencyNs += (latencyNs - osd.averageLatencyNs) >> LATENCY_SMOOTHING_SHIFT;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the end of "request" without judging its OSD, e.g. if the read was aborted because another read
+     * failed.
+     */
+    public void requestCancelled(Request request) {
+        if (request == null) {
+            return;
+        }
+        synchronized (this) {
+            getStatistics(request.uuid).outstandingRequests--;
+        }
+    }
+
+    /**
+     * Returns the moving average of the read latency of "uuid" in ns, 0 if unknown.
+     */
+    public synchronized long getAverageLatencyNs(String uuid) {
+        OSDStatistics osd = statistics.get(uuid);
+        return osd == null ? 0 : osd.averageLatencyNs;
+    }
+
+    private OSDStatistics getStatistics(String uuid) {
+        OSDStatistics osd = statistics.get(uuid);
+        if (osd == null) {
+            osd = new OSDStatistics();
+            statistics.put(uuid, osd);
+        }
+        return osd;
+    }
+}
@@ -175,6 +175,16 @@ public interface Volume {
     public FileHandle openFile(UserCredentials userCredentials, String path, int flags, int mode)
             throws IOException, PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Asynchronous version of {@link #openFile(UserCredentials, String, int, int)}. Does not block the calling
+     * thread, except for resolving the address of the MRC.
+     * 
+     * @return the result, which fails with the same exceptions as openFile() would throw. The returned
+     *         {@link FileHandle} has to be closed like one returned by openFile().
+     */
+    public AsyncResult<FileHandle> openFileAsync(UserCredentials userCredentials, String path, int flags,
+            int mode);
+
     /**
      * Truncates the file to "newFileSize" bytes.
      * 
@@ -208,6 +218,30 @@ public interface Volume {
     public Stat getAttr(UserCredentials userCredentials, String path) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException;
 
+    /**
+     * Asynchronous version of {@link #getAttr(UserCredentials, String)}. Returns a completed result if the
+     * attributes are cached.
+     */
+    public AsyncResult<Stat> getAttrAsync(UserCredentials userCredentials, String path);
+
+    /**
+     * Retrieves the attributes of several files or directories. Attributes that are not cached are retrieved
+     * with one request to the MRC per chunk of paths instead of one request per path.
+     * 
+     * @param userCredentials
+     *            Name and Groups of the user.
+     * @param paths
+     *            Paths to the files/directories.
+     * @return The attributes in the order of "paths". An element is null if the path does not exist or
+     *         cannot be accessed.
+     * 
+     * @throws AddressToUUIDNotFoundException
+     * @throws {@link IOException}
+     * @throws PosixErrorException
+     */
+    public List<Stat> getAttrs(UserCredentials userCredentials, List<String> paths) throws IOException,
+            PosixErrorException, AddressToUUIDNotFoundException;
+
     /**
      * Sets the attributes given by "stat" and specified in "toSet".
      * 
@@ -340,6 +374,13 @@ public interface Volume {
             int count, boolean namesOnly) throws IOException, PosixErrorException,
             AddressToUUIDNotFoundException;
 
+    /**
+     * Asynchronous version of {@link #readDir(UserCredentials, String, int, int, boolean)}. Large directories
+     * are read chunk by chunk like by readDir(), without blocking a thread in between.
+     */
+    public AsyncResult<DirectoryEntries> readDirAsync(UserCredentials userCredentials, String path, int offset,
+            int count, boolean namesOnly);
+
     /**
      * Returns the list of extended attributes stored for "path" (Entries may be cached).
      * 
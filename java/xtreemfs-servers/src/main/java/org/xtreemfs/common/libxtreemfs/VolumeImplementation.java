@@ -8,6 +8,8 @@ package org.xtreemfs.common.libxtreemfs;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -15,6 +17,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.common.ReplicaUpdatePolicies;
 import org.xtreemfs.common.libxtreemfs.RPCCaller.CallGenerator;
@@ -47,6 +54,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntries;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.DirectoryEntry;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Setattrs;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.StatVFS;
@@ -80,6 +88,8 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.unlinkResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_suitable_osdsRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_suitable_osdsResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_get_xlocsetRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_addRequest;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_addResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_replica_removeRequest;
@@ -88,6 +98,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_set_replica_update_po
 import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.unlink_osd_Request;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
 
 /**
  * This class represents the volume as it is used internally by libxtreemfs-java.
@@ -175,6 +186,12 @@ public class VolumeImplementation implements Volume, AdminVolume {
      */
     private PeriodicFileSizeUpdateThread                    fileSizeUpdateThread;
 
+    /**
+     * Executes delayed retries of asynchronous operations and the parts of them which may block, e.g. waiting
+     * for pending asynchronous writes.
+     */
+    private ScheduledExecutorService                        asyncExecutor;
+
     /**
      * Maps a StripingPolicyType to a StripeTranslator. Should be filled with all possible StripingPolicys.
      */
@@ -184,6 +201,11 @@ public class VolumeImplementation implements Volume, AdminVolume {
 
     private static final String                             OSD_SELECTION_POLICY     = "xtreemfs.osel_policy";
     private static final String                             REPLICA_SELECTION_POLICY = "xtreemfs.rsel_policy";
+
+    /**
+     * Number of threads of the asyncExecutor.
+     */
+    private static final int                                ASYNC_EXECUTOR_THREADS   = 4;
     
     /**
      * 
@@ -225,6 +247,10 @@ public class VolumeImplementation implements Volume, AdminVolume {
     public void start(boolean startThreadsAsDaemons) throws IOException {
         networkClient = new RPCNIOSocketClient(sslOptions, volumeOptions.getRequestTimeout_s() * 1000,
                 volumeOptions.getLingerTimeout_s() * 1000, "Volume", startThreadsAsDaemons);
+        networkClient.setConnectionPool(volumeOptions.getBulkConnectionsPerServer(),
+                volumeOptions.getMaxRequestsInFlightPerConnection());
+        // Read responses carry the file data.
+        networkClient.addBulkProcedure(OSDServiceConstants.INTERFACE_ID, OSDServiceConstants.PROC_ID_READ);
         networkClient.start();
         try {
             networkClient.waitForStartup();
@@ -244,6 +270,17 @@ public class VolumeImplementation implements Volume, AdminVolume {
         xcapRenewalThread = new PeriodicXcapRenewalThread(this, startThreadsAsDaemons);
         xcapRenewalThread.start();
 
+        final boolean daemon = startThreadsAsDaemons;
+        asyncExecutor = new ScheduledThreadPoolExecutor(ASYNC_EXECUTOR_THREADS, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Volume async " + volumeName + " #" + threadNumber.incrementAndGet());
+                thread.setDaemon(daemon);
+                return thread;
+            }
+        });
     }
 
     /*
@@ -264,6 +301,9 @@ public class VolumeImplementation implements Volume, AdminVolume {
             e.printStackTrace();
         }
 
+        // Retries of asynchronous operations which are still pending fail instead of being sent.
+        asyncExecutor.shutdown();
+
         // There must no FileInfo left in "openFileTable".
         assert (openFileTable.size() == 0);
 
@@ -477,15 +517,7 @@ public class VolumeImplementation implements Volume, AdminVolume {
      */
     public AdminFileHandle openFile(UserCredentials userCredentials, String path, int flags, int mode,
             int truncateNewFileSize) throws IOException, PosixErrorException, AddressToUUIDNotFoundException {
-        boolean asyncWritesEnabled = volumeOptions.isEnableAsyncWrites();
-
-        if ((SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_SYNC.getNumber() & flags) > 0) {
-            if (Logging.isDebug()) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "open called with"
-                        + " O_SYNC, async writes were disabled");
-            }
-            asyncWritesEnabled = false;
-        }
+        boolean asyncWritesEnabled = isAsyncWritesEnabled(flags);
 
         openRequest request = openRequest.newBuilder().setVolumeName(volumeName).setPath(path)
                 .setFlags(flags).setMode(mode).setAttributes(0).build();
@@ -501,7 +533,72 @@ public class VolumeImplementation implements Volume, AdminVolume {
                 });
 
         assert (response != null);
+        return processOpenResponse(userCredentials, path, flags, truncateNewFileSize, asyncWritesEnabled, response);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.Volume#openFileAsync(org.xtreemfs.foundation
+     * .pbrpc.generatedinterfaces.RPC .UserCredentials, java.lang.String, int, int)
+     */
+    @Override
+    public AsyncResult<FileHandle> openFileAsync(final UserCredentials userCredentials, final String path,
+            final int flags, int mode) {
+        final boolean asyncWritesEnabled = isAsyncWritesEnabled(flags);
+
+        openRequest request = openRequest.newBuilder().setVolumeName(volumeName).setPath(path)
+                .setFlags(flags).setMode(mode).setAttributes(0).build();
+
+        final AsyncResult<FileHandle> result = new AsyncResult<FileHandle>();
+        RPCCaller.<openRequest, openResponse> asyncCall(SERVICES.MRC, userCredentials, authBogus, volumeOptions,
+                uuidResolver, mrcUUIDIterator, false, request, null, new CallGenerator<openRequest, openResponse>() {
+                    @Override
+                    public RPCResponse<openResponse> executeCall(InetSocketAddress server, Auth authHeader,
+                            UserCredentials userCreds, openRequest input) throws IOException {
+                        return mrcServiceClient.open(server, authHeader, userCreds, input);
+                    }
+                }, asyncExecutor).registerListener(new AsyncResultListener<openResponse>() {
+            @Override
+            public void resultAvailable(final AsyncResult<openResponse> response) {
+                // Processed by the executor, because truncating the file on O_TRUNC blocks.
+                executeAsync(result, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            result.complete(processOpenResponse(userCredentials, path, flags, 0,
+                                    asyncWritesEnabled, response.getCompletedResult()));
+                        } catch (IOException e) {
+                            result.fail(e);
+                        }
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns false if asynchronous writes are disabled globally or by the open flags.
+     */
+    private boolean isAsyncWritesEnabled(int flags) {
+        if ((SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_SYNC.getNumber() & flags) > 0) {
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.misc, this, "open called with"
+                        + " O_SYNC, async writes were disabled");
+            }
+            return false;
+        }
+        return volumeOptions.isEnableAsyncWrites();
+    }
 
+    /**
+     * Creates the file handle for the response of the MRC to an open request and truncates the file if
+     * O_TRUNC was set.
+     */
+    private AdminFileHandle processOpenResponse(UserCredentials userCredentials, String path, int flags,
+            int truncateNewFileSize, boolean asyncWritesEnabled, openResponse response) throws IOException,
+            PosixErrorException, AddressToUUIDNotFoundException {
         // We must have obtained file credentials.
         assert (response.hasCreds());
 
@@ -616,6 +713,92 @@ public class VolumeImplementation implements Volume, AdminVolume {
         return stat;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.Volume#getAttrAsync(org.xtreemfs.foundation
+     * .pbrpc.generatedinterfaces.RPC .UserCredentials, java.lang.String)
+     */
+    @Override
+    public AsyncResult<Stat> getAttrAsync(UserCredentials userCredentials, final String path) {
+        Stat stat = metadataCache.getStat(path);
+        if (stat != null) {
+            return mergeStatAsync(stat);
+        }
+
+        getattrRequest request = getattrRequest.newBuilder().setVolumeName(volumeName).setPath(path)
+                .setKnownEtag(0).build();
+
+        final AsyncResult<Stat> result = new AsyncResult<Stat>();
+        RPCCaller.<getattrRequest, getattrResponse> asyncCall(SERVICES.MRC, userCredentials, authBogus,
+                volumeOptions, uuidResolver, mrcUUIDIterator, false, request, null,
+                new CallGenerator<getattrRequest, getattrResponse>() {
+                    @Override
+                    public RPCResponse<getattrResponse> executeCall(InetSocketAddress server, Auth authHeader,
+                            UserCredentials userCreds, getattrRequest input) throws IOException {
+                        return mrcServiceClient.getattr(server, authHeader, userCreds, input);
+                    }
+                }, asyncExecutor).registerListener(new AsyncResultListener<getattrResponse>() {
+            @Override
+            public void resultAvailable(AsyncResult<getattrResponse> response) {
+                final AsyncResult<Stat> merged;
+                try {
+                    merged = mergeStatAsync(cacheStat(path, response.getCompletedResult().getStbuf()));
+                } catch (IOException e) {
+                    result.fail(e);
+                    return;
+                }
+                merged.registerListener(new AsyncResultListener<Stat>() {
+                    @Override
+                    public void resultAvailable(AsyncResult<Stat> stat) {
+                        try {
+                            result.complete(stat.getCompletedResult());
+                        } catch (IOException e) {
+                            result.fail(e);
+                        }
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Merges "stat" with the information of the FileInfo if the file is open, like getAttr() does. Waiting for
+     * pending asynchronous writes is done by the executor.
+     */
+    private AsyncResult<Stat> mergeStatAsync(final Stat stat) {
+        final FileInfo fileInfo = openFileTable.get(stat.getIno()); // Ino == fileId
+        if (fileInfo == null) {
+            return AsyncResult.succeeded(stat);
+        }
+        if (!fileInfo.hasPendingAsyncWrites()) {
+            return AsyncResult.succeeded(fileInfo.mergeStatAndOSDWriteResponse(stat));
+        }
+
+        final AsyncResult<Stat> result = new AsyncResult<Stat>();
+        executeAsync(result, new Runnable() {
+            @Override
+            public void run() {
+                fileInfo.waitForPendingAsyncWrites();
+                result.complete(fileInfo.mergeStatAndOSDWriteResponse(stat));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Caches the stat object retrieved from the MRC, unless it belongs to a hard link.
+     */
+    private Stat cacheStat(String path, Stat stat) {
+        if (stat.getNlink() > 1) { // Do not cache hardlinks
+            metadataCache.invalidate(path);
+        } else {
+            metadataCache.updateStat(path, stat);
+        }
+        return stat;
+    }
+
     private Stat getAttrHelper(UserCredentials userCredentials, String path) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
         // Check if Stat object is cached.
@@ -646,16 +829,86 @@ public class VolumeImplementation implements Volume, AdminVolume {
 
             assert (response != null);
 
-            stat = response.getStbuf();
-            if (stat.getNlink() > 1) { // Do not cache hardlinks
-                metadataCache.invalidate(path);
-            } else {
-                metadataCache.updateStat(path, stat);
-            }
+            stat = cacheStat(path, response.getStbuf());
         }
         return stat;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.Volume#getAttrs(org.xtreemfs.foundation
+     * .pbrpc.generatedinterfaces.RPC .UserCredentials, java.util.List)
+     */
+    @Override
+    public List<Stat> getAttrs(UserCredentials userCredentials, List<String> paths) throws IOException,
+            PosixErrorException, AddressToUUIDNotFoundException {
+        Stat[] stats = new Stat[paths.size()];
+
+        // Serve as many Stat objects as possible from the cache.
+        List<Integer> uncached = new ArrayList<Integer>();
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = metadataCache.getStat(paths.get(i));
+            if (stats[i] == null) {
+                uncached.add(i);
+            }
+        }
+
+        // Retrieve the others from the MRC in chunks of readdirChunkSize.
+        int chunkSize = volumeOptions.getReaddirChunkSize();
+        for (int chunkStart = 0; chunkStart < uncached.size(); chunkStart += chunkSize) {
+            List<Integer> chunk = uncached.subList(chunkStart, Math.min(chunkStart + chunkSize, uncached.size()));
+
+            xtreemfs_getattrsRequest.Builder request = xtreemfs_getattrsRequest.newBuilder().setVolumeName(
+                    volumeName);
+            for (int i : chunk) {
+                request.addPaths(paths.get(i));
+            }
+
+            xtreemfs_getattrsResponse response = RPCCaller
+                    .<xtreemfs_getattrsRequest, xtreemfs_getattrsResponse> syncCall(SERVICES.MRC, userCredentials,
+                            authBogus, volumeOptions, uuidResolver, mrcUUIDIterator, false, request.build(),
+                            new CallGenerator<xtreemfs_getattrsRequest, xtreemfs_getattrsResponse>() {
+                                @Override
+                                public RPCResponse<xtreemfs_getattrsResponse> executeCall(
+                                        InetSocketAddress server, Auth authHeader, UserCredentials userCreds,
+                                        xtreemfs_getattrsRequest input) throws IOException {
+                                    return mrcServiceClient.xtreemfs_getattrs(server, authHeader, userCreds,
+                                            input);
+                                }
+                            });
+
+            assert (response != null);
+            if (response.getStatsCount() != chunk.size()) {
+                throw new IOException("the MRC returned " + response.getStatsCount() + " attributes for "
+                        + chunk.size() + " paths");
+            }
+
+            List<String> chunkPaths = new ArrayList<String>(chunk.size());
+            List<Stat> chunkStats = new ArrayList<Stat>(chunk.size());
+            for (int j = 0; j < chunk.size(); j++) {
+                if (response.getStats(j).hasStbuf()) {
+                    stats[chunk.get(j)] = response.getStats(j).getStbuf();
+                    chunkPaths.add(paths.get(chunk.get(j)));
+                    chunkStats.add(stats[chunk.get(j)]);
+                }
+            }
+            metadataCache.updateStats(chunkPaths, chunkStats);
+        }
+
+        // Merge the Stat objects of open files with possibly newer information, like getAttr() does.
+        for (int i = 0; i < stats.length; i++) {
+            if (stats[i] != null) {
+                FileInfo fileInfo = openFileTable.get(stats[i].getIno()); // Ino == fileId
+                if (fileInfo != null) {
+                    fileInfo.waitForPendingAsyncWrites();
+                    stats[i] = fileInfo.mergeStatAndOSDWriteResponse(stats[i]);
+                }
+            }
+        }
+        return Arrays.asList(stats);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -973,16 +1226,17 @@ public class VolumeImplementation implements Volume, AdminVolume {
 
         DirectoryEntries.Builder dirEntriesBuilder = DirectoryEntries.newBuilder();
 
+        // Name of the last entry returned by the previous chunk. It allows the
+        // MRC to continue the listing right after this entry instead of
+        // skipping all entries that have been seen already.
+        String lastEntryName = null;
+
         // Process large requests in multiples of readdirChunkSize.
         for (int currentOffset = offset; currentOffset < offset + count; currentOffset += volumeOptions
                 .getReaddirChunkSize()) {
 
-            int limitDirEntriesCount = (currentOffset > offset + count) ? (currentOffset - offset - count)
-                    : volumeOptions.getReaddirChunkSize();
-
-            readdirRequest request = readdirRequest.newBuilder().setPath(path).setVolumeName(volumeName)
-                    .setNamesOnly(namesOnly).setKnownEtag(0).setSeenDirectoryEntriesCount(currentOffset)
-                    .setLimitDirectoryEntriesCount(limitDirEntriesCount).build();
+            readdirRequest request = buildReaddirRequest(path, offset, count, namesOnly, currentOffset,
+                    lastEntryName);
 
             DirectoryEntries readDirResponse = RPCCaller.<readdirRequest, DirectoryEntries> syncCall(SERVICES.MRC,
                     userCredentials,
@@ -999,6 +1253,7 @@ public class VolumeImplementation implements Volume, AdminVolume {
             assert (readDirResponse != null);
 
             dirEntriesBuilder.addAllEntries(readDirResponse.getEntriesList());
+            lastEntryName = getLastEntryName(readDirResponse, currentOffset);
 
             // Break if this is the last chunk.
             if (dirEntriesBuilder.getEntriesCount() < (currentOffset + volumeOptions.getReaddirChunkSize())) {
@@ -1006,26 +1261,163 @@ public class VolumeImplementation implements Volume, AdminVolume {
             }
         }
 
+        return cacheReadDirResult(path, offset, count, namesOnly, dirEntriesBuilder);
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.xtreemfs.common.libxtreemfs.Volume#readDirAsync(org.xtreemfs.foundation
+     * .pbrpc.generatedinterfaces.RPC .UserCredentials, java.lang.String, int, int, boolean)
+     */
+    @Override
+    public AsyncResult<DirectoryEntries> readDirAsync(UserCredentials userCredentials, String path, int offset,
+            int count, boolean namesOnly) {
+        if (count == 0) {
+            count = Integer.MAX_VALUE - offset - 1;
+        }
+
+        DirectoryEntries result = metadataCache.getDirEntries(path, offset, count);
+        if (result != null) {
+            return AsyncResult.succeeded(result);
+        }
+
+        ReadDirOperation operation = new ReadDirOperation(userCredentials, path, offset, count, namesOnly);
+        operation.sendNextChunk();
+        return operation;
+    }
+
+    /**
+     * State of a readDirAsync() call. Each chunk is requested after the previous one was received.
+     */
+    private class ReadDirOperation extends AsyncResult<DirectoryEntries> implements
+            AsyncResultListener<DirectoryEntries> {
+
+        private final UserCredentials          userCredentials;
+
+        private final String                   path;
+
+        private final int                      offset;
+
+        private final int                      count;
+
+        private final boolean                  namesOnly;
+
+        private final DirectoryEntries.Builder dirEntriesBuilder;
+
+        private int                            currentOffset;
+
+        private String                         lastEntryName;
+
+        ReadDirOperation(UserCredentials userCredentials, String path, int offset, int count, boolean namesOnly) {
+            this.userCredentials = userCredentials;
+            this.path = path;
+            this.offset = offset;
+            this.count = count;
+            this.namesOnly = namesOnly;
+            this.dirEntriesBuilder = DirectoryEntries.newBuilder();
+            this.currentOffset = offset;
+        }
+
+        void sendNextChunk() {
+            readdirRequest request = buildReaddirRequest(path, offset, count, namesOnly, currentOffset,
+                    lastEntryName);
+            RPCCaller.<readdirRequest, DirectoryEntries> asyncCall(SERVICES.MRC, userCredentials, authBogus,
+                    volumeOptions, uuidResolver, mrcUUIDIterator, false, request, null,
+                    new CallGenerator<readdirRequest, DirectoryEntries>() {
+                        @Override
+                        public RPCResponse<DirectoryEntries> executeCall(InetSocketAddress server,
+                                Auth authHeader, UserCredentials userCreds, readdirRequest input)
+                                throws IOException {
+                            return mrcServiceClient.readdir(server, authHeader, userCreds, input);
+                        }
+                    }, asyncExecutor).registerListener(this);
+        }
+
+        @Override
+        public void resultAvailable(AsyncResult<DirectoryEntries> chunk) {
+            DirectoryEntries readDirResponse;
+            try {
+                readDirResponse = chunk.getCompletedResult();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+
+            dirEntriesBuilder.addAllEntries(readDirResponse.getEntriesList());
+            lastEntryName = getLastEntryName(readDirResponse, currentOffset);
+
+            // Complete if this is the last chunk.
+            int chunkSize = volumeOptions.getReaddirChunkSize();
+            if (dirEntriesBuilder.getEntriesCount() < currentOffset + chunkSize
+                    || currentOffset + chunkSize >= offset + count) {
+                complete(cacheReadDirResult(path, offset, count, namesOnly, dirEntriesBuilder));
+                return;
+            }
+
+            // The next chunk is sent by the executor instead of the network thread, since resolving the
+            // address of the MRC may block.
+            currentOffset += chunkSize;
+            executeAsync(this, new Runnable() {
+                @Override
+                public void run() {
+                    sendNextChunk();
+                }
+            });
+        }
+    }
+
+    private readdirRequest buildReaddirRequest(String path, int offset, int count, boolean namesOnly,
+            int currentOffset, String lastEntryName) {
+        int limitDirEntriesCount = (currentOffset > offset + count) ? (currentOffset - offset - count)
+                : volumeOptions.getReaddirChunkSize();
+
+        readdirRequest.Builder requestBuilder = readdirRequest.newBuilder().setPath(path)
+                .setVolumeName(volumeName).setNamesOnly(namesOnly).setKnownEtag(0)
+                .setSeenDirectoryEntriesCount(currentOffset).setLimitDirectoryEntriesCount(limitDirEntriesCount);
+        if (lastEntryName != null) {
+            requestBuilder.setLastDirectoryEntryName(lastEntryName);
+        }
+        return requestBuilder.build();
+    }
+
+    /**
+     * Returns the name that continues the listing after the chunk "readDirResponse", or null.
+     */
+    private static String getLastEntryName(DirectoryEntries readDirResponse, int currentOffset) {
+        // "." and ".." are the first two entries; only the names of
+        // directory children can be used to continue the listing.
+        int numEntries = readDirResponse.getEntriesCount();
+        return (numEntries > 0 && currentOffset + numEntries > 2) ? readDirResponse.getEntries(numEntries - 1)
+                .getName() : null;
+    }
+
+    /**
+     * Caches the stat objects of the listed entries and, if it is the complete directory, the listing.
+     */
+    private DirectoryEntries cacheReadDirResult(String path, int offset, int count, boolean namesOnly,
+            DirectoryEntries.Builder dirEntriesBuilder) {
         // TODO: Merge possible pending file size updates of files into
         // the stat entries of listed files.
 
-        // Cache the first stat buffers that fit into the cache.
+        // Cache the first stat buffers that fit into the cache. All of them were retrieved at the same time
+        // and get the same timeout.
         int minimum = //
         (volumeOptions.getMetadataCacheSize() > dirEntriesBuilder.getEntriesCount()) //
         ? dirEntriesBuilder.getEntriesCount()
                 : volumeOptions.getMetadataCacheSize();
 
+        List<String> paths = new ArrayList<String>(minimum);
+        List<Stat> stats = new ArrayList<Stat>(minimum);
         for (int i = 0; i < minimum; i++) {
-            if (dirEntriesBuilder.getEntries(i).hasStbuf()) {
-                if (dirEntriesBuilder.getEntries(i).getStbuf().getNlink() > 1) { // Do not cache hard links.
-                    metadataCache.invalidate(path);
-                } else {
-                    metadataCache.updateStat(
-                            Helper.concatenatePath(path, dirEntriesBuilder.getEntries(i).getName()),
-                            dirEntriesBuilder.getEntries(i).getStbuf());
-                }
+            DirectoryEntry entry = dirEntriesBuilder.getEntries(i);
+            if (entry.hasStbuf()) {
+                // "." and ".." are cached under the path of the directory and its parent.
+                paths.add(Helper.concatenatePath(path, entry.getName()));
+                stats.add(entry.getStbuf());
             }
         }
+        metadataCache.updateStats(paths, stats);
 
         // Cache the result if it's the complete directory.
         // We can't tell for sure whether result contains all directory entries
@@ -1035,7 +1427,7 @@ public class VolumeImplementation implements Volume, AdminVolume {
         // condition.
         // TODO: Set an upper bound of dentries, otherwise don't cache it.
 
-        result = dirEntriesBuilder.build();
+        DirectoryEntries result = dirEntriesBuilder.build();
 
         if (!namesOnly && offset == 0 && result.getEntriesCount() < count) {
             metadataCache.updateDirEntries(path, result);
@@ -1043,6 +1435,17 @@ public class VolumeImplementation implements Volume, AdminVolume {
         return result;
     }
 
+    /**
+     * Executes "task" by the asyncExecutor. Fails "result" if the volume was closed already.
+     */
+    protected void executeAsync(AsyncResult<?> result, Runnable task) {
+        try {
+            asyncExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            result.fail(new IOException("the operation was aborted because the volume was closed"));
+        }
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -1736,6 +2139,18 @@ public class VolumeImplementation implements Volume, AdminVolume {
         return this.metadataCache;
     }
 
+    protected ObjectDataCache getObjectDataCache() {
+        return client.getObjectDataCache();
+    }
+
+    protected ReplicaSelector getReplicaSelector() {
+        return client.getReplicaSelector();
+    }
+
+    protected ScheduledExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -9,6 +9,7 @@ package org.xtreemfs.common.libxtreemfs.jni;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import org.xtreemfs.common.libxtreemfs.AsyncResult;
 import org.xtreemfs.common.libxtreemfs.FileHandle;
 import org.xtreemfs.common.libxtreemfs.exceptions.AddressToUUIDNotFoundException;
 import org.xtreemfs.common.libxtreemfs.exceptions.PosixErrorException;
@@ -39,6 +40,19 @@ public class NativeFileHandle implements FileHandle {
         return proxy.read(data, dataOffset, count, offset);
     }
 
+    /**
+     * The native client has no asynchronous interface, so the read is executed synchronously.
+     */
+    @Override
+    public AsyncResult<Integer> readAsync(UserCredentials userCredentials, byte[] data, int dataOffset, int count,
+            long offset) {
+        try {
+            return AsyncResult.succeeded(read(userCredentials, data, dataOffset, count, offset));
+        } catch (IOException e) {
+            return AsyncResult.failed(e);
+        }
+    }
+
     public int read(UserCredentials userCredentials, ByteBuffer data, int count, long offset) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
         // UserCredentials are not used internally.
@@ -65,6 +79,19 @@ public class NativeFileHandle implements FileHandle {
         return proxy.write(data, dataOffset, count, offset);
     }
 
+    /**
+     * The native client has no asynchronous interface, so the write is executed synchronously.
+     */
+    @Override
+    public AsyncResult<Integer> writeAsync(UserCredentials userCredentials, byte[] data, int dataOffset,
+            int count, long offset) {
+        try {
+            return AsyncResult.succeeded(write(userCredentials, data, dataOffset, count, offset));
+        } catch (IOException e) {
+            return AsyncResult.failed(e);
+        }
+    }
+
     public int write(UserCredentials userCredentials, ByteBuffer data, int count, long offset) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
         // UserCredentials are not used internally.
@@ -7,6 +7,7 @@
 package org.xtreemfs.common.libxtreemfs.jni;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -14,6 +15,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import org.xtreemfs.common.libxtreemfs.AsyncResult;
 import org.xtreemfs.common.libxtreemfs.FileHandle;
 import org.xtreemfs.common.libxtreemfs.Helper;
 import org.xtreemfs.common.libxtreemfs.Volume;
@@ -132,6 +134,19 @@ public class NativeVolume implements Volume {
         return fileHandleNative;
     }
 
+    /**
+     * The native client has no asynchronous interface, so the file is opened synchronously.
+     */
+    @Override
+    public AsyncResult<FileHandle> openFileAsync(UserCredentials userCredentials, String path, int flags,
+            int mode) {
+        try {
+            return AsyncResult.<FileHandle> succeeded(openFile(userCredentials, path, flags, mode));
+        } catch (IOException e) {
+            return AsyncResult.failed(e);
+        }
+    }
+
     @Override
     public void truncate(UserCredentials userCredentials, String path, int newFileSize) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
@@ -144,6 +159,41 @@ public class NativeVolume implements Volume {
         return proxy.getAttr(userCredentials, path);
     }
 
+    /**
+     * The native client has no asynchronous interface, so the attributes are retrieved synchronously.
+     */
+    @Override
+    public AsyncResult<Stat> getAttrAsync(UserCredentials userCredentials, String path) {
+        try {
+            return AsyncResult.succeeded(getAttr(userCredentials, path));
+        } catch (IOException e) {
+            return AsyncResult.failed(e);
+        }
+    }
+
+    /**
+     * The native client has no bulk operation, so the attributes are retrieved one by one.
+     */
+    @Override
+    public List<Stat> getAttrs(UserCredentials userCredentials, List<String> paths) throws IOException,
+            PosixErrorException, AddressToUUIDNotFoundException {
+        List<Stat> stats = new ArrayList<Stat>(paths.size());
+        for (String path : paths) {
+            try {
+                stats.add(getAttr(userCredentials, path));
+            } catch (PosixErrorException pee) {
+                if (pee.getPosixError().equals(POSIXErrno.POSIX_ERROR_ENOENT)
+                        || pee.getPosixError().equals(POSIXErrno.POSIX_ERROR_ENOTDIR)
+                        || pee.getPosixError().equals(POSIXErrno.POSIX_ERROR_EACCES)) {
+                    stats.add(null);
+                } else {
+                    throw pee;
+                }
+            }
+        }
+        return stats;
+    }
+
     @Override
     public void setAttr(UserCredentials userCredentials, String path, Stat stat, int toSet) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
@@ -216,6 +266,19 @@ public class NativeVolume implements Volume {
         return proxy.readDir(userCredentials, path, offset, count, namesOnly);
     }
 
+    /**
+     * The native client has no asynchronous interface, so the directory is read synchronously.
+     */
+    @Override
+    public AsyncResult<DirectoryEntries> readDirAsync(UserCredentials userCredentials, String path, int offset,
+            int count, boolean namesOnly) {
+        try {
+            return AsyncResult.succeeded(readDir(userCredentials, path, offset, count, namesOnly));
+        } catch (IOException e) {
+            return AsyncResult.failed(e);
+        }
+    }
+
     @Override
     public listxattrResponse listXAttrs(UserCredentials userCredentials, String path) throws IOException,
             PosixErrorException, AddressToUUIDNotFoundException {
@@ -57,6 +57,8 @@ public class MRCConfig extends ServiceConfig {
             Parameter.CAPABILITY_TIMEOUT,
             Parameter.ADMIN_PASSWORD,
             Parameter.RENEW_TIMED_OUT_CAPS,
+            Parameter.PROCESSING_READ_THREADS,
+            Parameter.PROCESSING_VOLUME_LANES,
             Parameter.USE_SNMP,
             Parameter.SNMP_ADDRESS,
             Parameter.SNMP_PORT,
@@ -64,6 +66,7 @@ public class MRCConfig extends ServiceConfig {
             Parameter.FAILOVER_MAX_RETRIES,
             Parameter.FAILOVER_WAIT,
             Parameter.MAX_CLIENT_Q,
+            Parameter.SELECTOR_THREADS,
             Parameter.USE_RENEWAL_SIGNAL,
             Parameter.USE_MULTIHOMING,
             Parameter.FLEASE_LEASE_TIMEOUT_MS
@@ -149,6 +152,23 @@ public class MRCConfig extends ServiceConfig {
 
     }
 
+    /**
+     * @return the number of threads executing read-only operations; 0 if all
+     *         operations are executed by the processing stage thread
+     */
+    public int getProcessingReadThreads() {
+        return (Integer) parameter.get(Parameter.PROCESSING_READ_THREADS);
+    }
+
+    /**
+     * @return the number of threads executing mutating operations, each of
+     *         which serves a disjoint subset of all volumes; 0 if mutations
+     *         are executed by the processing stage thread
+     */
+    public int getProcessingVolumeLanes() {
+        return (Integer) parameter.get(Parameter.PROCESSING_VOLUME_LANES);
+    }
+
     /**
      * Set default values according to the value in {@link Parameter} for all configuration parameter which
      * are null.
@@ -195,7 +195,7 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
                 "MRCRequestDispatcher");
         clientStage.setLifeCycleListener(this);
 
-        serverStage = new RPCNIOSocketServer(config.getPort(), config.getAddress(), this, sslOptions, config.getBindRetries(), -1, config.getMaxClientQ());
+        serverStage = new RPCNIOSocketServer(config.getPort(), config.getAddress(), this, sslOptions, config.getBindRetries(), -1, config.getMaxClientQ(), config.getSelectorThreads());
         serverStage.setLifeCycleListener(this);
 
         DIRServiceClient dirRpcClient = new DIRServiceClient(clientStage, config.getDirectoryService());
@@ -216,7 +216,8 @@ public class MRCRequestDispatcher implements RPCServerRequestListener, LifeCycle
         xLocSetCoordinator = new XLocSetCoordinator(this);
         xLocSetCoordinator.setLifeCycleListener(this);
 
-        procStage = new ProcessingStage(this);
+        procStage = new ProcessingStage(this, config.getProcessingReadThreads(),
+                config.getProcessingVolumeLanes());
 
         mrcQuotaManager = new QuotaManager();
         mrcVoucherManager = new VoucherManager(mrcQuotaManager);
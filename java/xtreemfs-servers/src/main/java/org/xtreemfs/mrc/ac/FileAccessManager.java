@@ -8,9 +8,9 @@
 
 package org.xtreemfs.mrc.ac;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
@@ -71,7 +71,7 @@ public class FileAccessManager {
         this.volMan = volMan;
         this.policyContainer = policyContainer;
         
-        policies = new HashMap<Short, FileAccessPolicy>();
+        policies = new ConcurrentHashMap<Short, FileAccessPolicy>();
     }
     
     public void checkSearchPermission(StorageManager sMan, PathResolver path, String userId,
@@ -153,7 +153,8 @@ public class FileAccessManager {
         if (policy == null) {
             try {
                 policy = policyContainer.getFileAccessPolicy(policyId, volMan);
-                policies.put(policyId, policy);
+                if (policy != null)
+                    policies.put(policyId, policy);
             } catch (Exception exc) {
                 Logging.logMessage(Logging.LEVEL_WARN, Category.misc, this,
                     "could not load FileAccessPolicy with ID %d", policyId);
@@ -201,6 +201,22 @@ public interface StorageManager {
     
     public DatabaseResultSet<FileMetadata> getChildren(long parentId, int seen, int num) throws DatabaseException;
     
+    /**
+     * Returns the children of a directory, starting with the first child
+     * following <code>startAfter</code> in the order in which children are
+     * returned.
+     * 
+     * @param parentId
+     *            the directory ID
+     * @param startAfter
+     *            the name of the last child returned by a previous call, or
+     *            <code>null</code> to start with the first child
+     * @param num
+     *            the maximum number of children to return
+     */
+    public DatabaseResultSet<FileMetadata> getChildren(long parentId, String startAfter, int num)
+        throws DatabaseException;
+    
     // handling snapshots
     
     public void createSnapshot(String snapName, long parentId, String dirName, boolean recursive)
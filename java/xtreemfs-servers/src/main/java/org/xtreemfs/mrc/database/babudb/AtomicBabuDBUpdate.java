@@ -14,6 +14,7 @@ import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.mrc.database.AtomicDBUpdate;
 import org.xtreemfs.mrc.database.DatabaseException;
+import org.xtreemfs.mrc.stages.ProcessingLanes;
 
 public class AtomicBabuDBUpdate implements AtomicDBUpdate {
     
@@ -55,7 +56,19 @@ public class AtomicBabuDBUpdate implements AtomicDBUpdate {
             // checkDBConsistency();
             
             if (listener != null) {
-                database.insert(ig, context).registerListener(listener);
+                
+                // if executed on a processing lane, keep the lane until the
+                // update has been applied
+                final Runnable lane = ProcessingLanes.holdLane();
+                try {
+                    database.insert(ig, context).registerListener(
+                        lane == null ? listener : new LaneReleasingListener(listener, lane));
+                } catch (Exception exc) {
+                    if (lane != null)
+                        lane.run();
+                    throw exc;
+                }
+                
             } else
                 database.insert(ig, context).get();
             
@@ -68,6 +81,40 @@ public class AtomicBabuDBUpdate implements AtomicDBUpdate {
         return ig.toString();
     }
     
+    /**
+     * Releases the processing lane of an update once its result has been
+     * delivered.
+     */
+    private static final class LaneReleasingListener implements DatabaseRequestListener<Object> {
+        
+        private final DatabaseRequestListener<Object> listener;
+        
+        private final Runnable                        lane;
+        
+        public LaneReleasingListener(DatabaseRequestListener<Object> listener, Runnable lane) {
+            this.listener = listener;
+            this.lane = lane;
+        }
+        
+        @Override
+        public void finished(Object result, Object context) {
+            try {
+                listener.finished(result, context);
+            } finally {
+                lane.run();
+            }
+        }
+        
+        @Override
+        public void failed(BabuDBException error, Object context) {
+            try {
+                listener.failed(error, context);
+            } finally {
+                lane.run();
+            }
+        }
+    }
+    
     // private void checkDBConsistency() {
     //        
     // Map<String, byte[][]> prefixEntries = new HashMap<String, byte[][]>();
@@ -810,6 +810,41 @@ public class BabuDBStorageHelper {
         return new ChildrenIterator(database, it, from, num);
     }
     
+    /**
+     * Returns an iterator over the children of a directory, starting with the
+     * first child following the given file name. Unlike
+     * {@link #getChildren(DatabaseRO, long, int, int)}, entries preceding the
+     * start position are not scanned, which makes paging through large
+     * directories linear in the number of entries.
+     * 
+     * @param database
+     *            the database
+     * @param parentId
+     *            the ID of the directory
+     * @param startAfter
+     *            the name of the last child returned by a previous call, or
+     *            <code>null</code> to start with the first child
+     * @param num
+     *            the maximum number of children to return
+     */
+    public static ChildrenIterator getChildren(DatabaseRO database, long parentId, String startAfter, int num)
+        throws BabuDBException {
+        
+        if (startAfter == null)
+            return getChildren(database, parentId, 0, num);
+        
+        // all keys of a file consist of the parent ID, the file name and a
+        // type byte, so that the first key following the file name is the one
+        // following its last type byte
+        byte[] from = BabuDBStorageHelper.createFileKey(parentId, startAfter,
+            (byte) BufferBackedFileMetadata.NUM_BUFFERS);
+        byte[] to = BabuDBStorageHelper.createFilePrefixKey(parentId + 1);
+        ResultSet<byte[], byte[]> it = database.rangeLookup(BabuDBStorageManager.FILE_INDEX, from, to, null)
+                .get();
+        
+        return new ChildrenIterator(database, it, 0, num);
+    }
+    
     public static void getNestedFiles(List<FileMetadata> files, Database database, long dirId,
         boolean recursive) throws BabuDBException {
         
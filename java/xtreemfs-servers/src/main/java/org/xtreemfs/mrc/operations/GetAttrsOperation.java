@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.operations;
+
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.mrc.MRCRequest;
+import org.xtreemfs.mrc.MRCRequestDispatcher;
+import org.xtreemfs.mrc.UserException;
+import org.xtreemfs.mrc.ac.FileAccessManager;
+import org.xtreemfs.mrc.database.StorageManager;
+import org.xtreemfs.mrc.database.VolumeInfo;
+import org.xtreemfs.mrc.database.VolumeManager;
+import org.xtreemfs.mrc.utils.Path;
+import org.xtreemfs.mrc.utils.PathResolver;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.getattrResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.xtreemfs_getattrsResponse;
+
+/**
+ * Returns the attributes of several files or directories of a volume, like a sequence of
+ * {@link StatOperation}s. Paths that do not exist or cannot be accessed do not fail the request; they are
+ * returned without attributes.
+ */
+public class GetAttrsOperation extends MRCOperation {
+    
+    public GetAttrsOperation(MRCRequestDispatcher master) {
+        super(master);
+    }
+    
+    @Override
+    public void startRequest(MRCRequest rq) throws Throwable {
+        
+        final xtreemfs_getattrsRequest rqArgs = (xtreemfs_getattrsRequest) rq.getRequestArgs();
+        
+        final VolumeManager vMan = master.getVolumeManager();
+        final FileAccessManager faMan = master.getFileAccessManager();
+        
+        validateContext(rq);
+        
+        final StorageManager sMan = vMan.getStorageManagerByName(rqArgs.getVolumeName());
+        final VolumeInfo volume = sMan.getVolumeInfo();
+        
+        xtreemfs_getattrsResponse.Builder response = xtreemfs_getattrsResponse.newBuilder();
+        
+        for (String path : rqArgs.getPathsList()) {
+            
+            getattrResponse.Builder stat = getattrResponse.newBuilder();
+            
+            try {
+                PathResolver res = new PathResolver(sMan, new Path(rqArgs.getVolumeName(), path));
+                
+                // check whether the path prefix is searchable
+                faMan.checkSearchPermission(sMan, res, rq.getDetails().userId, rq.getDetails().superUser, rq
+                        .getDetails().groupIds);
+                
+                // check whether file exists
+                res.checkIfFileDoesNotExist();
+                
+                stat.setStbuf(ReadDirAndStatOperation.getStat(sMan, faMan, rq, volume, res.getFile()));
+                
+            } catch (UserException exc) {
+                // return the path without attributes if it cannot be stat'ed
+                if (exc.getErrno() != POSIXErrno.POSIX_ERROR_ENOENT
+                    && exc.getErrno() != POSIXErrno.POSIX_ERROR_ENOTDIR
+                    && exc.getErrno() != POSIXErrno.POSIX_ERROR_EACCES)
+                    throw exc;
+            }
+            
+            response.addStats(stat);
+        }
+        
+        // set the response
+        rq.setResponse(response.build());
+        
+        finishRequest(rq);
+    }
+    
+}
@@ -145,9 +145,14 @@ public class ReadDirAndStatOperation extends MRCOperation {
                 dirContent.addEntries(entry);
             }
             
-            // get all children
-            DatabaseResultSet<FileMetadata> it = sMan.getChildren(res.getFile().getId(), seenEntries - 2, numEntries
-                - dirContent.getEntriesCount());
+            // get all children; if the client has provided the name of the
+            // last entry it has seen, continue directly after this entry
+            // instead of skipping all entries that have been seen already
+            final String lastEntryName = rqArgs.getLastDirectoryEntryName().length() > 0 && seenEntries > 2 ? rqArgs
+                    .getLastDirectoryEntryName() : null;
+            DatabaseResultSet<FileMetadata> it = lastEntryName != null ? sMan.getChildren(res.getFile().getId(),
+                lastEntryName, numEntries - dirContent.getEntriesCount()) : sMan.getChildren(res.getFile()
+                    .getId(), seenEntries - 2, numEntries - dirContent.getEntriesCount());
             while (it.hasNext()) {
                 
                 FileMetadata child = it.next();
@@ -173,7 +178,7 @@ public class ReadDirAndStatOperation extends MRCOperation {
         update.execute();
     }
     
-    private Stat getStat(StorageManager sMan, FileAccessManager faMan, MRCRequest rq, VolumeInfo volume,
+    static Stat getStat(StorageManager sMan, FileAccessManager faMan, MRCRequest rq, VolumeInfo volume,
         FileMetadata file) throws DatabaseException, MRCException {
         
         // FIXME: merge w/ 'stat' operation
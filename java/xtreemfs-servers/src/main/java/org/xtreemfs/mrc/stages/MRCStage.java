@@ -8,14 +8,17 @@
 
 package org.xtreemfs.mrc.stages;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.xtreemfs.foundation.LifeCycleThread;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.monitoring.LatencyHistogram;
+import org.xtreemfs.foundation.queue.LinkedStageQueue;
+import org.xtreemfs.foundation.queue.StageQueue;
 import org.xtreemfs.mrc.MRCRequest;
 
 public abstract class MRCStage extends LifeCycleThread {
@@ -48,10 +51,20 @@ public abstract class MRCStage extends LifeCycleThread {
         
     }
     
+    /**
+     * max number of requests taken from the queue at once
+     */
+    private static final int             MAX_BATCH_SIZE = 32;
+    
     /**
      * queue containing all requests
      */
-    protected BlockingQueue<StageMethod> q;
+    protected final StageQueue<StageMethod> q;
+    
+    /**
+     * time requests waited in the queue and time needed to process them
+     */
+    private final LatencyHistogram       queueTimes, processingTimes;
     
     /**
      * set to true if stage should shut down
@@ -62,9 +75,20 @@ public abstract class MRCStage extends LifeCycleThread {
     
     public AtomicLong                    _sumRqTime;
     
+    /**
+     * Creates a stage with an unbounded queue. The MRC does not drop requests
+     * if it is overloaded, and a bounded queue would block the threads which
+     * enqueue requests.
+     */
     public MRCStage(String stageName) {
+        this(stageName, new LinkedStageQueue<StageMethod>());
+    }
+    
+    public MRCStage(String stageName, StageQueue<StageMethod> queue) {
         super(stageName);
-        q = new LinkedBlockingQueue<StageMethod>();
+        q = queue;
+        queueTimes = new LatencyHistogram();
+        processingTimes = new LatencyHistogram();
         this.quit = false;
         
         _numRq = new AtomicInteger(0);
@@ -82,7 +106,7 @@ public abstract class MRCStage extends LifeCycleThread {
      *            method in the stage to execute
      */
     public void enqueueOperation(MRCRequest rq, int method, MRCStageCallbackInterface callback) {
-        q.add(new StageMethod(rq, method, callback));
+        q.offer(new StageMethod(rq, method, callback));
     }
     
     /**
@@ -102,32 +126,57 @@ public abstract class MRCStage extends LifeCycleThread {
         return q.size();
     }
     
+    /**
+     * Returns the times requests waited in the queue of the stage.
+     */
+    public LatencyHistogram getQueueTimes() {
+        return queueTimes;
+    }
+    
+    /**
+     * Returns the times needed to process requests in the stage thread.
+     * Requests may still be processed asynchronously afterwards.
+     */
+    public LatencyHistogram getProcessingTimes() {
+        return processingTimes;
+    }
+    
     @Override
     public void run() {
         
         notifyStarted();
         
+        final List<StageMethod> batch = new ArrayList<StageMethod>(MAX_BATCH_SIZE);
         while (!quit) {
-            MRCRequest rq = null;
             try {
-                final StageMethod op = q.take();
+                batch.add(q.take());
+                q.drainTo(batch, MAX_BATCH_SIZE - 1);
                 
-                if (op.isInternalRequest()) {
-                    if (Logging.isDebug())
-                        Logging.logMessage(Logging.LEVEL_DEBUG, Category.stage, this,
-                                "processing internal request method %d", op.getStageMethod());
-                    processInternalRequest(op);
-
-                } else {
-                    rq = op.getRq();
-
-                    if (Logging.isDebug())
-                        Logging.logMessage(Logging.LEVEL_DEBUG, Category.stage, this,
-                                "processing request XID=%d method %d", rq.getRPCRequest().getHeader().getCallId(),
-                                op.getStageMethod());
-
-                    processMethod(op);
+                for (int i = 0; i < batch.size(); i++) {
+                    final StageMethod op = batch.get(i);
+                    final long start = System.nanoTime();
+                    queueTimes.record(start - op.getEnqueueNanos());
+                    
+                    if (op.isInternalRequest()) {
+                        if (Logging.isDebug())
+                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.stage, this,
+                                    "processing internal request method %d", op.getStageMethod());
+                        processInternalRequest(op);
+                        
+                    } else {
+                        final MRCRequest rq = op.getRq();
+                        
+                        if (Logging.isDebug())
+                            Logging.logMessage(Logging.LEVEL_DEBUG, Category.stage, this,
+                                    "processing request XID=%d method %d", rq.getRPCRequest().getHeader()
+                                            .getCallId(), op.getStageMethod());
+                        
+                        processMethod(op);
+                    }
+                    
+                    processingTimes.record(System.nanoTime() - start);
                 }
+                batch.clear();
                 
             } catch (InterruptedException ex) {
                 break;
@@ -167,11 +216,14 @@ public abstract class MRCStage extends LifeCycleThread {
 
         private MRCStageCallbackInterface callback;
         
+        private final long                enqueueNanos;
+        
         public StageMethod(MRCRequest rq, int stageMethod, MRCStageCallbackInterface callback) {
             this.rq = rq;
             this.internalRq = null;
             this.stageMethod = stageMethod;
             this.callback = callback;
+            this.enqueueNanos = System.nanoTime();
         }
 
         public StageMethod(MRCInternalRequest internalRq, int stageMethod, MRCStageCallbackInterface callback) {
@@ -179,6 +231,7 @@ public abstract class MRCStage extends LifeCycleThread {
             this.internalRq = internalRq;
             this.stageMethod = stageMethod;
             this.callback = callback;
+            this.enqueueNanos = System.nanoTime();
         }
         
         public int getStageMethod() {
@@ -212,6 +265,10 @@ public abstract class MRCStage extends LifeCycleThread {
         public void setCallback(MRCStageCallbackInterface callback) {
             this.callback = callback;
         }
+        
+        public long getEnqueueNanos() {
+            return enqueueNanos;
+        }
     }
     
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc.stages;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * Execution lanes for the parallel mode of the {@link ProcessingStage}.
+ * <p>
+ * Read-only operations are executed on a pool of worker threads. Mutating
+ * operations are executed on one of a fixed number of single-threaded lanes;
+ * all mutations of a volume are mapped to the same lane, so that they are
+ * executed in the order in which they have been dispatched. Each volume has a
+ * read-write lock: reads of a volume may run concurrently with each other, but
+ * never concurrently with a mutation of the same volume. Operations that do
+ * not belong to a single volume have to be executed after {@link #drain()}.
+ * <p>
+ * If no read threads are configured, reads are executed on the lane of their
+ * volume. If no lanes are configured, mutations are executed by the calling
+ * thread.
+ * <p>
+ * An operation may complete asynchronously, e.g. when it issues a database
+ * update with a result listener. Such an operation has to call
+ * {@link #holdLane()} before it hands over its work, and run the returned
+ * handle once the work has been completed; its lane and volume lock are
+ * released only then.
+ */
+public class ProcessingLanes {
+
+    private final ExecutorService                                   readPool;
+
+    private final ExecutorService[]                                 lanes;
+
+    private final ConcurrentHashMap<String, ReentrantReadWriteLock> volumeLocks;
+
+    /**
+     * number of operations that have been handed over to a lane or the read
+     * pool and have not been completed yet
+     */
+    private final AtomicInteger                                     numPending;
+
+    private final Object                                            drainLock;
+
+    /**
+     * the operation that is currently executed by a thread of the lanes or
+     * the read pool
+     */
+    private static final ThreadLocal<Hold>                          currentHold = new ThreadLocal<Hold>();
+
+    public ProcessingLanes(String name, int numReadThreads, int numLanes) {
+
+        this.readPool = numReadThreads > 0 ? Executors.newFixedThreadPool(numReadThreads, new NamedThreadFactory(
+            name + "-read")) : null;
+
+        this.lanes = new ExecutorService[numLanes];
+        for (int i = 0; i < numLanes; i++)
+            lanes[i] = Executors.newSingleThreadExecutor(new NamedThreadFactory(name + "-lane" + i));
+
+        this.volumeLocks = new ConcurrentHashMap<String, ReentrantReadWriteLock>();
+        this.numPending = new AtomicInteger(0);
+        this.drainLock = new Object();
+    }
+
+    /**
+     * Executes a read-only operation on the given volume.
+     *
+     * @param volumeId
+     *            the ID of the volume accessed by the operation
+     * @param task
+     *            the operation
+     */
+    public void executeRead(String volumeId, Runnable task) {
+
+        final Lock lock = getVolumeLock(volumeId).readLock();
+
+        if (readPool != null)
+            submit(readPool, lock, task);
+        else if (lanes.length > 0)
+            submit(getLane(volumeId), lock, task);
+        else
+            runLocked(lock, task);
+    }
+
+    /**
+     * Executes a mutating operation on the given volume.
+     *
+     * @param volumeId
+     *            the ID of the volume modified by the operation
+     * @param task
+     *            the operation
+     */
+    public void executeMutation(String volumeId, Runnable task) {
+
+        final Lock lock = getVolumeLock(volumeId).writeLock();
+
+        if (lanes.length > 0)
+            submit(getLane(volumeId), lock, task);
+        else
+            runLocked(lock, task);
+    }
+
+    /**
+     * Blocks until all operations that have been handed over to the lanes or
+     * the read pool have been completed.
+     *
+     * @throws InterruptedException
+     *             if the calling thread was interrupted while waiting
+     */
+    public void drain() throws InterruptedException {
+        synchronized (drainLock) {
+            while (numPending.get() > 0)
+                drainLock.wait();
+        }
+    }
+
+    /**
+     * @return the number of operations waiting for or being executed by a lane
+     *         or the read pool
+     */
+    public int getNumPending() {
+        return numPending.get();
+    }
+
+    /**
+     * Keeps the lane and the volume lock of the operation that is executed by
+     * the calling thread until the returned handle has been run. May be called
+     * several times by the same operation.
+     *
+     * @return a handle that releases the lane, or <code>null</code>, if the
+     *         calling thread is not executing an operation of the lanes
+     */
+    public static Runnable holdLane() {
+
+        final Hold hold = currentHold.get();
+        if (hold == null)
+            return null;
+
+        hold.acquire();
+        return new Runnable() {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            public void run() {
+                if (released.compareAndSet(false, true))
+                    hold.release();
+            }
+        };
+    }
+
+    /**
+     * Discards the lock of a volume that has been deleted. Must only be called
+     * after {@link #drain()}.
+     *
+     * @param volumeId
+     *            the volume ID
+     */
+    public void removeVolume(String volumeId) {
+        volumeLocks.remove(volumeId);
+    }
+
+    public void shutdown() {
+        if (readPool != null)
+            readPool.shutdown();
+        for (ExecutorService lane : lanes)
+            lane.shutdown();
+    }
+
+    public void awaitTermination(long timeoutMs) throws InterruptedException {
+
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+
+        if (readPool != null)
+            readPool.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        for (ExecutorService lane : lanes)
+            lane.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+    }
+
+    private ReentrantReadWriteLock getVolumeLock(String volumeId) {
+
+        ReentrantReadWriteLock lock = volumeLocks.get(volumeId);
+        if (lock == null) {
+            lock = new ReentrantReadWriteLock();
+            ReentrantReadWriteLock existing = volumeLocks.putIfAbsent(volumeId, lock);
+            if (existing != null)
+                lock = existing;
+        }
+
+        return lock;
+    }
+
+    private ExecutorService getLane(String volumeId) {
+        return lanes[(volumeId.hashCode() & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    private void submit(ExecutorService executor, final Lock lock, final Runnable task) {
+
+        numPending.incrementAndGet();
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        runLocked(lock, task);
+                    } finally {
+                        completed();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException exc) {
+
+            // the lanes are being shut down; execute the operation in the
+            // context of the caller
+            Logging.logMessage(Logging.LEVEL_WARN, Category.stage, this,
+                "processing lane is shut down, executing operation in calling thread");
+            try {
+                runLocked(lock, task);
+            } finally {
+                completed();
+            }
+        }
+    }
+
+    private void runLocked(Lock lock, Runnable task) {
+
+        final Hold hold = new Hold();
+
+        lock.lock();
+        try {
+            currentHold.set(hold);
+            try {
+                task.run();
+            } finally {
+                currentHold.remove();
+            }
+
+            // wait until all asynchronous work of the operation has been
+            // completed, e.g. the database update it has issued
+            hold.awaitReleased();
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void completed() {
+        if (numPending.decrementAndGet() == 0) {
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Counts the handles returned by {@link ProcessingLanes#holdLane()} that
+     * have not been run yet.
+     */
+    private static final class Hold {
+
+        private int numHolds;
+
+        public synchronized void acquire() {
+            numHolds++;
+        }
+
+        public synchronized void release() {
+            if (--numHolds == 0)
+                notifyAll();
+        }
+
+        public synchronized void awaitReleased() {
+            try {
+                while (numHolds > 0)
+                    wait();
+            } catch (InterruptedException exc) {
+                // the lanes are being shut down; release the lock, but keep
+                // the interrupt status
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String        name;
+
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        public NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -9,8 +9,10 @@
 package org.xtreemfs.mrc.stages;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.xtreemfs.common.auth.AuthenticationException;
 import org.xtreemfs.common.auth.UserCredentials;
@@ -43,6 +45,7 @@ import org.xtreemfs.mrc.operations.DeleteOperation;
 import org.xtreemfs.mrc.operations.DeleteVolumeOperation;
 import org.xtreemfs.mrc.operations.DumpDBOperation;
 import org.xtreemfs.mrc.operations.FSetAttrOperation;
+import org.xtreemfs.mrc.operations.GetAttrsOperation;
 import org.xtreemfs.mrc.operations.GetFileCredentialsOperation;
 import org.xtreemfs.mrc.operations.GetLocalVolumesOperation;
 import org.xtreemfs.mrc.operations.GetSuitableOSDsOperation;
@@ -72,11 +75,21 @@ import org.xtreemfs.mrc.operations.StatFSOperation;
 import org.xtreemfs.mrc.operations.StatOperation;
 import org.xtreemfs.mrc.operations.TruncateOperation;
 import org.xtreemfs.mrc.operations.UpdateFileSizeOperation;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceConstants;
 
 import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
 
 /**
+ * Parses incoming requests and executes the corresponding operations.
+ * <p>
+ * By default, all operations are executed one at a time by the stage thread.
+ * If read threads or volume lanes are configured, operations are dispatched
+ * to {@link ProcessingLanes}: read-only operations run concurrently on a
+ * worker pool, mutations are serialized per volume. Operations that are not
+ * bound to a single volume, as well as internal callbacks, are executed by the
+ * stage thread after all dispatched operations have been completed.
  * 
  * @author bjko
  */
@@ -86,6 +99,8 @@ public class ProcessingStage extends MRCStage {
 
     public static final int                  STAGEOP_INTERNAL_CALLBACK = 2;
 
+    private static final long                SHUTDOWN_TIMEOUT_MS       = 10000;
+
     private final MRCRequestDispatcher       master;
     
     private final Map<Integer, MRCOperation> operations;
@@ -94,7 +109,34 @@ public class ProcessingStage extends MRCStage {
     
     private final boolean                    statisticsEnabled         = true;
     
+    /**
+     * operations that do not modify any metadata
+     */
+    private final Set<Integer>               readOnlyOperations;
+    
+    /**
+     * operations that are not bound to a single volume
+     */
+    private final Set<Integer>               globalOperations;
+    
+    /**
+     * execution lanes, <code>null</code> if all operations are executed by the
+     * stage thread
+     */
+    private final ProcessingLanes            lanes;
+    
     public ProcessingStage(MRCRequestDispatcher master) {
+        this(master, 0, 0);
+    }
+    
+    /**
+     * @param numReadThreads
+     *            number of threads executing read-only operations
+     * @param numVolumeLanes
+     *            number of threads executing mutating operations; all mutations
+     *            of a volume are executed by the same thread
+     */
+    public ProcessingStage(MRCRequestDispatcher master, int numReadThreads, int numVolumeLanes) {
         super("ProcSt");
         this.master = master;
         
@@ -107,6 +149,32 @@ public class ProcessingStage extends MRCStage {
             for (Integer i : operations.keySet())
                 _opCountMap.put(i, 0);
         }
+        
+        readOnlyOperations = new HashSet<Integer>();
+        readOnlyOperations.add(MRCServiceConstants.PROC_ID_GETATTR);
+        readOnlyOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_GETATTRS);
+        readOnlyOperations.add(MRCServiceConstants.PROC_ID_GETXATTR);
+        readOnlyOperations.add(MRCServiceConstants.PROC_ID_LISTXATTR);
+        readOnlyOperations.add(MRCServiceConstants.PROC_ID_READLINK);
+        readOnlyOperations.add(MRCServiceConstants.PROC_ID_ACCESS);
+        // readdir updates the atime of the directory unless atime updates are
+        // disabled
+        if (master.getConfig().isNoAtime())
+            readOnlyOperations.add(MRCServiceConstants.PROC_ID_READDIR);
+        
+        globalOperations = new HashSet<Integer>();
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_SHUTDOWN);
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_MKVOL);
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_RMVOL);
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_LSVOL);
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_DUMP_DATABASE);
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_RESTORE_DATABASE);
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_CHECKPOINT);
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_CHECK_FILE_EXISTS);
+        globalOperations.add(MRCServiceConstants.PROC_ID_XTREEMFS_INTERNAL_DEBUG);
+        
+        lanes = numReadThreads > 0 || numVolumeLanes > 0 ? new ProcessingLanes(getName(), numReadThreads,
+            numVolumeLanes) : null;
     }
     
     public void installOperations() {
@@ -115,6 +183,7 @@ public class ProcessingStage extends MRCStage {
         operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_RMVOL, new DeleteVolumeOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_LSVOL, new GetLocalVolumesOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_GETATTR, new StatOperation(master));
+        operations.put(MRCServiceConstants.PROC_ID_XTREEMFS_GETATTRS, new GetAttrsOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_READDIR, new ReadDirAndStatOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_MKDIR, new CreateDirOperation(master));
         operations.put(MRCServiceConstants.PROC_ID_SYMLINK, new CreateSymLinkOperation(master));
@@ -166,6 +235,25 @@ public class ProcessingStage extends MRCStage {
         return _opCountMap;
     }
     
+    @Override
+    public int getQueueLength() {
+        return lanes == null ? super.getQueueLength() : super.getQueueLength() + lanes.getNumPending();
+    }
+    
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (lanes != null)
+            lanes.shutdown();
+    }
+    
+    @Override
+    public void waitForShutdown() throws Exception {
+        super.waitForShutdown();
+        if (lanes != null)
+            lanes.awaitTermination(SHUTDOWN_TIMEOUT_MS);
+    }
+    
 //    public String getOpName(int opId) {
 //        String opName = operations.get(opId).getClass().getSimpleName();
 //        return (opName.charAt(0) + "").toLowerCase() + opName.substring(0, opName.length() - "Operation".length()).substring(1);
@@ -188,7 +276,12 @@ public class ProcessingStage extends MRCStage {
     protected void processInternalRequest(StageMethod method) {
         switch (method.getStageMethod()) {
         case STAGEOP_INTERNAL_CALLBACK:
-            executeInternalCallback(method);
+            // internal callbacks rely on being executed exclusively
+            if (drainLanes())
+                executeInternalCallback(method);
+            else
+                Logging.logMessage(Logging.LEVEL_WARN, Category.stage, this,
+                    "interrupted while waiting for processing lanes, skipping internal callback");
             break;
         default:
             Logging.logMessage(Logging.LEVEL_WARN, Category.stage, this,
@@ -272,8 +365,130 @@ public class ProcessingStage extends MRCStage {
             return;
         }
         
-        execute(op, method);
+        dispatch(op, method);
+
+    }
 
+    /**
+     * Executes an operation either in the context of the stage thread or on
+     * one of the processing lanes.
+     * 
+     * @param op
+     *            MRCOperation to execute
+     * @param method
+     *            StageMethod to serve as the context
+     */
+    private void dispatch(final MRCOperation op, final StageMethod method) {
+        
+        if (lanes == null) {
+            execute(op, method);
+            return;
+        }
+        
+        final int procId = method.getRq().getRPCRequest().getHeader().getRequestHeader().getProcId();
+        final String volumeId = globalOperations.contains(procId) ? null : getVolumeId(method.getRq());
+        
+        if (volumeId == null) {
+            
+            if (!drainLanes()) {
+                method.getRq().setError(ErrorType.INTERNAL_SERVER_ERROR, POSIXErrno.POSIX_ERROR_EIO,
+                    "MRC is shutting down");
+                master.requestFinished(method.getRq());
+                return;
+            }
+            
+            String deletedVolumeId = procId == MRCServiceConstants.PROC_ID_XTREEMFS_RMVOL ? getVolumeId(method
+                    .getRq()) : null;
+            execute(op, method);
+            if (deletedVolumeId != null)
+                lanes.removeVolume(deletedVolumeId);
+            
+            return;
+        }
+        
+        Runnable task = new Runnable() {
+            public void run() {
+                execute(op, method);
+            }
+        };
+        
+        if (readOnlyOperations.contains(procId))
+            lanes.executeRead(volumeId, task);
+        else
+            lanes.executeMutation(volumeId, task);
+    }
+    
+    /**
+     * Waits until all operations dispatched to the processing lanes have been
+     * completed.
+     * 
+     * @return <code>false</code>, if the stage thread was interrupted while
+     *         waiting; the operation to execute next must be skipped then
+     */
+    private boolean drainLanes() {
+        
+        if (lanes == null)
+            return true;
+        
+        try {
+            lanes.drain();
+            return true;
+        } catch (InterruptedException exc) {
+            // the stage is being shut down; preserve the interrupt status so
+            // that the stage loop terminates
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Determines the ID of the volume accessed by a request, either from the
+     * file ID, the capability or the volume name contained in the request
+     * arguments.
+     * 
+     * @param rq
+     *            the request
+     * @return the volume ID, or <code>null</code>, if the request is not bound
+     *         to a known volume
+     */
+    private String getVolumeId(MRCRequest rq) {
+        
+        final Message args = rq.getRequestArgs();
+        if (args == null)
+            return null;
+        
+        String fileId = getStringField(args, "file_id");
+        if (fileId == null)
+            for (String capField : new String[] { "xcap", "cap" }) {
+                FieldDescriptor fd = args.getDescriptorForType().findFieldByName(capField);
+                if (fd != null && !fd.isRepeated() && args.hasField(fd) && args.getField(fd) instanceof XCap) {
+                    fileId = ((XCap) args.getField(fd)).getFileId();
+                    break;
+                }
+            }
+        
+        if (fileId != null) {
+            int i = fileId.indexOf(':');
+            return i > 0 ? fileId.substring(0, i) : null;
+        }
+        
+        String volumeName = getStringField(args, "volume_name");
+        if (volumeName != null)
+            try {
+                return master.getVolumeManager().getStorageManagerByName(volumeName).getVolumeInfo().getId();
+            } catch (Exception exc) {
+                // unknown volume; the operation will report the error
+            }
+        
+        return null;
+    }
+    
+    private static String getStringField(Message msg, String name) {
+        FieldDescriptor fd = msg.getDescriptorForType().findFieldByName(name);
+        if (fd == null || fd.isRepeated() || fd.getJavaType() != FieldDescriptor.JavaType.STRING
+            || !msg.hasField(fd))
+            return null;
+        return (String) msg.getField(fd);
     }
 
     /**
@@ -351,7 +566,7 @@ public class ProcessingStage extends MRCStage {
         Object[] args = new Object[] { callback };
         MRCInternalRequest rq = new MRCInternalRequest(args);
         
-        q.add(new StageMethod(rq, ProcessingStage.STAGEOP_INTERNAL_CALLBACK, null));
+        q.offer(new StageMethod(rq, ProcessingStage.STAGEOP_INTERNAL_CALLBACK, null));
     }
 
     /**
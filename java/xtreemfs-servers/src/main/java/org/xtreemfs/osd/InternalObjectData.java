@@ -7,6 +7,7 @@
 
 package org.xtreemfs.osd;
 
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
 
@@ -18,6 +19,7 @@ public class InternalObjectData {
 
     ReusableBuffer data;
     ObjectData     metadata;
+    FileRegion     fileRegion;
 
     public InternalObjectData(ObjectData metadata, ReusableBuffer data) {
         this.metadata = metadata;
@@ -49,4 +51,15 @@ public class InternalObjectData {
         return metadata;
     }
 
+    /**
+     * @return the file region to send instead of the data buffer, or null
+     */
+    public FileRegion getFileRegion() {
+        return fileRegion;
+    }
+
+    public void setFileRegion(FileRegion fileRegion) {
+        this.fileRegion = fileRegion;
+    }
+
 }
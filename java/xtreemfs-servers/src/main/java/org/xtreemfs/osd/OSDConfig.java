@@ -72,6 +72,7 @@ public class OSDConfig extends ServiceConfig {
             Parameter.FAILOVER_MAX_RETRIES,
             Parameter.FAILOVER_WAIT,
             Parameter.MAX_CLIENT_Q,
+            Parameter.SELECTOR_THREADS,
             Parameter.MAX_REQUEST_QUEUE_LENGTH,
             Parameter.VIVALDI_RECALCULATION_INTERVAL_IN_MS,
             Parameter.VIVALDI_RECALCULATION_EPSILON_IN_MS,
@@ -80,6 +81,15 @@ public class OSDConfig extends ServiceConfig {
             Parameter.VIVALDI_MAX_REQUEST_TIMEOUT_IN_MS,
             Parameter.VIVALDI_TIMER_INTERVAL_IN_MS,
             Parameter.STORAGE_THREADS,
+            Parameter.METADATA_CACHE_MAX_ENTRIES,
+            Parameter.METADATA_CACHE_MAX_BYTES,
+            Parameter.CHANNEL_CACHE_MAX_ENTRIES,
+            Parameter.GROUP_COMMIT_MAX_DELAY_MS,
+            Parameter.SEGMENT_LAYOUT_SEGMENT_SIZE,
+            Parameter.SEGMENT_LAYOUT_COMPACTION_THRESHOLD,
+            Parameter.ZERO_COPY_READS,
+            Parameter.RWR_DELTA_SYNC_BLOCK_SIZE,
+            Parameter.RWR_CHAIN_REPLICATION,
             Parameter.USE_RENEWAL_SIGNAL,
             Parameter.USE_MULTIHOMING,
             Parameter.HEALTH_CHECK
@@ -284,6 +294,42 @@ public class OSDConfig extends ServiceConfig {
     public int getStorageThreads() {
         return (Integer) parameter.get(Parameter.STORAGE_THREADS);
     }
+
+    public int getMetadataCacheMaxEntries() {
+        return (Integer) parameter.get(Parameter.METADATA_CACHE_MAX_ENTRIES);
+    }
+
+    public long getMetadataCacheMaxBytes() {
+        return (Long) parameter.get(Parameter.METADATA_CACHE_MAX_BYTES);
+    }
+
+    public int getChannelCacheMaxEntries() {
+        return (Integer) parameter.get(Parameter.CHANNEL_CACHE_MAX_ENTRIES);
+    }
+
+    public int getGroupCommitMaxDelay() {
+        return (Integer) parameter.get(Parameter.GROUP_COMMIT_MAX_DELAY_MS);
+    }
+
+    public int getSegmentSize() {
+        return (Integer) parameter.get(Parameter.SEGMENT_LAYOUT_SEGMENT_SIZE);
+    }
+
+    public int getSegmentCompactionThreshold() {
+        return (Integer) parameter.get(Parameter.SEGMENT_LAYOUT_COMPACTION_THRESHOLD);
+    }
+
+    public boolean isZeroCopyReads() {
+        return (Boolean) parameter.get(Parameter.ZERO_COPY_READS);
+    }
+
+    public int getDeltaSyncBlockSize() {
+        return (Integer) parameter.get(Parameter.RWR_DELTA_SYNC_BLOCK_SIZE);
+    }
+
+    public boolean isChainReplication() {
+        return (Boolean) parameter.get(Parameter.RWR_CHAIN_REPLICATION);
+    }
     
     public String getHealthCheckScript() {
         return (String) parameter.get(Parameter.HEALTH_CHECK);
@@ -12,9 +12,11 @@ import com.google.protobuf.Message;
 import java.io.IOException;
 import org.xtreemfs.common.Capability;
 import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.channels.ChannelIO;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
@@ -68,6 +70,28 @@ public final class OSDRequest {
         }
     }
 
+    /**
+     * Sends a response whose data is transferred directly from a file region.
+     * The region is released after it has been sent.
+     */
+    public void sendFileRegionSuccess(Message response, FileRegion data) {
+        try {
+            rpcRequest.sendFileRegionResponse(response, data);
+        } catch (IOException ex) {
+            data.release();
+            Logging.logError(Logging.LEVEL_ERROR, this, ex);
+        }
+    }
+
+    /**
+     * @return true, if responses to the request can be sent from file regions,
+     *         i.e. if the request was received via a plain TCP connection
+     */
+    public boolean isFileRegionSupported() {
+        final ChannelIO channel = (rpcRequest != null) ? rpcRequest.getConnection().getChannel() : null;
+        return channel != null && channel.isTransferSupported();
+    }
+
     public void sendInternalServerError(Throwable cause) {
         if (getRpcRequest() != null) {
             rpcRequest.sendError(ErrorType.INTERNAL_SERVER_ERROR, POSIXErrno.POSIX_ERROR_NONE, "internal server error:" + cause, OutputUtils.stackTraceToString(cause));
@@ -82,7 +82,10 @@ import org.xtreemfs.osd.operations.InternalGetFileSizeOperation;
 import org.xtreemfs.osd.operations.InternalGetGmaxOperation;
 import org.xtreemfs.osd.operations.InternalRWRAuthStateInvalidatedOperation;
 import org.xtreemfs.osd.operations.InternalRWRAuthStateOperation;
+import org.xtreemfs.osd.operations.InternalRWRChainUpdateOperation;
+import org.xtreemfs.osd.operations.InternalRWRFetchDigestsOperation;
 import org.xtreemfs.osd.operations.InternalRWRFetchOperation;
+import org.xtreemfs.osd.operations.InternalRWRFetchRangesOperation;
 import org.xtreemfs.osd.operations.InternalRWRResetStatusOperation;
 import org.xtreemfs.osd.operations.InternalRWRStatusOperation;
 import org.xtreemfs.osd.operations.InternalRWRTruncateOperation;
@@ -115,6 +118,7 @@ import org.xtreemfs.osd.storage.CleanupThread;
 import org.xtreemfs.osd.storage.CleanupVersionsThread;
 import org.xtreemfs.osd.storage.HashStorageLayout;
 import org.xtreemfs.osd.storage.MetadataCache;
+import org.xtreemfs.osd.storage.SegmentStorageLayout;
 import org.xtreemfs.osd.storage.StorageLayout;
 import org.xtreemfs.osd.vivaldi.VivaldiNode;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.DirService;
@@ -164,6 +168,8 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
 
     protected String                                    authString;
 
+    protected final MetadataCache                       metadataCache;
+
     protected final PreprocStage                        preprocStage;
 
     protected final StorageStage                        stStage;
@@ -295,7 +301,8 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
                 .isGRIDSSLmode(), config.getSSLProtocolString(), tm1) : null;
         
         rpcServer = new RPCNIOSocketServer(config.getPort(), config.getAddress(), this, serverSSLopts,
-                config.getBindRetries(), config.getSocketReceiveBufferSize(), config.getMaxClientQ());
+                config.getBindRetries(), config.getSocketReceiveBufferSize(), config.getMaxClientQ(),
+                config.getSelectorThreads());
         rpcServer.setLifeCycleListener(this);
         
         final SSLOptions clientSSLopts = config.isUsingSSL() ? new SSLOptions(config.getServiceCredsFile(),
@@ -325,10 +332,12 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         // initialize internal stages
         // --------------------------
         
-        MetadataCache metadataCache = new MetadataCache();
+        metadataCache = new MetadataCache(config.getMetadataCacheMaxEntries(), config.getMetadataCacheMaxBytes());
         StorageLayout storageLayout = null;
         if (config.getStorageLayout().equalsIgnoreCase(HashStorageLayout.class.getSimpleName())) {
             storageLayout = new HashStorageLayout(config, metadataCache);
+        } else if (config.getStorageLayout().equalsIgnoreCase(SegmentStorageLayout.class.getSimpleName())) {
+            storageLayout = new SegmentStorageLayout(config, metadataCache);
             /*
              * } else if
              * (config.getStorageLayout().equalsIgnoreCase(SingleFileStorageLayout
@@ -906,6 +915,9 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         op = new InternalRWRUpdateOperation(this);
         operations.put(op.getProcedureId(), op);
 
+        op = new InternalRWRChainUpdateOperation(this);
+        operations.put(op.getProcedureId(), op);
+
         op = new InternalRWRTruncateOperation(this);
         operations.put(op.getProcedureId(), op);
 
@@ -915,6 +927,12 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         op = new InternalRWRFetchOperation(this);
         operations.put(op.getProcedureId(), op);
 
+        op = new InternalRWRFetchDigestsOperation(this);
+        operations.put(op.getProcedureId(), op);
+
+        op = new InternalRWRFetchRangesOperation(this);
+        operations.put(op.getProcedureId(), op);
+
         op = new GetFileIDListOperation(this);
         operations.put(op.getProcedureId(), op);
 
@@ -964,6 +982,10 @@ public class OSDRequestDispatcher implements RPCServerRequestListener, LifeCycle
         return preprocStage;
     }
 
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
     public ReplicationStage getReplicationStage() {
         return replStage;
     }
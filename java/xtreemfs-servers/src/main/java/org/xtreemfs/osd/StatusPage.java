@@ -24,6 +24,9 @@ import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.pbrpc.Schemes;
 import org.xtreemfs.foundation.util.OutputUtils;
+import org.xtreemfs.osd.storage.HashStorageLayout;
+import org.xtreemfs.osd.storage.MetadataCache;
+import org.xtreemfs.osd.storage.StorageLayout;
 import org.xtreemfs.pbrpc.generatedinterfaces.DIR.ServiceType;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
 
@@ -51,12 +54,17 @@ class StatusPage extends StatusServerModule {
             STORAGEQ("<!-- $STORAGEQ -->"),
             DELETIONQ("<!-- $DELETIONQ -->"),
             OPENFILES("<!-- $OPENFILES -->"),
+            MDCACHE("<!-- $MDCACHE -->"),
+            CHCACHE("<!-- $CHCACHE -->"),
+            PARSERLAT("<!-- $PARSERLAT -->"),
+            STORAGELAT("<!-- $STORAGELAT -->"),
             OBJWRITE("<!-- $OBJWRITE -->"),
             OBJREAD("<!-- $OBJREAD -->"),
             BYTETX("<!-- $BYTETX -->"),
             BYTERX("<!-- $BYTERX -->"),
             REPLOBJWRITE("<!-- $REPLOBJWRITE -->"),
             REPLBYTERX("<!-- $REPLBYTERX -->"),
+            REPLRESET("<!-- $REPLRESET -->"),
             GMAXMSG("<!-- $GMAXMSG -->"),
             GMAXRPC("<!-- $GMAXRPC -->"),
             DELETES("<!-- $DELETES -->"),
@@ -167,6 +175,30 @@ class StatusPage extends StatusServerModule {
         values.put(
                 Vars.OPENFILES,
                 Integer.toString(myDispatcher.getPreprocStage().getNumOpenFiles()));
+        MetadataCache mdCache = myDispatcher.getMetadataCache();
+        values.put(
+                Vars.MDCACHE,
+                mdCache.getNumEntries() + " entries / " + OutputUtils.formatBytes(mdCache.getNumBytes())
+                + " (hits: " + mdCache.getNumHits() + ", misses: " + mdCache.getNumMisses() + ", loads: "
+                + mdCache.getNumLoads() + ", evictions: " + mdCache.getNumEvictions() + ")");
+        StorageLayout layout = myDispatcher.getStorageStage().getStorageLayout();
+        if (layout instanceof HashStorageLayout) {
+            HashStorageLayout hsl = (HashStorageLayout) layout;
+            long hits = hsl.getChannelCacheHits();
+            long lookups = hits + hsl.getChannelCacheMisses();
+            values.put(Vars.CHCACHE, hsl.getNumOpenChannels() + " open files (hits: " + hits + ", hit rate: "
+                + (lookups == 0 ? 0 : hits * 100 / lookups) + "%)");
+        } else {
+            values.put(Vars.CHCACHE, "n/a");
+        }
+        values.put(
+                Vars.PARSERLAT,
+                "queued: " + myDispatcher.getPreprocStage().getQueueTimes() + "<br>processing: "
+                + myDispatcher.getPreprocStage().getProcessingTimes());
+        values.put(
+                Vars.STORAGELAT,
+                "queued: " + myDispatcher.getStorageStage().getQueueTimes() + "<br>processing: "
+                + myDispatcher.getStorageStage().getProcessingTimes());
         values.put(
                 Vars.OBJWRITE,
                 Long.toString(myDispatcher.getObjectsReceived()));
@@ -185,6 +217,9 @@ class StatusPage extends StatusServerModule {
         values.put(
                 Vars.REPLBYTERX,
                 OutputUtils.formatBytes(myDispatcher.getReplicatedBytesReceived()));
+        values.put(
+                Vars.REPLRESET,
+                myDispatcher.getRWReplicationStage().getResetStatus());
         values.put(
                 Vars.DELETES,
                 Long.toString(myDispatcher.getDeletionStage().getNumFilesDeleted()));
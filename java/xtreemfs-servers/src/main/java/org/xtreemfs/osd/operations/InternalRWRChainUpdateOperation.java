@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.operations;
+
+import java.util.TimerTask;
+
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.common.xloc.InvalidXLocationsException;
+import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.OSDRequest;
+import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.rwre.ChainUpdate;
+import org.xtreemfs.osd.rwre.RWReplicationStage;
+import org.xtreemfs.osd.stages.StorageStage.WriteObjectCallback;
+import org.xtreemfs.osd.storage.CowPolicy;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_chain_updateRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_chain_updateResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_updateRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
+
+/**
+ * Applies a write on a backup like {@link InternalRWRUpdateOperation} and
+ * forwards it to the next OSD of the chain. The write is forwarded before it
+ * is applied locally, so that the data is pipelined through the chain. The
+ * response contains the number of replicas which applied the write, and is
+ * sent once the local write and the rest of the chain completed, or
+ * {@link ChainUpdate#HOP_MARGIN_MS} before the sender stops waiting for it.
+ */
+public final class InternalRWRChainUpdateOperation extends OSDOperation {
+
+    final String      sharedSecret;
+    final ServiceUUID localUUID;
+
+    public InternalRWRChainUpdateOperation(OSDRequestDispatcher master) {
+        super(master);
+        sharedSecret = master.getConfig().getCapabilitySecret();
+        localUUID = master.getConfig().getUUID();
+    }
+
+    @Override
+    public int getProcedureId() {
+        return OSDServiceConstants.PROC_ID_XTREEMFS_RWR_CHAIN_UPDATE;
+    }
+
+    @Override
+    public void startRequest(final OSDRequest rq) {
+        final xtreemfs_rwr_chain_updateRequest args = (xtreemfs_rwr_chain_updateRequest) rq.getRequestArgs();
+        final xtreemfs_rwr_updateRequest update = args.getUpdate();
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, this, "RWR chain update for file %s-%d, forward to %s",
+                    update.getFileId(), update.getObjectNumber(), args.getForwardOsdUuidsList());
+        }
+
+        final long deadline = System.currentTimeMillis() + args.getTimeoutMs() - ChainUpdate.HOP_MARGIN_MS;
+        final ChainResult result = new ChainResult(rq, deadline);
+
+        if (args.getForwardOsdUuidsCount() > 0) {
+            new ChainUpdate(master.getOSDClientForReplication(), args.getTimeoutMs(), deadline, update, args
+                    .getForwardOsdUuidsList(), rq.getRPCRequest().getData().createViewBuffer(), result).start();
+        } else {
+            result.chainUpdated(0, null);
+        }
+
+        master.getRWReplicationStage().prepareOperation(update.getFileCredentials(), rq.getLocationList(),
+                update.getObjectNumber(), update.getObjectVersion(), RWReplicationStage.Operation.INTERNAL_UPDATE,
+                new RWReplicationStage.RWReplicationCallback() {
+
+                    @Override
+                    public void success(long newObjectVersion) {
+                        localWrite(rq, update, result);
+                    }
+
+                    @Override
+                    public void redirect(String redirectTo) {
+                        result.localUpdated(ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO,
+                                "replica is not a backup, primary is " + redirectTo));
+                    }
+
+                    @Override
+                    public void failed(ErrorResponse err) {
+                        result.localUpdated(err);
+                    }
+                }, rq);
+    }
+
+    private void localWrite(final OSDRequest rq, final xtreemfs_rwr_updateRequest update, final ChainResult result) {
+        master.replicatedDataReceived(rq.getRPCRequest().getData().capacity());
+
+        ReusableBuffer viewBuffer = rq.getRPCRequest().getData().createViewBuffer();
+        master.getStorageStage().writeObject(update.getFileId(), update.getObjectNumber(),
+                rq.getLocationList().getLocalReplica().getStripingPolicy(), update.getOffset(), viewBuffer,
+                CowPolicy.PolicyNoCow, rq.getLocationList(), false, update.getObjectVersion(), rq, viewBuffer,
+                new WriteObjectCallback() {
+
+                    @Override
+                    public void writeComplete(OSDWriteResponse writeResult, ErrorResponse error) {
+                        result.localUpdated(error);
+                    }
+                });
+    }
+
+    /**
+     * Collects the results of the local write (storage thread) and of the
+     * rest of the chain (RPC client thread). If the deadline passes first,
+     * the replicas updated so far are reported (timer thread).
+     */
+    private static final class ChainResult implements ChainUpdate.ChainUpdateCallback {
+
+        private final OSDRequest rq;
+
+        private boolean          localDone;
+
+        private ErrorResponse    localError;
+
+        private boolean          chainDone;
+
+        private int              numChainReplicasUpdated;
+
+        private ErrorResponse    chainError;
+
+        private boolean          responded;
+
+        private final TimerTask  deadlineTask;
+
+        ChainResult(OSDRequest rq, long deadline) {
+            this.rq = rq;
+            this.deadlineTask = new TimerTask() {
+                @Override
+                public void run() {
+                    deadlinePassed();
+                }
+            };
+            ChainUpdate.schedule(deadlineTask, deadline);
+        }
+
+        synchronized void localUpdated(ErrorResponse error) {
+            localDone = true;
+            localError = error;
+            if (chainDone)
+                sendResult();
+        }
+
+        @Override
+        public synchronized void chainUpdated(int numReplicasUpdated, ErrorResponse error) {
+            chainDone = true;
+            numChainReplicasUpdated = numReplicasUpdated;
+            chainError = error;
+            if (localDone)
+                sendResult();
+        }
+
+        synchronized void deadlinePassed() {
+            if (responded)
+                return;
+            Logging.logMessage(Logging.LEVEL_INFO, this,
+                    "RWR chain update for %s not completed in time (local: %s, chain: %s), responding", rq
+                            .getFileId(), localDone, chainDone);
+            if (!localDone)
+                localError = ErrorUtils.getErrorResponse(ErrorType.IO_ERROR, POSIXErrno.POSIX_ERROR_EIO,
+                        "local write not completed in time");
+            sendResult();
+        }
+
+        private void sendResult() {
+            if (responded)
+                return;
+            responded = true;
+            deadlineTask.cancel();
+            final int numReplicasUpdated = (localDone && localError == null ? 1 : 0) + numChainReplicasUpdated;
+            if (numReplicasUpdated == 0) {
+                rq.sendError(localError != null ? localError : chainError);
+            } else {
+                if (localError != null)
+                    Logging.logMessage(Logging.LEVEL_WARN, this, "RWR chain update failed locally for %s: %s",
+                            rq.getFileId(), localError.getErrorMessage());
+                rq.sendSuccess(xtreemfs_rwr_chain_updateResponse.newBuilder().setNumReplicasUpdated(
+                        numReplicasUpdated).build(), null);
+            }
+        }
+    }
+
+    @Override
+    public ErrorResponse parseRPCMessage(OSDRequest rq) {
+        try {
+            xtreemfs_rwr_chain_updateRequest rpcrq = (xtreemfs_rwr_chain_updateRequest) rq.getRequestArgs();
+            rq.setFileId(rpcrq.getUpdate().getFileId());
+            rq.setCapability(new Capability(rpcrq.getUpdate().getFileCredentials().getXcap(), sharedSecret));
+            rq.setLocationList(new XLocations(rpcrq.getUpdate().getFileCredentials().getXlocs(), localUUID));
+
+            return null;
+        } catch (InvalidXLocationsException ex) {
+            return ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, ex.toString());
+        } catch (Throwable ex) {
+            return ErrorUtils.getInternalServerError(ex);
+        }
+    }
+
+    @Override
+    public boolean requiresCapability() {
+        return true;
+    }
+
+    @Override
+    public void startInternalEvent(Object[] args) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+}
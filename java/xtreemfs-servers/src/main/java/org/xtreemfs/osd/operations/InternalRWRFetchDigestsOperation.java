@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.operations;
+
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.common.xloc.InvalidXLocationsException;
+import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.OSDRequest;
+import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.rwre.BlockDigests;
+import org.xtreemfs.osd.stages.StorageStage.ReadObjectCallback;
+import org.xtreemfs.osd.storage.ObjectInformation;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectDigests;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_fetch_digestsRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
+
+public final class InternalRWRFetchDigestsOperation extends OSDOperation {
+
+    final String sharedSecret;
+    final ServiceUUID localUUID;
+
+    public InternalRWRFetchDigestsOperation(OSDRequestDispatcher master) {
+        super(master);
+        sharedSecret = master.getConfig().getCapabilitySecret();
+        localUUID = master.getConfig().getUUID();
+    }
+
+    @Override
+    public int getProcedureId() {
+        return OSDServiceConstants.PROC_ID_XTREEMFS_RWR_FETCH_DIGESTS;
+    }
+
+    @Override
+    public void startRequest(final OSDRequest rq) {
+        final xtreemfs_rwr_fetch_digestsRequest args = (xtreemfs_rwr_fetch_digestsRequest)rq.getRequestArgs();
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, this,"RWR fetch digests request for file %s-%d",args.getFileId(),args.getObjectNumber());
+        }
+
+        fetchDigests(rq,args);
+
+    }
+
+    public void fetchDigests(final OSDRequest rq, final xtreemfs_rwr_fetch_digestsRequest args) {
+        master.getStorageStage().readObject(rq.getFileId(), args.getObjectNumber(),
+                rq.getLocationList().getLocalReplica().getStripingPolicy(), 0, -1, 0, rq, new ReadObjectCallback() {
+
+            @Override
+            public void readComplete(ObjectInformation result, ErrorResponse error) {
+                if (error != null) {
+                    sendResult(rq, null, error);
+                    return;
+                }
+                try {
+                    // the digests are computed in the storage thread, which has read the object anyway
+                    ObjectDigests.Builder digests = ObjectDigests.newBuilder();
+                    digests.setObjectSize(result.getData() == null ? 0 : result.getData().remaining());
+                    for (long digest : BlockDigests.compute(result.getData(), args.getBlockSize())) {
+                        digests.addBlockDigests(digest);
+                    }
+                    sendResult(rq, digests.build(), null);
+                } catch (IllegalArgumentException ex) {
+                    sendResult(rq, null, ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL,
+                            ex.toString()));
+                } finally {
+                    BufferPool.free(result.getData());
+                }
+            }
+        });
+    }
+
+    public void sendResult(final OSDRequest rq, ObjectDigests response, ErrorResponse error) {
+
+        if (error != null) {
+            rq.sendError(error);
+        } else {
+            //only locally
+           rq.sendSuccess(response,null);
+        }
+    }
+
+
+    @Override
+    public ErrorResponse parseRPCMessage(OSDRequest rq) {
+        try {
+            xtreemfs_rwr_fetch_digestsRequest rpcrq = (xtreemfs_rwr_fetch_digestsRequest)rq.getRequestArgs();
+            rq.setFileId(rpcrq.getFileId());
+            rq.setCapability(new Capability(rpcrq.getFileCredentials().getXcap(), sharedSecret));
+            rq.setLocationList(new XLocations(rpcrq.getFileCredentials().getXlocs(), localUUID));
+
+            return null;
+        } catch (InvalidXLocationsException ex) {
+            return ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, ex.toString());
+        } catch (Throwable ex) {
+            return ErrorUtils.getInternalServerError(ex);
+        }
+    }
+
+    @Override
+    public boolean requiresCapability() {
+        return true;
+    }
+
+    @Override
+    public boolean bypassViewValidation() {
+        // Like InternalRWRFetchOperation, this operation is used during a reset of an invalidated replica.
+        return true;
+    }
+
+    @Override
+    public void startInternalEvent(Object[] args) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.operations;
+
+import java.nio.ByteBuffer;
+
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.common.xloc.InvalidXLocationsException;
+import org.xtreemfs.common.xloc.XLocations;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.InternalObjectData;
+import org.xtreemfs.osd.OSDRequest;
+import org.xtreemfs.osd.OSDRequestDispatcher;
+import org.xtreemfs.osd.stages.StorageStage.ReadObjectCallback;
+import org.xtreemfs.osd.storage.ObjectInformation;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_fetch_rangesRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceConstants;
+
+public final class InternalRWRFetchRangesOperation extends OSDOperation {
+
+    final String sharedSecret;
+    final ServiceUUID localUUID;
+
+    public InternalRWRFetchRangesOperation(OSDRequestDispatcher master) {
+        super(master);
+        sharedSecret = master.getConfig().getCapabilitySecret();
+        localUUID = master.getConfig().getUUID();
+    }
+
+    @Override
+    public int getProcedureId() {
+        return OSDServiceConstants.PROC_ID_XTREEMFS_RWR_FETCH_RANGES;
+    }
+
+    @Override
+    public void startRequest(final OSDRequest rq) {
+        final xtreemfs_rwr_fetch_rangesRequest args = (xtreemfs_rwr_fetch_rangesRequest)rq.getRequestArgs();
+
+        if (Logging.isDebug()) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, this,"RWR fetch ranges request for file %s-%d (%d ranges)",
+                    args.getFileId(),args.getObjectNumber(),args.getOffsetsCount());
+        }
+
+        fetchRanges(rq,args);
+
+    }
+
+    public void fetchRanges(final OSDRequest rq, final xtreemfs_rwr_fetch_rangesRequest args) {
+        master.getStorageStage().readObject(rq.getFileId(), args.getObjectNumber(),
+                rq.getLocationList().getLocalReplica().getStripingPolicy(), 0, -1, 0, rq, new ReadObjectCallback() {
+
+            @Override
+            public void readComplete(ObjectInformation result, ErrorResponse error) {
+                if (error != null) {
+                    sendResult(rq, null, error);
+                    return;
+                }
+                final ReusableBuffer data = result.getData();
+                try {
+                    final int size = data == null ? 0 : data.remaining();
+                    long length = 0;
+                    for (int i = 0; i < args.getOffsetsCount(); i++) {
+                        final long offset = args.getOffsets(i);
+                        final long rangeLength = args.getLengths(i);
+                        if (offset < 0 || rangeLength < 0 || offset + rangeLength > size) {
+                            // the object was changed since the digests were fetched
+                            sendInvalidRanges(rq, "range exceeds the object size of " + size + " bytes");
+                            return;
+                        }
+                        length += rangeLength;
+                    }
+                    if (length > Integer.MAX_VALUE) {
+                        sendInvalidRanges(rq, "ranges exceed the maximum response size");
+                        return;
+                    }
+
+                    final ReusableBuffer ranges = BufferPool.allocate((int) length);
+                    try {
+                        for (int i = 0; i < args.getOffsetsCount(); i++) {
+                            final ByteBuffer range = data.getBuffer().duplicate();
+                            range.position(data.position() + args.getOffsets(i));
+                            range.limit(range.position() + args.getLengths(i));
+                            ranges.put(range);
+                        }
+                    } catch (IllegalArgumentException ex) {
+                        BufferPool.free(ranges);
+                        sendInvalidRanges(rq, ex.toString());
+                        return;
+                    }
+                    ranges.flip();
+                    sendResult(rq, new InternalObjectData(0, false, 0, ranges), null);
+                } finally {
+                    BufferPool.free(data);
+                }
+            }
+        });
+    }
+
+    private void sendInvalidRanges(final OSDRequest rq, String message) {
+        sendResult(rq, null, ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, message));
+    }
+
+    public void sendResult(final OSDRequest rq, InternalObjectData response, ErrorResponse error) {
+
+        if (error != null) {
+            rq.sendError(error);
+        } else {
+            //only locally
+           rq.sendSuccess(response.getMetadata(),response.getData());
+        }
+    }
+
+
+    @Override
+    public ErrorResponse parseRPCMessage(OSDRequest rq) {
+        try {
+            xtreemfs_rwr_fetch_rangesRequest rpcrq = (xtreemfs_rwr_fetch_rangesRequest)rq.getRequestArgs();
+            if (rpcrq.getOffsetsCount() != rpcrq.getLengthsCount()) {
+                return ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL,
+                        "number of offsets and lengths differ");
+            }
+            rq.setFileId(rpcrq.getFileId());
+            rq.setCapability(new Capability(rpcrq.getFileCredentials().getXcap(), sharedSecret));
+            rq.setLocationList(new XLocations(rpcrq.getFileCredentials().getXlocs(), localUUID));
+
+            return null;
+        } catch (InvalidXLocationsException ex) {
+            return ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EINVAL, ex.toString());
+        } catch (Throwable ex) {
+            return ErrorUtils.getInternalServerError(ex);
+        }
+    }
+
+    @Override
+    public boolean requiresCapability() {
+        return true;
+    }
+
+    @Override
+    public boolean bypassViewValidation() {
+        // Like InternalRWRFetchOperation, this operation is used during a reset of an invalidated replica.
+        return true;
+    }
+
+    @Override
+    public void startInternalEvent(Object[] args) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+}
@@ -45,10 +45,13 @@ public final class ReadOperation extends OSDOperation {
 
     final ServiceUUID localUUID;
 
+    final boolean zeroCopyReads;
+
     public ReadOperation(OSDRequestDispatcher master) {
         super(master);
         sharedSecret = master.getConfig().getCapabilitySecret();
         localUUID = master.getConfig().getUUID();
+        zeroCopyReads = master.getConfig().isZeroCopyReads();
     }
 
     @Override
@@ -93,7 +96,7 @@ public final class ReadOperation extends OSDOperation {
                     ? rq.getCapability().getSnapTimestamp() : 0;
 
             master.getStorageStage().readObject(args.getFileId(), args.getObjectNumber(), sp, args.getOffset(),
-                    args.getLength(), snapVerTS, rq, new ReadObjectCallback() {
+                    args.getLength(), snapVerTS, isZeroCopy(rq), rq, new ReadObjectCallback() {
 
                         @Override
                         public void readComplete(ObjectInformation result, ErrorResponse error) {
@@ -118,7 +121,7 @@ public final class ReadOperation extends OSDOperation {
 
                 //FIXME: ignore canExecOperation for now...
                 master.getStorageStage().readObject(args.getFileId(), args.getObjectNumber(), sp,
-                    args.getOffset(),args.getLength(), snapVerTS, rq, new ReadObjectCallback() {
+                    args.getOffset(),args.getLength(), snapVerTS, isZeroCopy(rq), rq, new ReadObjectCallback() {
 
                     @Override
                     public void readComplete(ObjectInformation result, ErrorResponse error) {
@@ -139,6 +142,14 @@ public final class ReadOperation extends OSDOperation {
         }, rq);
     }
 
+    /**
+     * Data can only be sent directly from the object files if the response
+     * does not have to be encrypted.
+     */
+    private boolean isZeroCopy(OSDRequest rq) {
+        return zeroCopyReads && rq.isFileRegionSupported();
+    }
+
     public void postRead(final OSDRequest rq, readRequest args, ObjectInformation result, ErrorResponse error) {
         if (error != null) {
             rq.sendError(error);
@@ -175,7 +186,8 @@ public final class ReadOperation extends OSDOperation {
         final boolean isLastObjectLocallyKnown = lastKnownObject <= objNo;
         //check if GMAX must be fetched to determin EOF
         if ((objNo > lastKnownObject) ||
-                (objNo == lastKnownObject) && (result.getData() != null) && (result.getData().remaining() < result.getStripeSize())) {
+                (objNo == lastKnownObject) && (result.getData() != null || result.getFileRegion() != null)
+                && (result.getDataLength() < result.getStripeSize())) {
             try {
                 final List<ServiceUUID> osds = rq.getLocationList().getLocalReplica().getOSDs();
                 final RPCResponse[] gmaxRPCs = new RPCResponse[osds.size() - 1];
@@ -193,6 +205,7 @@ public final class ReadOperation extends OSDOperation {
                     }
                 });
             } catch (IOException ex) {
+                releaseFileRegion(result);
                 rq.sendInternalServerError(ex);
                 return;
             }
@@ -205,6 +218,7 @@ public final class ReadOperation extends OSDOperation {
             final ObjectInformation result, RPCResponse[] gmaxRPCs) {
         long maxObjNo = -1;
         long maxTruncate = -1;
+        boolean finished = false;
 
         try {
             for (int i = 0; i < gmaxRPCs.length; i++) {
@@ -216,6 +230,7 @@ public final class ReadOperation extends OSDOperation {
                 }
             }
             final boolean isLastObjectLocallyKnown = maxObjNo <= args.getObjectNumber();
+            finished = true;
             readFinish(rq, args, result, isLastObjectLocallyKnown);
             
             if (args.getFileCredentials().getXcap().getSnapConfig() == SnapConfig.SNAP_CONFIG_ACCESS_SNAP)
@@ -225,6 +240,9 @@ public final class ReadOperation extends OSDOperation {
             master.getStorageStage().receivedGMAX_ASYNC(args.getFileId(), maxTruncate, maxObjNo);
             
         } catch (Exception ex) {
+            if (!finished) {
+                releaseFileRegion(result);
+            }
             rq.sendInternalServerError(ex);
         } finally {
             for (RPCResponse r : gmaxRPCs)
@@ -242,6 +260,8 @@ public final class ReadOperation extends OSDOperation {
         int datasize = 0;
         if (data.getData() != null)
             datasize = data.getData().remaining();
+        else if (data.getFileRegion() != null)
+            datasize = data.getFileRegion().getLength();
         datasize += data.getZero_padding();
         assert((isLastObjectOrEOF && datasize <= args.getLength()) ||
                 (!isLastObjectOrEOF && datasize == args.getLength()));
@@ -251,6 +271,8 @@ public final class ReadOperation extends OSDOperation {
         master.objectSent();
         if (data.getData() != null)
             master.dataSent(data.getData().capacity());
+        else if (data.getFileRegion() != null)
+            master.dataSent(data.getFileRegion().getLength());
 
         sendResponse(rq, data);
     }
@@ -322,7 +344,15 @@ public final class ReadOperation extends OSDOperation {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.net, this, result.toString());
         }
-        rq.sendSuccess(result.getMetadata(),result.getData());
+        if (result.getFileRegion() != null)
+            rq.sendFileRegionSuccess(result.getMetadata(), result.getFileRegion());
+        else
+            rq.sendSuccess(result.getMetadata(),result.getData());
+    }
+
+    private static void releaseFileRegion(ObjectInformation result) {
+        if (result.getFileRegion() != null)
+            result.getFileRegion().release();
     }
 
 
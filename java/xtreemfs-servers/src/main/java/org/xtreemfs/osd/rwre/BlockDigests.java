@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+
+/**
+ * Digests of the fixed-size blocks of an object, which are used to transfer
+ * only the differing parts of an outdated object during a replica reset
+ * (delta sync). The digest of a block combines its CRC32 and Adler32
+ * checksums.
+ */
+public final class BlockDigests {
+
+    private BlockDigests() {
+    }
+
+    /**
+     * A byte range of an object.
+     */
+    public static final class Range {
+
+        private final int offset;
+
+        private final int length;
+
+        public Range(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + offset + ", " + (offset + length) + ")";
+        }
+    }
+
+    /**
+     * Computes the digests of the blocks between the position and the limit
+     * of a buffer. The position of the buffer is not changed.
+     *
+     * @param data
+     *            the data of the object, may be null if the object is empty
+     * @param blockSize
+     *            the number of bytes per block
+     * @return the digests, the last block may be shorter than blockSize
+     */
+    public static long[] compute(ReusableBuffer data, int blockSize) {
+
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("invalid block size: " + blockSize);
+
+        final int size = data == null ? 0 : data.remaining();
+        final long[] digests = new long[(size + blockSize - 1) / blockSize];
+        if (size == 0)
+            return digests;
+
+        final int pos = data.position();
+        final byte[] block = new byte[Math.min(blockSize, size)];
+        final CRC32 crc = new CRC32();
+        final Adler32 adler = new Adler32();
+        try {
+            for (int i = 0; i < digests.length; i++) {
+                final int length = Math.min(blockSize, size - i * blockSize);
+                data.get(block, 0, length);
+                crc.reset();
+                crc.update(block, 0, length);
+                adler.reset();
+                adler.update(block, 0, length);
+                digests[i] = (crc.getValue() << 32) | adler.getValue();
+            }
+        } finally {
+            data.position(pos);
+        }
+        return digests;
+    }
+
+    /**
+     * Returns the byte ranges of the remote version of an object which have to
+     * be fetched to turn the local version into the remote version.
+     * Consecutive differing blocks are merged into a single range. If the
+     * local version is longer than the remote version, it cannot be turned
+     * into the remote version by writing ranges, and null is returned.
+     *
+     * @param localDigests
+     *            the block digests of the local version
+     * @param localSize
+     *            the size of the local version
+     * @param remoteDigests
+     *            the block digests of the remote version
+     * @param remoteSize
+     *            the size of the remote version
+     * @param blockSize
+     *            the number of bytes per block
+     * @return the ranges in ascending order, or null
+     */
+    public static List<Range> getDifferingRanges(long[] localDigests, int localSize, long[] remoteDigests,
+            int remoteSize, int blockSize) {
+
+        if (localSize > remoteSize)
+            return null;
+
+        final List<Range> ranges = new ArrayList<Range>();
+        int start = -1;
+        for (int i = 0; i < remoteDigests.length; i++) {
+            // the last local block may be shorter than the remote block
+            final boolean differs = i >= localDigests.length || localDigests[i] != remoteDigests[i]
+                    || Math.min(blockSize, localSize - i * blockSize) != Math.min(blockSize, remoteSize - i * blockSize);
+            if (differs && start < 0) {
+                start = i;
+            } else if (!differs && start >= 0) {
+                ranges.add(new Range(start * blockSize, (i - start) * blockSize));
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            ranges.add(new Range(start * blockSize, remoteSize - start * blockSize));
+        }
+        return ranges;
+    }
+
+    /**
+     * Creates the remote version of an object from the local version and the
+     * differing ranges of the remote version. The given buffers are not freed.
+     *
+     * @param localData
+     *            the data of the local version, may be null if it is empty
+     * @param remoteSize
+     *            the size of the remote version
+     * @param ranges
+     *            the differing ranges
+     * @param rangeData
+     *            the data of the differing ranges, one after the other
+     * @return a new buffer containing the remote version
+     */
+    public static ReusableBuffer patch(ReusableBuffer localData, int remoteSize, List<Range> ranges,
+            ReusableBuffer rangeData) {
+
+        final ReusableBuffer data = BufferPool.allocate(remoteSize);
+        if (localData != null) {
+            final ByteBuffer local = localData.getBuffer().duplicate();
+            local.limit(local.position() + Math.min(localData.remaining(), remoteSize));
+            data.put(local);
+        }
+        final ByteBuffer src = rangeData == null ? null : rangeData.getBuffer().duplicate();
+        for (Range range : ranges) {
+            src.limit(src.position() + range.getLength());
+            data.position(range.getOffset());
+            data.put(src);
+        }
+        data.position(0);
+        data.limit(remoteSize);
+        return data;
+    }
+
+    /**
+     * Returns the total number of bytes of the given ranges.
+     */
+    public static int getLength(List<Range> ranges) {
+        int length = 0;
+        for (Range range : ranges)
+            length += range.getLength();
+        return length;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.osd.InternalObjectData;
+import org.xtreemfs.osd.rwre.RWReplicationStage.Operation;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_updateRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Variant of a coordinated policy which sends writes only to the first backup.
+ * Each backup applies the write and forwards it to the next backup
+ * (primary -> backup1 -> backup2 ...), and the number of updated replicas is
+ * returned along the chain. The primary thus sends the data of a write once
+ * instead of once per backup. The number of acks required, the lease, the
+ * version numbers and the resets are those of the underlying policy; truncates
+ * and resets are still sent to each backup by the primary.
+ */
+public class ChainReplicaUpdatePolicy extends CoordinatedReplicaUpdatePolicy {
+
+    private final CoordinatedReplicaUpdatePolicy quorumPolicy;
+
+    private final List<String>                   chain;
+
+    public ChainReplicaUpdatePolicy(CoordinatedReplicaUpdatePolicy quorumPolicy, String localUUID, String fileId,
+            OSDServiceClient client) {
+        super(quorumPolicy.getRemoteOSDUUIDs(), localUUID, fileId, client);
+        this.quorumPolicy = quorumPolicy;
+        this.chain = new ArrayList<String>(remoteOSDUUIDs.size());
+        for (ServiceUUID osd : remoteOSDUUIDs) {
+            chain.add(osd.toString());
+        }
+    }
+
+    @Override
+    public int getNumRequiredAcks(Operation operation) {
+        return quorumPolicy.getNumRequiredAcks(operation);
+    }
+
+    @Override
+    public boolean backupCanRead() {
+        return quorumPolicy.backupCanRead();
+    }
+
+    @Override
+    public void executeWrite(FileCredentials credentials, long objNo, long objVersion, InternalObjectData data,
+            final ClientOperationCallback callback) {
+        final String fileId = credentials.getXcap().getFileId();
+        final int numAcksRequired = getNumRequiredAcks(Operation.WRITE);
+
+        final xtreemfs_rwr_updateRequest update = xtreemfs_rwr_updateRequest.newBuilder()
+                .setFileCredentials(credentials).setFileId(fileId).setNewFileSize(0).setObjectNumber(objNo)
+                .setObjectVersion(objVersion).setOffset(0).setObj(data.getMetadata()).build();
+
+        ChainUpdate chainUpdate = new ChainUpdate(client, RWReplicationStage.REQUEST_TIMEOUT_MS,
+                System.currentTimeMillis() + RWReplicationStage.REQUEST_TIMEOUT_MS, update, chain, data.getData(),
+                new ChainUpdate.ChainUpdateCallback() {
+
+                    @Override
+                    public void chainUpdated(int numReplicasUpdated, ErrorResponse error) {
+                        if (numReplicasUpdated >= numAcksRequired) {
+                            if (Logging.isDebug())
+                                Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                                        "replicated %s successfull for %s (acks: %d)", Operation.WRITE, fileId,
+                                        numReplicasUpdated);
+                            callback.finished();
+                        } else {
+                            Logging.logMessage(Logging.LEVEL_INFO, Category.replication, this,
+                                    "replicated %s FAILED for %s (acks: %d, required: %d)", Operation.WRITE,
+                                    fileId, numReplicasUpdated, numAcksRequired);
+                            callback.failed(error != null ? error : ErrorUtils.getErrorResponse(
+                                    ErrorType.INTERNAL_SERVER_ERROR, POSIXErrno.POSIX_ERROR_EIO, "only "
+                                            + numReplicasUpdated + " of " + numAcksRequired
+                                            + " required replicas were updated"));
+                        }
+                    }
+                });
+        chainUpdate.start();
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this, "(R:%s) sent chain update for %s",
+                    localUUID, fileId);
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.xtreemfs.common.uuids.ServiceUUID;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_chain_updateRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_chain_updateResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.xtreemfs_rwr_updateRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Sends a write to the first OSD of a chain, which applies it and forwards it
+ * to the rest of the chain. If that OSD cannot be reached or fails, the write
+ * is sent to the next OSD with the remaining chain, so that a failed OSD does
+ * not cut off its successors. Used by the primary as well as by the backups
+ * of a chain.
+ * <p>
+ * Each request tells the receiver how long the sender waits for the response.
+ * The receiver responds with the number of replicas updated so far at least
+ * {@link #HOP_MARGIN_MS} before that, and grants its successor only the
+ * remaining time. Thus a dead or slow OSD at the end of the chain does not
+ * cause the OSDs in front of it to time out, although they applied the write.
+ */
+public final class ChainUpdate implements RPCResponseAvailableListener<xtreemfs_rwr_chain_updateResponse> {
+
+    /**
+     * time reserved at each hop for sending the response back to the
+     * predecessor
+     */
+    public static final int HOP_MARGIN_MS = 1000;
+
+    private static final Timer timer = new Timer("ChainUpdate timeouts", true);
+
+    public static interface ChainUpdateCallback {
+        /**
+         * Called once the chain responded, all of its OSDs failed or the
+         * deadline passed.
+         *
+         * @param numReplicasUpdated
+         *            number of OSDs of the chain which applied the write
+         * @param error
+         *            the last error, or null
+         */
+        public void chainUpdated(int numReplicasUpdated, ErrorResponse error);
+    }
+
+    private final OSDServiceClient    client;
+
+    private final int                 requestTimeoutMs;
+
+    private final long                deadline;
+
+    private final xtreemfs_rwr_updateRequest update;
+
+    private final List<String>        chain;
+
+    private final ReusableBuffer      data;
+
+    private final ChainUpdateCallback callback;
+
+    /**
+     * index of the OSD the write was sent to
+     */
+    private int                       head;
+
+    private ErrorResponse             lastError;
+
+    private boolean                   done;
+
+    private TimerTask                 timeoutTask;
+
+    /**
+     * @param client
+     *            the client used to send the write
+     * @param requestTimeoutMs
+     *            the request timeout of the client
+     * @param deadline
+     *            time (System.currentTimeMillis()) by which the callback is
+     *            called at the latest
+     * @param update
+     *            the write, without data
+     * @param chain
+     *            UUIDs of the OSDs in chain order
+     * @param data
+     *            the data of the write, which is freed when the chain
+     *            responded
+     * @param callback
+     *            called when the chain responded
+     */
+    public ChainUpdate(OSDServiceClient client, int requestTimeoutMs, long deadline,
+            xtreemfs_rwr_updateRequest update, List<String> chain, ReusableBuffer data, ChainUpdateCallback callback) {
+        this.client = client;
+        this.requestTimeoutMs = requestTimeoutMs;
+        this.deadline = deadline;
+        this.update = update;
+        this.chain = chain;
+        this.data = data;
+        this.callback = callback;
+        this.head = 0;
+    }
+
+    public synchronized void start() {
+        timeoutTask = new TimerTask() {
+            @Override
+            public void run() {
+                timeout();
+            }
+        };
+        schedule(timeoutTask, deadline);
+        send();
+    }
+
+    /**
+     * Runs a task at the given time (System.currentTimeMillis()), e.g. to
+     * respond to the predecessor in the chain before its deadline.
+     */
+    public static void schedule(TimerTask task, long time) {
+        timer.schedule(task, Math.max(0, time - System.currentTimeMillis()));
+    }
+
+    private void send() {
+        while (head < chain.size()) {
+            final String osd = chain.get(head);
+            // the successor must respond before this OSD has to respond
+            final long timeoutMs = Math.min(requestTimeoutMs, deadline - System.currentTimeMillis());
+            if (timeoutMs <= 2 * HOP_MARGIN_MS) {
+                lastError = ErrorUtils.getErrorResponse(ErrorType.IO_ERROR, POSIXErrno.POSIX_ERROR_EIO,
+                        "no time left to forward the write to " + osd);
+                break;
+            }
+            try {
+                final ServiceUUID uuid = new ServiceUUID(osd);
+                final xtreemfs_rwr_chain_updateRequest rq = xtreemfs_rwr_chain_updateRequest.newBuilder()
+                        .setUpdate(update).addAllForwardOsdUuids(chain.subList(head + 1, chain.size()))
+                        .setTimeoutMs((int) timeoutMs).build();
+                RPCResponse<xtreemfs_rwr_chain_updateResponse> r = client.xtreemfs_rwr_chain_update(
+                        uuid.getAddress(), RPCAuthentication.authNone, RPCAuthentication.userService, rq,
+                        data.createViewBuffer());
+                r.registerListener(this);
+                return;
+            } catch (IOException ex) {
+                skip(osd, ErrorUtils.getInternalServerError(ex));
+            }
+        }
+        finish(0, lastError);
+    }
+
+    @Override
+    public synchronized void responseAvailable(RPCResponse<xtreemfs_rwr_chain_updateResponse> r) {
+        try {
+            if (done)
+                return;
+            final int numReplicasUpdated;
+            try {
+                numReplicasUpdated = r.get().getNumReplicasUpdated();
+            } catch (PBRPCException ex) {
+                skip(chain.get(head), ex.getErrorResponse() != null ? ex.getErrorResponse() : ErrorUtils
+                        .getInternalServerError(ex));
+                send();
+                return;
+            } catch (Exception ex) {
+                skip(chain.get(head), ErrorUtils.getInternalServerError(ex));
+                send();
+                return;
+            }
+            finish(numReplicasUpdated, null);
+        } finally {
+            r.freeBuffers();
+        }
+    }
+
+    private synchronized void timeout() {
+        if (done)
+            return;
+        Logging.logMessage(Logging.LEVEL_INFO, Category.replication, this,
+                "chain update of %s-%d timed out on %s, responding without it", update.getFileId(),
+                update.getObjectNumber(), chain.get(head));
+        finish(0, ErrorUtils.getErrorResponse(ErrorType.IO_ERROR, POSIXErrno.POSIX_ERROR_EIO,
+                "chain update timed out on " + chain.get(head)));
+    }
+
+    private void finish(int numReplicasUpdated, ErrorResponse error) {
+        done = true;
+        timeoutTask.cancel();
+        BufferPool.free(data);
+        callback.chainUpdated(numReplicasUpdated, error);
+    }
+
+    private void skip(String osd, ErrorResponse error) {
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                    "chain update of %s-%d failed on %s, skipping it: %s", update.getFileId(),
+                    update.getObjectNumber(), osd, error.getErrorMessage());
+        lastError = error;
+        head++;
+    }
+
+}
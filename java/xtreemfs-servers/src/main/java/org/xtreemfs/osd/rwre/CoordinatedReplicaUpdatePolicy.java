@@ -47,7 +47,7 @@ import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
  */
 public abstract class CoordinatedReplicaUpdatePolicy extends ReplicaUpdatePolicy {
 
-    private final OSDServiceClient client;
+    protected final OSDServiceClient client;
 
     public CoordinatedReplicaUpdatePolicy(List<ServiceUUID> remoteOSDUUIDs, String localUUID, String fileId,
             OSDServiceClient client) {
@@ -11,16 +11,18 @@ package org.xtreemfs.osd.rwre;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.common.libxtreemfs.exceptions.XtreemFSException;
 import org.xtreemfs.common.uuids.ServiceUUID;
 import org.xtreemfs.common.uuids.UnknownUUIDException;
+import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.common.xloc.XLocations;
 import org.xtreemfs.foundation.SSLOptions;
 import org.xtreemfs.foundation.buffer.ASCIIString;
@@ -47,23 +49,28 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.ErrorType;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
 import org.xtreemfs.foundation.pbrpc.utils.ErrorUtils;
+import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.osd.InternalObjectData;
 import org.xtreemfs.osd.OSDRequest;
 import org.xtreemfs.osd.OSDRequestDispatcher;
 import org.xtreemfs.osd.operations.EventRWRStatus;
 import org.xtreemfs.osd.operations.OSDOperation;
+import org.xtreemfs.osd.rwre.BlockDigests.Range;
 import org.xtreemfs.osd.rwre.ReplicatedFileState.ReplicaState;
 import org.xtreemfs.osd.stages.PreprocStage.InvalidateXLocSetCallback;
 import org.xtreemfs.osd.stages.Stage;
 import org.xtreemfs.osd.stages.StorageStage.DeleteObjectsCallback;
 import org.xtreemfs.osd.stages.StorageStage.InternalGetMaxObjectNoCallback;
+import org.xtreemfs.osd.stages.StorageStage.ReadObjectCallback;
 import org.xtreemfs.osd.stages.StorageStage.WriteObjectCallback;
 import org.xtreemfs.osd.storage.CowPolicy;
+import org.xtreemfs.osd.storage.ObjectInformation;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.LeaseState;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.AuthoritativeReplicaState;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectDigests;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersion;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectVersionMapping;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ReplicaStatus;
@@ -126,13 +133,76 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
     private int                                    numObjsInFlight;
 
-    private static final int                       MAX_OBJS_IN_FLIGHT         = 10;
+    /**
+     * window for the objects fetched concurrently for all files in reset
+     */
+    private final ResetWindow                      resetWindow;
+
+    /**
+     * number of objects currently fetched from each OSD, by UUID
+     */
+    private final Map<String, Integer>             fetchesPerOSD;
+
+    /**
+     * timeout of requests sent to other OSDs
+     */
+    static final int                               REQUEST_TIMEOUT_MS         = 15000;
+
+    private static final int                       INITIAL_OBJS_IN_FLIGHT     = 10;
+
+    private static final int                       MIN_OBJS_IN_FLIGHT         = 2;
+
+    private static final int                       MAX_OBJS_IN_FLIGHT         = 128;
+
+    private static final int                       INITIAL_OBJS_IN_FLIGHT_PER_FILE = 4;
+
+    private static final int                       MAX_OBJS_IN_FLIGHT_PER_FILE = 32;
+
+    /**
+     * size of the blocks compared to update outdated objects, 0 if outdated
+     * objects are fetched completely
+     */
+    private final int                              deltaSyncBlockSize;
+
+    /**
+     * true if writes are forwarded along a chain of backups instead of being
+     * sent from the primary to each backup
+     */
+    private final boolean                          chainReplication;
+
+    /**
+     * interval in which the reset throughput is computed
+     */
+    private static final long                      RESET_THROUGHPUT_INTERVAL_MS = 1000;
 
     private static final int                       MAX_PENDING_PER_FILE       = 10;
 
     private static final int                       MAX_EXTERNAL_REQUESTS_IN_Q = 250;
 
-    private final Queue<ReplicatedFileState>       filesInReset;
+    /**
+     * files whose missing objects are fetched, in the order in which they
+     * fetch their next object
+     */
+    private final List<ReplicatedFileState>        filesInReset;
+
+    /*
+     * reset statistics, written by the stage thread
+     */
+    private volatile int                           numFilesInReset;
+
+    private volatile int                           numResetObjectsRemaining;
+
+    private volatile long                          numResetObjectsFetched;
+
+    private volatile long                          numResetBytesFetched;
+
+    private volatile long                          numResetBytesSaved;
+
+    private volatile long                          resetThroughput;
+
+    private long                                   resetThroughputSince;
+
+    private long                                   resetBytesSince;
 
     private final FleaseMasterEpochThread          masterEpochThread;
 
@@ -142,14 +212,18 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
             throws IOException {
         super("RWReplSt", maxRequestsQueueLength);
         this.master = master;
-        client = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, "RWReplicationStage");
-        fleaseClient = new RPCNIOSocketClient(sslOpts, 15000, 60000 * 5, "RWReplicationStage (flease)");
+        client = new RPCNIOSocketClient(sslOpts, REQUEST_TIMEOUT_MS, 60000 * 5, "RWReplicationStage");
+        fleaseClient = new RPCNIOSocketClient(sslOpts, REQUEST_TIMEOUT_MS, 60000 * 5, "RWReplicationStage (flease)");
         osdClient = new OSDServiceClient(client, null);
         fleaseOsdClient = new OSDServiceClient(fleaseClient, null);
         files = new HashMap<String, ReplicatedFileState>();
         cellToFileId = new HashMap<ASCIIString, String>();
         numObjsInFlight = 0;
+        resetWindow = new ResetWindow(INITIAL_OBJS_IN_FLIGHT, MIN_OBJS_IN_FLIGHT, MAX_OBJS_IN_FLIGHT);
+        fetchesPerOSD = new HashMap<String, Integer>();
         filesInReset = new LinkedList<ReplicatedFileState>();
+        deltaSyncBlockSize = master.getConfig().getDeltaSyncBlockSize();
+        chainReplication = master.getConfig().isChainReplication();
         externalRequestsInQueue = new AtomicInteger(0);
 
         localID = new ASCIIString(master.getConfig().getUUID().toString());
@@ -234,8 +308,8 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
         this.enqueueOperation(STAGEOP_INTERNAL_DELETE_COMPLETE, new Object[] { fileId, error }, null, null);
     }
 
-    void eventObjectFetched(String fileId, ObjectVersionMapping object, InternalObjectData data, ErrorResponse error) {
-        this.enqueueOperation(STAGEOP_INTERNAL_OBJFETCHED, new Object[] { fileId, object, data, error }, null, null);
+    void eventObjectFetched(String fileId, ObjectFetch fetch, InternalObjectData data, ErrorResponse error) {
+        this.enqueueOperation(STAGEOP_INTERNAL_OBJFETCHED, new Object[] { fileId, fetch, data, error }, null, null);
     }
 
     void eventSetAuthState(String fileId, AuthoritativeReplicaState authState, ReplicaStatus localState,
@@ -298,14 +372,29 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 missingObjects.remove(localObject.getObjectNumber());
             }
         }
+        // Keep outdated objects whose differing parts can be fetched, unless they may have been truncated.
+        Map<Long, Long> outdatedObjects = new HashMap<Long, Long>();
+        if (deltaSyncBlockSize > 0 && localState.getTruncateEpoch() == authState.getTruncateEpoch()) {
+            for (Long objNo : missingObjects.keySet()) {
+                Long version = objectsToBeDeleted.get(objNo);
+                if (version != null) {
+                    objectsToBeDeleted.remove(objNo);
+                    outdatedObjects.put(objNo, version);
+                }
+            }
+        }
         if (!missingObjects.isEmpty() || !objectsToBeDeleted.isEmpty()
                 || (localState.getTruncateEpoch() < authState.getTruncateEpoch())) {
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
                         "(R:%s) replica RESET required updates for: %s", localID, state.getFileId());
             }
-            state.setObjectsToFetch(new LinkedList(missingObjects.values()));
-            filesInReset.add(state);
+            state.setObjectsToFetch(new LinkedList(missingObjects.values()), new ResetWindow(
+                    INITIAL_OBJS_IN_FLIGHT_PER_FILE, 1, MAX_OBJS_IN_FLIGHT_PER_FILE));
+            state.setOutdatedObjects(outdatedObjects, authState.getTruncateEpoch());
+            if (!filesInReset.contains(state)) {
+                filesInReset.add(state);
+            }
             // Start by deleting the old objects.
             master.getStorageStage().deleteObjects(fileId, state.getsPolicy(), authState.getTruncateEpoch(),
                     objectsToBeDeleted, new DeleteObjectsCallback() {
@@ -506,47 +595,228 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
 
     private void fetchObjects() {
 
-        while (numObjsInFlight < MAX_OBJS_IN_FLIGHT) {
+        final List<ReplicatedFileState> completed = new LinkedList<ReplicatedFileState>();
+        while (numObjsInFlight < resetWindow.getSize()) {
 
-            ReplicatedFileState fileInReset = filesInReset.poll();
-            if (fileInReset == null)
+            ReplicatedFileState file = nextFileToFetch(completed);
+            if (file == null)
                 break;
 
+            // Remove an object from the queue and process it
+            ObjectVersionMapping o = file.getObjectsToFetch().remove(0);
+            file.incrementNumObjectsPending();
+            fetchObject(file, new ObjectFetch(o, file.getOutdatedObjectVersion(o.getObjectNumber())));
+
+            // Let the other files fetch their next objects first
+            filesInReset.remove(file);
+            if (!file.getObjectsToFetch().isEmpty()) {
+                filesInReset.add(file);
+            }
+        }
+
+        // If every missing object is fetched and no object is pending processing, the reset is complete
+        for (ReplicatedFileState file : completed) {
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this, "(R:%s) RESET complete for file %s",
+                    localID, file.getFileId());
+            doResetComplete(file);
+        }
+
+        updateResetStatistics();
+    }
+
+    /**
+     * Returns the file whose next missing object is fetched: the first file
+     * with waiting requests, or else the first file, whose window permits
+     * another fetch. Files which have no objects left to fetch are removed.
+     * 
+     * @param completed
+     *            files whose reset is complete are added to this list
+     * @return the file, or null if no object can be fetched
+     */
+    private ReplicatedFileState nextFileToFetch(List<ReplicatedFileState> completed) {
+
+        ReplicatedFileState next = null;
+        Iterator<ReplicatedFileState> iter = filesInReset.iterator();
+        while (iter.hasNext()) {
+            final ReplicatedFileState file = iter.next();
+
             // Don't fetch objects for closed files.
             // This should not happen while a RESET is in progress, since #processObjectFetched calls ping.
             // If a file is deleted, the filestate will be cleared, too. But in that case it is reasonable to
             // abort the RESET.
-            ReplicatedFileState file = files.get(fileInReset.getFileId());
-            if (file == null || file != fileInReset) {
+            if (files.get(file.getFileId()) != file) {
+                iter.remove();
                 continue;
             }
 
-            // Remove an object from the queue and process it
-            if (!file.getObjectsToFetch().isEmpty()) {
-                ObjectVersionMapping o = file.getObjectsToFetch().remove(0);
-                file.incrementNumObjectsPending();
-                numObjsInFlight++;
-                fetchObject(file, o);
+            if (file.getObjectsToFetch().isEmpty()) {
+                iter.remove();
+                if (file.getNumObjectsPending() == 0) {
+                    completed.add(file);
+                }
+                continue;
             }
 
-            // If there are still missing objects, return the file to the reset queue
-            if (!file.getObjectsToFetch().isEmpty()) {
-                filesInReset.add(file);
+            if (file.getNumObjectsPending() >= file.getResetWindow().getSize()) {
+                continue;
             }
-                
-            // If every missing object is fetches and no object is pending processing, the reset is complete
-            if (file.getObjectsToFetch().isEmpty() && file.getNumObjectsPending() == 0) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this, "(R:%s) RESET complete for file %s",
-                        localID, file.getFileId());
-                doResetComplete(file);
+
+            // Clients are waiting for files with pending requests.
+            if (file.hasPendingRequests()) {
+                return file;
+            }
+            if (next == null) {
+                next = file;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Selects the OSD an object is fetched from: the OSD with the fewest
+     * fetches in progress which holds the authoritative version and has not
+     * failed to deliver the object before.
+     * 
+     * @return the UUID of the OSD, or null if all OSDs have been tried
+     */
+    private String selectSourceOSD(ObjectFetch fetch) {
+
+        final List<String> osds = fetch.record.getOsdUuidsList();
+        String source = null;
+        int minFetches = Integer.MAX_VALUE;
+        // Start at a different OSD for each object to spread the load if no fetches are in progress.
+        final int offset = (int) (fetch.record.getObjectNumber() % osds.size());
+        for (int i = 0; i < osds.size(); i++) {
+            final String osd = osds.get((offset + i) % osds.size());
+            if (fetch.triedOSDs.contains(osd)) {
+                continue;
             }
+            final Integer fetches = fetchesPerOSD.get(osd);
+            final int numFetches = fetches == null ? 0 : fetches;
+            if (numFetches < minFetches) {
+                source = osd;
+                minFetches = numFetches;
+            }
+        }
+        return source;
+    }
+
+    private void updateResetStatistics() {
+
+        int remaining = numObjsInFlight;
+        for (ReplicatedFileState file : filesInReset) {
+            remaining += file.getObjectsToFetch().size();
+        }
+        numFilesInReset = filesInReset.size();
+        numResetObjectsRemaining = remaining;
+
+        final long now = System.currentTimeMillis();
+        if (now - resetThroughputSince >= RESET_THROUGHPUT_INTERVAL_MS) {
+            final long bytes = numResetBytesFetched;
+            resetThroughput = resetThroughputSince == 0 ? 0 : (bytes - resetBytesSince) * 1000
+                    / (now - resetThroughputSince);
+            resetThroughputSince = now;
+            resetBytesSince = bytes;
+        }
+    }
+
+    /**
+     * Returns a textual representation of the progress of replica resets.
+     */
+    public String getResetStatus() {
+        return String.format("%d files in reset, %d objects remaining, %d objects (%s) fetched, %s/s, %s saved by delta sync",
+                numFilesInReset, numResetObjectsRemaining, numResetObjectsFetched,
+                OutputUtils.formatBytes(numResetBytesFetched), numFilesInReset == 0 ? "0 B" : OutputUtils
+                        .formatBytes(resetThroughput), OutputUtils.formatBytes(numResetBytesSaved));
+    }
+
+    /**
+     * Returns the number of bytes fetched by replica resets.
+     */
+    public long getNumResetBytesFetched() {
+        return numResetBytesFetched;
+    }
+
+    /**
+     * Returns the number of bytes replica resets did not have to fetch because
+     * of delta sync.
+     */
+    public long getNumResetBytesSaved() {
+        return numResetBytesSaved;
+    }
+
+    /**
+     * Returns the number of bytes the replication of this OSD received from
+     * [0] and sent to [1] another OSD, or null if it is not connected to it.
+     */
+    public long[] getTransferStats(InetSocketAddress osd) {
+        return client.getTransferStats(osd);
+    }
+
+    /**
+     * A missing object which is fetched during a replica reset.
+     */
+    private static final class ObjectFetch {
+
+        final ObjectVersionMapping record;
+
+        /**
+         * OSDs which have been asked for the object
+         */
+        final List<String>         triedOSDs;
+
+        /**
+         * OSD which is currently asked for the object
+         */
+        String                     source;
+
+        long                       startNanos;
+
+        /**
+         * outdated local version of the object, or 0 if there is none
+         */
+        final long                 localVersion;
+
+        /**
+         * true, if only the differing parts of the object are fetched
+         */
+        boolean                    delta;
+
+        /**
+         * true, if the delta sync failed and the whole object has to be
+         * fetched
+         */
+        boolean                    restart;
+
+        /**
+         * number of bytes received for the object
+         */
+        int                        bytesTransferred;
+
+        ObjectFetch(ObjectVersionMapping record, long localVersion) {
+            this.record = record;
+            this.triedOSDs = new ArrayList<String>(record.getOsdUuidsCount());
+            this.localVersion = localVersion;
+            this.delta = localVersion > 0;
         }
     }
 
-    private void fetchObject(final ReplicatedFileState state, final ObjectVersionMapping record) {
+    private void fetchObject(final ReplicatedFileState state, final ObjectFetch fetch) {
         final String fileId = state.getFileId();
+        final ObjectVersionMapping record = fetch.record;
         try {
-            final ServiceUUID osd = new ServiceUUID(record.getOsdUuidsList().get(0));
+            fetch.source = selectSourceOSD(fetch);
+            fetch.triedOSDs.add(fetch.source);
+            fetch.startNanos = System.nanoTime();
+            Integer fetches = fetchesPerOSD.get(fetch.source);
+            fetchesPerOSD.put(fetch.source, fetches == null ? 1 : fetches + 1);
+            numObjsInFlight++;
+
+            final ServiceUUID osd = new ServiceUUID(fetch.source);
+            if (fetch.delta) {
+                fetchObjectDigests(state, fetch, osd);
+                return;
+            }
             // fetch that object
             if (Logging.isDebug())
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
@@ -563,7 +833,7 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                     try {
                         ObjectData metadata = (ObjectData) r.get();
                         InternalObjectData data = new InternalObjectData(metadata, r.getData());
-                        eventObjectFetched(fileId, record, data, null);
+                        eventObjectFetched(fileId, fetch, data, null);
                     } catch (PBRPCException ex) {
                         // Transform exception into correct ErrorResponse.
                         // TODO(mberlin): Generalize this functionality by returning "Throwable" instead of
@@ -571,13 +841,13 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                         //                The "ErrorResponse" shall be created in the last 'step' at the
                         //                invocation of failed().
                         eventObjectFetched(fileId,
-                                           record,
+                                           fetch,
                                            null,
                                            ErrorUtils.getErrorResponse(ex.getErrorType(), ex.getPOSIXErrno(), ex.toString(), ex));
                     } catch (Exception ex) {
                         eventObjectFetched(
                                 fileId,
-                                           record,
+                                           fetch,
                                            null,
                                            ErrorUtils.getErrorResponse(ErrorType.IO_ERROR, POSIXErrno.POSIX_ERROR_NONE, ex.toString(), ex));
                     } finally {
@@ -586,23 +856,188 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                 }
             });
         } catch (IOException ex) {
-            eventObjectFetched(fileId, record, null,
+            eventObjectFetched(fileId, fetch, null,
                     ErrorUtils.getErrorResponse(ErrorType.ERRNO, POSIXErrno.POSIX_ERROR_EIO, ex.toString(), ex));
         }
 
     }
 
+    /**
+     * Fetches the block digests of an object to update the outdated local
+     * version by fetching only the differing blocks.
+     */
+    private void fetchObjectDigests(final ReplicatedFileState state, final ObjectFetch fetch, final ServiceUUID osd)
+            throws IOException {
+        final String fileId = state.getFileId();
+        final ObjectVersionMapping record = fetch.record;
+        final StripingPolicyImpl sp = state.getsPolicy();
+        final FileCredentials credentials = state.getCredentials();
+        final long truncateEpoch = state.getResetTruncateEpoch();
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                    "(R:%s) file %s, fetch digests of object %d (version %d, local version %d) from %s", localID,
+                    fileId, record.getObjectNumber(), record.getObjectVersion(), fetch.localVersion, osd);
+
+        RPCResponse r = osdClient.xtreemfs_rwr_fetch_digests(osd.getAddress(), RPCAuthentication.authNone,
+                RPCAuthentication.userService, credentials, fileId, record.getObjectNumber(),
+                record.getObjectVersion(), deltaSyncBlockSize);
+        r.registerListener(new RPCResponseAvailableListener() {
+
+            @Override
+            public void responseAvailable(RPCResponse r) {
+                final ObjectDigests remote;
+                try {
+                    remote = (ObjectDigests) r.get();
+                    fetch.bytesTransferred += remote.getSerializedSize();
+                } catch (Exception ex) {
+                    deltaSyncFailed(fileId, fetch, ex.toString());
+                    return;
+                } finally {
+                    r.freeBuffers();
+                }
+
+                master.getStorageStage().readObject(fileId, record.getObjectNumber(), sp, 0, -1, 0, null,
+                        new ReadObjectCallback() {
+
+                            @Override
+                            public void readComplete(ObjectInformation result, ErrorResponse error) {
+                                if (error != null) {
+                                    deltaSyncFailed(fileId, fetch, ErrorUtils.formatError(error));
+                                    return;
+                                }
+                                compareObjectDigests(fileId, credentials, fetch, osd, sp, truncateEpoch,
+                                        result.getData(), remote);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Compares the digests of the local and the remote version of an object
+     * and fetches the differing blocks. Called by the storage thread which
+     * has read the local version.
+     */
+    private void compareObjectDigests(final String fileId, final FileCredentials credentials,
+            final ObjectFetch fetch, final ServiceUUID osd, final StripingPolicyImpl sp, final long truncateEpoch,
+            final ReusableBuffer localData, final ObjectDigests remote) {
+        final ObjectVersionMapping record = fetch.record;
+        try {
+            final int localSize = localData == null ? 0 : localData.remaining();
+            final int remoteSize = remote.getObjectSize();
+            final long[] remoteDigests = new long[remote.getBlockDigestsCount()];
+            for (int i = 0; i < remoteDigests.length; i++) {
+                remoteDigests[i] = remote.getBlockDigests(i);
+            }
+            final List<Range> ranges = remoteSize == 0 ? null : BlockDigests.getDifferingRanges(
+                    BlockDigests.compute(localData, deltaSyncBlockSize), localSize, remoteDigests, remoteSize,
+                    deltaSyncBlockSize);
+
+            if (ranges == null) {
+                // The object was shortened, which cannot be done by writing ranges. Replace it completely.
+                BufferPool.free(localData);
+                master.getStorageStage().deleteObjects(fileId, sp, truncateEpoch,
+                        Collections.singletonMap(record.getObjectNumber(), fetch.localVersion),
+                        new DeleteObjectsCallback() {
+
+                            @Override
+                            public void deleteObjectsComplete(ErrorResponse error) {
+                                deltaSyncFailed(fileId, fetch, "remote object is shorter than the local object");
+                            }
+                        });
+                return;
+            }
+
+            if (ranges.isEmpty()) {
+                // Only the version has changed.
+                eventObjectFetched(fileId, fetch, new InternalObjectData(0, false, 0, localData), null);
+                return;
+            }
+
+            final List<Integer> offsets = new ArrayList<Integer>(ranges.size());
+            final List<Integer> lengths = new ArrayList<Integer>(ranges.size());
+            for (Range range : ranges) {
+                offsets.add(range.getOffset());
+                lengths.add(range.getLength());
+            }
+            final int length = BlockDigests.getLength(ranges);
+
+            if (Logging.isDebug())
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this,
+                        "(R:%s) file %s, fetch %d bytes of object %d in %d ranges from %s", localID, fileId,
+                        length, record.getObjectNumber(), ranges.size(), osd);
+
+            RPCResponse r = osdClient.xtreemfs_rwr_fetch_ranges(osd.getAddress(), RPCAuthentication.authNone,
+                    RPCAuthentication.userService, credentials, fileId, record.getObjectNumber(),
+                    record.getObjectVersion(), offsets, lengths);
+            r.registerListener(new RPCResponseAvailableListener() {
+
+                @Override
+                public void responseAvailable(RPCResponse r) {
+                    ReusableBuffer rangeData = null;
+                    try {
+                        ObjectData metadata = (ObjectData) r.get();
+                        rangeData = r.getData();
+                        if ((rangeData == null ? 0 : rangeData.remaining()) != length) {
+                            deltaSyncFailed(fileId, fetch, "received an incomplete range");
+                            return;
+                        }
+                        fetch.bytesTransferred += length;
+                        ReusableBuffer data = BlockDigests.patch(localData, remoteSize, ranges, rangeData);
+                        eventObjectFetched(fileId, fetch, new InternalObjectData(metadata, data), null);
+                    } catch (Exception ex) {
+                        deltaSyncFailed(fileId, fetch, ex.toString());
+                    } finally {
+                        BufferPool.free(rangeData);
+                        BufferPool.free(localData);
+                        r.freeBuffers();
+                    }
+                }
+            });
+        } catch (Exception ex) {
+            BufferPool.free(localData);
+            deltaSyncFailed(fileId, fetch, ex.toString());
+        }
+    }
+
+    private void deltaSyncFailed(String fileId, ObjectFetch fetch, String reason) {
+        Logging.logMessage(Logging.LEVEL_INFO, Category.replication, this,
+                "(R:%s) delta sync of object %d of file %s failed, fetching the whole object: %s", localID,
+                fetch.record.getObjectNumber(), fileId, reason);
+        fetch.restart = true;
+        eventObjectFetched(fileId, fetch, null, null);
+    }
+
     private void processObjectFetched(StageRequest method) {
         try {
             final String fileId = (String) method.getArgs()[0];
-            final ObjectVersionMapping record = (ObjectVersionMapping) method.getArgs()[1];
+            final ObjectFetch fetch = (ObjectFetch) method.getArgs()[1];
+            final ObjectVersionMapping record = fetch.record;
             final InternalObjectData data = (InternalObjectData) method.getArgs()[2];
             final ErrorResponse error = (ErrorResponse) method.getArgs()[3];
 
             numObjsInFlight--;
+            final int fetches = fetchesPerOSD.remove(fetch.source) - 1;
+            if (fetches > 0) {
+                fetchesPerOSD.put(fetch.source, fetches);
+            }
 
             ReplicatedFileState state = files.get(fileId);
-            if (state != null) {
+            if (state != null && fetch.restart) {
+                fetch.restart = false;
+                fetch.delta = false;
+                fetch.triedOSDs.remove(fetch.source);
+                fetchObject(state, fetch);
+            } else if (state != null && error != null && selectSourceOSD(fetch) != null) {
+                // Another OSD holds the object, too.
+                Logging.logMessage(Logging.LEVEL_INFO, Category.replication, this,
+                        "(R:%s) fetching object %d of file %s from %s failed, trying another OSD: %s", localID,
+                        record.getObjectNumber(), fileId, fetch.source, ErrorUtils.formatError(error));
+                resetWindow.fetchFailed();
+                state.getResetWindow().fetchFailed();
+                fetchObject(state, fetch);
+            } else if (state != null) {
                 if (error != null) {
                     fetchObjects();
 
@@ -632,8 +1067,18 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                                 }
                             });
                     master.getPreprocStage().pingFile(fileId);
+                    final int transferred = fetch.delta ? fetch.bytesTransferred : bytes;
                     master.objectReplicated();
-                    master.replicatedDataReceived(bytes);
+                    master.replicatedDataReceived(transferred);
+
+                    final long latency = System.nanoTime() - fetch.startNanos;
+                    resetWindow.fetchSucceeded(latency);
+                    state.getResetWindow().fetchSucceeded(latency);
+                    numResetObjectsFetched++;
+                    numResetBytesFetched += transferred;
+                    if (fetch.delta) {
+                        numResetBytesSaved += bytes - transferred;
+                    }
 
                     state.decrementNumObjectsPending();
                     state.getPolicy().objectFetched(record.getObjectVersion());
@@ -1043,7 +1488,8 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
             if (Logging.isDebug())
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.replication, this, "open file: " + fileId);
             // "open" file
-            state = new ReplicatedFileState(fileId, loc, master.getConfig().getUUID(), fstage, osdClient);
+            state = new ReplicatedFileState(fileId, loc, master.getConfig().getUUID(), fstage, osdClient,
+                    chainReplication);
             files.put(fileId, state);
             state.setCredentials(credentials);
             state.setForceReset(forceReset);
@@ -1334,6 +1780,11 @@ public class RWReplicationStage extends Stage implements FleaseMessageSenderInte
                     }
                 }
                 fStatus.put("role", primary);
+                if (fState.getState() == ReplicaState.RESET && fState.getObjectsToFetch() != null) {
+                    final int total = fState.getNumObjectsToFetchTotal();
+                    final int fetched = total - fState.getObjectsToFetch().size() - fState.getNumObjectsPending();
+                    fStatus.put("reset progress", fetched + "/" + total + " objects");
+                }
                 status.put(fileId, fStatus);
             }
             callback.statusComplete(status);
@@ -70,6 +70,36 @@ public abstract class ReplicaUpdatePolicy {
         }
     }
 
+    /**
+     * Factory for generating policies objects based on their name, which
+     * optionally forward writes along a chain of backups.
+     * 
+     * @param replicaUpdatePolicy
+     *            Name of the policy.
+     * @param remoteOSDUUIDs
+     *            List of UUIDs of remote OSDs.
+     * @param localUUID
+     *            UUID of the local OSD.
+     * @param fileId
+     *            ID of the file to be replicated.
+     * @param client
+     *            OSDServiceClient instance or null.
+     * @param chainReplication
+     *            true, if the primary should send writes only to the first
+     *            backup, which forwards them to the other backups.
+     * @return ReplicaUpdatePolicy
+     */
+    public static ReplicaUpdatePolicy newReplicaUpdatePolicy(String replicaUpdatePolicy,
+            List<ServiceUUID> remoteOSDUUIDs, String localUUID, String fileId, OSDServiceClient client,
+            boolean chainReplication) {
+        final ReplicaUpdatePolicy policy = newReplicaUpdatePolicy(replicaUpdatePolicy, remoteOSDUUIDs, localUUID,
+                fileId, client);
+        if (chainReplication && remoteOSDUUIDs.size() > 1 && policy instanceof CoordinatedReplicaUpdatePolicy) {
+            return new ChainReplicaUpdatePolicy((CoordinatedReplicaUpdatePolicy) policy, localUUID, fileId, client);
+        }
+        return policy;
+    }
+
     protected ReplicaUpdatePolicy(List<ServiceUUID> remoteOSDUUIDs, String fileId, String localUUID) {
         this.remoteOSDUUIDs = remoteOSDUUIDs;
         this.cellId = fileToCellId(fileId);
@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.xtreemfs.common.uuids.ServiceUUID;
@@ -60,6 +61,14 @@ public class ReplicatedFileState {
 
     private List<ObjectVersionMapping> objectsToFetch;
 
+    private int                        numObjectsToFetchTotal;
+
+    private ResetWindow                resetWindow;
+
+    private Map<Long, Long>            outdatedObjects;
+
+    private long                       resetTruncateEpoch;
+
     private List<StageRequest>         pendingRequests;
 
     private Flease                     lease;
@@ -85,7 +94,7 @@ public class ReplicatedFileState {
     private boolean                    invalidatedReset;
 
     public ReplicatedFileState(String fileId, XLocations locations, ServiceUUID localUUID, FleaseStage fstage,
-            OSDServiceClient client) throws UnknownUUIDException, IOException {
+            OSDServiceClient client, boolean chainReplication) throws UnknownUUIDException, IOException {
         queuedData = new AtomicInteger();
         pendingRequests = new LinkedList<StageRequest>();
         this.fileId = fileId;
@@ -107,7 +116,7 @@ public class ReplicatedFileState {
         }
 
         policy = ReplicaUpdatePolicy.newReplicaUpdatePolicy(locations.getReplicaUpdatePolicy(), remoteOSDs, localUUID.toString(),
-                fileId, client);
+                fileId, client, chainReplication);
     }
 
     /**
@@ -305,10 +314,60 @@ public class ReplicatedFileState {
     }
 
     /**
+     * Sets the objects to fetch for a reset and starts a new window for
+     * fetching them.
+     * 
      * @param objectsToFetch the objectsToFetch to set
+     * @param resetWindow the window for fetching objects of this file
      */
-    public void setObjectsToFetch(List<ObjectVersionMapping> objectsToFetch) {
+    void setObjectsToFetch(List<ObjectVersionMapping> objectsToFetch, ResetWindow resetWindow) {
         this.objectsToFetch = objectsToFetch;
+        this.numObjectsToFetchTotal = objectsToFetch.size();
+        this.resetWindow = resetWindow;
+    }
+
+    /**
+     * Sets the objects whose outdated local versions are kept during a reset,
+     * so that only their differing parts have to be fetched.
+     * 
+     * @param outdatedObjects maps object numbers to their local versions
+     * @param truncateEpoch the truncate epoch of the authoritative state
+     */
+    void setOutdatedObjects(Map<Long, Long> outdatedObjects, long truncateEpoch) {
+        this.outdatedObjects = outdatedObjects;
+        this.resetTruncateEpoch = truncateEpoch;
+    }
+
+    /**
+     * @return the outdated local version of the object, or 0 if the object
+     *         has to be fetched completely
+     */
+    long getOutdatedObjectVersion(long objNo) {
+        if (outdatedObjects == null)
+            return 0;
+        final Long version = outdatedObjects.get(objNo);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * @return the truncate epoch of the authoritative state of the current reset
+     */
+    long getResetTruncateEpoch() {
+        return resetTruncateEpoch;
+    }
+
+    /**
+     * @return the number of objects to fetch when the current reset started
+     */
+    public int getNumObjectsToFetchTotal() {
+        return numObjectsToFetchTotal;
+    }
+
+    /**
+     * @return the window for fetching objects of the current reset
+     */
+    ResetWindow getResetWindow() {
+        return resetWindow;
     }
 
     /**
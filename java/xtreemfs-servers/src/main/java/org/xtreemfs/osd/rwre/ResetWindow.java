@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+/**
+ * The number of objects which may be fetched concurrently during a replica reset. The window is adapted like a TCP
+ * congestion window: it grows by one object for each window of fetches which completed without delay, and is halved
+ * if a fetch failed. A fetch is delayed if it took more than twice as long as the fastest recent fetch, which
+ * indicates that the peers or the network are saturated; then the window shrinks by one object. The fastest fetch
+ * time slowly ages, so that a single fast fetch does not keep the window small forever.
+ * <p>
+ * Not thread-safe, only used by the {@link RWReplicationStage} thread.
+ */
+class ResetWindow {
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private int       size;
+
+    /**
+     * number of fetches completed since the window grew last
+     */
+    private int       successes;
+
+    /**
+     * time of the fastest recent fetch
+     */
+    private long      minLatencyNanos;
+
+    ResetWindow(int initialSize, int minSize, int maxSize) {
+        assert (minSize > 0 && minSize <= initialSize && initialSize <= maxSize);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.size = initialSize;
+        this.minLatencyNanos = Long.MAX_VALUE;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    void fetchSucceeded(long latencyNanos) {
+        minLatencyNanos = minLatencyNanos == Long.MAX_VALUE ? latencyNanos : Math.min(latencyNanos,
+                minLatencyNanos + minLatencyNanos / 64 + 1);
+        if (latencyNanos > 2 * minLatencyNanos) {
+            size = Math.max(minSize, size - 1);
+            successes = 0;
+        } else if (++successes >= size) {
+            size = Math.min(maxSize, size + 1);
+            successes = 0;
+        }
+    }
+
+    void fetchFailed() {
+        size = Math.max(minSize, size / 2);
+        successes = 0;
+    }
+
+}
@@ -237,6 +237,7 @@ public class PreprocStage extends Stage {
                     cowPolicy = new CowPolicy(cowMode.COW_ONCE);
 
                 oft.openFile(fileId, TimeSync.getLocalSystemTime() + OFT_OPEN_EXTENSION, cowPolicy, snapShotWrite);
+                metadataCache.pinFile(fileId);
                 request.setFileOpen(true);
             }
             request.setCowPolicy(cowPolicy);
@@ -401,6 +402,7 @@ public class PreprocStage extends Stage {
         OpenFileTableEntry entry = oft.close(fileId);
 
         if(entry != null && entry.getFileId() != null) {
+            metadataCache.unpinFile(entry.getFileId());
             LRUCache<String, Capability> cachedCaps = capCache.remove(entry.getFileId());
             callback.closeResult(entry, null);
         }
@@ -428,7 +430,7 @@ public class PreprocStage extends Stage {
                     continue;
                 }
                 
-                processMethod(op);
+                processRequest(op);
                 
             } catch (InterruptedException ex) {
                 break;
@@ -473,6 +475,9 @@ public class PreprocStage extends Stage {
                 
                 // Remove the cached capabilities.
                 capCache.remove(entry.getFileId());
+
+                // Allow the file metadata to be evicted from the cache.
+                metadataCache.unpinFile(entry.getFileId());
                 
                 // Send close event (creates a new file version if necessary).
                 OSDOperation closeEvent = master.getInternalEvent(EventCloseFile.class);
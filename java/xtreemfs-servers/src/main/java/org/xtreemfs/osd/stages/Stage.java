@@ -8,8 +8,8 @@
 
 package org.xtreemfs.osd.stages;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -18,18 +18,37 @@ import org.xtreemfs.foundation.buffer.BufferPool;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.monitoring.LatencyHistogram;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
-import org.xtreemfs.foundation.util.OutputUtils;
+import org.xtreemfs.foundation.queue.LinkedStageQueue;
+import org.xtreemfs.foundation.queue.RingStageQueue;
+import org.xtreemfs.foundation.queue.StageQueue;
 import org.xtreemfs.osd.OSDRequest;
 
 public abstract class Stage extends LifeCycleThread {
     
+    /**
+     * max number of requests taken from the queue at once
+     */
+    protected static final int            MAX_BATCH_SIZE    = 32;
+    
+    /**
+     * max queue capacity for which a {@link RingStageQueue} is used, larger
+     * capacities are practically unbounded
+     */
+    private static final int              MAX_RING_CAPACITY = 1 << 20;
+    
     /**
      * queue containing all requests
      */
-    protected BlockingQueue<StageRequest> q;
+    protected final StageQueue<StageRequest> q;
     
     private final int queueCapacity;
+    
+    /**
+     * time requests waited in the queue and time needed to process them
+     */
+    private final LatencyHistogram        queueTimes, processingTimes;
 
     /**
      * set to true if stage should shut down
@@ -40,11 +59,24 @@ public abstract class Stage extends LifeCycleThread {
     
     public AtomicLong                     _sumRqTime;
     
+    /**
+     * Creates a stage with a {@link RingStageQueue}. External requests are
+     * dropped once queueCapacity requests are queued; the queue has room for
+     * at least as many internal requests in addition. Internal requests never
+     * wait for a full queue, as stages which enqueue requests into each other
+     * could wait for each other forever.
+     */
     public Stage(String stageName, int queueCapacity) {
+        this(stageName, queueCapacity, createQueue(queueCapacity));
+    }
+    
+    public Stage(String stageName, int queueCapacity, StageQueue<StageRequest> queue) {
         
         super(stageName);
-        q = new LinkedBlockingQueue<StageRequest>();
+        q = queue;
         this.queueCapacity = queueCapacity;
+        queueTimes = new LatencyHistogram();
+        processingTimes = new LatencyHistogram();
         this.quit = false;
         
         _numRq = new AtomicInteger(0);
@@ -53,6 +85,13 @@ public abstract class Stage extends LifeCycleThread {
         _sumRqTime = new AtomicLong(0);
     }
     
+    private static StageQueue<StageRequest> createQueue(int queueCapacity) {
+        if (queueCapacity > MAX_RING_CAPACITY) {
+            return new LinkedStageQueue<StageRequest>();
+        }
+        return new RingStageQueue<StageRequest>(Math.max(16, 2 * queueCapacity));
+    }
+    
     /**
      * send an request for a stage operation
      * 
@@ -86,13 +125,7 @@ public abstract class Stage extends LifeCycleThread {
         // rq.setEnqueueNanos(System.nanoTime());
         
         if (request == null) {
-            try {
-                q.put(new StageRequest(stageOp, args, request, callback));
-            } catch (InterruptedException e) {
-                Logging.logMessage(Logging.LEVEL_DEBUG, Category.stage, this,
-                        "Failed to queue internal request due to InterruptedException:");
-                Logging.logError(Logging.LEVEL_DEBUG, this, e);
-            }
+            q.add(new StageRequest(stageOp, args, request, callback));
         } else {
             if (q.size() < queueCapacity) {
                 try {
@@ -135,16 +168,37 @@ public abstract class Stage extends LifeCycleThread {
         return q.size();
     }
     
+    /**
+     * Returns the times requests waited in the queue of the stage.
+     */
+    public LatencyHistogram getQueueTimes() {
+        return queueTimes;
+    }
+    
+    /**
+     * Returns the times {@link #processMethod(StageRequest)} needed to
+     * process requests. Requests may still be processed asynchronously
+     * afterwards.
+     */
+    public LatencyHistogram getProcessingTimes() {
+        return processingTimes;
+    }
+    
     @Override
     public void run() {
         
         notifyStarted();
         
+        final List<StageRequest> batch = new ArrayList<StageRequest>(MAX_BATCH_SIZE);
         while (!quit) {
             try {
-                final StageRequest op = q.take();
+                batch.add(q.take());
+                q.drainTo(batch, MAX_BATCH_SIZE - 1);
                 
-                processMethod(op);
+                for (int i = 0; i < batch.size(); i++) {
+                    processRequest(batch.get(i));
+                }
+                batch.clear();
                 
             } catch (InterruptedException ex) {
                 break;
@@ -157,6 +211,16 @@ public abstract class Stage extends LifeCycleThread {
         notifyStopped();
     }
     
+    /**
+     * Processes a request taken from the queue and records its latencies.
+     */
+    protected void processRequest(StageRequest op) {
+        final long start = System.nanoTime();
+        queueTimes.record(start - op.getEnqueueNanos());
+        processMethod(op);
+        processingTimes.record(System.nanoTime() - start);
+    }
+    
     protected void calcRequestDuration(OSDRequest rq) {
         /*
          * long d = (System.nanoTime()-rq.getEnqueueNanos())/100000l;
@@ -189,11 +253,14 @@ public abstract class Stage extends LifeCycleThread {
         
         private final OSDRequest request;
         
+        private final long       enqueueNanos;
+        
         public StageRequest(int stageMethod, Object[] args, OSDRequest request, Object callback) {
             this.args = args;
             this.stageMethod = stageMethod;
             this.callback = callback;
             this.request = request;
+            this.enqueueNanos = System.nanoTime();
         }
         
         public int getStageMethod() {
@@ -212,6 +279,10 @@ public abstract class Stage extends LifeCycleThread {
             return request;
         }
         
+        public long getEnqueueNanos() {
+            return enqueueNanos;
+        }
+        
         public void sendInternalServerError(Throwable cause) {
             if (request != null) {
                 request.sendInternalServerError(cause);
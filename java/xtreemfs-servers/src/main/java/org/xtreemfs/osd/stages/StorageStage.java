@@ -17,6 +17,7 @@ import org.xtreemfs.common.xloc.Replica;
 import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.common.xloc.XLocations;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.monitoring.LatencyHistogram;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
 import org.xtreemfs.osd.OSDRequest;
 import org.xtreemfs.osd.OSDRequestDispatcher;
@@ -64,8 +65,19 @@ public class StorageStage extends Stage {
     
     public void readObject(String fileId, long objNo, StripingPolicyImpl sp, int offset, int length,
         long versionTimestamp, OSDRequest request, ReadObjectCallback listener) {
+        readObject(fileId, objNo, sp, offset, length, versionTimestamp, false, request, listener);
+    }
+    
+    /**
+     * Reads an object. If <code>zeroCopy</code> is set, the data of the object
+     * may be returned as a file region instead of a buffer (see
+     * {@link ObjectInformation#getFileRegion()}), which has to be released by
+     * the caller.
+     */
+    public void readObject(String fileId, long objNo, StripingPolicyImpl sp, int offset, int length,
+        long versionTimestamp, boolean zeroCopy, OSDRequest request, ReadObjectCallback listener) {
         this.enqueueOperation(fileId, StorageThread.STAGEOP_READ_OBJECT, new Object[] { fileId, objNo, sp,
-            offset, length, versionTimestamp }, request, listener);
+            offset, length, versionTimestamp, zeroCopy }, request, listener);
     }
     
     public static interface ReadObjectCallback {
@@ -308,4 +320,24 @@ public class StorageStage extends Stage {
         return len;
     }
     
+    @Override
+    public LatencyHistogram getQueueTimes() {
+        
+        LatencyHistogram times = new LatencyHistogram();
+        for (StorageThread th : storageThreads)
+            times.add(th.getQueueTimes());
+        
+        return times;
+    }
+    
+    @Override
+    public LatencyHistogram getProcessingTimes() {
+        
+        LatencyHistogram times = new LatencyHistogram();
+        for (StorageThread th : storageThreads)
+            times.add(th.getProcessingTimes());
+        
+        return times;
+    }
+    
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+
+/**
+ * A bounded cache of open file channels, keyed by the absolute paths of object
+ * files. If the cache is full, the channel that was used least recently is
+ * evicted.
+ * <p>
+ * Each cache is used by a single thread that accesses the objects. However,
+ * since object files may be deleted or renamed by other threads, entries can be
+ * invalidated concurrently; therefore, all methods are synchronized. The
+ * channels themselves are used outside of the lock: a channel is borrowed with
+ * {@link #open(String, boolean)} and has to be released afterwards. An evicted
+ * or invalidated channel is closed once it has been released by all borrowers.
+ */
+public class FileChannelCache {
+
+    /**
+     * A channel borrowed from the cache.
+     */
+    public final class CachedChannel {
+
+        private final RandomAccessFile file;
+
+        /** the number of borrowers, plus one while the channel is cached */
+        private int                    refCount;
+
+        CachedChannel(RandomAccessFile file) {
+            this.file = file;
+            this.refCount = 1;
+        }
+
+        public FileChannel getChannel() {
+            return file.getChannel();
+        }
+
+        /**
+         * Returns the channel to the cache. The channel must not be used
+         * afterwards.
+         */
+        public void release() {
+            FileChannelCache.this.release(this);
+        }
+    }
+
+    private final LinkedHashMap<String, CachedChannel> files;
+
+    private final int                                  maxEntries;
+
+    private long                                       numHits;
+
+    private long                                       numMisses;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries
+     *            the maximum number of open channels
+     */
+    public FileChannelCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.files = new LinkedHashMap<String, CachedChannel>(16, 0.75f, true);
+    }
+
+    /**
+     * Borrows the cached channel of the given object file, or opens and caches
+     * a new channel. The channel has to be released with
+     * {@link CachedChannel#release()}.
+     *
+     * @param path
+     *            the absolute path of the object file
+     * @param create
+     *            if <code>true</code>, the file is created if it does not
+     *            exist
+     * @return the channel, or <code>null</code> if the file does not exist
+     *         and <code>create</code> is <code>false</code>
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    public synchronized CachedChannel open(String path, boolean create) throws IOException {
+
+        CachedChannel channel = files.get(path);
+        if (channel != null) {
+            numHits++;
+            channel.refCount++;
+            return channel;
+        }
+
+        numMisses++;
+        if (!create && !new File(path).exists())
+            return null;
+
+        channel = new CachedChannel(new RandomAccessFile(path, "rw"));
+        channel.refCount++;
+        files.put(path, channel);
+
+        // evict the least recently used channels
+        Iterator<CachedChannel> it = files.values().iterator();
+        while (files.size() > maxEntries && it.hasNext()) {
+            CachedChannel lru = it.next();
+            if (lru == channel)
+                break;
+            it.remove();
+            release(lru);
+        }
+
+        return channel;
+    }
+
+    /**
+     * Evicts the channel of an object file that has been renamed, deleted or
+     * could not be accessed.
+     *
+     * @param path
+     *            the absolute path of the object file
+     */
+    public synchronized void invalidate(String path) {
+        CachedChannel channel = files.remove(path);
+        if (channel != null)
+            release(channel);
+    }
+
+    /**
+     * Evicts the channels of all objects in the given directory.
+     *
+     * @param dirPath
+     *            the absolute path of a file directory
+     */
+    public synchronized void invalidateAll(String dirPath) {
+        for (Iterator<Entry<String, CachedChannel>> it = files.entrySet().iterator(); it.hasNext();) {
+            Entry<String, CachedChannel> entry = it.next();
+            if (entry.getKey().startsWith(dirPath)) {
+                it.remove();
+                release(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Evicts all channels.
+     */
+    public synchronized void clear() {
+        for (CachedChannel channel : files.values())
+            release(channel);
+        files.clear();
+    }
+
+    public synchronized int getNumEntries() {
+        return files.size();
+    }
+
+    public synchronized long getNumHits() {
+        return numHits;
+    }
+
+    public synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    private synchronized void release(CachedChannel channel) {
+        assert (channel.refCount > 0);
+        if (--channel.refCount > 0)
+            return;
+        try {
+            channel.file.close();
+        } catch (IOException exc) {
+            Logging.logMessage(Logging.LEVEL_WARN, Category.storage, this, "could not close object file: %s",
+                exc.getMessage());
+        }
+    }
+
+}
@@ -9,7 +9,6 @@
 package org.xtreemfs.osd.storage;
 
 import java.io.RandomAccessFile;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -21,12 +20,15 @@ import org.xtreemfs.common.xloc.StripingPolicyImpl;
  * @author bjko
  */
 public class FileMetadata {
+
+    /** estimated size of the object itself, incl. the striping policy */
+    private static final long          BASE_SIZE = 192;
+
+    private ObjectVersionMap           latestObjVersions;
     
-    private Map<Long, Long>            latestObjVersions;
-    
-    private Map<Long, Long>            largestObjVersions;
+    private ObjectVersionMap           largestObjVersions;
     
-    private Map<Long, Map<Long, Long>> objChecksums;
+    private ObjectChecksumTable        objChecksums;
     
     private long                       filesize;
     
@@ -66,23 +68,15 @@ public class FileMetadata {
     }
     
     public long getLargestObjectVersion(long objId) {
-        Long v = largestObjVersions.get(objId);
-        return (v == null) ? 0 : v;
+        return largestObjVersions.getLong(objId, 0);
     }
     
     public long getLatestObjectVersion(long objId) {
-        Long v = latestObjVersions.get(objId);
-        return (v == null) ? 0 : v;
+        return latestObjVersions.getLong(objId, 0);
     }
     
     public Long getObjectChecksum(long objId, long objVer) {
-        
-        Map<Long, Long> checksums = objChecksums.get(objId);
-        if (checksums == null)
-            return 0L;
-        
-        Long c = checksums.get(objVer);
-        return (c == null) ? 0 : c;
+        return objChecksums.get(objId, objVer);
     }
     
     public Set<Entry<Long, Long>> getLatestObjectVersions() {
@@ -93,17 +87,27 @@ public class FileMetadata {
         latestObjVersions.clear();
     }
     
+    /**
+     * Initializes the largest object versions. If the given map is the same
+     * {@link ObjectVersionMap} that holds the latest object versions, both are
+     * kept in a single map.
+     */
     public void initLargestObjectVersions(Map<Long, Long> largestObjVersions) {
         assert (this.largestObjVersions == null);
-        this.largestObjVersions = largestObjVersions;
+        this.largestObjVersions = toObjectVersionMap(largestObjVersions);
     }
     
     public void initLatestObjectVersions(Map<Long, Long> latestObjVersions) {
         assert (this.latestObjVersions == null);
-        this.latestObjVersions = latestObjVersions;
+        this.latestObjVersions = toObjectVersionMap(latestObjVersions);
     }
     
     public void initObjectChecksums(Map<Long, Map<Long, Long>> objChecksums) {
+        assert (this.objChecksums == null);
+        this.objChecksums = new ObjectChecksumTable(objChecksums, stripingPolicy);
+    }
+    
+    public void initObjectChecksums(ObjectChecksumTable objChecksums) {
         assert (this.objChecksums == null);
         this.objChecksums = objChecksums;
     }
@@ -115,29 +119,49 @@ public class FileMetadata {
     
     public void updateObjectVersion(long objId, long newVersion) {
         
-        latestObjVersions.put(objId, newVersion);
+        latestObjVersions.putLong(objId, newVersion);
         
         if (largestObjVersions != latestObjVersions && newVersion != 0)
-            largestObjVersions.put(objId, newVersion);
+            largestObjVersions.putLong(objId, newVersion);
         
     }
     
     public void updateObjectChecksum(long objId, long objVer, long newChecksum) {
-        
-        Map<Long, Long> checksums = objChecksums.get(objId);
-        if (checksums == null) {
-            checksums = new HashMap<Long, Long>();
-            objChecksums.put(objId, checksums);
-        }
-        
-        checksums.put(objVer, newChecksum);
+        objChecksums.put(objId, objVer, newChecksum);
     }
     
     public void discardObject(long objId, long objVer) {
-        latestObjVersions.remove(objId);
-        objChecksums.remove(objId + "." + objVer);
+        latestObjVersions.removeLong(objId);
+        if (objChecksums != null)
+            objChecksums.remove(objId, objVer);
     }
     
+    /**
+     * Returns a rough estimate of the heap memory occupied by this object, which
+     * is used to bound the size of the {@link MetadataCache}. The estimate is
+     * based on the sizes of the version and checksum tables; it disregards the
+     * version table.
+     *
+     * @return the estimated size in bytes
+     */
+    public long getEstimatedSize() {
+
+        long size = BASE_SIZE;
+
+        if (latestObjVersions != null)
+            size += latestObjVersions.getEstimatedSize();
+        if (largestObjVersions != null && largestObjVersions != latestObjVersions)
+            size += largestObjVersions.getEstimatedSize();
+        if (objChecksums != null)
+            size += objChecksums.getEstimatedSize();
+
+        return size;
+    }
+
+    private ObjectVersionMap toObjectVersionMap(Map<Long, Long> map) {
+        return map instanceof ObjectVersionMap ? (ObjectVersionMap) map : new ObjectVersionMap(map, stripingPolicy);
+    }
+
     public String toString() {
         return "(fileSize=" + filesize + ", lastObjNo=" + lastObjectNumber + ")";
     }
@@ -8,6 +8,7 @@
 
 package org.xtreemfs.osd.storage;
 
+import java.io.Closeable;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.EOFException;
@@ -22,18 +23,23 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EmptyStackException;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.foundation.LRUCache;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.checksums.ChecksumAlgorithm;
 import org.xtreemfs.foundation.checksums.ChecksumFactory;
@@ -42,6 +48,8 @@ import org.xtreemfs.foundation.logging.Logging.Category;
 import org.xtreemfs.foundation.util.OutputUtils;
 import org.xtreemfs.osd.OSDConfig;
 import org.xtreemfs.osd.replication.ObjectSet;
+import org.xtreemfs.osd.storage.FileChannelCache.CachedChannel;
+import org.xtreemfs.osd.storage.ObjectIndex.IndexedObject;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.TruncateLog;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.XLocSetVersionState;
 
@@ -115,11 +123,11 @@ public class HashStorageLayout extends StorageLayout {
 
     private int                            hashCutLength;
 
-    private ChecksumAlgorithm              checksumAlgo;
+    protected ChecksumAlgorithm            checksumAlgo;
 
     private long                           _stat_fileInfoLoads;
 
-    private final boolean                  checksumsEnabled;
+    protected final boolean                checksumsEnabled;
 
     private final LRUCache<String, String> hashedPathCache;
 
@@ -135,6 +143,26 @@ public class HashStorageLayout extends StorageLayout {
 
     private final LRUCache<String, XLocSetVersionState> xLocSetVSCache;
 
+    private static final int               NUM_INDEX_LOCKS               = 64;
+
+    /**
+     * locks that serialize changes of the object files of a file with the
+     * according updates of its object index
+     */
+    private final Object[]                 indexLocks;
+
+    private final int                      channelCacheSize;
+
+    /**
+     * the open object files of the current thread, if registered
+     */
+    protected final ThreadLocal<FileChannelCache> channelCache;
+
+    /**
+     * the open object files of all registered threads
+     */
+    private final List<FileChannelCache>   channelCaches;
+
     /** Creates a new instance of HashStorageLayout */
     public HashStorageLayout(OSDConfig config, MetadataCache cache) throws IOException {
         this(config, cache, DEFAULT_HASH, DEFAULT_SUBDIRS, DEFAULT_MAX_DIR_DEPTH);
@@ -198,6 +226,33 @@ public class HashStorageLayout extends StorageLayout {
         hashedPathCache = new LRUCache<String, String>(2048);
 
         xLocSetVSCache = new LRUCache<String, XLocSetVersionState>(2048);
+
+        indexLocks = new Object[NUM_INDEX_LOCKS];
+        for (int i = 0; i < indexLocks.length; i++)
+            indexLocks[i] = new Object();
+
+        channelCacheSize = config.getChannelCacheMaxEntries();
+        channelCache = new ThreadLocal<FileChannelCache>();
+        channelCaches = new CopyOnWriteArrayList<FileChannelCache>();
+    }
+
+    @Override
+    public void registerThread() {
+        if (channelCacheSize > 0 && channelCache.get() == null) {
+            FileChannelCache channels = new FileChannelCache(channelCacheSize);
+            channelCache.set(channels);
+            channelCaches.add(channels);
+        }
+    }
+
+    @Override
+    public void unregisterThread() {
+        FileChannelCache channels = channelCache.get();
+        if (channels != null) {
+            channelCaches.remove(channels);
+            channelCache.remove();
+            channels.clear();
+        }
     }
 
     @Override
@@ -240,15 +295,30 @@ public class HashStorageLayout extends StorageLayout {
                     fileName);
         }
 
-        File file = new File(fileName);
-
-        if (file.exists()) {
-
-            RandomAccessFile f = new RandomAccessFile(file, "r");
+        // use a cached channel if possible, in order to avoid opening the
+        // object file with each access
+        final FileChannelCache channels = channelCache.get();
+        RandomAccessFile f = null;
+        CachedChannel cached = null;
+        FileChannel channel = null;
+        if (channels != null) {
+            cached = channels.open(fileName, false);
+            if (cached != null) {
+                channel = cached.getChannel();
+            }
+        } else {
+            File file = new File(fileName);
+            if (file.exists()) {
+                f = new RandomAccessFile(file, "r");
+                channel = f.getChannel();
+            }
+        }
 
-            final int flength = (int) f.length();
+        if (channel != null) {
 
             try {
+                final int flength = (int) channel.size();
+
                 if (flength == 0) {
 
                     if (Logging.isDebug()) {
@@ -294,8 +364,7 @@ public class HashStorageLayout extends StorageLayout {
                                     attempt, RETRIES_INCOMPLETE_READ, fileName);
                         }
 
-                        f.getChannel().position(offset);
-                        f.getChannel().read(bbuf.getBuffer());
+                        channel.read(bbuf.getBuffer(), offset);
                         if (Logging.isDebug()) {
                             Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
                                     "object %d is read at offset %d, %d bytes read, attempt: %d", objNo,
@@ -325,8 +394,6 @@ public class HashStorageLayout extends StorageLayout {
                         }
                     }
 
-                    f.close();
-
                     bbuf.position(0);
                     ObjectInformation oInfo = new ObjectInformation(ObjectInformation.ObjectStatus.EXISTS,
                             bbuf, stripeSize);
@@ -346,6 +413,9 @@ public class HashStorageLayout extends StorageLayout {
                 if (bbuf != null) {
                     BufferPool.free(bbuf);
                 }
+                if (channels != null) {
+                    channels.invalidate(fileName);
+                }
 
                 if (e instanceof IOException) {
                     Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
@@ -356,7 +426,12 @@ public class HashStorageLayout extends StorageLayout {
                     throw new IOException(e);
                 }
             } finally {
-                f.close();
+                if (f != null) {
+                    f.close();
+                }
+                if (cached != null) {
+                    cached.release();
+                }
             }
 
         } else {
@@ -370,6 +445,83 @@ public class HashStorageLayout extends StorageLayout {
         }
     }
 
+    @Override
+    public ObjectInformation readObjectRegion(String fileId, FileMetadata md, long objNo, int offset,
+            int length, long version) throws IOException {
+
+        // checksums can only be verified on the data in memory, and a region
+        // must not be changed by a write before it has been sent
+        if (length == -1 || version == 0 || isModifiableInPlace(md, objNo, version)) {
+            return readObject(fileId, md, objNo, offset, length, version);
+        }
+
+        final String fileName = generateAbsoluteObjectPathFromFileId(fileId, objNo, version,
+                md.getObjectChecksum(objNo, version));
+
+        // the region is sent after the request has been processed; a borrowed
+        // channel remains open until the region is released, even if it is
+        // evicted from the cache in the meantime
+        final FileChannel channel;
+        final Closeable owner;
+        final FileChannelCache channels = channelCache.get();
+        if (channels != null) {
+            final CachedChannel cached = channels.open(fileName, false);
+            if (cached == null)
+                return readObject(fileId, md, objNo, offset, length, version);
+            channel = cached.getChannel();
+            owner = new Closeable() {
+                @Override
+                public void close() {
+                    cached.release();
+                }
+            };
+        } else {
+            RandomAccessFile f;
+            try {
+                f = new RandomAccessFile(fileName, "r");
+            } catch (FileNotFoundException exc) {
+                return readObject(fileId, md, objNo, offset, length, version);
+            }
+            channel = f.getChannel();
+            owner = f;
+        }
+
+        try {
+            final long flength = channel.size();
+
+            // padding objects and reads beyond the end of the object do not
+            // contain any data
+            if (flength <= offset) {
+                owner.close();
+                return readObject(fileId, md, objNo, offset, length, version);
+            }
+
+            if (Logging.isDebug()) {
+                Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
+                        "object %d is sent from file %s at offset %d", objNo, fileName, offset);
+            }
+
+            ObjectInformation oInfo = new ObjectInformation(ObjectInformation.ObjectStatus.EXISTS, null, md
+                    .getStripingPolicy().getStripeSizeForObject(objNo));
+            oInfo.setFileRegion(new FileRegion(channel, owner, offset, (int) Math.min(length, flength - offset)));
+            return oInfo;
+
+        } catch (IOException exc) {
+            owner.close();
+            throw exc;
+        }
+    }
+
+    /**
+     * Checks whether an object file may still be changed by a later write or
+     * truncate. Without checksums, these modify the file of the latest version
+     * of an object in place. Older versions, and all versions if checksums are
+     * enabled, are only replaced by new files.
+     */
+    private boolean isModifiableInPlace(FileMetadata md, long objNo, long version) {
+        return !checksumsEnabled && version == md.getLatestObjectVersion(objNo);
+    }
+
     @Override
     public void writeObject(String fileId, FileMetadata md, ReusableBuffer data, long objNo, int offset,
             long newVersion, boolean sync, boolean cow) throws IOException {
@@ -381,35 +533,49 @@ public class HashStorageLayout extends StorageLayout {
         }
 
         String relPath = generateRelativeFilePath(fileId);
-        new File(this.storageDir + relPath).mkdirs();
+        File fileDir = new File(this.storageDir + relPath);
+        boolean newFile = fileDir.mkdirs();
 
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
                     "writing object %s-%d to disk: %s", fileId, objNo, relPath);
         }
 
-        try {
+        synchronized (getIndexLock(fileId)) {
 
-            final boolean isRangeWrite = (offset > 0)
-                    || (data.capacity() < md.getStripingPolicy().getStripeSizeForObject(objNo));
-            if (isRangeWrite) {
-                if (cow || checksumsEnabled) {
-                    partialWriteCOW(relPath, fileId, md, data, offset, objNo, newVersion, sync, !cow);
+            ObjectIndex.Update update = null;
+            boolean success = false;
+            try {
+
+                // new files are indexed right from the start
+                if (newFile)
+                    writeObjectIndex(fileDir, Collections.<IndexedObject> emptyList());
+                update = beginIndexUpdate(fileDir);
+
+                final boolean isRangeWrite = (offset > 0)
+                        || (data.capacity() < md.getStripingPolicy().getStripeSizeForObject(objNo));
+                if (isRangeWrite) {
+                    if (cow || checksumsEnabled) {
+                        partialWriteCOW(relPath, fileId, md, data, offset, objNo, newVersion, sync, !cow, update);
+                    } else {
+                        partialWriteNoCOW(relPath, fileId, md, data, objNo, offset, newVersion, sync, update);
+                    }
                 } else {
-                    partialWriteNoCOW(relPath, fileId, md, data, objNo, offset, newVersion, sync);
+                    completeWrite(relPath, fileId, md, data, objNo, newVersion, sync, !cow, update);
                 }
-            } else {
-                completeWrite(relPath, fileId, md, data, objNo, newVersion, sync, !cow);
-            }
+                success = true;
 
-        } catch (FileNotFoundException ex) {
-            throw new IOException("unable to create file directory or object: " + ex.getMessage());
+            } catch (FileNotFoundException ex) {
+                throw new IOException("unable to create file directory or object: " + ex.getMessage());
+            } finally {
+                finishIndexUpdate(fileId, update, success);
+            }
         }
     }
 
     private void partialWriteCOW(String relativePath, String fileId, FileMetadata md, ReusableBuffer data,
-            int offset, long objNo, long newVersion, boolean sync, boolean deleteOldVersion)
-            throws IOException {
+            int offset, long objNo, long newVersion, boolean sync, boolean deleteOldVersion,
+            ObjectIndex.Update update) throws IOException {
         // write file
 
         assert (data != null);
@@ -430,31 +596,30 @@ public class HashStorageLayout extends StorageLayout {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "writing to file (COW): %s", newFilename);
         }
-        File file = new File(newFilename);
-        String mode = sync ? "rwd" : "rw";
-        RandomAccessFile f = null;
+        int bytesWritten = 0;
 
         try {
-            f = new RandomAccessFile(file, mode);
             fullObj.position(0);
-            f.getChannel().write(fullObj.getBuffer());
+            bytesWritten = writeData(newFilename, fullObj.getBuffer(), 0, sync);
         } catch (IOException e) {
             Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
                     "Failed to write object file to disk. Error: %s Path to the file on disk: %s",
                     e.getMessage(), newFilename);
             throw e;
         } finally {
-            if (f != null) {
-                f.close();
-            }
             BufferPool.free(fullObj);
         }
 
+        if (update != null)
+            update.add(objNo, newVersion, newChecksum, bytesWritten);
+
         if (deleteOldVersion) {
             String oldFilename = generateAbsoluteObjectPathFromRelPath(relativePath, objNo, oldVersion,
                     oldChecksum);
             File oldFile = new File(oldFilename);
-            oldFile.delete();
+            invalidateChannel(oldFilename);
+            if (oldFile.delete() && update != null)
+                update.remove(objNo, oldVersion, oldChecksum);
         }
 
         md.updateObjectVersion(objNo, newVersion);
@@ -462,7 +627,8 @@ public class HashStorageLayout extends StorageLayout {
     }
 
     private void partialWriteNoCOW(String relativePath, String fileId, FileMetadata md, ReusableBuffer data,
-            long objNo, int offset, long newVersion, boolean sync) throws IOException {
+            long objNo, int offset, long newVersion, boolean sync, ObjectIndex.Update update)
+            throws IOException {
         // write file
         assert (!checksumsEnabled);
 
@@ -472,29 +638,30 @@ public class HashStorageLayout extends StorageLayout {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "writing to file: %s", filename);
         }
         File file = new File(filename);
-        String mode = sync ? "rwd" : "rw";
-        RandomAccessFile f = null;
 
         try {
-            f = new RandomAccessFile(file, mode);
             data.position(0);
-            f.seek(offset);
-            f.getChannel().write(data.getBuffer());
+            writeData(filename, data.getBuffer(), offset, sync);
         } catch (IOException e) {
             Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
                     "Failed to write object file to disk. Error: %s Path to the file on disk: %s",
                     e.getMessage(), filename);
             throw e;
         } finally {
-            if (f != null) {
-                f.close();
-            }
             BufferPool.free(data);
         }
 
+        final long size = update != null ? file.length() : 0;
+        if (update != null)
+            update.add(objNo, oldVersion, 0, size);
+
         if (newVersion != oldVersion) {
             String newFilename = generateAbsoluteObjectPathFromRelPath(relativePath, objNo, newVersion, 0l);
-            file.renameTo(new File(newFilename));
+            invalidateChannel(filename);
+            if (file.renameTo(new File(newFilename)) && update != null) {
+                update.remove(objNo, oldVersion, 0);
+                update.add(objNo, newVersion, 0, size);
+            }
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, this, "renamed to: %s", newFilename);
             }
@@ -503,7 +670,8 @@ public class HashStorageLayout extends StorageLayout {
     }
 
     private void completeWrite(String relativePath, String fileId, FileMetadata md, ReusableBuffer data,
-            long objNo, long newVersion, boolean sync, boolean deleteOldVersion) throws IOException {
+            long objNo, long newVersion, boolean sync, boolean deleteOldVersion, ObjectIndex.Update update)
+            throws IOException {
         // write file
 
         final long oldVersion = md.getLatestObjectVersion(objNo);
@@ -520,26 +688,25 @@ public class HashStorageLayout extends StorageLayout {
         if (Logging.isDebug()) {
             Logging.logMessage(Logging.LEVEL_DEBUG, this, "writing to file: %s", newFilename);
         }
-        File file = new File(newFilename);
-        String mode = sync ? "rwd" : "rw";
-        RandomAccessFile f = null;
+        int bytesWritten = 0;
 
         try {
-            f = new RandomAccessFile(file, mode);
             data.position(0);
-            f.getChannel().write(data.getBuffer());
+            bytesWritten = writeData(newFilename, data.getBuffer(), 0, sync);
         } finally {
-            if (f != null) {
-                f.close();
-            }
             BufferPool.free(data);
         }
 
+        if (update != null)
+            update.add(objNo, newVersion, newChecksum, bytesWritten);
+
         if (((oldVersion != newVersion) || (newChecksum != oldChecksum)) && (deleteOldVersion)) {
             String oldFilename = generateAbsoluteObjectPathFromRelPath(relativePath, objNo, oldVersion,
                     oldChecksum);
             File oldFile = new File(oldFilename);
-            oldFile.delete();
+            invalidateChannel(oldFilename);
+            if (oldFile.delete() && update != null)
+                update.remove(objNo, oldVersion, oldChecksum);
         }
 
         md.updateObjectVersion(objNo, newVersion);
@@ -548,6 +715,37 @@ public class HashStorageLayout extends StorageLayout {
             md.updateObjectChecksum(objNo, newVersion, newChecksum);
     }
 
+    @Override
+    public void syncObject(String fileId, FileMetadata md, long objNo, long version) throws IOException {
+
+        final String fileName = generateAbsoluteObjectPathFromFileId(fileId, objNo, version,
+                md.getObjectChecksum(objNo, version));
+
+        final FileChannelCache channels = channelCache.get();
+        if (channels != null) {
+            CachedChannel cached = channels.open(fileName, false);
+            if (cached == null)
+                throw new FileNotFoundException("object version to synchronize does not exist: " + fileName);
+            try {
+                cached.getChannel().force(false);
+            } finally {
+                cached.release();
+            }
+            return;
+        }
+
+        File file = new File(fileName);
+        if (!file.exists())
+            throw new FileNotFoundException("object version to synchronize does not exist: " + fileName);
+
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            f.getChannel().force(false);
+        } finally {
+            f.close();
+        }
+    }
+
     @Override
     public void updateCurrentObjVersion(String fileId, long objNo, long newVersion) throws IOException {
 
@@ -587,6 +785,21 @@ public class HashStorageLayout extends StorageLayout {
     public void truncateObject(String fileId, FileMetadata md, long objNo, int newLength, long newVersion,
             boolean cow) throws IOException {
 
+        synchronized (getIndexLock(fileId)) {
+            ObjectIndex.Update update = beginIndexUpdate(new File(generateAbsoluteFilePath(fileId)));
+            boolean success = false;
+            try {
+                truncateObject(fileId, md, objNo, newLength, newVersion, cow, update);
+                success = true;
+            } finally {
+                finishIndexUpdate(fileId, update, success);
+            }
+        }
+    }
+
+    private void truncateObject(String fileId, FileMetadata md, long objNo, int newLength, long newVersion,
+            boolean cow, ObjectIndex.Update update) throws IOException {
+
         final long oldVersion = md.getLatestObjectVersion(objNo);
         final long oldChecksum = md.getObjectChecksum(objNo, oldVersion);
 
@@ -626,7 +839,9 @@ public class HashStorageLayout extends StorageLayout {
             }
 
             if (!cow) {
-                oldFile.delete();
+                invalidateChannel(oldFileName);
+                if (oldFile.delete() && update != null)
+                    update.remove(objNo, oldVersion, oldChecksum);
                 if (Logging.isDebug()) {
                     Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
                             "truncate object %d, delete old version %d: %s", objNo, oldVersion, oldFileName);
@@ -635,9 +850,10 @@ public class HashStorageLayout extends StorageLayout {
 
             String newFilename = generateAbsoluteObjectPathFromFileId(fileId, objNo, newVersion, newChecksum);
             RandomAccessFile raf = null;
+            int bytesWritten = 0;
             try {
                 raf = new RandomAccessFile(newFilename, mode);
-                raf.getChannel().write(oldData.getBuffer());
+                bytesWritten = raf.getChannel().write(oldData.getBuffer());
             } finally {
                 if (raf != null) {
                     raf.close();
@@ -645,6 +861,9 @@ public class HashStorageLayout extends StorageLayout {
                 BufferPool.free(oldData);
             }
 
+            if (update != null)
+                update.add(objNo, newVersion, newChecksum, bytesWritten);
+
             if (Logging.isDebug()) {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
                         "truncate object %d, wrote new version %d: %s", objNo, newVersion, newFilename);
@@ -665,9 +884,15 @@ public class HashStorageLayout extends StorageLayout {
                     raf.close();
                 }
             }
+            if (update != null)
+                update.add(objNo, oldVersion, oldChecksum, newLength);
             if (newVersion != oldVersion) {
                 String newFilename = generateAbsoluteObjectPathFromFileId(fileId, objNo, newVersion, 0l);
-                oldFile.renameTo(new File(newFilename));
+                invalidateChannel(oldFileName);
+                if (oldFile.renameTo(new File(newFilename)) && update != null) {
+                    update.remove(objNo, oldVersion, oldChecksum);
+                    update.add(objNo, newVersion, 0, newLength);
+                }
                 md.updateObjectVersion(objNo, newVersion);
                 if (Logging.isDebug()) {
                     Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
@@ -685,7 +910,8 @@ public class HashStorageLayout extends StorageLayout {
         assert (size >= 0) : "size is " + size;
 
         String relPath = generateRelativeFilePath(fileId);
-        new File(this.storageDir + relPath).mkdirs();
+        File fileDir = new File(this.storageDir + relPath);
+        boolean newFile = fileDir.mkdirs();
 
         // calculate the checksum for the padding object if necessary
         long checksum = 0;
@@ -695,15 +921,33 @@ public class HashStorageLayout extends StorageLayout {
             checksum = checksumAlgo.getValue();
         }
 
-        // write file
-        String filename = generateAbsoluteObjectPathFromRelPath(relPath, objNo, version, checksum);
-        RandomAccessFile raf = null;
-        try {
-            raf = new RandomAccessFile(filename, "rw");
-            raf.setLength(size);
-        } finally {
-            if (raf != null) {
-                raf.close();
+        synchronized (getIndexLock(fileId)) {
+
+            ObjectIndex.Update update = null;
+            boolean success = false;
+            try {
+                if (newFile)
+                    writeObjectIndex(fileDir, Collections.<IndexedObject> emptyList());
+                update = beginIndexUpdate(fileDir);
+
+                // write file
+                String filename = generateAbsoluteObjectPathFromRelPath(relPath, objNo, version, checksum);
+                RandomAccessFile raf = null;
+                try {
+                    raf = new RandomAccessFile(filename, "rw");
+                    raf.setLength(size);
+                } finally {
+                    if (raf != null) {
+                        raf.close();
+                    }
+                }
+
+                if (update != null)
+                    update.add(objNo, version, checksum, size);
+                success = true;
+
+            } finally {
+                finishIndexUpdate(fileId, update, success);
             }
         }
 
@@ -735,9 +979,20 @@ public class HashStorageLayout extends StorageLayout {
             return;
         }
 
-        // Delete the filtered files.
-        for (File file : fileList) {
-            file.delete();
+        synchronized (getIndexLock(fileId)) {
+
+            // Delete the filtered files.
+            for (File file : fileList) {
+                file.delete();
+            }
+
+            // Close all open objects of the file.
+            for (FileChannelCache channels : channelCaches) {
+                channels.invalidateAll(generateAbsoluteFilePath(fileId));
+            }
+
+            // The object index is no metadata that has to be retained.
+            deleteObjectIndex(fileDir);
         }
 
         // Try to delete the data directory if it is empty.
@@ -774,8 +1029,26 @@ public class HashStorageLayout extends StorageLayout {
                 return (ofd.objNo == objNo) && (ofd.objVersion == verToDel);
             }
         });
-        for (File obj : objs) {
-            obj.delete();
+        if (objs == null) {
+            return;
+        }
+
+        synchronized (getIndexLock(fileId)) {
+            ObjectIndex.Update update = beginIndexUpdate(new File(generateAbsoluteFilePath(fileId)));
+            boolean success = false;
+            try {
+                for (File obj : objs) {
+                    final boolean deleted = obj.delete();
+                    invalidateChannel(generateAbsoluteFilePath(fileId) + obj.getName());
+                    if (deleted && update != null) {
+                        ObjFileData ofd = parseFileName(obj.getName());
+                        update.remove(ofd.objNo, ofd.objVersion, ofd.checksum);
+                    }
+                }
+                success = true;
+            } finally {
+                finishIndexUpdate(fileId, update, success);
+            }
         }
     }
 
@@ -795,14 +1068,14 @@ public class HashStorageLayout extends StorageLayout {
         File fileDir = new File(generateAbsoluteFilePath(fileId));
 
         // file exists already ...
-        if (fileDir.exists()) {
+        if (fileExists(fileId)) {
 
-            Map<Long, Long> largestObjVersions = new HashMap<Long, Long>();
-            Map<Long, Map<Long, Long>> objChecksums = new HashMap<Long, Map<Long, Long>>();
-            Map<Long, Long> latestObjVersions = null;
+            ObjectVersionMap largestObjVersions = new ObjectVersionMap(sp);
+            ObjectChecksumTable objChecksums = new ObjectChecksumTable(sp);
+            ObjectVersionMap latestObjVersions = null;
 
             long lastObjNum = -1;
-            String lastObject = null;
+            IndexedObject lastObject = null;
 
             File currVerFile = new File(fileDir, CURRENT_VER_FILENAME);
             boolean multiVersionSupport = currVerFile.exists();
@@ -812,7 +1085,7 @@ public class HashStorageLayout extends StorageLayout {
             // file
             if (multiVersionSupport) {
 
-                latestObjVersions = new HashMap<Long, Long>();
+                latestObjVersions = new ObjectVersionMap(sp);
 
                 RandomAccessFile rf = new RandomAccessFile(currVerFile, "r");
                 for (long l = 0;; l++) {
@@ -820,7 +1093,7 @@ public class HashStorageLayout extends StorageLayout {
                     try {
                         long objVer = rf.readLong();
                         if (objVer != 0)
-                            latestObjVersions.put(l, objVer);
+                            latestObjVersions.putLong(l, objVer);
                     } catch (EOFException exc) {
                         lastObjNum = l - 1;
                         break;
@@ -831,45 +1104,31 @@ public class HashStorageLayout extends StorageLayout {
             }
 
             // determine the largest object versions, as well as all checksums
-            String[] objs = fileDir.list();
-            for (String obj : objs) {
-
-                if (obj.startsWith(".")) {
-                    continue; // ignore special files (metadata, .tepoch)
-                }
-
-                ObjFileData ofd = parseFileName(obj);
+            Collection<IndexedObject> objs = loadObjectIndex(fileId, fileDir);
+            for (IndexedObject obj : objs) {
 
                 // determine the checksum
-                if (ofd.checksum != 0) {
-
-                    Map<Long, Long> checksums = objChecksums.get(ofd.objNo);
-                    if (checksums == null) {
-                        checksums = new HashMap<Long, Long>();
-                        objChecksums.put(ofd.objNo, checksums);
-                    }
-
-                    checksums.put(ofd.objVersion, ofd.checksum);
-                }
+                if (obj.checksum != 0)
+                    objChecksums.put(obj.objNo, obj.objVersion, obj.checksum);
 
                 // determine the last object
                 if (multiVersionSupport) {
-                    Long latestObjVer = latestObjVersions.get(ofd.objNo);
-                    if (ofd.objNo == lastObjNum && latestObjVer != null && ofd.objVersion == latestObjVer)
+                    if (obj.objNo == lastObjNum && latestObjVersions.containsObject(obj.objNo)
+                        && obj.objVersion == latestObjVersions.getLong(obj.objNo, 0))
                         lastObject = obj;
                 }
 
                 else {
-                    if (ofd.objNo > lastObjNum) {
+                    if (obj.objNo > lastObjNum) {
                         lastObject = obj;
-                        lastObjNum = ofd.objNo;
+                        lastObjNum = obj.objNo;
                     }
                 }
 
                 // determine the largest object version
-                Long oldver = largestObjVersions.get(ofd.objNo);
-                if ((oldver == null) || (oldver < ofd.objVersion))
-                    largestObjVersions.put(ofd.objNo, ofd.objVersion);
+                if (!largestObjVersions.containsObject(obj.objNo)
+                    || largestObjVersions.getLong(obj.objNo, 0) < obj.objVersion)
+                    largestObjVersions.putLong(obj.objNo, obj.objVersion);
             }
 
             if (multiVersionSupport) {
@@ -893,8 +1152,14 @@ public class HashStorageLayout extends StorageLayout {
 
             // determine filesize from lastObjectNumber
             if (lastObjNum > -1) {
-                File lastObjFile = new File(fileDir.getAbsolutePath() + "/" + lastObject);
-                long lastObjSize = lastObjFile.length();
+                long lastObjSize = 0;
+                if (lastObject != null) {
+                    lastObjSize = lastObject.size;
+                    // the sizes of objects are unknown if the index was rebuilt
+                    if (lastObjSize < 0)
+                        lastObjSize = new File(fileDir, createFileName(lastObject.objNo, lastObject.objVersion,
+                                lastObject.checksum)).length();
+                }
                 // check for empty padding file
                 if (lastObjSize == 0) {
                     lastObjSize = sp.getStripeSizeForObject(lastObjSize);
@@ -940,9 +1205,9 @@ public class HashStorageLayout extends StorageLayout {
         else {
             info.setFilesize(0);
             info.setLastObjectNumber(-1);
-            info.initLatestObjectVersions(new HashMap<Long, Long>());
-            info.initLargestObjectVersions(new HashMap<Long, Long>());
-            info.initObjectChecksums(new HashMap<Long, Map<Long, Long>>());
+            info.initLatestObjectVersions(new ObjectVersionMap(sp));
+            info.initLargestObjectVersions(new ObjectVersionMap(sp));
+            info.initObjectChecksums(new ObjectChecksumTable(sp));
             info.initVersionTable(new VersionTable(new File(fileDir, VTABLE_FILENAME)));
         }
 
@@ -950,6 +1215,164 @@ public class HashStorageLayout extends StorageLayout {
         return info;
     }
 
+    /**
+     * Returns all objects of a file from its object index. If the index does
+     * not exist or is stale, it is rebuilt from the file directory.
+     */
+    protected Collection<IndexedObject> loadObjectIndex(String fileId, File fileDir) throws IOException {
+
+        synchronized (getIndexLock(fileId)) {
+
+            // a valid index may have been compacted, i.e. replaced
+            Collection<IndexedObject> objs = ObjectIndex.load(fileDir);
+            if (objs != null) {
+                invalidateChannel(new File(fileDir, ObjectIndex.FILENAME).getAbsolutePath());
+                return objs;
+            }
+
+            List<IndexedObject> list = new ArrayList<IndexedObject>();
+            for (String obj : fileDir.list()) {
+
+                if (obj.startsWith(".")) {
+                    continue; // ignore special files (metadata, .tepoch)
+                }
+
+                ObjFileData ofd = parseFileName(obj);
+                list.add(new IndexedObject(ofd.objNo, ofd.objVersion, ofd.checksum, -1));
+            }
+
+            try {
+                writeObjectIndex(fileDir, list);
+            } catch (IOException exc) {
+                Logging.logMessage(Logging.LEVEL_WARN, Category.storage, this,
+                        "could not create object index for file %s: %s", fileId, exc.getMessage());
+                deleteObjectIndex(fileDir);
+            }
+
+            return list;
+        }
+    }
+
+    /**
+     * Writes data to an object file, using a cached channel if possible.
+     */
+    private int writeData(String path, ByteBuffer data, long position, boolean sync) throws IOException {
+
+        final FileChannelCache channels = channelCache.get();
+        if (channels == null) {
+            RandomAccessFile f = new RandomAccessFile(path, sync ? "rwd" : "rw");
+            try {
+                return f.getChannel().write(data, position);
+            } finally {
+                f.close();
+            }
+        }
+
+        CachedChannel cached = channels.open(path, true);
+        try {
+            FileChannel channel = cached.getChannel();
+            int bytesWritten = channel.write(data, position);
+            if (sync)
+                channel.force(false);
+            return bytesWritten;
+        } catch (IOException exc) {
+            channels.invalidate(path);
+            throw exc;
+        } finally {
+            cached.release();
+        }
+    }
+
+    /**
+     * Closes all cached channels of an object file that is about to be
+     * renamed or deleted.
+     */
+    protected void invalidateChannel(String path) {
+        for (FileChannelCache channels : channelCaches)
+            channels.invalidate(path);
+    }
+
+    /**
+     * @return the number of object files kept open by all storage threads
+     */
+    public int getNumOpenChannels() {
+        int num = 0;
+        for (FileChannelCache channels : channelCaches)
+            num += channels.getNumEntries();
+        return num;
+    }
+
+    public long getChannelCacheHits() {
+        long num = 0;
+        for (FileChannelCache channels : channelCaches)
+            num += channels.getNumHits();
+        return num;
+    }
+
+    public long getChannelCacheMisses() {
+        long num = 0;
+        for (FileChannelCache channels : channelCaches)
+            num += channels.getNumMisses();
+        return num;
+    }
+
+    private Object getIndexLock(String fileId) {
+        return indexLocks[(fileId.hashCode() & Integer.MAX_VALUE) % indexLocks.length];
+    }
+
+    /**
+     * Starts an update of the object index of a file, appending to the
+     * journal through the channel cache if possible.
+     */
+    private ObjectIndex.Update beginIndexUpdate(File fileDir) throws IOException {
+        final FileChannelCache channels = channelCache.get();
+        if (channels == null)
+            return ObjectIndex.beginUpdate(fileDir);
+        return ObjectIndex.beginUpdate(fileDir, channels);
+    }
+
+    /**
+     * Commits an update of an object index, or discards the index if the
+     * according change of the object files failed. Once the journal has grown
+     * sufficiently, it is compacted or, if it is no longer valid, rebuilt.
+     */
+    private void finishIndexUpdate(String fileId, ObjectIndex.Update update, boolean success)
+            throws IOException {
+        if (update == null)
+            return;
+        if (!success) {
+            update.abort();
+            return;
+        }
+
+        if (!update.commit())
+            return;
+        try {
+            loadObjectIndex(fileId, new File(generateAbsoluteFilePath(fileId)));
+        } catch (IOException exc) {
+            // the changes have been committed, a stale index is rebuilt
+            Logging.logMessage(Logging.LEVEL_WARN, Category.storage, this,
+                    "could not compact object index of file %s: %s", fileId, exc.toString());
+        }
+    }
+
+    /**
+     * (Re-)creates the object index of a file and closes all cached channels
+     * of the replaced journal.
+     */
+    private void writeObjectIndex(File fileDir, Collection<IndexedObject> objects) throws IOException {
+        try {
+            ObjectIndex.write(fileDir, objects);
+        } finally {
+            invalidateChannel(new File(fileDir, ObjectIndex.FILENAME).getAbsolutePath());
+        }
+    }
+
+    private void deleteObjectIndex(File fileDir) {
+        ObjectIndex.delete(fileDir);
+        invalidateChannel(new File(fileDir, ObjectIndex.FILENAME).getAbsolutePath());
+    }
+
     @Override
     public void setTruncateEpoch(String fileId, long newTruncateEpoch) throws IOException {
         File parent = new File(generateAbsoluteFilePath(fileId));
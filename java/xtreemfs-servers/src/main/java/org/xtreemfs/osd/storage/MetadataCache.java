@@ -9,31 +9,317 @@
 
 package org.xtreemfs.osd.storage;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
 
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
 
+/**
+ * Caches the metadata of files on the OSD.
+ * <p>
+ * The cache is bounded by a maximum number of entries and a maximum estimated
+ * memory footprint. If one of the bounds is exceeded, the least recently used
+ * entries are evicted. Entries of files that are pinned, i.e. files that are
+ * currently contained in the open file table, are never evicted, as they may
+ * hold state that is not persisted on disk (e.g. the global last object
+ * number). Evicted entries are reloaded from disk with the next access.
+ * <p>
+ * The entries are distributed by the hash of their file ID over a number of
+ * segments, each of which is guarded by its own lock, so that storage threads
+ * accessing different files do not contend for a single lock. Every segment
+ * evicts its least recently used entries once it exceeds its share of the
+ * bounds, i.e. the eviction order is only approximately LRU for the whole
+ * cache. Small caches use a single segment and are strictly LRU.
+ */
 public class MetadataCache {
 
-    private Map<String, FileMetadata> metadataMap;
+    /**
+     * maximum number of segments of the cache
+     */
+    private static final int  MAX_SEGMENTS            = 16;
+
+    /**
+     * minimum number of entries per segment; caches too small to give every
+     * segment this many entries use fewer segments
+     */
+    private static final int  MIN_ENTRIES_PER_SEGMENT = 64;
+
+    /**
+     * minimum footprint per segment; caches too small to give every segment
+     * this many bytes use fewer segments
+     */
+    private static final long MIN_BYTES_PER_SEGMENT   = 1024 * 1024;
+
+    /**
+     * the segments of the cache; the length is a power of two
+     */
+    private final Segment[]   segments;
 
     /** Creates a new instance of StorageCache */
     public MetadataCache() {
-        metadataMap = new ConcurrentSkipListMap<String, FileMetadata>();
+        this(0, 0);
+    }
+
+    /**
+     * Creates a new bounded metadata cache.
+     *
+     * @param maxEntries
+     *            the maximum number of entries, or 0 for no limit
+     * @param maxBytes
+     *            the maximum estimated footprint of all entries in bytes, or 0
+     *            for no limit
+     */
+    public MetadataCache(int maxEntries, long maxBytes) {
+
+        int numSegments = 1;
+        while (numSegments < MAX_SEGMENTS
+            && (maxEntries == 0 || numSegments * 2L * MIN_ENTRIES_PER_SEGMENT <= maxEntries)
+            && (maxBytes == 0 || numSegments * 2L * MIN_BYTES_PER_SEGMENT <= maxBytes))
+            numSegments *= 2;
+
+        segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++)
+            segments[i] = new Segment((maxEntries + numSegments - 1) / numSegments, (maxBytes + numSegments - 1)
+                / numSegments);
     }
 
     public FileMetadata getFileInfo(String fileId) {
         assert (fileId != null);
-        return metadataMap.get(fileId);
+
+        final Segment segment = segmentFor(fileId);
+        synchronized (segment) {
+
+            CacheEntry entry = segment.metadataMap.get(fileId);
+            if (entry == null) {
+                segment.numMisses++;
+                return null;
+            }
+
+            segment.numHits++;
+
+            // the footprint of a file may change with each access
+            segment.updateSize(entry);
+
+            return entry.md;
+        }
     }
 
     public void setFileInfo(String fileId, FileMetadata info) {
         assert (info.getFilesize() != 0 || info.getLastObjectNumber() <= 0);
-        metadataMap.put(fileId, info);
+
+        CacheEntry entry = new CacheEntry(info);
+
+        final Segment segment = segmentFor(fileId);
+        synchronized (segment) {
+            CacheEntry old = segment.metadataMap.put(fileId, entry);
+            if (old != null)
+                segment.numBytes -= old.size;
+            segment.numBytes += entry.size;
+            segment.numLoads++;
+
+            segment.evict();
+        }
     }
 
     public FileMetadata removeFileInfo(String fileId) {
-        return metadataMap.remove(fileId);
+
+        final Segment segment = segmentFor(fileId);
+        synchronized (segment) {
+            CacheEntry entry = segment.metadataMap.remove(fileId);
+            if (entry == null)
+                return null;
+
+            segment.numBytes -= entry.size;
+            return entry.md;
+        }
+    }
+
+    /**
+     * Prevents the metadata of a file from being evicted. Invoked when a file
+     * is added to the open file table.
+     *
+     * @param fileId
+     *            the file ID
+     */
+    public void pinFile(String fileId) {
+        final Segment segment = segmentFor(fileId);
+        synchronized (segment) {
+            segment.pinnedFiles.add(fileId);
+        }
+    }
+
+    /**
+     * Allows the metadata of a file to be evicted again. Invoked when a file
+     * is removed from the open file table.
+     *
+     * @param fileId
+     *            the file ID
+     */
+    public void unpinFile(String fileId) {
+        final Segment segment = segmentFor(fileId);
+        synchronized (segment) {
+            if (segment.pinnedFiles.remove(fileId))
+                segment.evict();
+        }
+    }
+
+    public int getNumEntries() {
+        int num = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                num += segment.metadataMap.size();
+            }
+        return num;
+    }
+
+    public long getNumBytes() {
+        long num = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                num += segment.numBytes;
+            }
+        return num;
+    }
+
+    public long getNumHits() {
+        long num = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                num += segment.numHits;
+            }
+        return num;
+    }
+
+    public long getNumMisses() {
+        long num = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                num += segment.numMisses;
+            }
+        return num;
+    }
+
+    public long getNumLoads() {
+        long num = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                num += segment.numLoads;
+            }
+        return num;
+    }
+
+    public long getNumEvictions() {
+        long num = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                num += segment.numEvictions;
+            }
+        return num;
+    }
+
+    private Segment segmentFor(String fileId) {
+        int hash = fileId.hashCode();
+        // spread the higher bits, as only the lower bits select the segment
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * A part of the cache with its own bounds and LRU order. All fields are
+     * guarded by the monitor of the segment.
+     */
+    private static final class Segment {
+
+        final LinkedHashMap<String, CacheEntry> metadataMap;
+
+        final Set<String>                       pinnedFiles;
+
+        final int                               maxEntries;
+
+        final long                              maxBytes;
+
+        long                                    numBytes;
+
+        long                                    numHits;
+
+        long                                    numMisses;
+
+        long                                    numLoads;
+
+        long                                    numEvictions;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.metadataMap = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+            this.pinnedFiles = new HashSet<String>();
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        void updateSize(CacheEntry entry) {
+            long size = entry.md.getEstimatedSize();
+            numBytes += size - entry.size;
+            entry.size = size;
+        }
+
+        /**
+         * Evicts least recently used entries of unpinned files until the
+         * segment complies with its bounds.
+         */
+        void evict() {
+
+            if (!isFull())
+                return;
+
+            List<String> skipped = null;
+
+            Iterator<Entry<String, CacheEntry>> it = metadataMap.entrySet().iterator();
+            while (isFull() && it.hasNext()) {
+
+                Entry<String, CacheEntry> next = it.next();
+                if (pinnedFiles.contains(next.getKey())) {
+                    if (skipped == null)
+                        skipped = new ArrayList<String>();
+                    skipped.add(next.getKey());
+                    continue;
+                }
+
+                it.remove();
+                numBytes -= next.getValue().size;
+                numEvictions++;
+
+                if (Logging.isDebug())
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
+                        "evicted metadata of file %s from cache", next.getKey());
+            }
+
+            // move skipped entries of open files to the tail, so that they do
+            // not have to be skipped again with the next eviction
+            if (skipped != null)
+                for (String fileId : skipped)
+                    metadataMap.get(fileId);
+        }
+
+        boolean isFull() {
+            return (maxEntries > 0 && metadataMap.size() > maxEntries) || (maxBytes > 0 && numBytes > maxBytes);
+        }
+    }
+
+    private static final class CacheEntry {
+
+        final FileMetadata md;
+
+        long               size;
+
+        CacheEntry(FileMetadata md) {
+            this.md = md;
+            this.size = md.getEstimatedSize();
+        }
     }
 
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.xtreemfs.common.xloc.StripingPolicyImpl;
+
+/**
+ * Stores the checksums of object versions. The checksum of the most recently
+ * stored version of each object is kept in primitive {@link ObjectVersionMap}s;
+ * checksums of older versions, which only exist if copy-on-write is enabled,
+ * are kept in a sparse hash map. The class is not thread-safe.
+ */
+public class ObjectChecksumTable {
+
+    private final ObjectVersionMap          versions;
+
+    private final ObjectVersionMap          checksums;
+
+    private Map<Long, Map<Long, Long>>      olderVersions;
+
+    public ObjectChecksumTable(StripingPolicyImpl sp) {
+        this.versions = new ObjectVersionMap(sp);
+        this.checksums = new ObjectVersionMap(sp);
+    }
+
+    /**
+     * Creates a new table containing all checksums of the given map.
+     *
+     * @param map
+     *            a map from object numbers to maps from object versions to
+     *            checksums
+     * @param sp
+     *            the striping policy of the file
+     */
+    public ObjectChecksumTable(Map<Long, Map<Long, Long>> map, StripingPolicyImpl sp) {
+        this(sp);
+        for (Entry<Long, Map<Long, Long>> obj : map.entrySet())
+            for (Entry<Long, Long> ver : obj.getValue().entrySet())
+                put(obj.getKey(), ver.getKey(), ver.getValue());
+    }
+
+    /**
+     * @return the checksum of the given object version, or 0 if no checksum is
+     *         known
+     */
+    public long get(long objNo, long objVer) {
+
+        if (versions.containsObject(objNo) && versions.getLong(objNo, 0) == objVer)
+            return checksums.getLong(objNo, 0);
+
+        if (olderVersions == null)
+            return 0;
+
+        Map<Long, Long> older = olderVersions.get(objNo);
+        if (older == null)
+            return 0;
+
+        Long checksum = older.get(objVer);
+        return checksum == null ? 0 : checksum;
+    }
+
+    public void put(long objNo, long objVer, long checksum) {
+
+        if (versions.containsObject(objNo)) {
+
+            final long currentVer = versions.getLong(objNo, 0);
+            if (currentVer != objVer) {
+
+                // keep the checksum of the previous version
+                if (olderVersions == null)
+                    olderVersions = new HashMap<Long, Map<Long, Long>>();
+                Map<Long, Long> older = olderVersions.get(objNo);
+                if (older == null) {
+                    older = new HashMap<Long, Long>();
+                    olderVersions.put(objNo, older);
+                }
+                older.put(currentVer, checksums.getLong(objNo, 0));
+                older.remove(objVer);
+            }
+        }
+
+        versions.putLong(objNo, objVer);
+        checksums.putLong(objNo, checksum);
+    }
+
+    public void remove(long objNo, long objVer) {
+
+        if (versions.containsObject(objNo) && versions.getLong(objNo, 0) == objVer) {
+            versions.removeLong(objNo);
+            checksums.removeLong(objNo);
+            return;
+        }
+
+        if (olderVersions == null)
+            return;
+
+        Map<Long, Long> older = olderVersions.get(objNo);
+        if (older != null) {
+            older.remove(objVer);
+            if (older.isEmpty())
+                olderVersions.remove(objNo);
+        }
+    }
+
+    /**
+     * @return the number of objects for which checksums are stored
+     */
+    public int size() {
+        return versions.size();
+    }
+
+    /**
+     * @return a rough estimate of the heap memory occupied by the table in
+     *         bytes
+     */
+    public long getEstimatedSize() {
+        long size = 32 + versions.getEstimatedSize() + checksums.getEstimatedSize();
+        if (olderVersions != null)
+            size += 64 + olderVersions.size() * (80 + 64 + 80);
+        return size;
+    }
+
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.osd.storage.FileChannelCache.CachedChannel;
+
+/**
+ * A persistent index of the objects of a file stored by the
+ * {@link HashStorageLayout}. The index allows the file metadata to be loaded
+ * without listing the file directory and parsing all object file names.
+ * <p>
+ * The index is an append-only journal of fixed-size records. Each change of
+ * the object files is recorded in a group of records that starts with a BEGIN
+ * record, which is written before the object files are changed, and ends with
+ * a COMMIT record, which is written afterwards. Both records carry the
+ * generation of the update, which is incremented with each update. When the
+ * index is loaded, it is only considered valid if all groups have been
+ * committed in the order of their generations. Otherwise, e.g. if the OSD
+ * crashed while changing an object or parts of the journal were lost or
+ * replayed, the index is discarded and rebuilt from the directory.
+ * <p>
+ * Updates are appended to the journal through the channel cache of the
+ * storage thread, so that an update does not have to open the journal. The
+ * journal is not forced to disk; a journal that has been torn by a crash is
+ * detected as invalid.
+ * <p>
+ * Once the journal mainly consists of outdated records, it is compacted to
+ * one record per object file. This is checked when the index is loaded. An
+ * update reports when the journal has grown by another 64 records, upon which
+ * the caller has to load the index, so that a valid journal is compacted and
+ * an invalid one is rebuilt instead of growing any further.
+ */
+public class ObjectIndex {
+
+    /**
+     * file that stores the object index
+     */
+    public static final String FILENAME       = ".objindex";
+
+    private static final long  MAGIC          = 0x78746673496478L;
+
+    private static final int   FORMAT_VERSION = 2;
+
+    private static final int   HEADER_SIZE    = 12;
+
+    private static final int   RECORD_SIZE    = 33;
+
+    private static final byte  BEGIN          = 1;
+
+    private static final byte  ADD            = 2;
+
+    private static final byte  REMOVE         = 3;
+
+    private static final byte  COMMIT         = 4;
+
+    /**
+     * number of records after which an update reports that the index needs to
+     * be checked
+     */
+    private static final int   COMPACTION_CHECK_INTERVAL = 64;
+
+    /**
+     * size of the chunks in which the index is read
+     */
+    private static final int   READ_BUFFER_SIZE          = 64 * 1024;
+
+    /**
+     * Describes an object file of a file.
+     */
+    public static final class IndexedObject {
+
+        public final long objNo;
+
+        public final long objVersion;
+
+        public final long checksum;
+
+        /** the size of the object file, or -1 if unknown */
+        public final long size;
+
+        public IndexedObject(long objNo, long objVersion, long checksum, long size) {
+            this.objNo = objNo;
+            this.objVersion = objVersion;
+            this.checksum = checksum;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Records a group of changes of the object files. An update has to be
+     * started before the object files are changed, and committed afterwards.
+     */
+    public static final class Update {
+
+        private final FileChannel           channel;
+
+        /** the borrowed channel, or <code>null</code> if the file was opened */
+        private final CachedChannel         cached;
+
+        /** the opened file, or <code>null</code> if the channel was borrowed */
+        private final RandomAccessFile      file;
+
+        private final ByteArrayOutputStream records;
+
+        private final DataOutputStream      out;
+
+        /** the offset of the BEGIN record */
+        private final long                  position;
+
+        private final long                  generation;
+
+        private boolean                     closed;
+
+        private Update(FileChannel channel, CachedChannel cached, RandomAccessFile file) throws IOException {
+            this.channel = channel;
+            this.cached = cached;
+            this.file = file;
+            this.records = new ByteArrayOutputStream(4 * RECORD_SIZE);
+            this.out = new DataOutputStream(records);
+
+            try {
+                this.position = channel.size();
+                this.generation = lastGeneration(channel, position) + 1;
+                writeFully(channel, ByteBuffer.wrap(record(BEGIN, generation, 0, 0, 0)), position);
+            } catch (IOException exc) {
+                close();
+                throw exc;
+            }
+        }
+
+        /**
+         * Records that an object file has been created or changed.
+         */
+        public void add(long objNo, long objVersion, long checksum, long size) throws IOException {
+            writeRecord(out, ADD, objNo, objVersion, checksum, size);
+        }
+
+        /**
+         * Records that an object file has been deleted.
+         */
+        public void remove(long objNo, long objVersion, long checksum) throws IOException {
+            writeRecord(out, REMOVE, objNo, objVersion, checksum, 0);
+        }
+
+        /**
+         * Writes all recorded changes and commits them.
+         *
+         * @return <code>true</code> if the journal has grown by another 64
+         *         records, in which case the index should be loaded to
+         *         compact or rebuild it
+         */
+        public boolean commit() throws IOException {
+            final long end;
+            try {
+                writeRecord(out, COMMIT, generation, 0, 0, 0);
+                byte[] bytes = records.toByteArray();
+                writeFully(channel, ByteBuffer.wrap(bytes), position + RECORD_SIZE);
+                end = position + RECORD_SIZE + bytes.length;
+            } finally {
+                close();
+            }
+
+            // reading the index costs as much as the last
+            // COMPACTION_CHECK_INTERVAL updates, so check it only that often
+            final long numRecordsBefore = (position - HEADER_SIZE) / RECORD_SIZE;
+            final long numRecords = (end - HEADER_SIZE) / RECORD_SIZE;
+            return numRecords / COMPACTION_CHECK_INTERVAL != numRecordsBefore / COMPACTION_CHECK_INTERVAL;
+        }
+
+        /**
+         * Finishes the update without committing the changes, which
+         * invalidates the index. Has no effect after {@link #commit()}.
+         */
+        public void abort() {
+            close();
+        }
+
+        private void close() {
+            if (closed)
+                return;
+            closed = true;
+
+            if (cached != null) {
+                cached.release();
+                return;
+            }
+            try {
+                file.close();
+            } catch (IOException exc) {
+                // ignore
+            }
+        }
+    }
+
+    private ObjectIndex() {
+    }
+
+    /**
+     * Starts recording a change of the object files of a file.
+     *
+     * @param fileDir
+     *            the file directory
+     * @return the update, or <code>null</code> if the file has no index
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static Update beginUpdate(File fileDir) throws IOException {
+
+        File indexFile = new File(fileDir, FILENAME);
+        if (!indexFile.exists())
+            return null;
+
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        return new Update(file.getChannel(), null, file);
+    }
+
+    /**
+     * Starts recording a change of the object files of a file, appending to a
+     * channel of the given cache. Since the journal is replaced when it is
+     * (re-)created or compacted, the cached channels of the journal have to
+     * be invalidated afterwards.
+     *
+     * @param fileDir
+     *            the file directory
+     * @param channels
+     *            the channel cache of the calling thread
+     * @return the update, or <code>null</code> if the file has no index
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static Update beginUpdate(File fileDir, FileChannelCache channels) throws IOException {
+
+        CachedChannel cached = channels.open(new File(fileDir, FILENAME).getAbsolutePath(), false);
+        if (cached == null)
+            return null;
+
+        return new Update(cached.getChannel(), cached, null);
+    }
+
+    /**
+     * The valid contents of an index.
+     */
+    private static final class Journal {
+
+        final List<IndexedObject> objects;
+
+        final long                numRecords;
+
+        Journal(List<IndexedObject> objects, long numRecords) {
+            this.objects = objects;
+            this.numRecords = numRecords;
+        }
+    }
+
+    /**
+     * Loads the objects of a file from its index.
+     *
+     * @param fileDir
+     *            the file directory
+     * @return the objects, or <code>null</code> if the index does not exist or
+     *         is not valid
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static Collection<IndexedObject> load(File fileDir) throws IOException {
+
+        Journal journal = read(fileDir);
+        if (journal == null)
+            return null;
+
+        compactIfOutdated(fileDir, journal);
+        return journal.objects;
+    }
+
+    /**
+     * Compacts the index if it mainly consists of outdated records.
+     */
+    private static void compactIfOutdated(File fileDir, Journal journal) throws IOException {
+        if (journal != null && journal.numRecords > 2 * journal.objects.size() + 64)
+            write(fileDir, journal.objects);
+    }
+
+    /**
+     * Reads the index of a file record by record.
+     *
+     * @return the contents of the index, or <code>null</code> if the index
+     *         does not exist or is not valid
+     */
+    private static Journal read(File fileDir) throws IOException {
+
+        File indexFile = new File(fileDir, FILENAME);
+        if (!indexFile.exists())
+            return null;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile),
+            READ_BUFFER_SIZE));
+        try {
+            return read(fileDir, in, indexFile.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Journal read(File fileDir, DataInputStream in, long length) throws IOException {
+
+        if (length < HEADER_SIZE)
+            return stale(fileDir, "invalid length");
+        if ((length - HEADER_SIZE) % RECORD_SIZE != 0)
+            return stale(fileDir, "incomplete record");
+
+        if (in.readLong() != MAGIC || in.readInt() != FORMAT_VERSION)
+            return stale(fileDir, "invalid header");
+
+        // objNo -> object files
+        Map<Long, List<IndexedObject>> objects = new HashMap<Long, List<IndexedObject>>();
+        List<IndexedObject> pending = new ArrayList<IndexedObject>();
+        List<Boolean> pendingRemovals = new ArrayList<Boolean>();
+
+        boolean inUpdate = false;
+        long generation = -1;
+        final long numRecords = (length - HEADER_SIZE) / RECORD_SIZE;
+
+        for (long n = 0; n < numRecords; n++) {
+
+            final byte type = in.readByte();
+            final long l1 = in.readLong();
+            final long l2 = in.readLong();
+            final long l3 = in.readLong();
+            final long l4 = in.readLong();
+
+            switch (type) {
+            case BEGIN:
+                if (inUpdate)
+                    return stale(fileDir, "uncommitted update");
+                if (n > 0 && l1 != generation + 1)
+                    return stale(fileDir, "unexpected generation");
+                inUpdate = true;
+                generation = l1;
+                pending.clear();
+                pendingRemovals.clear();
+                break;
+
+            case ADD:
+            case REMOVE:
+                if (!inUpdate)
+                    return stale(fileDir, "record outside of update");
+                pending.add(new IndexedObject(l1, l2, l3, l4));
+                pendingRemovals.add(type == REMOVE);
+                break;
+
+            case COMMIT:
+                if (!inUpdate)
+                    return stale(fileDir, "record outside of update");
+                if (l1 != generation)
+                    return stale(fileDir, "unexpected generation");
+                for (int i = 0; i < pending.size(); i++)
+                    apply(objects, pending.get(i), pendingRemovals.get(i));
+                inUpdate = false;
+                break;
+
+            default:
+                return stale(fileDir, "invalid record");
+            }
+        }
+
+        if (inUpdate)
+            return stale(fileDir, "uncommitted update");
+
+        List<IndexedObject> result = new ArrayList<IndexedObject>();
+        for (List<IndexedObject> files : objects.values())
+            result.addAll(files);
+
+        return new Journal(result, numRecords);
+    }
+
+    /**
+     * (Re-)creates the index of a file.
+     *
+     * @param fileDir
+     *            the file directory
+     * @param objects
+     *            all objects of the file
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static void write(File fileDir, Collection<IndexedObject> objects) throws IOException {
+
+        File indexFile = new File(fileDir, FILENAME);
+        File tmpFile = new File(fileDir, FILENAME + ".tmp");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + (objects.size() + 2) * RECORD_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        writeRecord(out, BEGIN, 0, 0, 0, 0);
+        for (IndexedObject obj : objects)
+            writeRecord(out, ADD, obj.objNo, obj.objVersion, obj.checksum, obj.size);
+        writeRecord(out, COMMIT, 0, 0, 0, 0);
+
+        RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(bytes.toByteArray());
+        } finally {
+            raf.close();
+        }
+
+        if (!tmpFile.renameTo(indexFile)) {
+            tmpFile.delete();
+            throw new IOException("could not create object index " + indexFile);
+        }
+    }
+
+    /**
+     * Deletes the index of a file.
+     *
+     * @param fileDir
+     *            the file directory
+     */
+    public static void delete(File fileDir) {
+        new File(fileDir, FILENAME).delete();
+    }
+
+    private static void apply(Map<Long, List<IndexedObject>> objects, IndexedObject obj, boolean remove) {
+
+        List<IndexedObject> files = objects.get(obj.objNo);
+
+        // an object file is identified by its object number, version and
+        // checksum
+        if (files != null) {
+            for (Iterator<IndexedObject> it = files.iterator(); it.hasNext();) {
+                IndexedObject file = it.next();
+                if (file.objVersion == obj.objVersion && file.checksum == obj.checksum)
+                    it.remove();
+            }
+        }
+
+        if (!remove) {
+            if (files == null) {
+                files = new ArrayList<IndexedObject>(1);
+                objects.put(obj.objNo, files);
+            }
+            files.add(obj);
+        } else if (files != null && files.isEmpty())
+            objects.remove(obj.objNo);
+    }
+
+    private static Journal stale(File fileDir, String reason) {
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, ObjectIndex.class,
+                "discarding object index of %s: %s", fileDir, reason);
+        return null;
+    }
+
+    /**
+     * Returns the generation of the last update of a journal, or -1 if the
+     * journal does not end with a committed update.
+     */
+    private static long lastGeneration(FileChannel channel, long length) throws IOException {
+
+        if (length < HEADER_SIZE + RECORD_SIZE || (length - HEADER_SIZE) % RECORD_SIZE != 0)
+            return -1;
+
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, length - RECORD_SIZE + buf.position()) < 0)
+                return -1;
+        }
+        buf.flip();
+        return buf.get() == COMMIT ? buf.getLong() : -1;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining())
+            channel.write(buf, position + buf.position());
+    }
+
+    private static byte[] record(byte type, long l1, long l2, long l3, long l4) {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        buf.put(type).putLong(l1).putLong(l2).putLong(l3).putLong(l4);
+        return buf.array();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, long l1, long l2, long l3, long l4)
+            throws IOException {
+        out.writeByte(type);
+        out.writeLong(l1);
+        out.writeLong(l2);
+        out.writeLong(l3);
+        out.writeLong(l4);
+    }
+
+}
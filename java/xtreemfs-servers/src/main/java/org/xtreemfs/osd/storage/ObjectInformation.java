@@ -8,6 +8,7 @@
 package org.xtreemfs.osd.storage;
 
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.osd.InternalObjectData;
 import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
@@ -67,6 +68,8 @@ public class ObjectInformation {
 
     private boolean              checksumInvalidOnOSD;
 
+    private FileRegion           fileRegion;
+
     public ObjectInformation(ObjectStatus status, ReusableBuffer data, int stripeSize) {
         this.data = data;
         this.status = status;
@@ -77,16 +80,16 @@ public class ObjectInformation {
         assert(length >= 0);
         if (isLastObject) {
             switch (status) {
-                case EXISTS: return new InternalObjectData(0, checksumInvalidOnOSD, 0, data);
+                case EXISTS: return withFileRegion(new InternalObjectData(0, checksumInvalidOnOSD, 0, data));
                 case DOES_NOT_EXIST: return new InternalObjectData(0,checksumInvalidOnOSD, 0, null);
                 case PADDING_OBJECT: throw new RuntimeException("padding object must not be last object!");
             }
         } else {
             switch (status) {
                 case EXISTS: {
-                    final int paddingZeros = length-data.remaining();
-                    assert(paddingZeros >= 0) : "offset: "+offset+" length: "+length+" remaining: "+data.remaining();
-                    return new InternalObjectData(0,checksumInvalidOnOSD, paddingZeros, data);
+                    final int paddingZeros = length-getDataLength();
+                    assert(paddingZeros >= 0) : "offset: "+offset+" length: "+length+" remaining: "+getDataLength();
+                    return withFileRegion(new InternalObjectData(0,checksumInvalidOnOSD, paddingZeros, data));
                 }
                 case DOES_NOT_EXIST:
                 case PADDING_OBJECT: {
@@ -98,6 +101,11 @@ public class ObjectInformation {
         return null;
     }
 
+    private InternalObjectData withFileRegion(InternalObjectData objData) {
+        objData.setFileRegion(fileRegion);
+        return objData;
+    }
+
     /*public ObjectData getObjectData(boolean isLastObject, int offset, int length) {
         if (offset+length > getStripeSize())
             throw new IllegalArgumentException("offset+length must be less than the stripe size");
@@ -167,6 +175,29 @@ public class ObjectInformation {
         this.data = data;
     }
 
+    /**
+     * @return the region of the object file that contains the data, if the
+     *         data was not read into a buffer; <code>null</code>, otherwise
+     */
+    public FileRegion getFileRegion() {
+        return fileRegion;
+    }
+
+    public void setFileRegion(FileRegion fileRegion) {
+        this.fileRegion = fileRegion;
+    }
+
+    /**
+     * @return the number of data bytes, either in the buffer or in the file
+     *         region
+     */
+    public int getDataLength() {
+        if (data != null) {
+            return data.remaining();
+        }
+        return (fileRegion != null) ? fileRegion.getLength() : 0;
+    }
+
     /**
      * @return the status
      */
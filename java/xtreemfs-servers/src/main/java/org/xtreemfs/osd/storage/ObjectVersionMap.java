@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.storage;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.xtreemfs.common.xloc.StripingPolicyImpl;
+
+/**
+ * A map from object numbers to long values (e.g. object versions) that avoids
+ * boxing. Values of the objects stored on the local OSD are kept in a dense
+ * primitive array that is indexed by the row of the object in the striping
+ * pattern. Object numbers that would leave large holes in the array, or that
+ * do not belong to the same column as the other objects, are kept in a sparse
+ * hash map.
+ * <p>
+ * The map implements the {@link Map} interface for compatibility; the
+ * primitive methods {@link #getLong(long, long)}, {@link #putLong(long, long)}
+ * and {@link #removeLong(long)} should be used on performance-critical paths.
+ * The class is not thread-safe.
+ */
+public class ObjectVersionMap extends AbstractMap<Long, Long> {
+
+    private static final int    MIN_CAPACITY = 16;
+
+    /** the striping width, i.e. the distance between two local objects */
+    private final int           stride;
+
+    /** the column of the local objects, or -1 if not yet known */
+    private long                column;
+
+    private long[]              values;
+
+    private final BitSet        present;
+
+    private int                 numDense;
+
+    private Map<Long, Long>     sparse;
+
+    private Set<Entry<Long, Long>> entrySet;
+
+    public ObjectVersionMap() {
+        this(1);
+    }
+
+    public ObjectVersionMap(StripingPolicyImpl sp) {
+        this(sp == null ? 1 : sp.getWidth());
+    }
+
+    public ObjectVersionMap(int stride) {
+        this.stride = Math.max(stride, 1);
+        this.column = -1;
+        this.values = new long[0];
+        this.present = new BitSet();
+    }
+
+    /**
+     * Creates a new map containing all entries of the given map.
+     *
+     * @param map
+     *            the map
+     * @param sp
+     *            the striping policy of the file
+     */
+    public ObjectVersionMap(Map<Long, Long> map, StripingPolicyImpl sp) {
+        this(sp);
+        for (Entry<Long, Long> entry : map.entrySet())
+            putLong(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Returns the value mapped to the given object number.
+     *
+     * @param objNo
+     *            the object number
+     * @param defaultValue
+     *            the value to return if no value is mapped
+     * @return the value, or <code>defaultValue</code>
+     */
+    public long getLong(long objNo, long defaultValue) {
+
+        final int idx = getIndex(objNo);
+        if (idx >= 0 && idx < values.length)
+            return present.get(idx) ? values[idx] : defaultValue;
+
+        if (sparse == null)
+            return defaultValue;
+
+        Long value = sparse.get(objNo);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean containsObject(long objNo) {
+
+        final int idx = getIndex(objNo);
+        if (idx >= 0 && idx < values.length)
+            return present.get(idx);
+
+        return sparse != null && sparse.containsKey(objNo);
+    }
+
+    /**
+     * Maps a value to the given object number.
+     *
+     * @param objNo
+     *            the object number
+     * @param value
+     *            the value
+     */
+    public void putLong(long objNo, long value) {
+
+        assert (objNo >= 0);
+
+        if (column == -1)
+            column = objNo % stride;
+
+        final int idx = getIndex(objNo);
+
+        // grow the dense array if it would be filled at least by half
+        if (idx >= values.length && idx >= 0 && idx < Math.max(MIN_CAPACITY, 2 * (size() + 1)))
+            grow(idx);
+
+        if (idx >= 0 && idx < values.length) {
+            values[idx] = value;
+            if (!present.get(idx)) {
+                present.set(idx);
+                numDense++;
+            }
+            return;
+        }
+
+        if (sparse == null)
+            sparse = new HashMap<Long, Long>();
+        sparse.put(objNo, value);
+    }
+
+    /**
+     * Removes the value mapped to the given object number.
+     *
+     * @param objNo
+     *            the object number
+     * @return <code>true</code> if a value was mapped
+     */
+    public boolean removeLong(long objNo) {
+
+        final int idx = getIndex(objNo);
+        if (idx >= 0 && idx < values.length) {
+            if (!present.get(idx))
+                return false;
+            present.clear(idx);
+            numDense--;
+            return true;
+        }
+
+        return sparse != null && sparse.remove(objNo) != null;
+    }
+
+    @Override
+    public Long get(Object key) {
+
+        if (!(key instanceof Long))
+            return null;
+
+        final long objNo = (Long) key;
+        return containsObject(objNo) ? getLong(objNo, 0) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Long && containsObject((Long) key);
+    }
+
+    @Override
+    public Long put(Long key, Long value) {
+        Long old = get(key);
+        putLong(key, value);
+        return old;
+    }
+
+    @Override
+    public Long remove(Object key) {
+        Long old = get(key);
+        if (old != null)
+            removeLong((Long) key);
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return numDense + (sparse == null ? 0 : sparse.size());
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, 0);
+        present.clear();
+        numDense = 0;
+        sparse = null;
+    }
+
+    @Override
+    public Set<Entry<Long, Long>> entrySet() {
+        if (entrySet == null)
+            entrySet = new EntrySet();
+        return entrySet;
+    }
+
+    /**
+     * @return a rough estimate of the heap memory occupied by the map in bytes
+     */
+    public long getEstimatedSize() {
+        long size = 64 + values.length * 8 + values.length / 8;
+        if (sparse != null)
+            size += 64 + sparse.size() * 80;
+        return size;
+    }
+
+    /**
+     * Returns the index of the given object in the dense array, or -1 if it
+     * does not belong to the column of the local objects.
+     */
+    private int getIndex(long objNo) {
+
+        if (column == -1 || objNo < 0 || objNo % stride != column)
+            return -1;
+
+        final long idx = objNo / stride;
+        return idx > Integer.MAX_VALUE - 8 ? -1 : (int) idx;
+    }
+
+    private void grow(int idx) {
+
+        long newCapacity = Math.max(Math.max(idx + 1L, 2L * values.length), MIN_CAPACITY);
+        values = Arrays.copyOf(values, (int) Math.min(newCapacity, Integer.MAX_VALUE - 8));
+
+        // move all sparse entries that fit into the dense array
+        if (sparse != null) {
+            for (Iterator<Entry<Long, Long>> it = sparse.entrySet().iterator(); it.hasNext();) {
+                Entry<Long, Long> entry = it.next();
+                int i = getIndex(entry.getKey());
+                if (i >= 0 && i < values.length) {
+                    values[i] = entry.getValue();
+                    present.set(i);
+                    numDense++;
+                    it.remove();
+                }
+            }
+            if (sparse.isEmpty())
+                sparse = null;
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<Long, Long>> {
+
+        @Override
+        public Iterator<Entry<Long, Long>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return ObjectVersionMap.this.size();
+        }
+
+        @Override
+        public void clear() {
+            ObjectVersionMap.this.clear();
+        }
+    }
+
+    /**
+     * Iterates over the dense entries in ascending order of object numbers,
+     * followed by the sparse entries.
+     */
+    private final class EntryIterator implements Iterator<Entry<Long, Long>> {
+
+        private int                            next    = present.nextSetBit(0);
+
+        private int                            last    = -1;
+
+        private Iterator<Entry<Long, Long>>    sparseIt;
+
+        private boolean                        inSparse;
+
+        public boolean hasNext() {
+            if (next >= 0)
+                return true;
+            if (sparseIt == null && sparse != null)
+                sparseIt = sparse.entrySet().iterator();
+            return sparseIt != null && sparseIt.hasNext();
+        }
+
+        public Entry<Long, Long> next() {
+
+            if (next >= 0) {
+                last = next;
+                inSparse = false;
+                next = present.nextSetBit(next + 1);
+                return new SimpleEntry<Long, Long>(last * (long) stride + column, values[last]);
+            }
+
+            if (!hasNext())
+                throw new NoSuchElementException();
+
+            inSparse = true;
+            Entry<Long, Long> entry = sparseIt.next();
+            return new SimpleEntry<Long, Long>(entry.getKey(), entry.getValue());
+        }
+
+        public void remove() {
+
+            if (inSparse) {
+                sparseIt.remove();
+                return;
+            }
+
+            if (last < 0 || !present.get(last))
+                throw new IllegalStateException();
+            present.clear(last);
+            numDense--;
+        }
+    }
+
+}
@@ -0,0 +1,1566 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.xtreemfs.foundation.LifeCycleThread;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.osd.OSDConfig;
+import org.xtreemfs.osd.replication.ObjectSet;
+import org.xtreemfs.osd.storage.FileChannelCache.CachedChannel;
+import org.xtreemfs.osd.storage.ObjectIndex.IndexedObject;
+
+/**
+ * A storage layout that appends object versions to large segment files,
+ * instead of storing each object version in a file of its own. This avoids
+ * the creation and deletion of a file (and the according inode and directory
+ * updates) with each object version, which dominates the costs of small
+ * objects in the {@link HashStorageLayout}.
+ * <p>
+ * Each segment file is preallocated and consists of a sequence of records.
+ * A record either contains an object version (or a padding object), or
+ * states that an object version or all objects of a file have been deleted.
+ * The location of each object version is kept in an in-memory index. The
+ * index is periodically written to a checkpoint file; when the OSD is
+ * started, the checkpoint is loaded and all records that have been appended
+ * afterwards are replayed.
+ * <p>
+ * Outdated object versions remain in their segments until the segment is
+ * compacted: if the fraction of outdated data in a segment exceeds a
+ * threshold, a background thread copies all object versions that are still
+ * in use to the current segment, writes a new checkpoint and deletes the
+ * segment file.
+ * <p>
+ * All other per-file metadata (truncate epochs, version tables, etc.) is
+ * stored in the file directories like in the {@link HashStorageLayout}.
+ * Directories are only created for files that have such metadata.
+ */
+public class SegmentStorageLayout extends HashStorageLayout {
+
+    public static final int     SL_TAG                 = 0x00040001;
+
+    /**
+     * directory in the object directory that contains the segment files and
+     * the index checkpoint
+     */
+    public static final String  SEGMENT_DIR            = "segments";
+
+    public static final String  CHECKPOINT_FILENAME    = "index.ckpt";
+
+    private static final String SEGMENT_FILE_SUFFIX    = ".seg";
+
+    private static final long   SEGMENT_MAGIC          = 0x7874667353656721L;
+
+    private static final long   CHECKPOINT_MAGIC       = 0x78746673436b7074L;
+
+    private static final int    FORMAT_VERSION         = 1;
+
+    private static final int    SEGMENT_HEADER_SIZE    = 12;
+
+    private static final int    RECORD_MAGIC           = 0x58536567;
+
+    /**
+     * magic, CRC, type, fileId length, objNo, version, checksum, replaced
+     * version, size, data length; followed by the fileId and the data
+     */
+    private static final int    RECORD_HEADER_SIZE     = 51;
+
+    private static final byte   OBJECT                 = 1;
+
+    private static final byte   PADDING                = 2;
+
+    private static final byte   DELETE_OBJECT          = 3;
+
+    private static final byte   DELETE_FILE            = 4;
+
+    private static final long   NO_VERSION             = 0;
+
+    private static final long   COMPACTION_INTERVAL_MS = 10000;
+
+    /**
+     * The location of an object version in a segment.
+     */
+    private static final class Location {
+
+        final int     segment;
+
+        /** offset of the record in the segment */
+        final long    offset;
+
+        final int     recordLength;
+
+        /** the size of the object */
+        final int     size;
+
+        /** a padding object consists of <code>size</code> zeros */
+        final boolean padding;
+
+        final long    checksum;
+
+        Location(int segment, long offset, int recordLength, int size, boolean padding, long checksum) {
+            this.segment = segment;
+            this.offset = offset;
+            this.recordLength = recordLength;
+            this.size = size;
+            this.padding = padding;
+            this.checksum = checksum;
+        }
+
+        long getDataOffset() {
+            return offset + recordLength - (padding ? 0 : size);
+        }
+
+        boolean isAt(Location other) {
+            return other != null && other.segment == segment && other.offset == offset;
+        }
+    }
+
+    private static final class Segment {
+
+        final int    id;
+
+        final String path;
+
+        /** number of bytes used by records, including the header */
+        long         used;
+
+        /** number of bytes used by records of object versions in the index */
+        long         live;
+
+        /**
+         * number of bytes that have been forced to disk; guarded by the
+         * segment itself
+         */
+        long         forced;
+
+        /** set once the segment has been forced and closed */
+        volatile boolean sealed;
+
+        Segment(int id, String path) {
+            this.id = id;
+            this.path = path;
+            this.used = SEGMENT_HEADER_SIZE;
+        }
+    }
+
+    private static final class Record {
+
+        byte     type;
+
+        String   fileId;
+
+        long     objNo;
+
+        long     version;
+
+        long     replaces;
+
+        Location loc;
+    }
+
+    /**
+     * A copy of the index entries of a file, which is written to a checkpoint
+     * without holding the log lock. Locations are immutable and can be shared
+     * with the index.
+     */
+    private static final class FileSnapshot {
+
+        final String     fileId;
+
+        final long[]     objNos;
+
+        final long[]     versions;
+
+        final Location[] locations;
+
+        FileSnapshot(String fileId, Map<Long, Map<Long, Location>> file) {
+
+            int numVersions = 0;
+            for (Map<Long, Location> versions : file.values())
+                numVersions += versions.size();
+
+            this.fileId = fileId;
+            this.objNos = new long[numVersions];
+            this.versions = new long[numVersions];
+            this.locations = new Location[numVersions];
+
+            int i = 0;
+            for (Entry<Long, Map<Long, Location>> obj : file.entrySet()) {
+                for (Entry<Long, Location> ver : obj.getValue().entrySet()) {
+                    objNos[i] = obj.getKey();
+                    versions[i] = ver.getKey();
+                    locations[i] = ver.getValue();
+                    i++;
+                }
+            }
+        }
+    }
+
+    private final int                                          segmentSize;
+
+    private final int                                          compactionThreshold;
+
+    private final File                                         segmentDir;
+
+    /**
+     * fileId -> objNo -> version -> location; guarded by <code>logLock</code>
+     */
+    private final Map<String, Map<Long, Map<Long, Location>>> index;
+
+    private final Map<Integer, Segment>                        segments;
+
+    /**
+     * guards the index, the segment table and the current segment
+     */
+    private final Object                                       logLock;
+
+    /**
+     * held by readers of segment files, and exclusively for deleting a
+     * compacted segment file
+     */
+    private final ReadWriteLock                                segmentLock;
+
+    /**
+     * serializes checkpoints, which are written without holding the log lock
+     */
+    private final Object                                       checkpointLock;
+
+    private Segment                                            active;
+
+    private RandomAccessFile                                   activeFile;
+
+    private int                                                nextSegmentId;
+
+    private int                                                sealedSinceCheckpoint;
+
+    private int                                                registeredThreads;
+
+    private CompactionThread                                   compactionThread;
+
+    public SegmentStorageLayout(OSDConfig config, MetadataCache cache) throws IOException {
+        this(config, cache, config.getSegmentSize(), config.getSegmentCompactionThreshold());
+    }
+
+    /**
+     * Creates a new instance of SegmentStorageLayout.
+     *
+     * @param config
+     * @param cache
+     * @param segmentSize
+     *            the size of a segment file in bytes
+     * @param compactionThreshold
+     *            the percentage of outdated data at which a segment is
+     *            compacted
+     * @throws IOException
+     */
+    public SegmentStorageLayout(OSDConfig config, MetadataCache cache, int segmentSize, int compactionThreshold)
+        throws IOException {
+
+        super(config, cache);
+
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.segmentDir = new File(storageDir, SEGMENT_DIR);
+        this.index = new HashMap<String, Map<Long, Map<Long, Location>>>();
+        this.segments = new TreeMap<Integer, Segment>();
+        this.logLock = new Object();
+        this.segmentLock = new ReentrantReadWriteLock();
+        this.checkpointLock = new Object();
+
+        if (!segmentDir.exists() && !segmentDir.mkdirs())
+            throw new IOException("could not create segment directory " + segmentDir);
+
+        synchronized (logLock) {
+            recover();
+        }
+    }
+
+    @Override
+    public void registerThread() {
+        super.registerThread();
+
+        synchronized (logLock) {
+            if (registeredThreads++ == 0) {
+                compactionThread = new CompactionThread();
+                compactionThread.start();
+            }
+        }
+    }
+
+    @Override
+    public void unregisterThread() {
+        super.unregisterThread();
+
+        CompactionThread thread = null;
+        synchronized (logLock) {
+            if (registeredThreads > 0 && --registeredThreads == 0) {
+                thread = compactionThread;
+                compactionThread = null;
+            }
+        }
+
+        // the last storage thread has stopped; stop compacting and write a
+        // checkpoint, so that nothing has to be replayed with the next start
+        if (thread != null) {
+            thread.shutdown();
+            try {
+                checkpoint();
+            } catch (IOException exc) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                    "could not write index checkpoint: %s", exc.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public ObjectInformation readObject(String fileId, FileMetadata md, long objNo, int offset, int length,
+        long version) throws IOException {
+
+        final int stripeSize = md.getStripingPolicy().getStripeSizeForObject(objNo);
+
+        boolean checkChecksum = false;
+        if (length == -1) {
+            assert (offset == 0) : "if length is -1 offset must be 0 but is " + offset;
+            length = stripeSize;
+            // see HashStorageLayout.readObject()
+            checkChecksum = checksumsEnabled;
+        }
+
+        if (version == 0)
+            return new ObjectInformation(ObjectInformation.ObjectStatus.DOES_NOT_EXIST, null, stripeSize);
+
+        segmentLock.readLock().lock();
+        try {
+
+            Location loc;
+            synchronized (logLock) {
+                loc = lookup(fileId, objNo, version);
+            }
+
+            if (loc == null) {
+                if (Logging.isDebug())
+                    Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this, "object %d does not exist",
+                        objNo);
+                return new ObjectInformation(ObjectInformation.ObjectStatus.DOES_NOT_EXIST, null, stripeSize);
+            }
+
+            if (loc.size == 0)
+                return new ObjectInformation(ObjectInformation.ObjectStatus.PADDING_OBJECT, null, stripeSize);
+
+            if (loc.size <= offset)
+                return new ObjectInformation(ObjectInformation.ObjectStatus.EXISTS, BufferPool.allocate(0),
+                    stripeSize);
+
+            assert (offset + length <= stripeSize);
+            ReusableBuffer bbuf = readData(loc, offset, Math.min(length, loc.size - offset));
+            ObjectInformation oInfo = new ObjectInformation(ObjectInformation.ObjectStatus.EXISTS, bbuf,
+                stripeSize);
+
+            if (checkChecksum) {
+                ReusableBuffer bbufCopy = bbuf.createViewBuffer();
+                checksumAlgo.reset();
+                checksumAlgo.update(bbufCopy.getBuffer());
+                BufferPool.free(bbufCopy);
+                oInfo.setChecksumInvalidOnOSD(checksumAlgo.getValue() != md.getObjectChecksum(objNo, version));
+            }
+
+            return oInfo;
+
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ObjectInformation readObjectRegion(String fileId, FileMetadata md, long objNo, int offset, int length,
+        long version) throws IOException {
+        // objects are small, so copying them is cheaper than opening the
+        // segment file for each region
+        return readObject(fileId, md, objNo, offset, length, version);
+    }
+
+    @Override
+    public void writeObject(String fileId, FileMetadata md, ReusableBuffer data, long objNo, int offset,
+        long newVersion, boolean sync, boolean cow) throws IOException {
+
+        assert (newVersion > 0) : "object version must be > 0";
+
+        if (data.capacity() == 0)
+            return;
+
+        final long oldVersion = md.getLatestObjectVersion(objNo);
+
+        // objects are never modified in place; a partial write creates a new
+        // record with the complete object
+        final boolean isRangeWrite = (offset > 0)
+            || (data.capacity() < md.getStripingPolicy().getStripeSizeForObject(objNo));
+        ReusableBuffer obj;
+        if (!isRangeWrite)
+            obj = data;
+        else if (cow || checksumsEnabled)
+            obj = cow(fileId, md, objNo, data, offset, oldVersion);
+        else
+            obj = merge(fileId, objNo, oldVersion, data, offset);
+
+        final long checksum;
+        try {
+            obj.position(0);
+            checksum = calcChecksum(obj);
+            final long replaces = (!cow && oldVersion != NO_VERSION && oldVersion != newVersion) ? oldVersion
+                : NO_VERSION;
+
+            obj.position(0);
+            append(OBJECT, fileId, objNo, newVersion, checksum, replaces, obj.remaining(), obj.getBuffer(), sync);
+
+        } finally {
+            BufferPool.free(obj);
+        }
+
+        md.updateObjectVersion(objNo, newVersion);
+        if (checksumsEnabled)
+            md.updateObjectChecksum(objNo, newVersion, checksum);
+    }
+
+    /**
+     * Applies a partial write to the current object version, with the same
+     * result as writing to the object file in the {@link HashStorageLayout}.
+     */
+    private ReusableBuffer merge(String fileId, long objNo, long oldVersion, ReusableBuffer data, int offset)
+        throws IOException {
+
+        ReusableBuffer obj;
+
+        segmentLock.readLock().lock();
+        try {
+            Location old;
+            synchronized (logLock) {
+                old = lookup(fileId, objNo, oldVersion);
+            }
+
+            final int oldSize = old == null ? 0 : old.size;
+            obj = BufferPool.allocate(Math.max(oldSize, offset + data.capacity()));
+            if (oldSize > 0) {
+                ReusableBuffer oldData = readData(old, 0, oldSize);
+                obj.put(oldData);
+                BufferPool.free(oldData);
+            }
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+
+        while (obj.position() < offset)
+            obj.put((byte) 0);
+        obj.position(offset);
+        data.position(0);
+        obj.put(data);
+        BufferPool.free(data);
+
+        obj.position(0);
+        return obj;
+    }
+
+    @Override
+    public void syncObject(String fileId, FileMetadata md, long objNo, long version) throws IOException {
+
+        final Segment seg;
+        final FileChannel channel;
+        final long end;
+        synchronized (logLock) {
+            Location loc = lookup(fileId, objNo, version);
+            if (loc == null)
+                throw new FileNotFoundException("object version to synchronize does not exist: " + fileId + "-"
+                    + objNo + "." + version);
+            // sealed segments have been forced already
+            if (loc.segment != active.id)
+                return;
+            seg = active;
+            channel = activeFile.getChannel();
+            end = loc.offset + loc.recordLength;
+        }
+
+        force(seg, channel, end);
+    }
+
+    @Override
+    public void updateCurrentObjVersion(String fileId, long objNo, long newVersion) throws IOException {
+        createFileDir(fileId);
+        super.updateCurrentObjVersion(fileId, objNo, newVersion);
+    }
+
+    @Override
+    public void updateCurrentVersionSize(String fileId, long newLastObject) throws IOException {
+        createFileDir(fileId);
+        super.updateCurrentVersionSize(fileId, newLastObject);
+    }
+
+    @Override
+    public void truncateObject(String fileId, FileMetadata md, long objNo, int newLength, long newVersion,
+        boolean cow) throws IOException {
+
+        assert (newLength <= md.getStripingPolicy().getStripeSizeForObject(objNo));
+
+        final long oldVersion = md.getLatestObjectVersion(objNo);
+
+        Location old;
+        synchronized (logLock) {
+            old = lookup(fileId, objNo, oldVersion);
+        }
+        if (newLength == (old == null ? 0 : old.size))
+            return;
+
+        ReusableBuffer newData = BufferPool.allocate(newLength);
+        try {
+            if (old != null && newLength > 0) {
+                ObjectInformation oinfo = readObject(fileId, md, objNo, 0, newLength, oldVersion);
+                if (oinfo.getData() != null) {
+                    newData.put(oinfo.getData());
+                    BufferPool.free(oinfo.getData());
+                }
+            }
+            while (newData.hasRemaining())
+                newData.put((byte) 0);
+
+            newData.position(0);
+            final long checksum = calcChecksum(newData);
+            final long replaces = (!cow && old != null && oldVersion != newVersion) ? oldVersion : NO_VERSION;
+
+            newData.position(0);
+            append(OBJECT, fileId, objNo, newVersion, checksum, replaces, newLength, newData.getBuffer(), false);
+
+            md.updateObjectVersion(objNo, newVersion);
+            if (checksumsEnabled)
+                md.updateObjectChecksum(objNo, newVersion, checksum);
+
+        } finally {
+            BufferPool.free(newData);
+        }
+
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
+                "truncated object %s-%d to %d bytes, new version %d", fileId, objNo, newLength, newVersion);
+    }
+
+    @Override
+    public void createPaddingObject(String fileId, FileMetadata md, long objNo, long version, int size)
+        throws IOException {
+
+        assert (size >= 0) : "size is " + size;
+
+        // calculate the checksum for the padding object if necessary
+        long checksum = 0;
+        if (checksumAlgo != null) {
+            byte[] content = new byte[size];
+            checksumAlgo.update(ByteBuffer.wrap(content));
+            checksum = checksumAlgo.getValue();
+        }
+
+        append(PADDING, fileId, objNo, version, checksum, NO_VERSION, size, null, false);
+
+        md.updateObjectVersion(objNo, version);
+        if (checksumsEnabled)
+            md.updateObjectChecksum(objNo, version, checksum);
+    }
+
+    @Override
+    public void deleteFile(String fileId, boolean deleteMetadata) throws IOException {
+
+        synchronized (logLock) {
+            if (index.containsKey(fileId))
+                append(DELETE_FILE, fileId, 0, 0, 0, NO_VERSION, 0, null, false);
+        }
+
+        // delete the metadata files
+        super.deleteFile(fileId, deleteMetadata);
+    }
+
+    @Override
+    public void deleteObject(String fileId, FileMetadata md, long objNo, long version) throws IOException {
+
+        final long verToDel = (version == LATEST_VERSION) ? md.getLatestObjectVersion(objNo) : version;
+
+        synchronized (logLock) {
+            if (lookup(fileId, objNo, verToDel) != null)
+                append(DELETE_OBJECT, fileId, objNo, verToDel, 0, NO_VERSION, 0, null, false);
+        }
+    }
+
+    @Override
+    public boolean fileExists(String fileId) {
+        synchronized (logLock) {
+            if (index.containsKey(fileId))
+                return true;
+        }
+        return super.fileExists(fileId);
+    }
+
+    /**
+     * Returns all objects of a file from the in-memory index.
+     */
+    @Override
+    protected Collection<IndexedObject> loadObjectIndex(String fileId, File fileDir) {
+
+        List<IndexedObject> objs = new ArrayList<IndexedObject>();
+        synchronized (logLock) {
+            Map<Long, Map<Long, Location>> file = index.get(fileId);
+            if (file != null) {
+                for (Entry<Long, Map<Long, Location>> obj : file.entrySet())
+                    for (Entry<Long, Location> ver : obj.getValue().entrySet())
+                        objs.add(new IndexedObject(obj.getKey(), ver.getKey(), ver.getValue().checksum, ver
+                                .getValue().size));
+            }
+        }
+        return objs;
+    }
+
+    @Override
+    public ObjectSet getObjectSet(String fileId, FileMetadata md) {
+        synchronized (logLock) {
+            Map<Long, Map<Long, Location>> file = index.get(fileId);
+            if (file == null)
+                return new ObjectSet(0);
+
+            ObjectSet objectSet = new ObjectSet(file.size());
+            for (long objNo : file.keySet())
+                objectSet.add(objNo);
+            return objectSet;
+        }
+    }
+
+    @Override
+    public FileList getFileList(FileList l, int maxNumEntries) {
+
+        // the status contains the IDs of all files that remain to be listed
+        if (l == null) {
+            l = new FileList(new Stack<String>(), new HashMap<String, FileData>());
+            l.status.addAll(getFileIDList());
+        }
+        l.files.clear();
+
+        while (!l.status.isEmpty() && l.files.size() < maxNumEntries) {
+
+            final String fileId = l.status.pop();
+            FileData data;
+
+            synchronized (logLock) {
+                data = getFileData(index.get(fileId));
+            }
+
+            // only files with a version state are listed if they have no
+            // objects (see HashStorageLayout.getFileList())
+            if (data == null
+                && new File(generateAbsoluteFilePath(fileId), XLOC_VERSION_STATE_FILENAME).exists())
+                data = new FileData(true);
+
+            if (data != null)
+                l.files.put(fileId, data);
+        }
+
+        l.hasMore = !l.status.isEmpty();
+        return l;
+    }
+
+    @Override
+    public ArrayList<String> getFileIDList() {
+
+        Set<String> fileIds = new LinkedHashSet<String>();
+
+        // files with metadata
+        fileIds.addAll(super.getFileIDList());
+
+        // files with objects
+        synchronized (logLock) {
+            fileIds.addAll(index.keySet());
+        }
+
+        return new ArrayList<String>(fileIds);
+    }
+
+    @Override
+    public int getLayoutVersionTag() {
+        return SL_TAG;
+    }
+
+    @Override
+    public boolean isCompatibleVersion(int layoutVersionTag) {
+        return layoutVersionTag == SL_TAG;
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    public int getNumSegments() {
+        synchronized (logLock) {
+            return segments.size();
+        }
+    }
+
+    /**
+     * Compacts all segments in which the fraction of outdated data exceeds the
+     * compaction threshold. The object versions that are still in use are
+     * appended to the current segment, and the compacted segment files are
+     * deleted.
+     *
+     * @return the number of compacted segments
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public int compact() throws IOException {
+
+        List<Segment> candidates = new ArrayList<Segment>();
+        boolean checkpointNeeded;
+        synchronized (logLock) {
+            for (Segment seg : segments.values()) {
+                final long payload = seg.used - SEGMENT_HEADER_SIZE;
+                if (seg != active && (payload == 0 || seg.live * 100 < payload * (100 - compactionThreshold)))
+                    candidates.add(seg);
+            }
+            checkpointNeeded = sealedSinceCheckpoint > 0;
+        }
+
+        if (candidates.isEmpty()) {
+            // limit the number of records to replay with the next start
+            if (checkpointNeeded)
+                checkpoint();
+            return 0;
+        }
+
+        int relocated = 0;
+        for (Segment seg : candidates)
+            relocated += relocate(seg);
+
+        // the segments may only be deleted once a checkpoint refers to the
+        // new locations of their objects
+        checkpoint();
+
+        int compacted = 0;
+        segmentLock.writeLock().lock();
+        try {
+            for (Segment seg : candidates) {
+
+                synchronized (logLock) {
+                    if (seg.live > 0) {
+                        Logging.logMessage(Logging.LEVEL_WARN, Category.storage, this,
+                            "segment %d still contains %d bytes of objects, not deleted", seg.id, seg.live);
+                        continue;
+                    }
+                    segments.remove(seg.id);
+                }
+
+                invalidateChannel(seg.path);
+                if (!new File(seg.path).delete())
+                    Logging.logMessage(Logging.LEVEL_WARN, Category.storage, this,
+                        "could not delete segment file %s", seg.path);
+                compacted++;
+            }
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+
+        Logging.logMessage(Logging.LEVEL_INFO, Category.storage, this,
+            "compacted %d segments, relocated %d object versions", compacted, relocated);
+
+        return compacted;
+    }
+
+    /**
+     * Copies all object versions in the index from a segment to the current
+     * segment, together with all deletion records that are still needed.
+     */
+    private int relocate(Segment seg) throws IOException {
+
+        int relocated = 0;
+        RandomAccessFile raf = new RandomAccessFile(seg.path, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            for (Record rec : readRecords(seg, channel, SEGMENT_HEADER_SIZE)) {
+
+                if (rec.type == DELETE_OBJECT || rec.type == DELETE_FILE) {
+                    synchronized (logLock) {
+                        if (isDeletionNeeded(rec, seg))
+                            append(rec.type, rec.fileId, rec.objNo, rec.version, 0, NO_VERSION, 0, null, false);
+                    }
+                    continue;
+                }
+
+                synchronized (logLock) {
+                    if (!rec.loc.isAt(lookup(rec.fileId, rec.objNo, rec.version)))
+                        continue;
+                }
+
+                ReusableBuffer data = null;
+                try {
+                    if (!rec.loc.padding) {
+                        data = BufferPool.allocate(rec.loc.size);
+                        readFully(channel, data.getBuffer(), rec.loc.getDataOffset());
+                        data.position(0);
+                    }
+
+                    synchronized (logLock) {
+                        // the object may have been changed in the meantime
+                        if (!rec.loc.isAt(lookup(rec.fileId, rec.objNo, rec.version)))
+                            continue;
+                        append(rec.type, rec.fileId, rec.objNo, rec.version, rec.loc.checksum, NO_VERSION,
+                            rec.loc.size, data == null ? null : data.getBuffer(), false);
+                    }
+                    relocated++;
+
+                } finally {
+                    if (data != null)
+                        BufferPool.free(data);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+
+        return relocated;
+    }
+
+    /**
+     * Checks whether a deletion record has to be kept when its segment is
+     * compacted. If the index checkpoint is lost, all segments are replayed,
+     * and a deleted object would reappear from an older segment that still
+     * contains it. Only segments with outdated records may contain deleted
+     * objects.
+     * <p>
+     * An object version that is in the index again has been written after
+     * its deletion, and its record supersedes the older ones anyway. The
+     * deletion of a file that has objects again must not be moved behind
+     * their records, as it would delete them when the segments are replayed.
+     * The caller has to hold the log lock.
+     */
+    private boolean isDeletionNeeded(Record rec, Segment seg) {
+
+        if (rec.type == DELETE_OBJECT ? lookup(rec.fileId, rec.objNo, rec.version) != null : index
+                .containsKey(rec.fileId))
+            return false;
+
+        for (Segment older : segments.values()) {
+            if (older.id >= seg.id)
+                break;
+            if (older.live < older.used - SEGMENT_HEADER_SIZE)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Appends a record to the current segment and applies it to the index. If
+     * <code>sync</code> is set, the record is forced to disk after the log
+     * lock has been released.
+     */
+    private void append(byte type, String fileId, long objNo, long version, long checksum, long replaces,
+        int size, ByteBuffer data, boolean sync) throws IOException {
+
+        final byte[] id = fileId.getBytes("UTF-8");
+        final int dataLength = data == null ? 0 : data.remaining();
+        final int recordLength = RECORD_HEADER_SIZE + id.length + dataLength;
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + id.length);
+        header.putInt(RECORD_MAGIC).putInt(0).put(type).putShort((short) id.length).putLong(objNo)
+                .putLong(version).putLong(checksum).putLong(replaces).putInt(size).putInt(dataLength).put(id);
+        header.putInt(4, crc(header.array(), id.length));
+        header.position(0);
+
+        final Segment seg;
+        final FileChannel channel;
+        final long end;
+
+        synchronized (logLock) {
+
+            if (active.used + recordLength > segmentSize && active.used > SEGMENT_HEADER_SIZE)
+                startSegment();
+
+            final long offset = active.used;
+            try {
+                seg = active;
+                channel = activeFile.getChannel();
+                channel.position(offset);
+                ByteBuffer[] bufs = data == null ? new ByteBuffer[] { header } : new ByteBuffer[] { header,
+                    data };
+                for (long remaining = recordLength; remaining > 0;)
+                    remaining -= channel.write(bufs);
+
+            } catch (IOException exc) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                    "Failed to append to segment file. Error: %s Path to the file on disk: %s", exc.getMessage(),
+                    active.path);
+                // the end of the segment is undefined now; continue with a
+                // new segment
+                try {
+                    startSegment();
+                } catch (IOException exc2) {
+                    Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                        "could not create segment file: %s", exc2.getMessage());
+                }
+                throw exc;
+            }
+
+            active.used += recordLength;
+            end = active.used;
+            apply(type, fileId, objNo, version, replaces, new Location(active.id, offset, recordLength, size,
+                type == PADDING, checksum));
+        }
+
+        if (sync) {
+            try {
+                force(seg, channel, end);
+            } catch (IOException exc) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                    "Failed to force segment file. Error: %s Path to the file on disk: %s", exc.getMessage(),
+                    seg.path);
+                throw exc;
+            }
+        }
+    }
+
+    /**
+     * Forces the records of a segment to disk, up to the given offset. The
+     * log lock must not be held by the caller. A force covers all records
+     * that have been appended before it starts, so that concurrent callers
+     * whose records are covered do not have to force the segment again.
+     */
+    private void force(Segment seg, FileChannel channel, long offset) throws IOException {
+
+        synchronized (seg) {
+
+            if (seg.sealed || seg.forced >= offset)
+                return;
+
+            final long end;
+            synchronized (logLock) {
+                end = seg.used;
+            }
+
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException exc) {
+                // the segment may have been sealed in the meantime, which
+                // forces it
+                if (!seg.sealed)
+                    throw exc;
+            }
+            seg.forced = end;
+        }
+    }
+
+    /**
+     * Applies a record to the index. The caller has to hold the log lock.
+     */
+    private void apply(byte type, String fileId, long objNo, long version, long replaces, Location loc) {
+
+        switch (type) {
+
+        case OBJECT:
+        case PADDING: {
+            Map<Long, Map<Long, Location>> file = index.get(fileId);
+            if (file == null) {
+                file = new HashMap<Long, Map<Long, Location>>();
+                index.put(fileId, file);
+            }
+            Map<Long, Location> versions = file.get(objNo);
+            if (versions == null) {
+                versions = new HashMap<Long, Location>(2);
+                file.put(objNo, versions);
+            }
+            release(versions.put(version, loc));
+            Segment seg = segments.get(loc.segment);
+            if (seg != null)
+                seg.live += loc.recordLength;
+
+            if (replaces != NO_VERSION)
+                release(versions.remove(replaces));
+            break;
+        }
+
+        case DELETE_OBJECT: {
+            Map<Long, Map<Long, Location>> file = index.get(fileId);
+            Map<Long, Location> versions = file == null ? null : file.get(objNo);
+            if (versions != null) {
+                release(versions.remove(version));
+                if (versions.isEmpty())
+                    file.remove(objNo);
+                if (file.isEmpty())
+                    index.remove(fileId);
+            }
+            break;
+        }
+
+        case DELETE_FILE: {
+            Map<Long, Map<Long, Location>> file = index.remove(fileId);
+            if (file != null)
+                for (Map<Long, Location> versions : file.values())
+                    for (Location l : versions.values())
+                        release(l);
+            break;
+        }
+        }
+    }
+
+    /**
+     * Accounts for an object version that has been removed from the index.
+     */
+    private void release(Location loc) {
+        if (loc == null)
+            return;
+        Segment seg = segments.get(loc.segment);
+        if (seg != null)
+            seg.live -= loc.recordLength;
+    }
+
+    private Location lookup(String fileId, long objNo, long version) {
+        Map<Long, Map<Long, Location>> file = index.get(fileId);
+        if (file == null)
+            return null;
+        Map<Long, Location> versions = file.get(objNo);
+        return versions == null ? null : versions.get(version);
+    }
+
+    /**
+     * Reads (part of) an object version. The caller has to hold the segment
+     * read lock.
+     */
+    private ReusableBuffer readData(Location loc, int offset, int length) throws IOException {
+
+        ReusableBuffer bbuf = BufferPool.allocate(length);
+
+        if (loc.padding) {
+            while (bbuf.hasRemaining())
+                bbuf.put((byte) 0);
+            bbuf.position(0);
+            return bbuf;
+        }
+
+        final String path = segmentPath(loc.segment);
+        final FileChannelCache channels = channelCache.get();
+        RandomAccessFile f = null;
+        CachedChannel cached = null;
+        try {
+            FileChannel channel;
+            if (channels != null) {
+                cached = channels.open(path, false);
+                if (cached == null)
+                    throw new IOException("segment file does not exist: " + path);
+                channel = cached.getChannel();
+            } else {
+                f = new RandomAccessFile(path, "r");
+                channel = f.getChannel();
+            }
+
+            readFully(channel, bbuf.getBuffer(), loc.getDataOffset() + offset);
+            bbuf.position(0);
+            return bbuf;
+
+        } catch (IOException exc) {
+            BufferPool.free(bbuf);
+            if (channels != null)
+                channels.invalidate(path);
+            Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                "Failed to read object from segment file. Error: %s Path to the file on disk: %s",
+                exc.getMessage(), path);
+            throw exc;
+        } finally {
+            if (f != null)
+                f.close();
+            if (cached != null)
+                cached.release();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0)
+                throw new IOException("unexpected end of segment file");
+            position += read;
+        }
+    }
+
+    /**
+     * Seals the current segment and starts a new one. The caller has to hold
+     * the log lock.
+     */
+    private void startSegment() throws IOException {
+
+        if (activeFile != null) {
+            try {
+                activeFile.getChannel().force(false);
+                active.sealed = true;
+            } finally {
+                activeFile.close();
+                activeFile = null;
+            }
+            sealedSinceCheckpoint++;
+        }
+
+        final int id = nextSegmentId++;
+        Segment seg = new Segment(id, segmentPath(id));
+
+        RandomAccessFile raf = new RandomAccessFile(seg.path, "rw");
+        try {
+            raf.setLength(segmentSize);
+            raf.writeLong(SEGMENT_MAGIC);
+            raf.writeInt(seg.id);
+        } catch (IOException exc) {
+            raf.close();
+            throw exc;
+        }
+
+        segments.put(seg.id, seg);
+        active = seg;
+        activeFile = raf;
+    }
+
+    private String segmentPath(int id) {
+        return segmentDir.getAbsolutePath() + "/" + String.format("%08x", id) + SEGMENT_FILE_SUFFIX;
+    }
+
+    /**
+     * Reads all valid records of a segment, starting at the given offset.
+     */
+    private List<Record> readRecords(Segment seg, FileChannel channel, long offset) throws IOException {
+
+        List<Record> records = new ArrayList<Record>();
+        final long size = channel.size();
+
+        ByteBuffer segHeader = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        if (size < SEGMENT_HEADER_SIZE)
+            return records;
+        readFully(channel, segHeader, 0);
+        segHeader.flip();
+        if (segHeader.getLong() != SEGMENT_MAGIC || segHeader.getInt() != seg.id) {
+            Logging.logMessage(Logging.LEVEL_WARN, Category.storage, this, "invalid segment header: %s",
+                seg.path);
+            return records;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + Short.MAX_VALUE);
+        while (offset + RECORD_HEADER_SIZE <= size) {
+
+            header.clear().limit(RECORD_HEADER_SIZE);
+            readFully(channel, header, offset);
+            header.flip();
+
+            if (header.getInt() != RECORD_MAGIC)
+                break;
+
+            final int crc = header.getInt();
+            final Record rec = new Record();
+            rec.type = header.get();
+            final int idLength = header.getShort();
+            rec.objNo = header.getLong();
+            rec.version = header.getLong();
+            final long checksum = header.getLong();
+            rec.replaces = header.getLong();
+            final int objSize = header.getInt();
+            final int dataLength = header.getInt();
+
+            final long recordLength = (long) RECORD_HEADER_SIZE + idLength + dataLength;
+            if (idLength < 0 || dataLength < 0 || objSize < 0 || offset + recordLength > size)
+                break;
+
+            header.limit(RECORD_HEADER_SIZE + idLength);
+            readFully(channel, header, offset + RECORD_HEADER_SIZE);
+            if (crc != crc(header.array(), idLength))
+                break;
+
+            rec.fileId = new String(header.array(), RECORD_HEADER_SIZE, idLength, "UTF-8");
+            rec.loc = new Location(seg.id, offset, (int) recordLength, objSize, rec.type == PADDING, checksum);
+            records.add(rec);
+
+            offset += recordLength;
+        }
+
+        return records;
+    }
+
+    /**
+     * Calculates the CRC of a record header, which covers all header fields
+     * after the CRC and the fileId. The object data is not covered, as it is
+     * protected by the object checksums (if enabled), like in the
+     * {@link HashStorageLayout}.
+     */
+    private static int crc(byte[] header, int idLength) {
+        CRC32 crc = new CRC32();
+        crc.update(header, 8, RECORD_HEADER_SIZE - 8 + idLength);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Loads the index checkpoint and replays all records that have been
+     * appended afterwards. The caller has to hold the log lock.
+     */
+    private void recover() throws IOException {
+
+        final long start = System.currentTimeMillis();
+
+        int replaySegment = -1;
+        long replayOffset = SEGMENT_HEADER_SIZE;
+
+        File ckpt = new File(segmentDir, CHECKPOINT_FILENAME);
+        if (ckpt.exists()) {
+            try {
+                long[] pos = loadCheckpoint(ckpt);
+                replaySegment = (int) pos[0];
+                replayOffset = pos[1];
+            } catch (IOException exc) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                    "could not load index checkpoint, replaying all segments: %s", exc.getMessage());
+                index.clear();
+                segments.clear();
+            }
+        }
+
+        // determine the existing segment files
+        TreeMap<Integer, String> files = new TreeMap<Integer, String>();
+        String[] names = segmentDir.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (!name.endsWith(SEGMENT_FILE_SUFFIX))
+                continue;
+            try {
+                files.put((int) Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length()),
+                    16), name);
+            } catch (NumberFormatException exc) {
+                Logging.logMessage(Logging.LEVEL_WARN, Category.storage, this,
+                    "ignoring unknown file in segment directory: %s", name);
+            }
+        }
+
+        int numReplayed = 0;
+        for (int id : files.keySet()) {
+
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            if (id < replaySegment) {
+                // segments that are not part of the checkpoint have been
+                // compacted before
+                if (!segments.containsKey(id))
+                    new File(segmentPath(id)).delete();
+                continue;
+            }
+
+            Segment seg = segments.get(id);
+            if (seg == null) {
+                seg = new Segment(id, segmentPath(id));
+                segments.put(id, seg);
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(seg.path, "r");
+            try {
+                List<Record> records = readRecords(seg, raf.getChannel(), id == replaySegment ? replayOffset
+                    : SEGMENT_HEADER_SIZE);
+                for (Record rec : records)
+                    apply(rec.type, rec.fileId, rec.objNo, rec.version, rec.replaces, rec.loc);
+                if (!records.isEmpty()) {
+                    Location last = records.get(records.size() - 1).loc;
+                    seg.used = last.offset + last.recordLength;
+                } else if (id != replaySegment)
+                    seg.used = SEGMENT_HEADER_SIZE;
+                numReplayed += records.size();
+            } finally {
+                raf.close();
+            }
+        }
+
+        for (Segment seg : segments.values())
+            if (!files.containsKey(seg.id))
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this, "segment file is missing: %s",
+                    seg.path);
+
+        // appends always start in a new segment, since the end of the last
+        // segment may be incomplete
+        startSegment();
+        sealedSinceCheckpoint = numReplayed > 0 ? 1 : 0;
+
+        Logging.logMessage(Logging.LEVEL_INFO, Category.storage, this,
+            "loaded index of %d files in %d segments (%d records replayed) in %d ms", index.size(), segments
+                    .size(), numReplayed, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Loads the index checkpoint. The caller has to hold the log lock.
+     *
+     * @return the segment and offset from which on records have to be
+     *         replayed
+     */
+    private long[] loadCheckpoint(File ckpt) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ckpt)));
+        try {
+            if (in.readLong() != CHECKPOINT_MAGIC || in.readInt() != FORMAT_VERSION)
+                throw new IOException("invalid header");
+
+            final int replaySegment = in.readInt();
+            final long replayOffset = in.readLong();
+
+            for (int i = in.readInt(); i > 0; i--) {
+                final int id = in.readInt();
+                Segment seg = new Segment(id, segmentPath(id));
+                seg.used = in.readLong();
+                segments.put(seg.id, seg);
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                final String fileId = in.readUTF();
+                for (int j = in.readInt(); j > 0; j--) {
+                    final long objNo = in.readLong();
+                    final long version = in.readLong();
+                    Location loc = new Location(in.readInt(), in.readLong(), in.readInt(), in.readInt(), in
+                            .readBoolean(), in.readLong());
+                    apply(loc.padding ? PADDING : OBJECT, fileId, objNo, version, NO_VERSION, loc);
+                }
+            }
+
+            if (in.readLong() != CHECKPOINT_MAGIC)
+                throw new IOException("incomplete checkpoint");
+
+            return new long[] { replaySegment, replayOffset };
+
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the complete index to the checkpoint file. The index is copied
+     * while holding the log lock, and written afterwards, so that reads and
+     * writes are not blocked while the checkpoint is written.
+     */
+    private void checkpoint() throws IOException {
+
+        synchronized (checkpointLock) {
+
+            final int replaySegment;
+            final long replayOffset;
+            final Segment activeSegment;
+            final FileChannel activeChannel;
+            final long[][] segmentTable;
+            final List<FileSnapshot> files;
+
+            synchronized (logLock) {
+
+                // all records appended from now on will be replayed
+                replaySegment = active.id;
+                replayOffset = active.used;
+                activeSegment = active;
+                activeChannel = activeFile.getChannel();
+
+                segmentTable = new long[segments.size()][];
+                int i = 0;
+                for (Segment seg : segments.values())
+                    segmentTable[i++] = new long[] { seg.id, seg.used };
+
+                files = new ArrayList<FileSnapshot>(index.size());
+                for (Entry<String, Map<Long, Map<Long, Location>>> file : index.entrySet())
+                    files.add(new FileSnapshot(file.getKey(), file.getValue()));
+
+                sealedSinceCheckpoint = 0;
+            }
+
+            // the checkpoint may only refer to records on disk
+            force(activeSegment, activeChannel, replayOffset);
+
+            File ckpt = new File(segmentDir, CHECKPOINT_FILENAME);
+            File tmp = new File(segmentDir, CHECKPOINT_FILENAME + ".tmp");
+
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+
+                out.writeLong(CHECKPOINT_MAGIC);
+                out.writeInt(FORMAT_VERSION);
+
+                out.writeInt(replaySegment);
+                out.writeLong(replayOffset);
+
+                out.writeInt(segmentTable.length);
+                for (long[] seg : segmentTable) {
+                    out.writeInt((int) seg[0]);
+                    out.writeLong(seg[1]);
+                }
+
+                out.writeInt(files.size());
+                for (FileSnapshot file : files) {
+                    out.writeUTF(file.fileId);
+                    out.writeInt(file.locations.length);
+                    for (int i = 0; i < file.locations.length; i++) {
+                        Location loc = file.locations[i];
+                        out.writeLong(file.objNos[i]);
+                        out.writeLong(file.versions[i]);
+                        out.writeInt(loc.segment);
+                        out.writeLong(loc.offset);
+                        out.writeInt(loc.recordLength);
+                        out.writeInt(loc.size);
+                        out.writeBoolean(loc.padding);
+                        out.writeLong(loc.checksum);
+                    }
+                }
+
+                out.writeLong(CHECKPOINT_MAGIC);
+
+                out.flush();
+                fos.getFD().sync();
+
+            } finally {
+                fos.close();
+            }
+
+            if (!tmp.renameTo(ckpt)) {
+                tmp.delete();
+                throw new IOException("could not write index checkpoint " + ckpt);
+            }
+        }
+    }
+
+    private long calcChecksum(ReusableBuffer data) {
+        if (!checksumsEnabled)
+            return 0;
+        checksumAlgo.reset();
+        checksumAlgo.update(data.getBuffer());
+        return checksumAlgo.getValue();
+    }
+
+    /**
+     * Computes the size of a file for the cleanup, like
+     * {@link HashStorageLayout#getFileList(FileList, int)}. The caller has to
+     * hold the log lock.
+     */
+    private FileData getFileData(Map<Long, Map<Long, Location>> file) {
+
+        if (file == null)
+            return null;
+
+        long newestVersion = -1;
+        long firstObjNo = -1;
+        long lastObjNo = -1;
+        int objectSize = 0;
+        int lastSize = 0;
+        int firstSize = 0;
+
+        for (Entry<Long, Map<Long, Location>> obj : file.entrySet()) {
+            for (Entry<Long, Location> ver : obj.getValue().entrySet()) {
+
+                final long objNo = obj.getKey();
+                final int size = ver.getValue().size;
+
+                if (ver.getKey() > newestVersion) {
+                    newestVersion = ver.getKey();
+                    firstObjNo = lastObjNo = objNo;
+                    firstSize = lastSize = objectSize = size;
+                } else if (ver.getKey() == newestVersion) {
+                    if (objNo < firstObjNo) {
+                        firstObjNo = objNo;
+                        firstSize = size;
+                    } else if (objNo > lastObjNo) {
+                        lastObjNo = objNo;
+                        lastSize = size;
+                    }
+                    objectSize = Math.max(objectSize, size);
+                }
+            }
+        }
+
+        final long fileSize = (lastObjNo == 1) ? firstSize : ((long) objectSize * lastObjNo) + lastSize;
+        return new FileData(fileSize, objectSize / 1024);
+    }
+
+    private void createFileDir(String fileId) {
+        File fileDir = new File(generateAbsoluteFilePath(fileId));
+        if (!fileDir.exists())
+            fileDir.mkdirs();
+    }
+
+    /**
+     * Periodically compacts the segments and writes checkpoints, as long as
+     * storage threads are registered.
+     */
+    private final class CompactionThread extends LifeCycleThread {
+
+        private boolean quit;
+
+        CompactionThread() {
+            super("SegCompThr");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+
+            notifyStarted();
+
+            while (true) {
+
+                // the thread must not be interrupted while accessing
+                // segment files, as this would close the channels
+                synchronized (this) {
+                    if (!quit) {
+                        try {
+                            wait(COMPACTION_INTERVAL_MS);
+                        } catch (InterruptedException exc) {
+                            // ignore
+                        }
+                    }
+                    if (quit)
+                        break;
+                }
+
+                try {
+                    compact();
+                } catch (IOException exc) {
+                    Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                        "segment compaction failed: %s", exc.getMessage());
+                }
+            }
+
+            notifyStopped();
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (this) {
+                quit = true;
+                notifyAll();
+            }
+            try {
+                join();
+            } catch (InterruptedException exc) {
+                // ignore
+            }
+        }
+    }
+
+}
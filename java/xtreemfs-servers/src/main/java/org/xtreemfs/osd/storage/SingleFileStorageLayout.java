@@ -8,14 +8,13 @@
 package org.xtreemfs.osd.storage;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
@@ -93,11 +92,11 @@ public class SingleFileStorageLayout extends StorageLayout {
     @Override
     protected FileMetadata loadFileMetadata(String fileId, StripingPolicyImpl sp) throws IOException {
         FileMetadata fi = new FileMetadata(sp);
-        Map<Long,Long> tmp = new HashMap();
+        ObjectVersionMap tmp = new ObjectVersionMap(sp);
         fi.initLatestObjectVersions(tmp);
         fi.initLargestObjectVersions(tmp);
         if (checksumsEnabled)
-            fi.initObjectChecksums(new HashMap());
+            fi.initObjectChecksums(new ObjectChecksumTable(sp));
 
         File f = new File(getFilePath(fileId)+DATA_SUFFIX);
         
@@ -247,6 +246,16 @@ public class SingleFileStorageLayout extends StorageLayout {
         md.updateObjectVersion(objNo, newVersion);     
     }
 
+    @Override
+    public void syncObject(String fileId, FileMetadata md, long objNo, long version) throws IOException {
+        if (!fileExists(fileId))
+            throw new FileNotFoundException("file to synchronize does not exist: " + fileId);
+        // all objects of the file are forced together
+        openHandles(md, fileId);
+        for (RandomAccessFile f : md.getHandles())
+            f.getChannel().force(false);
+    }
+
     private void writeMDRecord(FileMetadata md, RandomAccessFile mdfile, long objNo, long version, long checksum) throws IOException {
         long seekPos = objNo*MDRECORD_SIZE;
         if (md.getMdFileLength() <= seekPos) {
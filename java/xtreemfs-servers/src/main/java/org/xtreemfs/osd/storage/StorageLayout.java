@@ -171,6 +171,23 @@ public abstract class StorageLayout {
     public void closeFile(FileMetadata metadata) {
         //do nothing
     }
+
+    /**
+     * Must be called by a thread that regularly accesses objects (i.e. a
+     * storage thread) before its first access. Allows the layout to keep
+     * per-thread state, like open files.
+     */
+    public void registerThread() {
+        //do nothing
+    }
+
+    /**
+     * Must be called by a thread registered with {@link #registerThread()}
+     * before it terminates.
+     */
+    public void unregisterThread() {
+        //do nothing
+    }
     
     /**
      * Reads a complete object from the storage device.
@@ -195,6 +212,22 @@ public abstract class StorageLayout {
     public abstract ObjectInformation readObject(String fileId, FileMetadata md, long objNo, int offset,
         int length, long version) throws IOException;
     
+    /**
+     * Reads a partial object like {@link #readObject}, but may return the data
+     * as a region of the object file (see
+     * {@link ObjectInformation#getFileRegion()}) that can be sent to a socket
+     * without copying it. The caller is responsible for releasing the region.
+     * <p>
+     * A region must not be affected by later writes to the object. Layouts
+     * that cannot provide such file regions return the data in a buffer.
+     * 
+     * @see #readObject(String, FileMetadata, long, int, int, long)
+     */
+    public ObjectInformation readObjectRegion(String fileId, FileMetadata md, long objNo, int offset,
+        int length, long version) throws IOException {
+        return readObject(fileId, md, objNo, offset, length, version);
+    }
+    
     /**
      * Writes a partial object to the storage device.
      * 
@@ -220,6 +253,24 @@ public abstract class StorageLayout {
     public abstract void writeObject(String fileId, FileMetadata md, ReusableBuffer data, long objNo,
         int offset, long newVersion, boolean sync, boolean cow) throws IOException;
     
+    /**
+     * Forces an object version that has been written without synchronization
+     * to the storage device.
+     * 
+     * @param fileId
+     *            fileId of the object
+     * @param md
+     *            file metadata
+     * @param objNo
+     *            object number
+     * @param version
+     *            version of the object
+     * @throws java.io.IOException
+     *             when the object cannot be written or does not exist
+     */
+    public abstract void syncObject(String fileId, FileMetadata md, long objNo, long version)
+        throws IOException;
+    
     /**
      * Truncates an object on the storage device.
      * 
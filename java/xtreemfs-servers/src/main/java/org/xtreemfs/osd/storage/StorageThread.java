@@ -9,12 +9,15 @@
 
 package org.xtreemfs.osd.storage;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.xtreemfs.common.quota.FinalizeVoucherResponseHelper;
 import org.xtreemfs.common.uuids.ServiceUUID;
@@ -102,6 +105,19 @@ public class StorageThread extends Stage {
     
     private final boolean        checksumsEnabled;
     
+    /**
+     * maximum time for which synchronous writes are deferred in order to be
+     * forced to disk together; 0 if group commit is disabled
+     */
+    private final long           groupCommitMaxDelayNanos;
+    
+    /**
+     * synchronous writes that have been written but not forced to disk yet
+     */
+    private final List<PendingSyncWrite> pendingSyncWrites;
+    
+    private long                 pendingSyncWritesSince;
+    
     public StorageThread(int id, OSDRequestDispatcher dispatcher, MetadataCache cache, StorageLayout layout,
         int maxQueueLength) {
         
@@ -111,8 +127,57 @@ public class StorageThread extends Stage {
         this.layout = layout;
         this.master = dispatcher;
         this.checksumsEnabled = master.getConfig().isUseChecksums();
+        this.groupCommitMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(master.getConfig()
+                .getGroupCommitMaxDelay());
+        this.pendingSyncWrites = new ArrayList<PendingSyncWrite>();
     }
     
+    @Override
+    public void run() {
+        
+        layout.registerThread();
+        notifyStarted();
+        
+        final List<StageRequest> batch = new ArrayList<StageRequest>(MAX_BATCH_SIZE);
+        try {
+            while (!quit) {
+                try {
+                    if (pendingSyncWrites.isEmpty())
+                        batch.add(q.take());
+                    q.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                    
+                    // pending synchronous writes are committed as soon as no
+                    // further requests are queued that could share the force
+                    if (batch.isEmpty()) {
+                        commitSyncWrites();
+                        continue;
+                    }
+                    
+                    for (int i = 0; i < batch.size(); i++) {
+                        processRequest(batch.get(i));
+                        if (!pendingSyncWrites.isEmpty()
+                            && System.nanoTime() - pendingSyncWritesSince >= groupCommitMaxDelayNanos)
+                            commitSyncWrites();
+                    }
+                    batch.clear();
+                    
+                } catch (InterruptedException ex) {
+                    break;
+                } catch (Throwable ex) {
+                    this.notifyCrashed(ex);
+                    break;
+                }
+            }
+            
+            commitSyncWrites();
+            
+        } finally {
+            layout.unregisterThread();
+        }
+        
+        notifyStopped();
+    }
+
     @Override
     protected void processMethod(StageRequest method) {
         
@@ -126,6 +191,9 @@ public class StorageThread extends Stage {
                 processWrite(method);
                 break;
             case STAGEOP_TRUNCATE:
+                // pending synchronous writes may refer to object versions
+                // which are removed
+                commitSyncWrites();
                 processTruncate(method);
                 break;
             case STAGEOP_FLUSH_CACHES:
@@ -159,6 +227,7 @@ public class StorageThread extends Stage {
                 processGetFileIDList(method);
                 break;
             case STAGEOP_DELETE_OBJECTS:
+                commitSyncWrites();
                 processDeleteObjects(method);
                 break;
             case STAGEOP_FINALIZE_VOUCHERS:
@@ -172,6 +241,62 @@ public class StorageThread extends Stage {
         }
     }
 
+    /**
+     * Forces all pending synchronous writes to disk and acknowledges them. Each
+     * object version is forced only once per batch.
+     */
+    private void commitSyncWrites() {
+        
+        if (pendingSyncWrites.isEmpty())
+            return;
+        
+        // object version -> error, or null if successfully forced
+        final HashMap<String, IOException> synced = new HashMap<String, IOException>();
+        for (PendingSyncWrite write : pendingSyncWrites) {
+            final String key = write.fileId + ":" + write.objNo + ":" + write.version;
+            if (synced.containsKey(key))
+                continue;
+            
+            IOException error = null;
+            try {
+                syncObject(write);
+            } catch (IOException ex) {
+                Logging.logMessage(Logging.LEVEL_ERROR, Category.storage, this,
+                    "Failed to force object %s-%d to disk: %s", write.fileId, write.objNo, ex.toString());
+                error = ex;
+            }
+            synced.put(key, error);
+        }
+        
+        if (Logging.isDebug())
+            Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this,
+                "committed %d synchronous writes of %d objects", pendingSyncWrites.size(), synced.size());
+        
+        for (PendingSyncWrite write : pendingSyncWrites) {
+            final IOException error = synced.get(write.fileId + ":" + write.objNo + ":" + write.version);
+            if (error == null)
+                write.callback.writeComplete(write.response, null);
+            else
+                write.callback.writeComplete(null, ErrorUtils.getErrorResponse(ErrorType.ERRNO,
+                    POSIXErrno.POSIX_ERROR_EIO, error.toString()));
+        }
+        
+        pendingSyncWrites.clear();
+    }
+    
+    private void syncObject(PendingSyncWrite write) throws IOException {
+        try {
+            layout.syncObject(write.fileId, write.md, write.objNo, write.version);
+        } catch (FileNotFoundException ex) {
+            // the version may have been replaced by a later write to the
+            // object (e.g. if checksums are enabled), which contains its data
+            final long largestVersion = write.md.getLargestObjectVersion(write.objNo);
+            if (largestVersion <= write.version)
+                throw ex;
+            layout.syncObject(write.fileId, write.md, write.objNo, largestVersion);
+        }
+    }
+    
     private void processGetMaxObjNo(StageRequest rq) {
         final InternalGetMaxObjectNoCallback cback = (InternalGetMaxObjectNoCallback) rq.getCallback();
         try {
@@ -372,6 +497,7 @@ public class StorageThread extends Stage {
             final int offset = (Integer) rq.getArgs()[3];
             final int length = (Integer) rq.getArgs()[4];
             final long versionTimestamp = (Long) rq.getArgs()[5];
+            final boolean zeroCopy = (Boolean) rq.getArgs()[6];
             
             final FileMetadata fi = layout.getFileMetadata(sp, fileId);
             // final boolean rangeRequested = (offset > 0) || (length <
@@ -395,7 +521,8 @@ public class StorageThread extends Stage {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this, "checksum is %d", objChksm);
             }
             
-            ObjectInformation obj = layout.readObject(fileId, fi, objNo, offset, length, objVer);
+            ObjectInformation obj = zeroCopy ? layout.readObjectRegion(fileId, fi, objNo, offset, length, objVer)
+                : layout.readObject(fileId, fi, objNo, offset, length, objVer);
             
             if (versionTimestamp != 0) {
                 int lastObj = fi.getVersionTable().getLatestVersionBefore(versionTimestamp).getObjCount() - 1;
@@ -538,7 +665,11 @@ public class StorageThread extends Stage {
                 fi.setLastObjectNumber(objNo);
             }
             
-            layout.writeObject(fileId, fi, data, objNo, offset, newVersion, syncWrite, isCow);
+            // with group commit, synchronous writes are forced to disk and
+            // acknowledged later on
+            final boolean deferSync = syncWrite && groupCommitMaxDelayNanos > 0;
+            
+            layout.writeObject(fileId, fi, data, objNo, offset, newVersion, syncWrite && !deferSync, isCow);
             
             // if a new version was created, update the "latest versions" file
             if (cow.cowEnabled() && (isCow || largestV == 0))
@@ -621,7 +752,13 @@ public class StorageThread extends Stage {
                 Logging.logMessage(Logging.LEVEL_DEBUG, Category.proc, this, "new last object=%d gmax=%d", fi
                         .getLastObjectNumber(), fi.getGlobalLastObjectNumber());
             // BufferPool.free(data);
-            cback.writeComplete(response.build(), null);
+            if (deferSync) {
+                if (pendingSyncWrites.isEmpty())
+                    pendingSyncWritesSince = System.nanoTime();
+                pendingSyncWrites.add(new PendingSyncWrite(fileId, fi, objNo, newVersion, response.build(), cback));
+            } else {
+                cback.writeComplete(response.build(), null);
+            }
             
         } catch (IOException ex) {
             Logging.logMessage(Logging.LEVEL_DEBUG, Category.storage, this, "Failed to process write() request due to the following IOException:");
@@ -1110,4 +1247,29 @@ public class StorageThread extends Stage {
         int size, FileMetadata fi) throws IOException {
         layout.createPaddingObject(fileId, fi, objNo, version, size);
     }
+    private static final class PendingSyncWrite {
+        
+        final String              fileId;
+        
+        final FileMetadata        md;
+        
+        final long                objNo;
+        
+        final long                version;
+        
+        final OSDWriteResponse    response;
+        
+        final WriteObjectCallback callback;
+        
+        PendingSyncWrite(String fileId, FileMetadata md, long objNo, long version, OSDWriteResponse response,
+            WriteObjectCallback callback) {
+            this.fileId = fileId;
+            this.md = md;
+            this.objNo = objNo;
+            this.version = version;
+            this.response = response;
+            this.callback = callback;
+        }
+    }
+    
 }
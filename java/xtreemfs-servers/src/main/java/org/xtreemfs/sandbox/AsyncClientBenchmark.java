@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xtreemfs.common.libxtreemfs.AsyncResult;
+import org.xtreemfs.common.libxtreemfs.AsyncResultListener;
+import org.xtreemfs.common.libxtreemfs.Client;
+import org.xtreemfs.common.libxtreemfs.ClientFactory;
+import org.xtreemfs.common.libxtreemfs.FileHandle;
+import org.xtreemfs.common.libxtreemfs.Options;
+import org.xtreemfs.common.libxtreemfs.Volume;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
+
+/**
+ * Reads random blocks of a file with a fixed number of outstanding requests, once with one thread per
+ * outstanding request using the synchronous FileHandle.read(), and once from a single thread using
+ * FileHandle.readAsync().
+ */
+public class AsyncClientBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 2 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.out.println("usage: AsyncClientBenchmark <dirAddress> <volume> [numRequests] [blockSizeKB] "
+                    + "[outstandingRequests] [fileSizeMB]");
+            System.exit(1);
+        }
+
+        final String dirAddress = args[0];
+        final String volumeName = args[1];
+        final int numRequests = (args.length > 2) ? Integer.valueOf(args[2]) : 10000;
+        final int blockSize = ((args.length > 3) ? Integer.valueOf(args[3]) : 4) * 1024;
+        final int outstanding = (args.length > 4) ? Integer.valueOf(args[4]) : 64;
+        final long fileSize = ((args.length > 5) ? Long.valueOf(args[5]) : 64) * 1024 * 1024;
+        final String fileName = "/asyncClientBenchmark.bin";
+
+        Logging.start(Logging.LEVEL_ERROR, Category.all);
+
+        final UserCredentials userCredentials = UserCredentials.newBuilder().setUsername("bench")
+                .addGroups("bench").build();
+        Options options = new Options();
+        options.setMetadataCacheSize(0);
+        Client client = ClientFactory.createClient(dirAddress, userCredentials, null, options);
+        client.start();
+        try {
+            Volume volume = client.openVolume(volumeName, null, options);
+            final FileHandle fileHandle = volume.openFile(userCredentials, fileName,
+                    SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                            | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0644);
+
+            // create the file
+            long t0 = System.currentTimeMillis();
+            byte[] chunk = new byte[1024 * 1024];
+            for (long offset = 0; offset < fileSize; offset += chunk.length) {
+                fileHandle.write(userCredentials, chunk, (int) Math.min(chunk.length, fileSize - offset), offset);
+            }
+            fileHandle.flush();
+            System.out.format("wrote %d MB in %d ms%n", fileSize / 1024 / 1024, System.currentTimeMillis() - t0);
+            final long numBlocks = fileSize / blockSize;
+
+            // one thread per outstanding request
+            final AtomicInteger nextRequest = new AtomicInteger();
+            final AtomicReference<IOException> syncError = new AtomicReference<IOException>();
+            Thread[] threads = new Thread[outstanding];
+            t0 = System.currentTimeMillis();
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        byte[] data = new byte[blockSize];
+                        int request;
+                        while ((request = nextRequest.getAndIncrement()) < numRequests) {
+                            try {
+                                fileHandle.read(userCredentials, data, blockSize, blockOffset(request, numBlocks,
+                                        blockSize));
+                            } catch (IOException e) {
+                                syncError.set(e);
+                                return;
+                            }
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long syncTime = System.currentTimeMillis() - t0;
+            if (syncError.get() != null) {
+                throw syncError.get();
+            }
+            print("sync", numRequests, blockSize, outstanding, syncTime);
+
+            // one thread keeps all requests outstanding, each with its own buffer
+            final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(outstanding);
+            for (int i = 0; i < outstanding; i++) {
+                buffers.add(new byte[blockSize]);
+            }
+            final AtomicReference<IOException> asyncError = new AtomicReference<IOException>();
+            t0 = System.currentTimeMillis();
+            for (int request = 0; request < numRequests && asyncError.get() == null; request++) {
+                final byte[] data = buffers.take();
+                fileHandle.readAsync(userCredentials, data, 0, blockSize, blockOffset(request, numBlocks, blockSize))
+                        .registerListener(new AsyncResultListener<Integer>() {
+                            @Override
+                            public void resultAvailable(AsyncResult<Integer> result) {
+                                try {
+                                    result.get();
+                                } catch (Exception e) {
+                                    asyncError.set(e.getCause() instanceof IOException ? (IOException) e
+                                            .getCause() : new IOException(e));
+                                }
+                                buffers.add(data);
+                            }
+                        });
+            }
+            for (int i = 0; i < outstanding; i++) {
+                buffers.take();
+            }
+            long asyncTime = System.currentTimeMillis() - t0;
+            if (asyncError.get() != null) {
+                throw asyncError.get();
+            }
+            print("async", numRequests, blockSize, 1, asyncTime);
+
+            fileHandle.close();
+            volume.unlink(userCredentials, fileName);
+            volume.close();
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    /**
+     * Returns the offset of a pseudo-random block that is the same in both runs.
+     */
+    private static long blockOffset(int request, long numBlocks, int blockSize) {
+        return ((request * 2654435761L) & Long.MAX_VALUE) % numBlocks * blockSize;
+    }
+
+    private static void print(String mode, int numRequests, int blockSize, int threads, long time) {
+        System.out.format("%s: %d reads of %d KB with %d threads in %d ms (%.0f reads/s, %.1f MB/s)%n", mode,
+                numRequests, blockSize / 1024, threads, time, numRequests * 1000.0 / Math.max(time, 1),
+                (double) numRequests * blockSize / 1024 / 1024 * 1000.0 / Math.max(time, 1));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.sandbox;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+
+/**
+ * Measures the throughput of the {@link BufferPool} with an increasing number of threads. Every thread allocates
+ * buffers of random sizes, keeps a few of them and frees the oldest one, like a stage which processes several
+ * requests at a time.
+ *
+ * The pool can only be configured before the first allocation, so each run measures one thread cache size. Run
+ * it with a thread cache size of 0 to compare with all threads using the shared depots directly.
+ */
+public class BufferPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.out.println("usage: BufferPoolBenchmark [threadCacheSize] [maxThreads] [durationS] "
+                    + "[buffersPerThread]");
+            System.exit(1);
+        }
+
+        final int threadCacheSize = (args.length > 0) ? Integer.valueOf(args[0])
+                : BufferPool.DEFAULT_THREAD_CACHE_SIZE;
+        final int maxThreads = (args.length > 1) ? Integer.valueOf(args[1]) : 16;
+        final int durationS = (args.length > 2) ? Integer.valueOf(args[2]) : 5;
+        final int buffersPerThread = (args.length > 3) ? Integer.valueOf(args[3]) : 4;
+
+        // mostly small requests, now and then an object
+        final int[] requestSizes = { 1024, 4096, 8192, 8192, 16384, 65536, 131072, 131072 };
+
+        BufferPool.configure(BufferPool.BUFF_SIZES, threadCacheSize, BufferPool.DEFAULT_MAX_POOLED_BYTES);
+
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+            final AtomicLong operations = new AtomicLong();
+            final CountDownLatch start = new CountDownLatch(1);
+            final long end = System.currentTimeMillis() + durationS * 1000L;
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; t++) {
+                final Random random = new Random(t);
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        ReusableBuffer[] held = new ReusableBuffer[buffersPerThread];
+                        long ops = 0;
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        while ((ops & 0xFFF) != 0 || System.currentTimeMillis() < end) {
+                            int slot = (int) (ops % buffersPerThread);
+                            if (held[slot] != null) {
+                                BufferPool.free(held[slot]);
+                            }
+                            held[slot] = BufferPool.allocate(requestSizes[random.nextInt(requestSizes.length)]);
+                            ops++;
+                        }
+                        for (ReusableBuffer buf : held) {
+                            if (buf != null) {
+                                BufferPool.free(buf);
+                            }
+                        }
+                        operations.addAndGet(ops);
+                    }
+                };
+                threads[t].start();
+            }
+
+            long t0 = System.currentTimeMillis();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long time = System.currentTimeMillis() - t0;
+
+            System.out.format("thread cache %2d, %2d threads: %,d allocations in %d ms (%,.0f ops/s), "
+                    + "%,d bytes direct memory%n", threadCacheSize, numThreads, operations.get(), time,
+                    operations.get() * 1000.0 / Math.max(time, 1), BufferPool.getAllocatedDirectMemory());
+        }
+    }
+}
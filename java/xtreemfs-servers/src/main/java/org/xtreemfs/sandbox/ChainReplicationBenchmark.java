@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.ReplicaUpdatePolicies;
+import org.xtreemfs.dir.DIRConfig;
+import org.xtreemfs.dir.DIRRequestDispatcher;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCNIOSocketClient;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.foundation.util.OutputUtils;
+import org.xtreemfs.osd.OSD;
+import org.xtreemfs.osd.OSDConfig;
+import org.xtreemfs.osd.rwre.RWReplicationStage;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Compares the write throughput and the number of bytes sent by the primary
+ * for writes which the primary sends to each backup (fan-out) and writes which
+ * are forwarded along the chain of backups (rwr.chain_replication). All OSDs
+ * run locally, so the throughput is limited by the loopback device and the
+ * disks rather than by the NIC of the primary; the bytes sent by the primary
+ * show the load its NIC would have to carry.
+ * <p>
+ * The benchmark starts a DIR and the OSDs in-process, with their databases
+ * and objects in the given directory, which is deleted before each run.
+ */
+public class ChainReplicationBenchmark {
+
+    private static final String fileId   = "ABCDEF:1";
+
+    private static final int    DIR_PORT = 32638;
+
+    private static final int    OSD_PORT = 32640;
+
+    private static final String SECRET   = "benchmark";
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 1 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.out.println("usage: ChainReplicationBenchmark <test dir> [numReplicas] [numObjects] "
+                    + "[objectSizeKB] [writesInFlight] [updatePolicy]");
+            System.exit(1);
+        }
+
+        final String testDir = args[0];
+        final int numReplicas = (args.length > 1) ? Integer.valueOf(args[1]) : 3;
+        final int numObjects = (args.length > 2) ? Integer.valueOf(args[2]) : 2000;
+        final int objectSizeKB = (args.length > 3) ? Integer.valueOf(args[3]) : 128;
+        final int writesInFlight = (args.length > 4) ? Integer.valueOf(args[4]) : 8;
+        final String updatePolicy = (args.length > 5) ? args[5] : ReplicaUpdatePolicies.REPL_UPDATE_PC_WARONE;
+
+        Logging.start(Logging.LEVEL_ERROR, Category.all);
+
+        for (boolean chain : new boolean[] { false, true }) {
+            run(testDir, chain, numReplicas, numObjects, objectSizeKB, writesInFlight, updatePolicy);
+        }
+    }
+
+    private static void run(String testDir, boolean chain, int numReplicas, int numObjects, int objectSizeKB,
+            int writesInFlight, String updatePolicy) throws Exception {
+
+        FSUtils.delTree(new File(testDir));
+        new File(testDir).mkdirs();
+
+        DIRRequestDispatcher dir = new DIRRequestDispatcher(createDIRConfig(), createDIRdbsConfig(testDir));
+        dir.startup();
+        dir.waitForStartup();
+
+        RPCNIOSocketClient rpcClient = new RPCNIOSocketClient(null, 10000, 5 * 60 * 1000,
+                "ChainReplicationBenchmark");
+        rpcClient.start();
+        rpcClient.waitForStartup();
+
+        OSDConfig[] configs = new OSDConfig[numReplicas];
+        OSD[] osds = new OSD[numReplicas];
+        InetSocketAddress[] addrs = new InetSocketAddress[numReplicas];
+
+        try {
+            for (int i = 0; i < osds.length; i++) {
+                configs[i] = createOSDConfig(testDir, i, chain);
+                osds[i] = new OSD(configs[i]);
+                addrs[i] = new InetSocketAddress("localhost", configs[i].getPort());
+            }
+
+            Capability cap = new Capability(fileId, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_TRUNC.getNumber()
+                    | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 3600, System.currentTimeMillis(), "", 0,
+                    false, SnapConfig.SNAP_CONFIG_SNAPS_DISABLED, 0, configs[0].getCapabilitySecret());
+            List<Replica> rlist = new LinkedList<Replica>();
+            for (OSDConfig osd : configs) {
+                rlist.add(Replica.newBuilder().setStripingPolicy(StripingPolicy.newBuilder()
+                        .setType(StripingPolicyType.STRIPING_POLICY_RAID0).setStripeSize(objectSizeKB).setWidth(1))
+                        .setReplicationFlags(0).addOsdUuids(osd.getUUID().toString()).build());
+            }
+            XLocSet locSet = XLocSet.newBuilder().setReadOnlyFileSize(0).setReplicaUpdatePolicy(updatePolicy)
+                    .setVersion(1).addAllReplicas(rlist).build();
+            final FileCredentials fc = FileCredentials.newBuilder().setXcap(cap.getXCap()).setXlocs(locSet).build();
+            final ObjectData objdata = ObjectData.newBuilder().setChecksum(0).setZeroPadding(0)
+                    .setInvalidChecksumOnOsd(false).build();
+            final OSDServiceClient client = new OSDServiceClient(rpcClient, null);
+
+            // the first write acquires the lease and makes the first OSD the primary
+            RPCResponse<OSDWriteResponse> r = client.write(addrs[0], RPCAuthentication.authNone,
+                    RPCAuthentication.userService, fc, fileId, 0, 0, 0, 0, objdata, newObject(objectSizeKB));
+            r.get();
+            r.freeBuffers();
+
+            final RWReplicationStage primary = osds[0].getDispatcher().getRWReplicationStage();
+            final long sentBefore = getBytesSent(primary, addrs);
+
+            final Semaphore inFlight = new Semaphore(writesInFlight);
+            final AtomicReference<Exception> error = new AtomicReference<Exception>();
+            final RPCResponseAvailableListener<OSDWriteResponse> listener = new RPCResponseAvailableListener<OSDWriteResponse>() {
+                @Override
+                public void responseAvailable(RPCResponse<OSDWriteResponse> r) {
+                    try {
+                        r.get();
+                    } catch (Exception ex) {
+                        error.compareAndSet(null, ex);
+                    } finally {
+                        r.freeBuffers();
+                        inFlight.release();
+                    }
+                }
+            };
+
+            long t0 = System.currentTimeMillis();
+            for (int i = 1; i <= numObjects && error.get() == null; i++) {
+                inFlight.acquire();
+                r = client.write(addrs[0], RPCAuthentication.authNone, RPCAuthentication.userService, fc, fileId,
+                        i, 0, 0, 0, objdata, newObject(objectSizeKB));
+                r.registerListener(listener);
+            }
+            inFlight.acquire(writesInFlight);
+            long time = System.currentTimeMillis() - t0;
+
+            if (error.get() != null)
+                throw error.get();
+
+            final long bytes = (long) numObjects * objectSizeKB * 1024;
+            final long sent = getBytesSent(primary, addrs) - sentBefore;
+            System.out.format("%-8s %d replicas, %s: %,d objects in %d ms (%s/s), primary sent %s (%.2f x data)%n",
+                    chain ? "chain" : "fan-out", numReplicas, updatePolicy, numObjects, time,
+                    OutputUtils.formatBytes(bytes * 1000 / Math.max(time, 1)), OutputUtils.formatBytes(sent),
+                    (double) sent / bytes);
+        } finally {
+            for (OSD osd : osds) {
+                if (osd != null)
+                    osd.shutdown();
+            }
+            rpcClient.shutdown();
+            rpcClient.waitForShutdown();
+            dir.shutdown();
+            dir.waitForShutdown();
+        }
+    }
+
+    private static DIRConfig createDIRConfig() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("listen.port", Integer.toString(DIR_PORT));
+        props.setProperty("http_port", Integer.toString(DIR_PORT - 2000));
+        props.setProperty("uuid", "UUID:localhost:" + DIR_PORT);
+        props.setProperty("authentication_provider", "org.xtreemfs.common.auth.NullAuthProvider");
+        DIRConfig config = new DIRConfig(props);
+        config.setDefaults();
+        return config;
+    }
+
+    private static BabuDBConfig createDIRdbsConfig(String testDir) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("babudb.cfgFile", "config.db");
+        props.setProperty("babudb.baseDir", testDir + "/dir");
+        props.setProperty("babudb.logDir", testDir + "/dir");
+        props.setProperty("babudb.sync", "" + SyncMode.ASYNC);
+        props.setProperty("babudb.worker.maxQueueLength", "250");
+        props.setProperty("babudb.worker.numThreads", "0");
+        props.setProperty("babudb.maxLogfileSize", "16777216");
+        props.setProperty("babudb.checkInterval", "300");
+        props.setProperty("babudb.pseudoSyncWait", "200");
+        return new BabuDBConfig(props);
+    }
+
+    private static OSDConfig createOSDConfig(String testDir, int i, boolean chain) throws IOException {
+        final int port = OSD_PORT + i;
+        Properties props = new Properties();
+        props.setProperty("dir_service.host", "localhost");
+        props.setProperty("dir_service.port", Integer.toString(DIR_PORT));
+        props.setProperty("object_dir", testDir + "/osd" + i);
+        props.setProperty("listen.port", Integer.toString(port));
+        props.setProperty("http_port", Integer.toString(port - 3000));
+        props.setProperty("listen.address", "localhost");
+        props.setProperty("uuid", "UUID:localhost:" + port);
+        props.setProperty("local_clock_renewal", "0");
+        props.setProperty("remote_time_sync", "60000");
+        props.setProperty("capability_secret", SECRET);
+        props.setProperty("report_free_space", "true");
+        props.setProperty("rwr.chain_replication", Boolean.toString(chain));
+        OSDConfig config = new OSDConfig(props);
+        config.setDefaults();
+        return config;
+    }
+
+    private static ReusableBuffer newObject(int objectSizeKB) {
+        ReusableBuffer data = BufferPool.allocate(objectSizeKB * 1024);
+        data.position(0);
+        data.limit(data.capacity());
+        return data;
+    }
+
+    private static long getBytesSent(RWReplicationStage primary, InetSocketAddress[] addrs) {
+        long sent = 0;
+        for (int i = 1; i < addrs.length; i++) {
+            long[] stats = primary.getTransferStats(addrs[i]);
+            if (stats != null)
+                sent += stats[1];
+        }
+        return sent;
+    }
+}
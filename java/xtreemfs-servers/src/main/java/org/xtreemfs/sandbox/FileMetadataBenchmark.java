@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xtreemfs.osd.storage.FileMetadata;
+import org.xtreemfs.osd.storage.ObjectChecksumTable;
+import org.xtreemfs.osd.storage.ObjectVersionMap;
+
+/**
+ * Compares the object version and checksum lookups of the OSD file metadata
+ * (as done by the storage layout when reading and writing objects) with the
+ * boxed hash maps that were formerly used, and the heap memory consumed by
+ * both.
+ */
+public class FileMetadataBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.out.println("usage: FileMetadataBenchmark [numObjects] [numLookups] [iterations]");
+            System.exit(1);
+        }
+
+        // 100 GB file with 128 KB objects
+        final int numObjects = (args.length > 0) ? Integer.valueOf(args[0]) : 819200;
+        final int numLookups = (args.length > 1) ? Integer.valueOf(args[1]) : 10000000;
+        final int iterations = (args.length > 2) ? Integer.valueOf(args[2]) : 5;
+
+        System.out.println("objects: " + numObjects + ", lookups per run: " + numLookups);
+
+        long before = usedMemory();
+        Map<Long, Long> boxedVersions = new HashMap<Long, Long>();
+        Map<Long, Map<Long, Long>> boxedChecksums = new HashMap<Long, Map<Long, Long>>();
+        for (long i = 0; i < numObjects; i++) {
+            boxedVersions.put(i, 1L);
+            Map<Long, Long> csums = new HashMap<Long, Long>();
+            csums.put(1L, i);
+            boxedChecksums.put(i, csums);
+        }
+        long boxedMem = usedMemory() - before;
+
+        before = usedMemory();
+        ObjectVersionMap versions = new ObjectVersionMap(1);
+        ObjectChecksumTable checksums = new ObjectChecksumTable(null);
+        for (long i = 0; i < numObjects; i++) {
+            versions.putLong(i, 1L);
+            checksums.put(i, 1, i);
+        }
+        FileMetadata md = new FileMetadata(null);
+        md.initLatestObjectVersions(versions);
+        md.initLargestObjectVersions(versions);
+        md.initObjectChecksums(checksums);
+        long primitiveMem = usedMemory() - before;
+
+        System.out.format("heap: boxed %d KB, primitive %d KB (estimated %d KB)%n", boxedMem / 1024,
+            primitiveMem / 1024, md.getEstimatedSize() / 1024);
+
+        System.out.println("run\tboxed [ns/lookup]\tprimitive [ns/lookup]\tboxed update [ns/op]\t"
+            + "primitive update [ns/op]");
+
+        long sink = 0;
+        for (int it = 0; it < iterations; it++) {
+
+            long t0 = System.nanoTime();
+            for (int i = 0; i < numLookups; i++) {
+                long objNo = (i * 7919L) % numObjects;
+                Long v = boxedVersions.get(objNo);
+                long ver = v == null ? 0 : v;
+                Map<Long, Long> c = boxedChecksums.get(objNo);
+                Long csum = c == null ? null : c.get(ver);
+                sink += ver + (csum == null ? 0 : csum);
+            }
+            long boxedLookup = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < numLookups; i++) {
+                long objNo = (i * 7919L) % numObjects;
+                long ver = md.getLatestObjectVersion(objNo);
+                sink += ver + md.getObjectChecksum(objNo, ver);
+            }
+            long primitiveLookup = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < numLookups; i++) {
+                long objNo = (i * 7919L) % numObjects;
+                boxedVersions.put(objNo, (long) it + 2);
+                Map<Long, Long> c = boxedChecksums.get(objNo);
+                c.put((long) it + 2, (long) i);
+            }
+            long boxedUpdate = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < numLookups; i++) {
+                long objNo = (i * 7919L) % numObjects;
+                md.updateObjectVersion(objNo, it + 2);
+                md.updateObjectChecksum(objNo, it + 2, i);
+            }
+            long primitiveUpdate = System.nanoTime() - t0;
+
+            System.out.format("%d\t%.1f\t%.1f\t%.1f\t%.1f%n", it, boxedLookup / (double) numLookups,
+                primitiveLookup / (double) numLookups, boxedUpdate / (double) numLookups, primitiveUpdate
+                    / (double) numLookups);
+        }
+
+        // prevent the lookups from being optimized away
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+}
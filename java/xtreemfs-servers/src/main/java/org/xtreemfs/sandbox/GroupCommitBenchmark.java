@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.xtreemfs.common.xloc.StripingPolicyImpl;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.osd.OSDConfig;
+import org.xtreemfs.osd.storage.FileMetadata;
+import org.xtreemfs.osd.storage.HashStorageLayout;
+import org.xtreemfs.osd.storage.MetadataCache;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
+
+/**
+ * Measures the throughput and latency of synchronous writes, if each write is
+ * forced to disk individually, and if the writes queued at a storage thread
+ * are forced to disk together (group commit).
+ * <p>
+ * The benchmark simulates a number of clients that sequentially write to
+ * their own files with a fixed number of outstanding writes each (like the
+ * asynchronous writes of the client). In each round, all outstanding writes
+ * are processed as one batch; with group commit, each object touched by the
+ * batch is forced once at the end of the batch.
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 1 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.out.println("usage: GroupCommitBenchmark <object dir> [clients] [outstanding writes per client]"
+                + " [write size] [writes per client]");
+            System.exit(1);
+        }
+
+        final String objDir = args[0];
+        final int numClients = (args.length > 1) ? Integer.valueOf(args[1]) : 16;
+        final int window = (args.length > 2) ? Integer.valueOf(args[2]) : 8;
+        final int writeSize = (args.length > 3) ? Integer.valueOf(args[3]) : 4096;
+        final int numWrites = (args.length > 4) ? Integer.valueOf(args[4]) : 1024;
+
+        Logging.start(Logging.LEVEL_WARN);
+
+        Properties props = new Properties();
+        props.setProperty("dir_service.host", "localhost");
+        props.setProperty("dir_service.port", "32638");
+        props.setProperty("listen.port", "32640");
+        props.setProperty("http_port", "30640");
+        props.setProperty("uuid", "group-commit-benchmark");
+        props.setProperty("object_dir", objDir);
+        props.setProperty("local_clock_renewal", "0");
+        props.setProperty("remote_time_sync", "60000");
+        props.setProperty("capability_secret", "benchmark");
+        props.setProperty("report_free_space", "false");
+        OSDConfig config = new OSDConfig(props);
+        config.setDefaults();
+
+        StripingPolicy sp = StripingPolicy.newBuilder().setType(StripingPolicyType.STRIPING_POLICY_RAID0)
+                .setStripeSize(128).setWidth(1).build();
+        StripingPolicyImpl spImpl = StripingPolicyImpl.getPolicy(Replica.newBuilder().setStripingPolicy(sp)
+                .setReplicationFlags(0).build(), 0);
+
+        System.out.println("clients: " + numClients + ", outstanding writes: " + window + ", write size: "
+            + writeSize + ", writes per client: " + numWrites);
+        System.out.println("mode\twrites/s\tMB/s\tavg latency [ms]\tforces");
+
+        for (boolean groupCommit : new boolean[] { false, true }) {
+
+            FSUtils.delTree(new File(objDir));
+            HashStorageLayout layout = new HashStorageLayout(config, new MetadataCache());
+            layout.registerThread();
+
+            FileMetadata[] files = new FileMetadata[numClients];
+            for (int i = 0; i < numClients; i++)
+                files[i] = layout.getFileMetadata(spImpl, "benchmark:" + i);
+
+            ReusableBuffer data = BufferPool.allocate(writeSize);
+            data.put(new byte[writeSize]);
+            data.flip();
+
+            long forces = 0;
+            long sumLatency = 0;
+            final long start = System.nanoTime();
+
+            for (int round = 0; round < numWrites / window; round++) {
+
+                final long batchStart = System.nanoTime();
+                final Set<Long> touched = new HashSet<Long>();
+
+                for (int i = 0; i < numClients; i++) {
+                    for (int w = 0; w < window; w++) {
+
+                        long offset = ((long) round * window + w) * writeSize;
+                        long objNo = offset / spImpl.getStripeSizeForObject(0);
+                        int objOffset = (int) (offset % spImpl.getStripeSizeForObject(0));
+
+                        layout.writeObject("benchmark:" + i, files[i], data.createViewBuffer(), objNo, objOffset,
+                            1, !groupCommit, false);
+
+                        if (groupCommit) {
+                            touched.add(((long) i << 32) | objNo);
+                        } else {
+                            forces++;
+                            sumLatency += System.nanoTime() - batchStart;
+                        }
+                    }
+                }
+
+                if (groupCommit) {
+                    for (long key : touched)
+                        layout.syncObject("benchmark:" + (key >>> 32), files[(int) (key >>> 32)],
+                            key & 0xFFFFFFFFL, 1);
+                    forces += touched.size();
+                    sumLatency += (System.nanoTime() - batchStart) * numClients * window;
+                }
+            }
+
+            final long duration = System.nanoTime() - start;
+            final long writes = (long) numClients * (numWrites / window) * window;
+
+            System.out.format("%s\t%.0f\t%.2f\t%.3f\t%d%n", groupCommit ? "group" : "single", writes * 1e9
+                / duration, writes * writeSize * 1e9 / duration / (1 << 20), sumLatency / 1e6 / writes, forces);
+
+            BufferPool.free(data);
+            layout.unregisterThread();
+        }
+
+        FSUtils.delTree(new File(objDir));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCNIOSocketClient;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponseAvailableListener;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.Ping;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.Ping.PingResponse;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.PingServiceClient;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC;
+import org.xtreemfs.foundation.pbrpc.server.RPCNIOSocketServer;
+import org.xtreemfs.foundation.pbrpc.server.RPCServerRequest;
+import org.xtreemfs.foundation.pbrpc.server.RPCServerRequestListener;
+import org.xtreemfs.foundation.pbrpc.utils.ReusableBufferInputStream;
+
+/**
+ * Measures the request throughput of the {@link RPCNIOSocketServer} depending
+ * on the number of client connections, once with the single event loop and
+ * once with the given number of selector threads. Each connection keeps a
+ * fixed number of ping requests in flight; the server echoes the data.
+ */
+public class PBRPCServerBenchmark {
+
+    private static final int PORT = 32999;
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.out.println("usage: PBRPCServerBenchmark [selectorThreads] [dataSizeBytes] [requestsInFlight] "
+                    + "[secondsPerRun] [connections,...]");
+            System.exit(1);
+        }
+
+        final int selectorThreads = (args.length > 0) ? Integer.valueOf(args[0]) : Runtime.getRuntime()
+                .availableProcessors();
+        final int dataSize = (args.length > 1) ? Integer.valueOf(args[1]) : 4096;
+        final int inFlight = (args.length > 2) ? Integer.valueOf(args[2]) : 8;
+        final int seconds = (args.length > 3) ? Integer.valueOf(args[3]) : 10;
+        final String connections = (args.length > 4) ? args[4] : "1,4,16,64,256";
+
+        Logging.start(Logging.LEVEL_ERROR, Category.all);
+        TimeSync ts = TimeSync.initializeLocal(50);
+
+        System.out.println("selector threads: " + selectorThreads + ", data size: " + dataSize
+                + " bytes, requests in flight per connection: " + inFlight);
+        System.out.println("connections\tsingle loop [req/s]\tselector threads [req/s]\tspeedup");
+
+        for (String numConnections : connections.split(",")) {
+            final int numCons = Integer.valueOf(numConnections.trim());
+            double single = run(0, numCons, dataSize, inFlight, seconds);
+            double multi = run(selectorThreads, numCons, dataSize, inFlight, seconds);
+            System.out.format("%d\t%.0f\t%.0f\t%.2f%n", numCons, single, multi, multi / single);
+        }
+
+        ts.close();
+        System.exit(0);
+    }
+
+    /**
+     * @return the number of completed requests per second
+     */
+    private static double run(int selectorThreads, int numConnections, final int dataSize, final int inFlight,
+            int seconds) throws Exception {
+
+        RPCNIOSocketServer server = new RPCNIOSocketServer(PORT, null, new RPCServerRequestListener() {
+
+            @Override
+            public void receiveRecord(RPCServerRequest rq) {
+                try {
+                    ReusableBufferInputStream is = new ReusableBufferInputStream(rq.getMessage());
+                    Ping.PingRequest pingRq = Ping.PingRequest.parseFrom(is);
+                    Ping.PingResponse resp = Ping.PingResponse.newBuilder()
+                            .setResult(Ping.PingResponse.PingResult.newBuilder().setText(pingRq.getText())).build();
+
+                    ReusableBuffer data = null;
+                    if (rq.getData() != null) {
+                        data = rq.getData().createViewBuffer();
+                        data.position(data.limit());
+                    }
+                    rq.sendResponse(resp, data);
+                } catch (IOException ex) {
+                    rq.sendError(RPC.ErrorType.GARBAGE_ARGS, RPC.POSIXErrno.POSIX_ERROR_EIO, ex.toString());
+                }
+            }
+        }, null, 0, -1, Integer.MAX_VALUE, selectorThreads);
+        server.start();
+        server.waitForStartup();
+
+        final InetSocketAddress endpoint = new InetSocketAddress("localhost", PORT);
+        final RPC.UserCredentials uc = RPC.UserCredentials.newBuilder().setUsername("bench").addGroups("bench")
+                .build();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong deadline = new AtomicLong(Long.MAX_VALUE);
+
+        // one client per connection, since a client only opens a single
+        // connection per server
+        RPCNIOSocketClient[] clients = new RPCNIOSocketClient[numConnections];
+        try {
+            for (int i = 0; i < numConnections; i++) {
+                clients[i] = new RPCNIOSocketClient(null, 30000, 5 * 60 * 1000, "bench" + i, true);
+                clients[i].start();
+                clients[i].waitForStartup();
+            }
+
+            deadline.set(System.currentTimeMillis() + seconds * 1000L);
+            for (RPCNIOSocketClient client : clients) {
+                final PingServiceClient ping = new PingServiceClient(client, endpoint);
+                RPCResponseAvailableListener<PingResponse> listener = new RPCResponseAvailableListener<PingResponse>() {
+
+                    @Override
+                    public void responseAvailable(RPCResponse<PingResponse> r) {
+                        r.freeBuffers();
+                        completed.incrementAndGet();
+                        if (System.currentTimeMillis() < deadline.get()) {
+                            sendPing(ping, uc, dataSize, this);
+                        }
+                    }
+                };
+                for (int j = 0; j < inFlight; j++) {
+                    sendPing(ping, uc, dataSize, listener);
+                }
+            }
+
+            Thread.sleep(seconds * 1000L);
+            return completed.get() / (double) seconds;
+
+        } finally {
+            for (RPCNIOSocketClient client : clients) {
+                if (client != null) {
+                    client.shutdown();
+                    client.waitForShutdown();
+                }
+            }
+            server.shutdown();
+            server.waitForShutdown();
+        }
+    }
+
+    private static void sendPing(PingServiceClient ping, RPC.UserCredentials uc, int dataSize,
+            RPCResponseAvailableListener<PingResponse> listener) {
+        try {
+            ReusableBuffer data = null;
+            if (dataSize > 0) {
+                data = BufferPool.allocate(dataSize);
+                data.position(dataSize);
+                data.flip();
+            }
+            RPCResponse<PingResponse> r = ping.doPing(null, RPCAuthentication.authNone, uc, "ping", false, data);
+            r.registerListener(listener);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.io.File;
+
+import org.xtreemfs.babudb.BabuDBFactory;
+import org.xtreemfs.babudb.api.BabuDB;
+import org.xtreemfs.babudb.config.BabuDBConfig;
+import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
+import org.xtreemfs.foundation.TimeSync;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.mrc.database.AtomicDBUpdate;
+import org.xtreemfs.mrc.database.DatabaseResultSet;
+import org.xtreemfs.mrc.database.babudb.BabuDBStorageManager;
+import org.xtreemfs.mrc.metadata.FileMetadata;
+
+/**
+ * Lists a large directory in the MRC database page by page, once by skipping
+ * the entries seen so far (seen_directory_entries_count) and once by
+ * continuing after the last returned entry name.
+ */
+public class ReaddirBenchmark {
+
+    private static final long ROOT_ID = 1;
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.out.println("usage: ReaddirBenchmark [numEntries] [pageSize] [dbDir] [maxOffsetPages]");
+            System.exit(1);
+        }
+
+        final int numEntries = (args.length > 0) ? Integer.valueOf(args[0]) : 1000000;
+        final int pageSize = (args.length > 1) ? Integer.valueOf(args[1]) : 1000;
+        final String dbDir = (args.length > 2) ? args[2] : "/tmp/xtreemfs-readdir-benchmark";
+        // listing with offsets is quadratic; optionally stop after some pages
+        final int maxOffsetPages = (args.length > 3) ? Integer.valueOf(args[3]) : Integer.MAX_VALUE;
+
+        Logging.start(Logging.LEVEL_ERROR, Category.all);
+        TimeSync ts = TimeSync.initializeLocal(50);
+
+        File dir = new File(dbDir);
+        FSUtils.delTree(dir);
+        dir.mkdirs();
+
+        BabuDB database = BabuDBFactory.createBabuDB(new BabuDBConfig(dbDir, dbDir, 0, 1024 * 1024 * 16, 0,
+            SyncMode.ASYNC, 0, 1000, false, 16, 1024 * 1024 * 512));
+        try {
+            BabuDBStorageManager sMan = new BabuDBStorageManager(database, "volId", "volume", (short) 1,
+                new short[] { 1 }, new short[0], "bench", "bench", 511, null, null, false, 0, null);
+
+            // create the directory content
+            long t0 = System.currentTimeMillis();
+            final int batchSize = 1000;
+            for (int i = 0; i < numEntries; i += batchSize) {
+                AtomicDBUpdate update = sMan.createAtomicDBUpdate(null, null);
+                for (int j = i; j < Math.min(i + batchSize, numEntries); j++)
+                    sMan.createFile(ROOT_ID + 1 + j, ROOT_ID, "file" + j, 0, 0, 0, "bench", "bench", 511, 0, 0,
+                        false, 0, 0, update);
+                update.execute();
+            }
+            database.getCheckpointer().checkpoint();
+            System.out.format("created %d entries in %d ms%n", numEntries, System.currentTimeMillis() - t0);
+
+            // list the directory by skipping the entries seen so far
+            t0 = System.currentTimeMillis();
+            int listed = 0;
+            int pages = 0;
+            while (pages < maxOffsetPages) {
+                pages++;
+                DatabaseResultSet<FileMetadata> children = sMan.getChildren(ROOT_ID, listed, pageSize);
+                int count = count(children);
+                listed += count;
+                if (count < pageSize)
+                    break;
+            }
+            long offsetTime = System.currentTimeMillis() - t0;
+            System.out.format("offset: listed %d entries in %d pages in %d ms (%.3f ms/page)%n", listed, pages,
+                offsetTime, offsetTime / (double) Math.max(pages, 1));
+
+            // list the directory by continuing after the last entry
+            t0 = System.currentTimeMillis();
+            listed = 0;
+            pages = 0;
+            String last = null;
+            for (;;) {
+                pages++;
+                DatabaseResultSet<FileMetadata> children = sMan.getChildren(ROOT_ID, last, pageSize);
+                int count = 0;
+                while (children.hasNext()) {
+                    last = children.next().getFileName();
+                    count++;
+                }
+                children.destroy();
+                listed += count;
+                if (count < pageSize)
+                    break;
+            }
+            long cursorTime = System.currentTimeMillis() - t0;
+            System.out.format("cursor: listed %d entries in %d pages in %d ms (%.3f ms/page)%n", listed, pages,
+                cursorTime, cursorTime / (double) Math.max(pages, 1));
+
+        } finally {
+            database.shutdown();
+            FSUtils.delTree(dir);
+            ts.close();
+        }
+    }
+
+    private static int count(DatabaseResultSet<FileMetadata> children) {
+        int count = 0;
+        while (children.hasNext()) {
+            children.next();
+            count++;
+        }
+        children.destroy();
+        return count;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.xtreemfs.foundation.queue.LinkedStageQueue;
+import org.xtreemfs.foundation.queue.RingStageQueue;
+import org.xtreemfs.foundation.queue.StageQueue;
+
+/**
+ * Measures the throughput of the {@link StageQueue} implementations with an increasing number of producers. The
+ * consumer takes the requests in batches, like a stage does.
+ */
+public class StageQueueBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.out.println("usage: StageQueueBenchmark [maxProducers] [requestsPerProducer] [capacity]");
+            System.exit(1);
+        }
+
+        final int maxProducers = (args.length > 0) ? Integer.valueOf(args[0]) : 16;
+        final int requestsPerProducer = (args.length > 1) ? Integer.valueOf(args[1]) : 1000000;
+        final int capacity = (args.length > 2) ? Integer.valueOf(args[2]) : 2048;
+
+        for (String type : new String[] { "linked", "ring" }) {
+            for (int numProducers = 1; numProducers <= maxProducers; numProducers *= 2) {
+                final StageQueue<Object> q = type.equals("ring") ? new RingStageQueue<Object>(capacity)
+                        : new LinkedStageQueue<Object>();
+                final Object request = new Object();
+                final CountDownLatch start = new CountDownLatch(1);
+
+                Thread[] producers = new Thread[numProducers];
+                for (int p = 0; p < numProducers; p++) {
+                    producers[p] = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                start.await();
+                                for (int i = 0; i < requestsPerProducer; i++) {
+                                    q.put(request);
+                                }
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    };
+                    producers[p].start();
+                }
+
+                final long total = (long) numProducers * requestsPerProducer;
+                final List<Object> batch = new ArrayList<Object>(32);
+                long t0 = System.currentTimeMillis();
+                start.countDown();
+                for (long n = 0; n < total; n += batch.size()) {
+                    batch.clear();
+                    batch.add(q.take());
+                    q.drainTo(batch, 31);
+                }
+                long time = System.currentTimeMillis() - t0;
+                for (Thread producer : producers) {
+                    producer.join();
+                }
+
+                System.out.format("%-6s %2d producers: %,d requests in %d ms (%,.0f requests/s)%n", type,
+                        numProducers, total, time, total * 1000.0 / Math.max(time, 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.sandbox;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+
+/**
+ * Compares the throughput of sending object data to a socket by reading it
+ * into a buffer first (as done by the OSD by default), and by transferring it
+ * directly from the object file (zero-copy reads).
+ * <p>
+ * The benchmark creates a file that consists of a number of objects and
+ * repeatedly sends the objects to a local receiver that discards the data.
+ * Each object is read with a separate file, like the OSD does for each read
+ * request.
+ */
+public class ZeroCopyReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 1 || args[0].equals("-h") || args[0].equals("--help")) {
+            System.out.println("usage: ZeroCopyReadBenchmark <data file> [object size] [objects] [iterations]");
+            System.exit(1);
+        }
+
+        final File dataFile = new File(args[0]);
+        final int objSize = (args.length > 1) ? Integer.valueOf(args[1]) : 131072;
+        final int numObjs = (args.length > 2) ? Integer.valueOf(args[2]) : 2048;
+        final int iterations = (args.length > 3) ? Integer.valueOf(args[3]) : 5;
+
+        // create the objects
+        RandomAccessFile raf = new RandomAccessFile(dataFile, "rw");
+        byte[] obj = new byte[objSize];
+        for (int i = 0; i < objSize; i++)
+            obj[i] = (byte) i;
+        for (int i = 0; i < numObjs; i++)
+            raf.write(obj);
+        raf.close();
+
+        // the receiver
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("localhost", 0));
+        Thread receiver = new Thread() {
+            public void run() {
+                try {
+                    SocketChannel ch = server.accept();
+                    ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+                    while (ch.read(buf) != -1)
+                        buf.clear();
+                    ch.close();
+                } catch (Exception exc) {
+                    exc.printStackTrace();
+                }
+            }
+        };
+        receiver.start();
+
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", server.socket()
+                .getLocalPort()));
+
+        System.out.println("object size: " + objSize + ", objects: " + numObjs);
+        System.out.println("run\tcopy [MB/s]\tzero-copy [MB/s]");
+
+        final long bytes = (long) objSize * numObjs;
+        for (int it = 0; it < iterations; it++) {
+
+            long t0 = System.nanoTime();
+            for (int i = 0; i < numObjs; i++) {
+                RandomAccessFile f = new RandomAccessFile(dataFile, "r");
+                FileChannel fc = f.getChannel();
+                ReusableBuffer buf = BufferPool.allocate(objSize);
+                fc.read(buf.getBuffer(), (long) i * objSize);
+                buf.flip();
+                while (buf.hasRemaining())
+                    channel.write(buf.getBuffer());
+                BufferPool.free(buf);
+                f.close();
+            }
+            long copy = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < numObjs; i++) {
+                FileRegion region = new FileRegion(new RandomAccessFile(dataFile, "r"), (long) i * objSize,
+                    objSize);
+                while (region.hasRemaining())
+                    region.transferTo(channel);
+                region.release();
+            }
+            long zeroCopy = System.nanoTime() - t0;
+
+            System.out.format("%d\t%.1f\t%.1f%n", it, bytes * 1e9 / copy / (1 << 20), bytes * 1e9 / zeroCopy
+                / (1 << 20));
+        }
+
+        channel.close();
+        receiver.join();
+        server.close();
+        dataFile.delete();
+    }
+
+}
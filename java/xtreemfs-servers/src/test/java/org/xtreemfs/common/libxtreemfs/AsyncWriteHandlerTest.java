@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.common.libxtreemfs.exceptions.AddressToUUIDNotFoundException;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.AuthType;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.writeRequest;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Tests the coalescing of small writes by the {@link AsyncWriteHandler}. The writes are recorded instead of
+ * being sent to an OSD.
+ */
+public class AsyncWriteHandlerTest {
+    @Rule
+    public final TestRule               testLog     = TestHelper.testLog;
+
+    private static final int            OBJECT_SIZE = 4096;
+
+    /**
+     * A write which was passed to the OSDServiceClient.
+     */
+    private static class RecordedWrite {
+        final long   objectNumber;
+
+        final int    offset;
+
+        final byte[] data;
+
+        RecordedWrite(writeRequest request, ReusableBuffer data) {
+            this.objectNumber = request.getObjectNumber();
+            this.offset = request.getOffset();
+            this.data = new byte[data.remaining()];
+            data.get(this.data);
+        }
+    }
+
+    private final List<RecordedWrite>   recordedWrites = new ArrayList<RecordedWrite>();
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private FileCredentials             fileCredentials;
+
+    /**
+     * If set, the first write sent waits for this latch after its data was taken from the handler.
+     */
+    private volatile CountDownLatch     sendGate;
+
+    /**
+     * Counted down when the first write sent waits for the sendGate.
+     */
+    private final CountDownLatch        sendStarted    = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+        executor = new ScheduledThreadPoolExecutor(1);
+
+        XCap xcap = XCap.newBuilder().setAccessMode(0).setClientIdentity("").setExpireTimeS(0)
+                .setExpireTimeoutS(600).setFileId("vol:1").setReplicateOnClose(false).setServerSignature("")
+                .setTruncateEpoch(0).setSnapConfig(SnapConfig.SNAP_CONFIG_SNAPS_DISABLED).setSnapTimestamp(0)
+                .build();
+        StripingPolicy stripingPolicy = StripingPolicy.newBuilder()
+                .setType(StripingPolicyType.STRIPING_POLICY_RAID0).setStripeSize(OBJECT_SIZE / 1024).setWidth(1)
+                .build();
+        XLocSet xlocs = XLocSet.newBuilder().setReadOnlyFileSize(0).setReplicaUpdatePolicy("").setVersion(1)
+                .addReplicas(Replica.newBuilder().addOsdUuids("osd").setReplicationFlags(0)
+                        .setStripingPolicy(stripingPolicy)).build();
+        fileCredentials = FileCredentials.newBuilder().setXcap(xcap).setXlocs(xlocs).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private AsyncWriteHandler createHandler(int maxCoalescedBytes, long coalescingDelayMs) {
+        OSDServiceClient osdServiceClient = new OSDServiceClient(null, null) {
+            @Override
+            public RPCResponse<OSDWriteResponse> write(InetSocketAddress server, Auth authHeader,
+                    UserCredentials userCreds, writeRequest input, ReusableBuffer data) throws IOException {
+                synchronized (recordedWrites) {
+                    recordedWrites.add(new RecordedWrite(input, data));
+                    recordedWrites.notifyAll();
+                }
+                BufferPool.free(data);
+                // Lets the handler release the write at once.
+                throw new IOException("not sent");
+            }
+        };
+        UUIDResolver uuidResolver = new UUIDResolver() {
+            @Override
+            public String uuidToAddress(String uuid) throws AddressToUUIDNotFoundException {
+                CountDownLatch gate = sendGate;
+                if (gate != null && sendStarted.getCount() > 0) {
+                    sendStarted.countDown();
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return "localhost:32640";
+            }
+
+            @Override
+            public String volumeNameToMRCUUID(String volumeName) {
+                return null;
+            }
+
+            @Override
+            public void volumeNameToMRCUUID(String volumeName, UUIDIterator uuidIterator) {
+            }
+
+            @Override
+            public List<String> volumeNameToMRCUUIDs(String volumeName) {
+                return null;
+            }
+        };
+        UUIDIterator uuidIterator = new UUIDIterator();
+        uuidIterator.addUUID("osd");
+        Auth auth = Auth.newBuilder().setAuthType(AuthType.AUTH_NONE).build();
+        UserCredentials userCredentials = UserCredentials.newBuilder().setUsername("xtreemfs")
+                .addGroups("xtreemfs").build();
+
+        return new AsyncWriteHandler(null, uuidIterator, uuidResolver, osdServiceClient, auth, userCredentials,
+                128 * 1024, 10, 1, maxCoalescedBytes, coalescingDelayMs, executor);
+    }
+
+    /**
+     * Writes "length" bytes with the value (offset + i) to the file.
+     */
+    private void write(AsyncWriteHandler handler, long offset, int length) throws Exception {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (offset + i);
+        }
+        writeRequest request = writeRequest.newBuilder().setFileCredentials(fileCredentials).setFileId("vol:1")
+                .setObjectNumber(offset / OBJECT_SIZE).setObjectVersion(0).setOffset((int) (offset % OBJECT_SIZE))
+                .setLeaseTimeout(0)
+                .setObjectData(ObjectData.newBuilder().setChecksum(0).setInvalidChecksumOnOsd(false)
+                        .setZeroPadding(0)).build();
+        handler.write(new AsyncWriteBuffer(request, ReusableBuffer.wrap(data), length, null));
+    }
+
+    private void assertRecordedWrite(int index, long objectNumber, int offset, int length) {
+        synchronized (recordedWrites) {
+            RecordedWrite write = recordedWrites.get(index);
+            assertEquals(objectNumber, write.objectNumber);
+            assertEquals(offset, write.offset);
+            assertEquals(length, write.data.length);
+            for (int i = 0; i < length; i++) {
+                assertEquals((byte) (objectNumber * OBJECT_SIZE + offset + i), write.data[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testSequentialWritesAreCombinedPerObject() throws Exception {
+        AsyncWriteHandler handler = createHandler(64 * 1024, 60000);
+
+        // Fills object 0 and half of object 1.
+        for (int i = 0; i < 6; i++) {
+            write(handler, i * 1024, 1024);
+        }
+        assertEquals(1, recordedWrites.size());
+        assertRecordedWrite(0, 0, 0, OBJECT_SIZE);
+        assertTrue(handler.hasPendingWrites());
+
+        handler.waitForPendingWrites();
+        assertEquals(2, recordedWrites.size());
+        assertRecordedWrite(1, 1, 0, 2048);
+        assertFalse(handler.hasPendingWrites());
+    }
+
+    @Test
+    public void testNonContiguousAndLargeWritesKeepOrder() throws Exception {
+        AsyncWriteHandler handler = createHandler(1024, 60000);
+
+        write(handler, 0, 100);
+        write(handler, 100, 100);
+        // A gap sends the buffered writes.
+        write(handler, 300, 100);
+        assertEquals(1, recordedWrites.size());
+        assertRecordedWrite(0, 0, 0, 200);
+
+        // A write of the coalescing size is sent directly, after the buffered writes.
+        write(handler, 400, 1024);
+        assertEquals(3, recordedWrites.size());
+        assertRecordedWrite(1, 0, 300, 100);
+        assertRecordedWrite(2, 0, 400, 1024);
+        assertFalse(handler.hasPendingWrites());
+    }
+
+    @Test
+    public void testBufferedWritesAreSentAfterDelay() throws Exception {
+        AsyncWriteHandler handler = createHandler(64 * 1024, 10);
+
+        write(handler, 0, 100);
+        synchronized (recordedWrites) {
+            long end = System.currentTimeMillis() + 10000;
+            while (recordedWrites.isEmpty() && System.currentTimeMillis() < end) {
+                recordedWrites.wait(100);
+            }
+        }
+        assertEquals(1, recordedWrites.size());
+        assertRecordedWrite(0, 0, 0, 100);
+
+        handler.waitForPendingWrites();
+        assertEquals(1, recordedWrites.size());
+        assertFalse(handler.hasPendingWrites());
+    }
+
+    @Test
+    public void testDelayedFlushKeepsOrderOfOverlappingWrite() throws Exception {
+        final AsyncWriteHandler handler = createHandler(1024, 10);
+        sendGate = new CountDownLatch(1);
+
+        write(handler, 0, 100);
+        // The delayed flush took the buffered write and is about to send it.
+        assertTrue(sendStarted.await(10, TimeUnit.SECONDS));
+
+        final Exception[] error = new Exception[1];
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // Overlaps the buffered write.
+                    write(handler, 50, 1024);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        writer.start();
+        long end = System.currentTimeMillis() + 10000;
+        while (writer.getState() != Thread.State.WAITING && writer.isAlive() && recordedWrites.isEmpty()
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+
+        sendGate.countDown();
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertEquals(null, error[0]);
+
+        // The older write must not overwrite the newer one at the OSD.
+        assertEquals(2, recordedWrites.size());
+        assertRecordedWrite(0, 0, 0, 100);
+        assertRecordedWrite(1, 0, 50, 1024);
+    }
+
+    @Test
+    public void testCoalescingDisabled() throws Exception {
+        AsyncWriteHandler handler = createHandler(0, 10);
+
+        write(handler, 0, 100);
+        write(handler, 100, 100);
+        assertEquals(2, recordedWrites.size());
+        assertRecordedWrite(0, 0, 0, 100);
+        assertRecordedWrite(1, 0, 100, 100);
+    }
+}
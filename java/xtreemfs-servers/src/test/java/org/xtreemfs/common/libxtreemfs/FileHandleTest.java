@@ -7,18 +7,27 @@
 package org.xtreemfs.common.libxtreemfs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
+import org.xtreemfs.common.libxtreemfs.Volume.StripeLocation;
 import org.xtreemfs.common.libxtreemfs.exceptions.PosixErrorException;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.POSIXErrno;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.AccessControlPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.KeyValuePair;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicy;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.StripingPolicyType;
@@ -386,6 +395,252 @@ public class FileHandleTest {
         client.shutdown();
     }
 
+    @Test
+    public void testParallelStripedRead() throws Exception {
+        final String volumeName = "testParallelStripedRead";
+        final String fileName = "/striped.bin";
+        final int stripeSizeKB = 4;
+        final int stripeSize = stripeSizeKB * 1024;
+
+        Options options = new Options();
+        options.setMetadataCacheSize(0);
+        options.setMaxParallelReadRequests(3);
+
+        Client client = ClientFactory.createClient(dirAddress, userCredentials, null, options);
+        client.start();
+
+        // Stripe the files across both OSDs.
+        client.createVolume(mrcAddress, auth, userCredentials, volumeName, 0777, userCredentials.getUsername(),
+                userCredentials.getGroups(0), AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX,
+                StripingPolicyType.STRIPING_POLICY_RAID0, stripeSizeKB, 2, new ArrayList<KeyValuePair>());
+        Volume volume = client.openVolume(volumeName, null, options);
+
+        FileHandle fileHandle = volume.openFile(userCredentials, fileName,
+                SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0777);
+
+        // Write the first three objects and a partial object after a hole of two objects, which must be read
+        // as zeros.
+        final int fileSize = 5 * stripeSize + 1000;
+        byte[] expected = new byte[fileSize];
+        for (int i = 0; i < 3 * stripeSize; i++) {
+            expected[i] = (byte) (i % 127 + 1);
+        }
+        for (int i = 5 * stripeSize; i < fileSize; i++) {
+            expected[i] = (byte) (i % 13 + 1);
+        }
+        fileHandle.write(userCredentials, expected, 3 * stripeSize, 0);
+        fileHandle.write(userCredentials, expected, 5 * stripeSize, 1000, 5 * stripeSize);
+
+        // Consecutive objects are stored on different OSDs.
+        List<StripeLocation> stripeLocations = volume.getStripeLocations(userCredentials, fileName, 0, 2 * stripeSize);
+        assertEquals(2, stripeLocations.size());
+        assertFalse(stripeLocations.get(0).getUuids()[0].equals(stripeLocations.get(1).getUuids()[0]));
+
+        // Read everything at once, with more objects than the window of parallel requests.
+        byte[] readData = new byte[fileSize + stripeSize];
+        assertEquals(fileSize, fileHandle.read(userCredentials, readData, readData.length, 0));
+        for (int i = 0; i < fileSize; i++) {
+            assertEquals("offset " + i, expected[i], readData[i]);
+        }
+
+        // Read unaligned ranges across object boundaries into the middle of the buffer.
+        readData = new byte[fileSize];
+        assertEquals(fileSize - 100, fileHandle.read(userCredentials, readData, 100, fileSize - 100, 100));
+        for (int i = 100; i < fileSize; i++) {
+            assertEquals("offset " + i, expected[i], readData[i]);
+        }
+        assertEquals(stripeSize, fileHandle.read(userCredentials, readData, 0, stripeSize, 2 * stripeSize + 17));
+        for (int i = 0; i < stripeSize; i++) {
+            assertEquals("offset " + i, expected[2 * stripeSize + 17 + i], readData[i]);
+        }
+
+        fileHandle.close();
+        volume.close();
+        client.shutdown();
+    }
+
+    @Test
+    public void testParallelStripedWrite() throws Exception {
+        final String volumeName = "testParallelStripedWrite";
+        final String fileName = "/striped.bin";
+        final int stripeSizeKB = 4;
+        final int stripeSize = stripeSizeKB * 1024;
+
+        Options options = new Options();
+        options.setMetadataCacheSize(0);
+        options.setMaxParallelWriteRequests(3);
+
+        Client client = ClientFactory.createClient(dirAddress, userCredentials, null, options);
+        client.start();
+
+        // Stripe the files across both OSDs.
+        client.createVolume(mrcAddress, auth, userCredentials, volumeName, 0777, userCredentials.getUsername(),
+                userCredentials.getGroups(0), AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX,
+                StripingPolicyType.STRIPING_POLICY_RAID0, stripeSizeKB, 2, new ArrayList<KeyValuePair>());
+        Volume volume = client.openVolume(volumeName, null, options);
+
+        FileHandle fileHandle = volume.openFile(userCredentials, fileName,
+                SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0777);
+
+        // Write an unaligned range of more objects than the window of parallel requests from the middle of the
+        // buffer.
+        final int fileSize = 7 * stripeSize + 1000;
+        byte[] data = new byte[fileSize + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 127 + 1);
+        }
+        assertEquals(fileSize - 17, fileHandle.write(userCredentials, data, 100, fileSize - 17, 17));
+        fileHandle.write(userCredentials, data, 100, 17, 0);
+
+        // The largest file size of all objects was reported.
+        assertEquals(fileSize, fileHandle.getAttr(userCredentials).getSize());
+        fileHandle.flush();
+        assertEquals(fileSize, volume.getAttr(userCredentials, fileName).getSize());
+
+        byte[] readData = new byte[fileSize];
+        assertEquals(fileSize, fileHandle.read(userCredentials, readData, fileSize, 0));
+        for (int i = 0; i < fileSize; i++) {
+            assertEquals("offset " + i, data[100 + i], readData[i]);
+        }
+
+        fileHandle.close();
+        volume.close();
+        client.shutdown();
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        final String volumeName = "testReadAhead";
+        final String fileName = "/readahead.bin";
+        final int stripeSizeKB = 4;
+        final int stripeSize = stripeSizeKB * 1024;
+
+        Options options = new Options();
+        options.setMetadataCacheSize(0);
+        options.setMaxReadAhead(4 * stripeSize);
+
+        Client client = ClientFactory.createClient(dirAddress, userCredentials, null, options);
+        client.start();
+
+        client.createVolume(mrcAddress, auth, userCredentials, volumeName, 0777, userCredentials.getUsername(),
+                userCredentials.getGroups(0), AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX,
+                StripingPolicyType.STRIPING_POLICY_RAID0, stripeSizeKB, 1, new ArrayList<KeyValuePair>());
+        Volume volume = client.openVolume(volumeName, null, options);
+
+        FileHandle fileHandle = volume.openFile(userCredentials, fileName,
+                SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0777);
+
+        final int fileSize = 10 * stripeSize + 123;
+        byte[] expected = new byte[fileSize];
+        for (int i = 0; i < fileSize; i++) {
+            expected[i] = (byte) (i % 127 + 1);
+        }
+        fileHandle.write(userCredentials, expected, fileSize, 0);
+
+        // Read the file sequentially in chunks which are not aligned to objects.
+        final int chunkSize = 1000;
+        byte[] readData = new byte[chunkSize];
+        for (int offset = 0; offset < fileSize; offset += chunkSize) {
+            int expectedLength = Math.min(chunkSize, fileSize - offset);
+            assertEquals(expectedLength, fileHandle.read(userCredentials, readData, chunkSize, offset));
+            for (int i = 0; i < expectedLength; i++) {
+                assertEquals("offset " + (offset + i), expected[offset + i], readData[i]);
+            }
+        }
+        assertEquals(0, fileHandle.read(userCredentials, readData, chunkSize, fileSize));
+
+        // Read the beginning again, overwrite data ahead of the read and continue reading. The prefetched objects
+        // must not be used anymore.
+        assertEquals(chunkSize, fileHandle.read(userCredentials, readData, chunkSize, 0));
+        assertEquals(chunkSize, fileHandle.read(userCredentials, readData, chunkSize, chunkSize));
+        for (int i = 3 * stripeSize; i < 4 * stripeSize; i++) {
+            expected[i] = (byte) 0xFF;
+        }
+        fileHandle.write(userCredentials, expected, 3 * stripeSize, stripeSize, 3 * stripeSize);
+        readData = new byte[fileSize];
+        assertEquals(fileSize - 2 * chunkSize,
+                fileHandle.read(userCredentials, readData, fileSize - 2 * chunkSize, 2 * chunkSize));
+        for (int i = 0; i < fileSize - 2 * chunkSize; i++) {
+            assertEquals("offset " + (2 * chunkSize + i), expected[2 * chunkSize + i], readData[i]);
+        }
+
+        // A truncate has to invalidate the prefetched objects as well.
+        assertEquals(chunkSize, fileHandle.read(userCredentials, readData, chunkSize, 0));
+        fileHandle.truncate(userCredentials, stripeSize + 10);
+        assertEquals(stripeSize + 10 - chunkSize, fileHandle.read(userCredentials, readData, fileSize, chunkSize));
+
+        // All buffers are released when the file is closed (outstanding prefetches once they arrive).
+        fileHandle.close();
+        for (int i = 0; i < 100 && ReadAheadHandler.getReservedBytes() > 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, ReadAheadHandler.getReservedBytes());
+
+        volume.close();
+        client.shutdown();
+    }
+
+    @Test
+    public void testAsyncOperations() throws Exception {
+        final String volumeName = "testAsyncOperations";
+        final String fileName = "/async.bin";
+        final int stripeSizeKB = 4;
+        final int stripeSize = stripeSizeKB * 1024;
+
+        Options options = new Options();
+        options.setMetadataCacheSize(0);
+
+        Client client = ClientFactory.createClient(dirAddress, userCredentials, null, options);
+        client.start();
+
+        client.createVolume(mrcAddress, auth, userCredentials, volumeName, 0777, userCredentials.getUsername(),
+                userCredentials.getGroups(0), AccessControlPolicyType.ACCESS_CONTROL_POLICY_POSIX,
+                StripingPolicyType.STRIPING_POLICY_RAID0, stripeSizeKB, 1, new ArrayList<KeyValuePair>());
+        Volume volume = client.openVolume(volumeName, null, options);
+
+        FileHandle fileHandle = volume.openFileAsync(userCredentials, fileName,
+                SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0777).getResult();
+
+        // Write and read several objects, starting in the middle of an object.
+        final int offset = stripeSize / 2;
+        final int length = 3 * stripeSize;
+        byte[] expected = new byte[length];
+        for (int i = 0; i < length; i++) {
+            expected[i] = (byte) (i % 127 + 1);
+        }
+        assertEquals(length, fileHandle.writeAsync(userCredentials, expected, 0, length, offset).getResult()
+                .intValue());
+
+        byte[] readData = new byte[length + 10];
+        assertEquals(length, fileHandle.readAsync(userCredentials, readData, 10, length, offset).getResult()
+                .intValue());
+        for (int i = 0; i < length; i++) {
+            assertEquals("offset " + i, expected[i], readData[10 + i]);
+        }
+
+        // The file size is known to the client before it was written back to the MRC.
+        Stat stat = volume.getAttrAsync(userCredentials, fileName).getResult();
+        assertEquals(offset + length, stat.getSize());
+        fileHandle.close();
+
+        assertEquals(3, volume.readDirAsync(userCredentials, "/", 0, 0, false).getResult().getEntriesCount());
+
+        // Errors are reported by the result.
+        try {
+            volume.getAttrAsync(userCredentials, "/nonexistent").getResult();
+            fail("getAttrAsync() of a nonexistent file succeeded");
+        } catch (PosixErrorException e) {
+            assertEquals(POSIXErrno.POSIX_ERROR_ENOENT, e.getPosixError());
+        }
+
+        volume.close();
+        client.shutdown();
+    }
+
     @Test
     public void testReadBytePerByte() throws Exception {
         final String volumeName = "testReadBytePerByte";
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.logging.Logging.Category;
+import org.xtreemfs.pbrpc.generatedinterfaces.MRC.Stat;
+
+/**
+ * Measures the throughput of the {@link MetadataCache} with an increasing number of threads. Every thread
+ * looks up random paths of a directory tree and caches them again on a miss, updates some of them and now
+ * and then invalidates a whole directory, like a multi-threaded client would do.
+ *
+ * It is located in the package of the cache, as the cache is not accessible from outside.
+ */
+public class MetadataCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.out.println("usage: MetadataCacheBenchmark [maxThreads] [durationS] [numDirs] [filesPerDir] "
+                    + "[updatePercent] [invalidatePrefixPermille]");
+            System.exit(1);
+        }
+
+        final int maxThreads = (args.length > 0) ? Integer.valueOf(args[0]) : 16;
+        final int durationS = (args.length > 1) ? Integer.valueOf(args[1]) : 5;
+        final int numDirs = (args.length > 2) ? Integer.valueOf(args[2]) : 100;
+        final int filesPerDir = (args.length > 3) ? Integer.valueOf(args[3]) : 1000;
+        final int updatePercent = (args.length > 4) ? Integer.valueOf(args[4]) : 10;
+        final int invalidatePrefixPermille = (args.length > 5) ? Integer.valueOf(args[5]) : 1;
+
+        Logging.start(Logging.LEVEL_ERROR, Category.all);
+
+        final String[] dirs = new String[numDirs];
+        final String[][] files = new String[numDirs][filesPerDir];
+        for (int i = 0; i < numDirs; i++) {
+            dirs[i] = "/benchmark/dir" + i;
+            for (int j = 0; j < filesPerDir; j++) {
+                files[i][j] = dirs[i] + "/file" + j;
+            }
+        }
+        final Stat stat = Stat.newBuilder().setDev(0).setIno(0).setMode(0).setNlink(1).setUserId("")
+                .setGroupId("").setSize(0).setAtimeNs(0).setMtimeNs(0).setCtimeNs(0).setBlksize(0)
+                .setTruncateEpoch(0).build();
+
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+            final MetadataCache cache = new MetadataCache(numDirs * filesPerDir, 3600);
+            for (int i = 0; i < numDirs; i++) {
+                for (int j = 0; j < filesPerDir; j++) {
+                    cache.updateStat(files[i][j], stat);
+                }
+            }
+
+            final AtomicLong operations = new AtomicLong();
+            final AtomicLong hits = new AtomicLong();
+            final CountDownLatch start = new CountDownLatch(1);
+            final long end = System.currentTimeMillis() + durationS * 1000L;
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; t++) {
+                final Random random = new Random(t);
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        long ops = 0;
+                        long hitCount = 0;
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        while ((ops & 0xFFF) != 0 || System.currentTimeMillis() < end) {
+                            int dir = random.nextInt(numDirs);
+                            String file = files[dir][random.nextInt(filesPerDir)];
+                            int operation = random.nextInt(1000);
+                            if (operation < invalidatePrefixPermille) {
+                                cache.invalidatePrefix(dirs[dir]);
+                            } else if (operation < updatePercent * 10) {
+                                cache.updateStat(file, stat);
+                            } else if (cache.getStat(file) != null) {
+                                hitCount++;
+                            } else {
+                                // a client would retrieve the Stat from the MRC and cache it
+                                cache.updateStat(file, stat);
+                            }
+                            ops++;
+                        }
+                        operations.addAndGet(ops);
+                        hits.addAndGet(hitCount);
+                    }
+                };
+                threads[t].start();
+            }
+
+            long t0 = System.currentTimeMillis();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long time = System.currentTimeMillis() - t0;
+
+            System.out.format("%2d threads: %,d operations in %d ms (%,.0f ops/s), hit rate %.1f %%, "
+                    + "%d entries%n", numThreads, operations.get(), time, operations.get() * 1000.0
+                    / Math.max(time, 1), hits.get() * 100.0 / Math.max(operations.get(), 1), cache.size());
+        }
+    }
+}
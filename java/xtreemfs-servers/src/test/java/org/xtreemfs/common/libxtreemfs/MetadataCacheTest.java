@@ -13,6 +13,7 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.junit.Before;
@@ -401,6 +402,55 @@ public class MetadataCacheTest {
         assertEquals(3, statD.getIno());
     }
 
+    /**
+     * Entries below a directory must be invalidated and renamed even if the directory itself and the
+     * directories in between are not cached, and if they are spread over several segments.
+     */
+    @Test
+    public void testPrefixOperationsWithoutCachedParents() throws Exception {
+        metadataCache = new MetadataCache(1024, 3600);
+
+        for (int i = 0; i < 100; i++) {
+            metadataCache.updateStat("/dir/sub" + (i % 10) + "/file" + i, getIntializedStatBuilder().setIno(i)
+                    .build());
+        }
+        metadataCache.updateStat("/dir2/file", getIntializedStatBuilder().build());
+        assertEquals(101l, metadataCache.size());
+
+        metadataCache.renamePrefix("/dir/sub1", "/dir/new1");
+        assertEquals(101l, metadataCache.size());
+        assertNull(metadataCache.getStat("/dir/sub1/file11"));
+        assertEquals(11, metadataCache.getStat("/dir/new1/file11").getIno());
+
+        metadataCache.invalidatePrefix("/dir/sub2");
+        assertEquals(91l, metadataCache.size());
+        assertNull(metadataCache.getStat("/dir/sub2/file12"));
+        assertNotNull(metadataCache.getStat("/dir/sub3/file13"));
+
+        metadataCache.invalidatePrefix("/dir");
+        assertEquals(1l, metadataCache.size());
+        assertNull(metadataCache.getStat("/dir/new1/file11"));
+        assertNotNull(metadataCache.getStat("/dir2/file"));
+    }
+
+    /**
+     * Stat objects of several paths are cached with the same timeout, except hard links.
+     */
+    @Test
+    public void testUpdateStats() throws Exception {
+        metadataCache = new MetadataCache(1024, 3600);
+
+        metadataCache.updateStat("/dir/link", getIntializedStatBuilder().build());
+        metadataCache.updateStats(Arrays.asList("/dir", "/dir/file", "/dir/link", ""), Arrays.asList(
+                getIntializedStatBuilder().setIno(1).build(), getIntializedStatBuilder().setIno(2).build(),
+                getIntializedStatBuilder().setIno(3).setNlink(2).build(), getIntializedStatBuilder().build()));
+
+        assertEquals(2l, metadataCache.size());
+        assertEquals(1, metadataCache.getStat("/dir").getIno());
+        assertEquals(2, metadataCache.getStat("/dir/file").getIno());
+        assertNull(metadataCache.getStat("/dir/link"));
+    }
+
     /**
      * Are large nanoseconds values correctly updated by UpdateStatAttributes?
      */
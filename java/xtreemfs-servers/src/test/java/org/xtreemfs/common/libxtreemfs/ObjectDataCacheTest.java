@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.common.libxtreemfs.ObjectDataCache.CachedObject;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XCap;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+
+public class ObjectDataCacheTest {
+    @Rule
+    public final TestRule   testLog = TestHelper.testLog;
+
+    private static final int OBJECT_SIZE = 100;
+
+    private ObjectDataCache cache;
+
+    private XCap            xcap;
+
+    private XLocSet         xlocs;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ObjectDataCache(3 * OBJECT_SIZE, 60 * 1000);
+        xcap = XCap.newBuilder().setAccessMode(0).setClientIdentity("").setExpireTimeS(0).setExpireTimeoutS(600)
+                .setFileId("vol:1").setReplicateOnClose(false).setServerSignature("").setTruncateEpoch(0)
+                .setSnapConfig(SnapConfig.SNAP_CONFIG_SNAPS_DISABLED).setSnapTimestamp(0).build();
+        xlocs = XLocSet.newBuilder().setReadOnlyFileSize(0).setReplicaUpdatePolicy("").setVersion(1).build();
+    }
+
+    private CachedObject put(String fileId, long objNo, int length, int zeroPadding) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (objNo + i);
+        }
+        return cache.put(fileId, objNo, xcap, xlocs, ReusableBuffer.wrap(data), zeroPadding,
+                cache.getInvalidations());
+    }
+
+    @Test
+    public void testCopyTo() throws Exception {
+        CachedObject object = put("vol:1", 3, 60, 20);
+        assertEquals(80, object.getLength());
+
+        // Data and zero padding.
+        byte[] bytes = new byte[100];
+        ReusableBuffer buf = ReusableBuffer.wrap(bytes);
+        buf.put((byte) 42);
+        assertEquals(30, object.copyTo(buf, 50, 50));
+        assertEquals(31, buf.position());
+        assertEquals(42, bytes[0]);
+        for (int i = 0; i < 10; i++) {
+            assertEquals((byte) (3 + 50 + i), bytes[1 + i]);
+        }
+        for (int i = 10; i < 30; i++) {
+            assertEquals(0, bytes[1 + i]);
+        }
+
+        // Beyond the end of the object.
+        assertEquals(0, object.copyTo(buf, 80, 10));
+        assertEquals(31, buf.position());
+    }
+
+    @Test
+    public void testGetAndInvalidate() throws Exception {
+        put("vol:1", 0, OBJECT_SIZE, 0);
+        put("vol:1", 1, OBJECT_SIZE, 0);
+        put("vol:2", 0, OBJECT_SIZE, 0);
+        assertEquals(3, cache.getNumEntries());
+        assertEquals(3 * OBJECT_SIZE, cache.getSize());
+
+        assertNotNull(cache.get("vol:1", 0, xcap, xlocs));
+        assertNull(cache.get("vol:1", 2, xcap, xlocs));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.invalidate("vol:1", 0);
+        assertNull(cache.get("vol:1", 0, xcap, xlocs));
+        assertNotNull(cache.get("vol:1", 1, xcap, xlocs));
+
+        cache.invalidateFile("vol:1");
+        assertNull(cache.get("vol:1", 1, xcap, xlocs));
+        assertNotNull(cache.get("vol:2", 0, xcap, xlocs));
+        assertEquals(1, cache.getNumEntries());
+        assertEquals(OBJECT_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testVersions() throws Exception {
+        put("vol:1", 0, OBJECT_SIZE, 0);
+        put("vol:1", 1, OBJECT_SIZE, 0);
+
+        // Objects read before a truncate or with another XLocSet are outdated.
+        XCap truncatedXCap = xcap.toBuilder().setTruncateEpoch(1).build();
+        assertNull(cache.get("vol:1", 0, truncatedXCap, xlocs));
+        XLocSet newXLocs = xlocs.toBuilder().setVersion(2).build();
+        assertNull(cache.get("vol:1", 1, xcap, newXLocs));
+        assertEquals(0, cache.getNumEntries());
+        assertEquals(0, cache.getSize());
+
+        // Objects expire with the XCap they were read with.
+        xcap = xcap.toBuilder().setExpireTimeoutS(0).build();
+        put("vol:1", 0, OBJECT_SIZE, 0);
+        Thread.sleep(10);
+        assertNull(cache.get("vol:1", 0, xcap, xlocs));
+    }
+
+    @Test
+    public void testTTL() throws Exception {
+        // Objects expire after the TTL, even if the XCap is still valid.
+        cache = new ObjectDataCache(3 * OBJECT_SIZE, 50);
+        put("vol:1", 0, OBJECT_SIZE, 0);
+        assertNotNull(cache.get("vol:1", 0, xcap, xlocs));
+        Thread.sleep(100);
+        assertNull(cache.get("vol:1", 0, xcap, xlocs));
+        assertEquals(0, cache.getNumEntries());
+    }
+
+    @Test
+    public void testNoCachingAfterInvalidation() throws Exception {
+        // Data read before an invalidation may be outdated.
+        long invalidations = cache.getInvalidations();
+        cache.invalidate("vol:1", 0);
+        CachedObject object = cache.put("vol:1", 0, xcap, xlocs, ReusableBuffer.wrap(new byte[10]), 0,
+                invalidations);
+        assertEquals(10, object.getLength());
+        assertNull(cache.get("vol:1", 0, xcap, xlocs));
+    }
+
+    @Test
+    public void testLRUEviction() throws Exception {
+        put("vol:1", 0, OBJECT_SIZE, 0);
+        put("vol:1", 1, OBJECT_SIZE, 0);
+        put("vol:1", 2, OBJECT_SIZE, 0);
+
+        // Access object 0, so that object 1 is evicted first.
+        assertNotNull(cache.get("vol:1", 0, xcap, xlocs));
+        put("vol:1", 3, OBJECT_SIZE, 0);
+        assertNull(cache.get("vol:1", 1, xcap, xlocs));
+        assertNotNull(cache.get("vol:1", 0, xcap, xlocs));
+        assertNotNull(cache.get("vol:1", 2, xcap, xlocs));
+        assertNotNull(cache.get("vol:1", 3, xcap, xlocs));
+        assertEquals(3 * OBJECT_SIZE, cache.getSize());
+
+        // Replacing an object does not count twice.
+        put("vol:1", 3, OBJECT_SIZE / 2, 0);
+        assertEquals(3, cache.getNumEntries());
+        assertEquals(2 * OBJECT_SIZE + OBJECT_SIZE / 2, cache.getSize());
+
+        // Objects larger than the cache are not cached.
+        put("vol:1", 4, 4 * OBJECT_SIZE, 0);
+        assertNull(cache.get("vol:1", 4, xcap, xlocs));
+        assertEquals(3, cache.getNumEntries());
+    }
+}
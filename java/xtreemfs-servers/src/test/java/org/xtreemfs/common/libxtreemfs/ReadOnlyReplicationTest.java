@@ -7,6 +7,10 @@
  */
 package org.xtreemfs.common.libxtreemfs;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 
 import org.junit.AfterClass;
@@ -22,6 +26,7 @@ import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.Auth;
 import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.UserCredentials;
 import org.xtreemfs.foundation.util.FSUtils;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDSelectionPolicyType;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replicas;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
 import org.xtreemfs.pbrpc.generatedinterfaces.MRCServiceClient;
 import org.xtreemfs.SetupUtils;
@@ -159,4 +164,49 @@ public class ReadOnlyReplicationTest {
         volume.close();
         client.shutdown();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReadsAreSpreadAcrossReplicas() throws Exception {
+        final String volumeName = "testReadsAreSpreadAcrossReplicas";
+        final String path = "/test.bin";
+
+        Client client = ClientFactory.createClient(dirAddress, userCredentials, null, options);
+        client.start();
+
+        client.createVolume(mrcAddress, auth, userCredentials, volumeName);
+        Volume volume = client.openVolume(volumeName, null, options);
+        volume.start();
+        volume.setDefaultReplicationPolicy(userCredentials, "/", ReplicaUpdatePolicies.REPL_UPDATE_PC_RONLY, 2,
+                ReplicationFlags.setFullReplica(ReplicationFlags.setRarestFirstStrategy(0)));
+
+        FileHandle fileHandle = volume.openFile(userCredentials, path,
+                SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                        | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 0777);
+        byte[] bytesIn = new byte[64 * 1024];
+        for (int i = 0; i < bytesIn.length; i++) {
+            bytesIn[i] = (byte) i;
+        }
+        fileHandle.write(userCredentials, bytesIn, bytesIn.length, 0);
+        fileHandle.close();
+
+        Replicas replicas = volume.listReplicas(userCredentials, path);
+        assertEquals(2, replicas.getReplicasCount());
+
+        // Both replicas are chosen by the replica selector at first, as their latency is unknown.
+        fileHandle = volume.openFile(userCredentials, path, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDONLY.getNumber());
+        byte[] bytesOut = new byte[bytesIn.length];
+        for (int i = 0; i < 20; i++) {
+            assertEquals(bytesIn.length, fileHandle.read(userCredentials, bytesOut, bytesOut.length, 0));
+            assertArrayEquals(bytesIn, bytesOut);
+        }
+        fileHandle.close();
+
+        ReplicaSelector replicaSelector = ((VolumeImplementation) volume).getReplicaSelector();
+        for (int i = 0; i < replicas.getReplicasCount(); i++) {
+            assertTrue(replicaSelector.getAverageLatencyNs(replicas.getReplicas(i).getOsdUuids(0)) > 0);
+        }
+
+        volume.close();
+        client.shutdown();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+package org.xtreemfs.common.libxtreemfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+
+public class ReplicaSelectorTest {
+    @Rule
+    public final TestRule      testLog = TestHelper.testLog;
+
+    private final List<String> uuids   = Arrays.asList("osd1", "osd2", "osd3");
+
+    /**
+     * Reads from "uuid" with the given latency.
+     */
+    private void read(ReplicaSelector selector, String uuid, long latencyMs) throws Exception {
+        UUIDIterator uuidIterator = new UUIDIterator();
+        uuidIterator.addUUID(uuid);
+        ReplicaSelector.Request request = selector.requestStarted(uuidIterator);
+        Thread.sleep(latencyMs);
+        selector.requestFinished(request, uuidIterator, true);
+    }
+
+    @Test
+    public void testUnknownReplicasAreTriedFirst() throws Exception {
+        ReplicaSelector selector = new ReplicaSelector(60000);
+        read(selector, "osd1", 1);
+        read(selector, "osd2", 1);
+
+        assertEquals("osd3", selector.getUUIDIterator(uuids).getUUID());
+    }
+
+    @Test
+    public void testFastestReplicaIsChosen() throws Exception {
+        ReplicaSelector selector = new ReplicaSelector(60000);
+        read(selector, "osd1", 50);
+        read(selector, "osd2", 1);
+        read(selector, "osd3", 50);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("osd2", selector.getUUIDIterator(uuids).getUUID());
+        }
+        assertTrue(selector.getAverageLatencyNs("osd2") < selector.getAverageLatencyNs("osd1"));
+    }
+
+    @Test
+    public void testOutstandingRequestsSpreadReads() throws Exception {
+        ReplicaSelector selector = new ReplicaSelector(60000);
+        read(selector, "osd1", 10);
+        read(selector, "osd2", 10);
+        read(selector, "osd3", 10);
+
+        // Every read goes to another replica as long as the previous ones are outstanding.
+        Set<String> chosen = new HashSet<String>();
+        for (int i = 0; i < uuids.size(); i++) {
+            UUIDIterator uuidIterator = selector.getUUIDIterator(uuids);
+            chosen.add(uuidIterator.getUUID());
+            for (int j = 0; j < 10; j++) {
+                selector.requestStarted(uuidIterator);
+            }
+        }
+        assertEquals(uuids.size(), chosen.size());
+    }
+
+    @Test
+    public void testFailedReplicaComesLast() throws Exception {
+        ReplicaSelector selector = new ReplicaSelector(60000);
+        read(selector, "osd1", 1);
+        read(selector, "osd2", 10);
+        read(selector, "osd3", 10);
+
+        // The read from osd1 fails over to the next replica.
+        UUIDIterator uuidIterator = new UUIDIterator(uuids);
+        ReplicaSelector.Request request = selector.requestStarted(uuidIterator);
+        uuidIterator.markUUIDAsFailed("osd1");
+        selector.requestFinished(request, uuidIterator, true);
+
+        for (int i = 0; i < 10; i++) {
+            uuidIterator = selector.getUUIDIterator(uuids);
+            assertTrue(!uuidIterator.getUUID().equals("osd1"));
+            assertEquals(uuids.size(), uuidIterator.size());
+        }
+
+        // It is tried again after the failure timeout.
+        selector = new ReplicaSelector(0);
+        read(selector, "osd1", 1);
+        read(selector, "osd2", 10);
+        read(selector, "osd3", 10);
+        request = selector.requestStarted(new UUIDIterator(uuids));
+        selector.requestFinished(request, new UUIDIterator(uuids), false);
+        Thread.sleep(1);
+        assertEquals("osd1", selector.getUUIDIterator(uuids).getUUID());
+    }
+}
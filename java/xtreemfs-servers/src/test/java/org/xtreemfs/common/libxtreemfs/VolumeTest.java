@@ -216,6 +216,52 @@ public class VolumeTest {
         }
     }
 
+    @Test
+    public void testGetAttrs() throws Exception {
+        options.setReaddirChunkSize(3);
+
+        VOLUME_NAME = "testGetAttrs";
+        final String TESTFILE = "/test";
+        final int fileCount = 10;
+
+        // create volume
+        client.createVolume(mrcAddress, auth, userCredentials, VOLUME_NAME, 0, userCredentials.getUsername(),
+                userCredentials.getGroups(0), AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL,
+                StripingPolicyType.STRIPING_POLICY_RAID0, defaultStripingPolicy.getStripeSize(),
+                defaultStripingPolicy.getWidth(), new ArrayList<KeyValuePair>());
+
+        Volume volume = client.openVolume(VOLUME_NAME, null, options);
+
+        // create some files of different sizes
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < fileCount; i++) {
+            FileHandle fh = volume.openFile(userCredentials, TESTFILE + i,
+                    SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_CREAT.getNumber()
+                            | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber());
+            fh.write(userCredentials, new byte[i], i, 0);
+            fh.close();
+            paths.add(TESTFILE + i);
+        }
+        paths.add("/doesNotExist");
+        paths.add(TESTFILE + "0/notADirectory");
+
+        // Serve one of them from the cache.
+        Stat cached = volume.getAttr(userCredentials, TESTFILE + 5);
+
+        // test 'getAttrs' across multiple chunks.
+        List<Stat> stats = volume.getAttrs(userCredentials, paths);
+        assertEquals(fileCount + 2, stats.size());
+        for (int i = 0; i < fileCount; i++) {
+            assertNotNull(stats.get(i));
+            assertEquals(i, stats.get(i).getSize());
+        }
+        assertEquals(cached, stats.get(5));
+        assertNull(stats.get(fileCount));
+        assertNull(stats.get(fileCount + 1));
+
+        volume.close();
+    }
+
     @Test
     public void testCreateDelete() throws Exception {
         VOLUME_NAME = "testCreateDelete";
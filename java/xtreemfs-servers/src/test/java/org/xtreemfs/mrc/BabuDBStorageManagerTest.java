@@ -410,6 +410,85 @@ public class BabuDBStorageManagerTest {
         
     }
     
+    @Test
+    public void testCursorReaddir() throws Exception {
+        
+        final String userId = "me";
+        final String groupId = "myGroup";
+        final short perms = 511;
+        final long w32Attrs = Long.MIN_VALUE;
+        exc = null;
+        
+        AtomicDBUpdate update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.createDir(1, 0, "root", 0, 0, 0, userId, groupId, perms, w32Attrs, update).getId();
+        update.execute();
+        waitForResponse();
+        
+        // create nested files and directories, some of which have names that
+        // are prefixes of other names
+        String[] names = { "a", "a0", "a1", "a10", "a1a", "ab", "b", "b.txt", "bb", "c" };
+        for (int i = 0; i < names.length; i++) {
+            
+            update = mngr.createAtomicDBUpdate(listener, null);
+            if (i % 2 == 0)
+                mngr.createDir(i + 2, 1, names[i], 0, 0, 0, userId, groupId, perms, w32Attrs, update);
+            else
+                mngr.createFile(i + 2, 1, names[i], 0, 0, 0, userId, groupId, perms, w32Attrs, 0, false, 0, 0,
+                    update);
+            update.execute();
+            waitForResponse();
+        }
+        
+        // create a file in a nested directory, which must not be listed
+        update = mngr.createAtomicDBUpdate(listener, null);
+        mngr.createFile(100, 2, "nested", 0, 0, 0, userId, groupId, perms, w32Attrs, 0, false, 0, 0, update);
+        update.execute();
+        waitForResponse();
+        
+        // page through the root directory with different page sizes
+        for (int pageSize = 1; pageSize <= names.length + 1; pageSize++) {
+            
+            List<String> listed = new LinkedList<String>();
+            String last = null;
+            for (;;) {
+                DatabaseResultSet<FileMetadata> children = mngr.getChildren(1, last, pageSize);
+                int count = 0;
+                while (children.hasNext()) {
+                    last = children.next().getFileName();
+                    listed.add(last);
+                    count++;
+                }
+                children.destroy();
+                
+                assertTrue(count <= pageSize);
+                if (count < pageSize)
+                    break;
+            }
+            
+            // the cursor must return the same entries in the same order as
+            // the offset-based listing
+            List<String> expected = new LinkedList<String>();
+            DatabaseResultSet<FileMetadata> children = mngr.getChildren(1, 0, Integer.MAX_VALUE);
+            while (children.hasNext())
+                expected.add(children.next().getFileName());
+            children.destroy();
+            
+            assertEquals(names.length, expected.size());
+            assertEquals(expected, listed);
+        }
+        
+        // continuing after the last entry returns nothing
+        DatabaseResultSet<FileMetadata> children = mngr.getChildren(1, "c", 10);
+        assertFalse(children.hasNext());
+        children.destroy();
+        
+        // continuing after a non-existing entry starts with the next one
+        children = mngr.getChildren(1, "a2", 10);
+        assertTrue(children.hasNext());
+        assertEquals("ab", children.next().getFileName());
+        children.destroy();
+    }
+    
     private void waitForResponse() throws Exception {
         
         synchronized (lock) {
@@ -275,11 +275,11 @@ public class MRCTest {
         // test 'readDir' and 'stat'
         
         DirectoryEntries entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc,
-            volumeName, "", -1, 1000, false, 0));
+            volumeName, "", -1, 1000, false, 0, ""));
         assertEquals(4, entrySet.getEntriesCount());
         
         entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir",
-            -1, 1000, false, 0));
+            -1, 1000, false, 0, ""));
         assertEquals(12, entrySet.getEntriesCount());
         
         Stat stat = invokeSync(
@@ -300,7 +300,7 @@ public class MRCTest {
         invokeSync(client.unlink(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir/test3.txt"));
         
         entrySet = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "myDir",
-            -1, 1000, false, 0));
+            -1, 1000, false, 0, ""));
         assertEquals(11, entrySet.getEntriesCount());
         
         invokeSync(client.rmdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "anotherDir"));
@@ -318,7 +318,7 @@ public class MRCTest {
             AccessControlPolicyType.ACCESS_CONTROL_POLICY_NULL, getDefaultStripingPolicy(), "", 0,
             volumeName, "", "", getKVList(), 0));
         invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc, volumeName, "/", -1, 1000,
-            false, 0));
+            false, 0, ""));
     }
     
     @Test
@@ -861,7 +861,7 @@ public class MRCTest {
         
         final UserCredentials ucS = createUserCredentials("someone", createGIDs("somegroup"));
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, ucS, noACVolumeName,
-            "newDir/newFile", -1, 1000, false, 0)));
+            "newDir/newFile", -1, 1000, false, 0, "")));
         
         // VOLUME policy
         
@@ -898,7 +898,7 @@ public class MRCTest {
         
         // check permissions by opening the file
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName,
-            "newDir", -1, 1000, false, 0)));
+            "newDir", -1, 1000, false, 0, "")));
         
         try {
             invokeSync(client.mkdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName, "newDir2",
@@ -958,14 +958,14 @@ public class MRCTest {
         // readdir on "/newDir"; should fail for any user now
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied");
         } catch (PBRPCException exc) {
         }
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied");
         } catch (PBRPCException exc) {
         }
@@ -976,14 +976,14 @@ public class MRCTest {
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied due to insufficient permissions");
         } catch (PBRPCException exc) {
         }
         
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied due to insufficient search permissions");
         } catch (PBRPCException exc) {
         }
@@ -994,11 +994,11 @@ public class MRCTest {
         
         // access should be granted to others now
         invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName, "newDir", -1,
-            1000, false, 0));
+            1000, false, 0, ""));
         
         // check permissions
         assertNotNull(invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc2, posixVolName,
-            "newDir", -1, 1000, false, 0)));
+            "newDir", -1, 1000, false, 0, "")));
         
         // check permissions
         assertNotNull(invokeSync(client.getattr(mrcAddress, RPCAuthentication.authNone, uc3, posixVolName,
@@ -1011,7 +1011,7 @@ public class MRCTest {
         // owner of 'newDir' should still not have access rights
         try {
             invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc1, posixVolName, "newDir",
-                -1, 1000, false, 0));
+                -1, 1000, false, 0, ""));
             fail("access should have been denied due to insufficient permissions");
         } catch (PBRPCException exc) {
         }
@@ -1574,7 +1574,7 @@ public class MRCTest {
             // if the path points to a directory, check whether the number of
             // subdirectories is correct
             DirectoryEntries dir = invokeSync(client.readdir(mrcAddress, RPCAuthentication.authNone, uc,
-                volumeName, path, -1, 1000, false, 0));
+                volumeName, path, -1, 1000, false, 0, ""));
             int size = dir.getEntriesCount();
             
             int count = 0;
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.mrc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.mrc.stages.ProcessingLanes;
+
+/**
+ * Tests the execution lanes of the parallel MRC processing stage.
+ */
+public class ProcessingLanesTest {
+    @Rule
+    public final TestRule   testLog = TestHelper.testLog;
+
+    private ProcessingLanes lanes;
+
+    @After
+    public void tearDown() throws Exception {
+        if (lanes != null) {
+            lanes.shutdown();
+            lanes.awaitTermination(10000);
+        }
+    }
+
+    @Test
+    public void testMutationOrderPerVolume() throws Exception {
+
+        lanes = new ProcessingLanes("test", 4, 4);
+
+        final String[] volumes = { "vol0", "vol1", "vol2", "vol3", "vol4" };
+        final List<List<Integer>> results = new ArrayList<List<Integer>>();
+        for (int i = 0; i < volumes.length; i++)
+            results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+
+        for (int i = 0; i < 1000; i++)
+            for (int v = 0; v < volumes.length; v++) {
+                final List<Integer> result = results.get(v);
+                final int seq = i;
+                lanes.executeMutation(volumes[v], new Runnable() {
+                    public void run() {
+                        result.add(seq);
+                    }
+                });
+            }
+
+        lanes.drain();
+        assertEquals(0, lanes.getNumPending());
+
+        for (List<Integer> result : results) {
+            assertEquals(1000, result.size());
+            for (int i = 0; i < result.size(); i++)
+                assertEquals(i, result.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testReadsExcludeMutations() throws Exception {
+
+        lanes = new ProcessingLanes("test", 8, 2);
+
+        final AtomicInteger activeReads = new AtomicInteger();
+        final AtomicInteger maxActiveReads = new AtomicInteger();
+        final AtomicBoolean writing = new AtomicBoolean();
+        final AtomicBoolean violation = new AtomicBoolean();
+
+        Runnable read = new Runnable() {
+            public void run() {
+                if (writing.get())
+                    violation.set(true);
+                int active = activeReads.incrementAndGet();
+                synchronized (maxActiveReads) {
+                    if (active > maxActiveReads.get())
+                        maxActiveReads.set(active);
+                }
+                sleep(1);
+                activeReads.decrementAndGet();
+            }
+        };
+
+        Runnable write = new Runnable() {
+            public void run() {
+                if (activeReads.get() != 0 || !writing.compareAndSet(false, true))
+                    violation.set(true);
+                sleep(1);
+                writing.set(false);
+            }
+        };
+
+        for (int i = 0; i < 200; i++) {
+            lanes.executeRead("vol", read);
+            if (i % 20 == 0)
+                lanes.executeMutation("vol", write);
+        }
+
+        lanes.drain();
+
+        assertFalse(violation.get());
+        assertTrue(maxActiveReads.get() > 1);
+    }
+
+    @Test
+    public void testIndependentVolumes() throws Exception {
+
+        lanes = new ProcessingLanes("test", 2, 2);
+
+        // a blocked mutation must not block reads or mutations of other
+        // volumes
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+
+        // pick a volume that is mapped to the other lane
+        final String blockedVolume = "vol0";
+        String otherVolume = null;
+        for (int i = 1; otherVolume == null; i++)
+            if (getLane("vol" + i, 2) != getLane(blockedVolume, 2))
+                otherVolume = "vol" + i;
+
+        lanes.executeMutation(blockedVolume, new Runnable() {
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        Runnable countDown = new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        };
+        lanes.executeRead(otherVolume, countDown);
+        lanes.executeMutation(otherVolume, countDown);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(lanes.getNumPending() >= 1);
+
+        blocked.countDown();
+        lanes.drain();
+        assertEquals(0, lanes.getNumPending());
+    }
+
+    @Test
+    public void testHeldLane() throws Exception {
+
+        lanes = new ProcessingLanes("test", 2, 2);
+
+        // an operation that completes asynchronously keeps its volume locked
+        // until its handle has been run
+        final AtomicReference<Runnable> handle = new AtomicReference<Runnable>();
+        final AtomicBoolean readDone = new AtomicBoolean();
+        lanes.executeMutation("vol", new Runnable() {
+            public void run() {
+                handle.set(ProcessingLanes.holdLane());
+            }
+        });
+        lanes.executeRead("vol", new Runnable() {
+            public void run() {
+                readDone.set(true);
+            }
+        });
+
+        sleep(100);
+        assertNotNull(handle.get());
+        assertFalse(readDone.get());
+        assertEquals(2, lanes.getNumPending());
+
+        handle.get().run();
+        lanes.drain();
+        assertTrue(readDone.get());
+
+        // outside of the lanes, there is nothing to hold
+        assertNull(ProcessingLanes.holdLane());
+    }
+
+    @Test
+    public void testWithoutLanes() throws Exception {
+
+        lanes = new ProcessingLanes("test", 2, 0);
+
+        // mutations are executed by the calling thread
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean inline = new AtomicBoolean();
+        lanes.executeMutation("vol", new Runnable() {
+            public void run() {
+                inline.set(Thread.currentThread() == caller);
+            }
+        });
+        assertTrue(inline.get());
+        assertEquals(0, lanes.getNumPending());
+    }
+
+    private static int getLane(String volumeId, int numLanes) {
+        return (volumeId.hashCode() & Integer.MAX_VALUE) % numLanes;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
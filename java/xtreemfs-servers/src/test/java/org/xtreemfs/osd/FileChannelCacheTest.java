@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.osd.storage.FileChannelCache;
+import org.xtreemfs.osd.storage.FileChannelCache.CachedChannel;
+
+public class FileChannelCacheTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    private File          dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("channelcache", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        FileChannelCache cache = new FileChannelCache(2);
+        final String path = new File(dir, "obj").getAbsolutePath();
+
+        assertNull(cache.open(path, false));
+
+        CachedChannel first = cache.open(path, true);
+        first.release();
+        CachedChannel second = cache.open(path, false);
+        assertSame(first, second);
+        second.release();
+
+        assertEquals(1, cache.getNumEntries());
+        assertEquals(1, cache.getNumHits());
+        assertEquals(2, cache.getNumMisses());
+    }
+
+    @Test
+    public void testInvalidatedChannelIsClosedOnRelease() throws Exception {
+        FileChannelCache cache = new FileChannelCache(2);
+        final String path = new File(dir, "obj").getAbsolutePath();
+
+        CachedChannel cached = cache.open(path, true);
+        FileChannel channel = cached.getChannel();
+
+        // another thread deletes the object while the channel is in use
+        cache.invalidate(path);
+        assertEquals(0, cache.getNumEntries());
+        assertTrue(channel.isOpen());
+        assertEquals(4, channel.write(ByteBuffer.wrap(new byte[4]), 0));
+
+        cached.release();
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testEvictedChannelIsClosedOnRelease() throws Exception {
+        FileChannelCache cache = new FileChannelCache(2);
+
+        CachedChannel inUse = cache.open(new File(dir, "obj0").getAbsolutePath(), true);
+        CachedChannel unused = cache.open(new File(dir, "obj1").getAbsolutePath(), true);
+        unused.release();
+        cache.open(new File(dir, "obj2").getAbsolutePath(), true).release();
+        cache.open(new File(dir, "obj3").getAbsolutePath(), true).release();
+
+        // both older channels are evicted, but only the unused one is closed
+        assertEquals(2, cache.getNumEntries());
+        assertFalse(unused.getChannel().isOpen());
+        assertTrue(inUse.getChannel().isOpen());
+
+        inUse.release();
+        assertFalse(inUse.getChannel().isOpen());
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        FileChannelCache cache = new FileChannelCache(4);
+        CachedChannel inUse = cache.open(new File(dir, "obj0").getAbsolutePath(), true);
+        CachedChannel unused = cache.open(new File(dir, "obj1").getAbsolutePath(), true);
+        unused.release();
+
+        cache.invalidateAll(dir.getAbsolutePath());
+        assertEquals(0, cache.getNumEntries());
+        assertFalse(unused.getChannel().isOpen());
+        assertTrue(inUse.getChannel().isOpen());
+
+        inUse.release();
+        assertFalse(inUse.getChannel().isOpen());
+    }
+}
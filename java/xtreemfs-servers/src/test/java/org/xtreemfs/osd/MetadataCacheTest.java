@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.osd.storage.FileMetadata;
+import org.xtreemfs.osd.storage.MetadataCache;
+
+/**
+ * Tests the bounds and the eviction of the OSD file metadata cache.
+ */
+public class MetadataCacheTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    @Test
+    public void testEntryLimit() throws Exception {
+
+        MetadataCache cache = new MetadataCache(3, 0);
+
+        for (int i = 0; i < 3; i++)
+            cache.setFileInfo("file" + i, createMetadata(1));
+
+        // access file0, so that file1 becomes the least recently used entry
+        assertNotNull(cache.getFileInfo("file0"));
+
+        cache.setFileInfo("file3", createMetadata(1));
+
+        assertEquals(3, cache.getNumEntries());
+        assertEquals(1, cache.getNumEvictions());
+        assertNull(cache.getFileInfo("file1"));
+        assertNotNull(cache.getFileInfo("file0"));
+        assertNotNull(cache.getFileInfo("file2"));
+        assertNotNull(cache.getFileInfo("file3"));
+
+        assertEquals(4, cache.getNumLoads());
+        assertEquals(4, cache.getNumHits());
+        assertEquals(1, cache.getNumMisses());
+    }
+
+    @Test
+    public void testByteLimit() throws Exception {
+
+        FileMetadata small = createMetadata(1);
+        FileMetadata large = createMetadata(100);
+        assertTrue(large.getEstimatedSize() > 2 * small.getEstimatedSize());
+
+        MetadataCache cache = new MetadataCache(0, large.getEstimatedSize() + small.getEstimatedSize());
+
+        cache.setFileInfo("small", small);
+        cache.setFileInfo("large", large);
+        assertEquals(2, cache.getNumEntries());
+        assertEquals(large.getEstimatedSize() + small.getEstimatedSize(), cache.getNumBytes());
+
+        // the growth of a cached entry is accounted with the next access
+        final long oldSize = small.getEstimatedSize();
+        for (long i = 1; i < 50; i++) {
+            small.updateObjectVersion(i, 1);
+            small.updateObjectChecksum(i, 1, 4711);
+        }
+        assertTrue(small.getEstimatedSize() > oldSize);
+        assertSame(small, cache.getFileInfo("small"));
+        assertEquals(large.getEstimatedSize() + small.getEstimatedSize(), cache.getNumBytes());
+
+        // adding another entry evicts the least recently used one
+        cache.setFileInfo("other", createMetadata(1));
+        assertNull(cache.getFileInfo("large"));
+        assertEquals(1, cache.getNumEvictions());
+
+        cache.removeFileInfo("small");
+        cache.removeFileInfo("other");
+        assertEquals(0, cache.getNumEntries());
+        assertEquals(0, cache.getNumBytes());
+    }
+
+    @Test
+    public void testPinnedFiles() throws Exception {
+
+        MetadataCache cache = new MetadataCache(2, 0);
+
+        // open files must not be evicted
+        cache.pinFile("open0");
+        cache.pinFile("open1");
+        cache.setFileInfo("open0", createMetadata(1));
+        cache.setFileInfo("open1", createMetadata(1));
+        cache.setFileInfo("file0", createMetadata(1));
+
+        assertEquals(2, cache.getNumEntries());
+        assertNotNull(cache.getFileInfo("open0"));
+        assertNotNull(cache.getFileInfo("open1"));
+        assertNull(cache.getFileInfo("file0"));
+
+        // if all files are open, the limit may be exceeded
+        cache.pinFile("open2");
+        cache.setFileInfo("open2", createMetadata(1));
+        assertEquals(3, cache.getNumEntries());
+
+        // closing a file makes it evictable again
+        cache.unpinFile("open0");
+        assertEquals(2, cache.getNumEntries());
+        assertNull(cache.getFileInfo("open0"));
+        assertNotNull(cache.getFileInfo("open1"));
+        assertNotNull(cache.getFileInfo("open2"));
+    }
+
+    @Test
+    public void testSegmentedEntryLimit() throws Exception {
+
+        // large caches are split into segments that evict independently, but
+        // the cache as a whole still complies with its bound
+        MetadataCache cache = new MetadataCache(1024, 0);
+        for (int i = 0; i < 10000; i++)
+            cache.setFileInfo("file" + i, createMetadata(1));
+
+        assertTrue(cache.getNumEntries() <= 1024);
+        assertTrue(cache.getNumEntries() > 512);
+        assertEquals(10000 - cache.getNumEntries(), cache.getNumEvictions());
+        assertNotNull(cache.getFileInfo("file9999"));
+    }
+
+    private static FileMetadata createMetadata(int numObjects) {
+
+        Map<Long, Long> versions = new HashMap<Long, Long>();
+        Map<Long, Map<Long, Long>> checksums = new HashMap<Long, Map<Long, Long>>();
+        for (long i = 0; i < numObjects; i++) {
+            versions.put(i, 1L);
+            Map<Long, Long> csums = new HashMap<Long, Long>();
+            csums.put(1L, i);
+            checksums.put(i, csums);
+        }
+
+        FileMetadata md = new FileMetadata(null);
+        md.initLatestObjectVersions(versions);
+        md.initLargestObjectVersions(versions);
+        md.initObjectChecksums(checksums);
+        md.setFilesize(numObjects * 1024);
+        md.setLastObjectNumber(numObjects - 1);
+
+        return md;
+    }
+
+}
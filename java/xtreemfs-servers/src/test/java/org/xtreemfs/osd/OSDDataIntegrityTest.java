@@ -12,12 +12,19 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 import org.xtreemfs.common.Capability;
 import org.xtreemfs.common.uuids.ServiceUUID;
 import org.xtreemfs.foundation.buffer.BufferPool;
@@ -27,6 +34,8 @@ import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
 import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
 import org.xtreemfs.osd.OSD;
 import org.xtreemfs.osd.OSDConfig;
+import org.xtreemfs.osd.storage.HashStorageLayout;
+import org.xtreemfs.osd.storage.SegmentStorageLayout;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
@@ -39,6 +48,11 @@ import org.xtreemfs.SetupUtils;
 import org.xtreemfs.TestEnvironment;
 import org.xtreemfs.TestHelper;
 
+/**
+ * Runs with each storage layout the OSD can be configured with, and with
+ * zero-copy reads, which send the data directly from the object files.
+ */
+@RunWith(Parameterized.class)
 public class OSDDataIntegrityTest {
     @Rule
     public final TestRule         testLog = TestHelper.testLog;
@@ -51,23 +65,47 @@ public class OSDDataIntegrityTest {
 
     private static Capability      cap;
 
-    private static OSDConfig       osdConfig;
+    private final String           storageLayout;
+
+    private final boolean          zeroCopyReads;
+
+    private OSDConfig              osdConfig;
 
     private OSDServiceClient      osdClient;
 
     private OSD                   osdServer;
     private TestEnvironment       testEnv;
 
+    @Parameters(name = "{0}, zero-copy reads: {1}")
+    public static Collection<Object[]> storageLayouts() {
+        return Arrays.asList(new Object[][] { { HashStorageLayout.class.getSimpleName(), false },
+                { SegmentStorageLayout.class.getSimpleName(), false },
+                { HashStorageLayout.class.getSimpleName(), true } });
+    }
+
+    public OSDDataIntegrityTest(String storageLayout, boolean zeroCopyReads) {
+        this.storageLayout = storageLayout;
+        this.zeroCopyReads = zeroCopyReads;
+    }
+
     @BeforeClass
     public static void initializeTest() throws Exception {
         Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
 
-        osdConfig = SetupUtils.createOSD1Config();
         serverID = SetupUtils.getOSD1UUID();
     }
 
     @Before
     public void setUp() throws Exception {
+        HashMap<String, String> props = SetupUtils.createOSD1Config().toHashMap();
+        props.put("storage_layout", storageLayout);
+        if (zeroCopyReads) {
+            // object files are only sent directly if they are not modified in place
+            props.put("zero_copy_reads", "true");
+            props.put("checksums.enabled", "true");
+        }
+        osdConfig = new OSDConfig(props);
+
         // startup: DIR
         testEnv = new TestEnvironment(new TestEnvironment.Services[] { TestEnvironment.Services.DIR_SERVICE,
                 TestEnvironment.Services.TIME_SYNC, TestEnvironment.Services.UUID_RESOLVER,
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.osd.storage.ObjectChecksumTable;
+import org.xtreemfs.osd.storage.ObjectVersionMap;
+
+/**
+ * Tests the primitive object version and checksum tables of the OSD file
+ * metadata against boxed hash maps.
+ */
+public class ObjectVersionMapTest {
+    @Rule
+    public final TestRule testLog = TestHelper.testLog;
+
+    @Test
+    public void testDenseAndSparse() throws Exception {
+
+        // objects of the third column of a stripe with width 4
+        ObjectVersionMap map = new ObjectVersionMap(4);
+        Map<Long, Long> ref = new HashMap<Long, Long>();
+
+        List<Long> objNos = new ArrayList<Long>();
+        for (long i = 0; i < 1000; i++)
+            objNos.add(i * 4 + 2);
+        Collections.shuffle(objNos, new Random(1));
+
+        for (long objNo : objNos) {
+            map.putLong(objNo, objNo + 1);
+            ref.put(objNo, objNo + 1);
+        }
+
+        // a hole, an object of a different column and an object number beyond
+        // the range of the dense array
+        map.putLong(1000000, 7);
+        ref.put(1000000L, 7L);
+        map.putLong(5, 8);
+        ref.put(5L, 8L);
+        map.putLong(Long.MAX_VALUE - 1, 9);
+        ref.put(Long.MAX_VALUE - 1, 9L);
+
+        assertEquals(ref, map);
+        assertEquals(ref.size(), map.size());
+        for (long i = 0; i < 5000; i++)
+            assertEquals(ref.containsKey(i) ? ref.get(i) : 0, map.getLong(i, 0));
+        assertEquals(9, map.getLong(Long.MAX_VALUE - 1, 0));
+
+        // remove some entries
+        for (long objNo : new long[] { 2, 6, 1000000, 5, 3998 }) {
+            assertTrue(map.removeLong(objNo));
+            ref.remove(objNo);
+        }
+        assertFalse(map.removeLong(6));
+        assertNull(map.get(6L));
+        assertEquals(ref, map);
+
+        int count = 0;
+        for (Entry<Long, Long> entry : map.entrySet()) {
+            assertEquals(ref.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        assertEquals(ref.size(), count);
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void testChecksums() throws Exception {
+
+        ObjectChecksumTable table = new ObjectChecksumTable(null);
+
+        for (long i = 0; i < 100; i++)
+            table.put(i, 1, 1000 + i);
+        assertEquals(100, table.size());
+        assertEquals(1042, table.get(42, 1));
+        assertEquals(0, table.get(42, 2));
+        assertEquals(0, table.get(100, 1));
+
+        // a new version keeps the checksum of the former version
+        table.put(42, 2, 2042);
+        assertEquals(1042, table.get(42, 1));
+        assertEquals(2042, table.get(42, 2));
+
+        // re-adding a former version
+        table.put(42, 1, 3042);
+        assertEquals(3042, table.get(42, 1));
+        assertEquals(2042, table.get(42, 2));
+
+        table.remove(42, 2);
+        assertEquals(0, table.get(42, 2));
+        assertEquals(3042, table.get(42, 1));
+        table.remove(42, 1);
+        assertEquals(0, table.get(42, 1));
+        assertEquals(99, table.size());
+    }
+
+}
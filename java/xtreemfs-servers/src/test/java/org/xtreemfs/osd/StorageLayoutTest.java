@@ -11,11 +11,18 @@ package org.xtreemfs.osd;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 
 import org.junit.After;
 import org.junit.Before;
@@ -25,17 +32,22 @@ import org.junit.Test;
 import org.junit.rules.TestRule;
 import org.xtreemfs.common.xloc.StripingPolicyImpl;
 import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.FileRegion;
 import org.xtreemfs.foundation.buffer.ReusableBuffer;
 import org.xtreemfs.foundation.checksums.ChecksumFactory;
 import org.xtreemfs.foundation.checksums.provider.JavaChecksumProvider;
 import org.xtreemfs.foundation.logging.Logging;
 import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.osd.InternalObjectData;
 import org.xtreemfs.osd.OSDConfig;
 import org.xtreemfs.osd.replication.ObjectSet;
 import org.xtreemfs.osd.storage.FileMetadata;
 import org.xtreemfs.osd.storage.HashStorageLayout;
 import org.xtreemfs.osd.storage.MetadataCache;
+import org.xtreemfs.osd.storage.ObjectIndex;
+import org.xtreemfs.osd.storage.ObjectIndex.IndexedObject;
 import org.xtreemfs.osd.storage.ObjectInformation;
+import org.xtreemfs.osd.storage.SegmentStorageLayout;
 import org.xtreemfs.osd.storage.SingleFileStorageLayout;
 import org.xtreemfs.osd.storage.StorageLayout;
 import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
@@ -132,6 +144,436 @@ public class StorageLayoutTest {
         getFileIDListTest(layout);
     }
 
+    @Test
+    public void testHashStorageLayoutChannelCache() throws Exception {
+
+        HashStorageLayout layout = new HashStorageLayout(config, new MetadataCache());
+        layout.registerThread();
+        try {
+            basicTests(layout);
+            assertTrue(layout.getChannelCacheHits() > 0);
+
+            final String fileId = "ABCDEFG:0003";
+            Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 64))
+                    .setReplicationFlags(0).build();
+            StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(r, 0);
+            FileMetadata md = layout.getFileMetadata(sp, fileId);
+
+            // a new version must not be read from the channel of the old one
+            writeFilled(layout, md, fileId, 1, (byte) 1, false);
+            assertFilled(layout, md, fileId, 1, (byte) 1);
+            writeFilled(layout, md, fileId, 2, (byte) 2, false);
+            assertFilled(layout, md, fileId, 2, (byte) 2);
+            writeFilled(layout, md, fileId, 3, (byte) 3, true);
+            assertFilled(layout, md, fileId, 3, (byte) 3);
+            assertFilled(layout, md, fileId, 2, (byte) 2);
+
+            // truncating with a new version renames the object file
+            layout.truncateObject(fileId, md, 0, 16, 4, false);
+            ObjectInformation oinfo = layout.readObject(fileId, md, 0, 0, StorageLayout.FULL_OBJECT_LENGTH, 4);
+            assertEquals(16, oinfo.getData().capacity());
+            BufferPool.free(oinfo.getData());
+
+            layout.deleteObject(fileId, md, 0, 4);
+            oinfo = layout.readObject(fileId, md, 0, 0, StorageLayout.FULL_OBJECT_LENGTH, 4);
+            assertEquals(ObjectInformation.ObjectStatus.DOES_NOT_EXIST, oinfo.getStatus());
+
+            // deleting the file closes all of its objects
+            layout.deleteFile(fileId, true);
+            long open = layout.getNumOpenChannels();
+            oinfo = layout.readObject(fileId, md, 0, 0, StorageLayout.FULL_OBJECT_LENGTH, 2);
+            assertEquals(ObjectInformation.ObjectStatus.DOES_NOT_EXIST, oinfo.getStatus());
+            assertEquals(open, layout.getNumOpenChannels());
+        } finally {
+            layout.unregisterThread();
+        }
+        assertEquals(0, layout.getNumOpenChannels());
+    }
+
+    @Test
+    public void testHashStorageLayoutFileRegions() throws Exception {
+
+        final String fileId = "ABCDEFG:0004";
+
+        Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0)
+                .build();
+        StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(r, 0);
+
+        // without checksums, the latest version of an object is modified in
+        // place and thus copied, while older versions are sent as regions
+        HashStorageLayout plainLayout = new HashStorageLayout(config, new MetadataCache());
+        FileMetadata plainMd = plainLayout.getFileMetadata(sp, fileId);
+        ReusableBuffer data = BufferPool.allocate(64);
+        plainLayout.writeObject(fileId, plainMd, data, 0, 0, 1, false, false);
+        data = BufferPool.allocate(64);
+        plainLayout.writeObject(fileId, plainMd, data, 0, 0, 2, false, true);
+        ObjectInformation oinfo = plainLayout.readObjectRegion(fileId, plainMd, 0, 8, 16, 2);
+        assertNull(oinfo.getFileRegion());
+        assertEquals(16, oinfo.getData().capacity());
+        BufferPool.free(oinfo.getData());
+        oinfo = plainLayout.readObjectRegion(fileId, plainMd, 0, 8, 16, 1);
+        assertNotNull(oinfo.getFileRegion());
+        assertEquals(16, transfer(oinfo.getFileRegion()).length);
+        oinfo.getFileRegion().release();
+        FSUtils.delTree(new File(config.getObjDir()));
+
+        ChecksumFactory.getInstance().addProvider(new JavaChecksumProvider());
+        SetupUtils.CHECKSUMS_ON = true;
+        OSDConfig configCSUM = SetupUtils.createOSD1Config();
+        SetupUtils.CHECKSUMS_ON = false;
+        HashStorageLayout layout = new HashStorageLayout(configCSUM, new MetadataCache());
+        layout.registerThread();
+        FileMetadata md = layout.getFileMetadata(sp, fileId);
+
+        data = BufferPool.allocate(64);
+        for (int i = 0; i < 64; i++) {
+            data.put((byte) i);
+        }
+        data.flip();
+        layout.writeObject(fileId, md, data.createViewBuffer(), 0, 0, 1, false, false);
+        data.range(0, 20);
+        layout.writeObject(fileId, md, data.createViewBuffer(), 1, 0, 1, false, false);
+        BufferPool.free(data);
+
+        // a range of a full object
+        oinfo = layout.readObjectRegion(fileId, md, 0, 8, 16, 1);
+        assertEquals(ObjectInformation.ObjectStatus.EXISTS, oinfo.getStatus());
+        assertNull(oinfo.getData());
+        assertEquals(16, oinfo.getDataLength());
+        InternalObjectData objData = oinfo.getObjectData(false, 8, 16);
+        assertEquals(0, objData.getZero_padding());
+        byte[] bytes = transfer(objData.getFileRegion());
+        assertEquals(16, bytes.length);
+        for (int i = 0; i < bytes.length; i++)
+            assertEquals(i + 8, bytes[i]);
+        objData.getFileRegion().release();
+
+        // a range that exceeds a partial object must be padded with zeros
+        oinfo = layout.readObjectRegion(fileId, md, 1, 10, 40, 1);
+        assertEquals(10, oinfo.getDataLength());
+        objData = oinfo.getObjectData(false, 10, 40);
+        assertEquals(30, objData.getZero_padding());
+        bytes = transfer(objData.getFileRegion());
+        assertEquals(10, bytes.length);
+        assertEquals(10, bytes[0]);
+        objData.getFileRegion().release();
+
+        // reads beyond the end of an object and of non-existing objects do
+        // not need a region
+        oinfo = layout.readObjectRegion(fileId, md, 1, 32, 16, 1);
+        assertNull(oinfo.getFileRegion());
+        assertEquals(0, oinfo.getData().capacity());
+        BufferPool.free(oinfo.getData());
+        oinfo = layout.readObjectRegion(fileId, md, 2, 0, 16, 0);
+        assertEquals(ObjectInformation.ObjectStatus.DOES_NOT_EXIST, oinfo.getStatus());
+        assertNull(oinfo.getFileRegion());
+
+        // full object reads (which may verify checksums) are copied
+        oinfo = layout.readObjectRegion(fileId, md, 0, 0, StorageLayout.FULL_OBJECT_LENGTH, 1);
+        assertNull(oinfo.getFileRegion());
+        assertEquals(64, oinfo.getData().capacity());
+        BufferPool.free(oinfo.getData());
+
+        // a region is not affected by a truncate or write before it is sent,
+        // since these create a new object file; the borrowed channel of the
+        // old file remains open until the region is released
+        oinfo = layout.readObjectRegion(fileId, md, 0, 32, 32, 1);
+        layout.truncateObject(fileId, md, 0, 4, 2, false);
+        try {
+            bytes = transfer(oinfo.getFileRegion());
+            assertEquals(32, bytes.length);
+            for (int i = 0; i < bytes.length; i++)
+                assertEquals(i + 32, bytes[i]);
+        } finally {
+            oinfo.getFileRegion().release();
+        }
+        layout.unregisterThread();
+    }
+
+    private static byte[] transfer(FileRegion region) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        while (region.hasRemaining())
+            region.transferTo(channel);
+        return out.toByteArray();
+    }
+
+    private static void writeFilled(StorageLayout layout, FileMetadata md, String fileId, long version,
+            byte value, boolean cow) throws IOException {
+        ReusableBuffer data = BufferPool.allocate(md.getStripingPolicy().getStripeSizeForObject(0));
+        while (data.hasRemaining())
+            data.put(value);
+        data.flip();
+        layout.writeObject(fileId, md, data, 0, 0, version, false, cow);
+    }
+
+    private static void assertFilled(StorageLayout layout, FileMetadata md, String fileId, long version,
+            byte value) throws IOException {
+        ObjectInformation oinfo = layout.readObject(fileId, md, 0, 0, StorageLayout.FULL_OBJECT_LENGTH,
+                version);
+        assertEquals(md.getStripingPolicy().getStripeSizeForObject(0), oinfo.getData().capacity());
+        while (oinfo.getData().hasRemaining())
+            assertEquals(value, oinfo.getData().get());
+        BufferPool.free(oinfo.getData());
+    }
+
+    @Test
+    public void testHashStorageLayoutObjectIndex() throws Exception {
+
+        final String fileId = "ABCDEFG:0002";
+
+        Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0)
+                .build();
+        StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(r, 0);
+
+        HashStorageLayout layout = new HashStorageLayout(config, new MetadataCache());
+        FileMetadata md = layout.getFileMetadata(sp, fileId);
+        File fileDir = new File(layout.generateAbsoluteFilePath(fileId));
+
+        ReusableBuffer data = BufferPool.allocate(64);
+        for (int i = 0; i < 64; i++) {
+            data.put((byte) i);
+        }
+        data.flip();
+
+        // create a file with complete, partial, truncated, padding and deleted
+        // objects
+        for (long objNo = 0; objNo < 5; objNo++)
+            layout.writeObject(fileId, md, data.createViewBuffer(), objNo, 0, 1, false, false);
+        layout.writeObject(fileId, md, data.createViewBuffer(), 1, 16, 2, false, false);
+        layout.truncateObject(fileId, md, 4, 20, 2, false);
+        layout.createPaddingObject(fileId, md, 6, 1, 0);
+        layout.deleteObject(fileId, md, 6, 1);
+        layout.truncateObject(fileId, md, 5, 10, 1, false);
+        layout.deleteObject(fileId, md, 3, StorageLayout.LATEST_VERSION);
+        BufferPool.free(data);
+
+        // the metadata must be loaded from the index
+        Collection<IndexedObject> objs = ObjectIndex.load(fileDir);
+        assertNotNull(objs);
+        assertEquals(5, objs.size());
+        FileMetadata indexed = new HashStorageLayout(config, new MetadataCache()).getFileMetadata(sp, fileId);
+
+        // a rebuilt index must lead to the same metadata
+        ObjectIndex.delete(fileDir);
+        FileMetadata rebuilt = new HashStorageLayout(config, new MetadataCache()).getFileMetadata(sp, fileId);
+        assertNotNull(ObjectIndex.load(fileDir));
+
+        for (FileMetadata m : new FileMetadata[] { indexed, rebuilt }) {
+            assertEquals(5, m.getLastObjectNumber());
+            assertEquals(5 * sp.getStripeSizeForObject(0) + 10, m.getFilesize());
+            assertEquals(1, m.getLatestObjectVersion(0));
+            assertEquals(2, m.getLatestObjectVersion(1));
+            assertEquals(0, m.getLatestObjectVersion(3));
+            assertEquals(2, m.getLatestObjectVersion(4));
+            assertEquals(0, m.getLatestObjectVersion(6));
+        }
+
+        // an update that has not been committed invalidates the index
+        ObjectIndex.beginUpdate(fileDir).abort();
+        assertNull(ObjectIndex.load(fileDir));
+
+        FileMetadata recovered = new HashStorageLayout(config, new MetadataCache()).getFileMetadata(sp, fileId);
+        assertEquals(5 * sp.getStripeSizeForObject(0) + 10, recovered.getFilesize());
+        assertNotNull(ObjectIndex.load(fileDir));
+
+        // a replayed part of the journal invalidates the index
+        File indexFile = new File(fileDir, ObjectIndex.FILENAME);
+        byte[] journal = new byte[(int) indexFile.length()];
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        try {
+            raf.readFully(journal);
+            raf.write(journal, 12, journal.length - 12);
+        } finally {
+            raf.close();
+        }
+        assertNull(ObjectIndex.load(fileDir));
+
+        // the index is deleted together with the objects
+        layout.deleteFile(fileId, false);
+        assertFalse(new File(fileDir, ObjectIndex.FILENAME).exists());
+    }
+
+    @Test
+    public void testObjectIndexCompaction() throws Exception {
+
+        File fileDir = new File(config.getObjDir(), "indexTest");
+        assertTrue(fileDir.mkdirs());
+        ObjectIndex.write(fileDir, new ArrayList<IndexedObject>());
+
+        // each update replaces the only object file of the file
+        final int numUpdates = 1000;
+        for (int version = 1; version <= numUpdates; version++) {
+            ObjectIndex.Update update = ObjectIndex.beginUpdate(fileDir);
+            update.add(0, version, 0, 64);
+            if (version > 1)
+                update.remove(0, version - 1, 0);
+            if (update.commit())
+                assertNotNull(ObjectIndex.load(fileDir));
+
+            // the journal is compacted while it is updated
+            assertTrue(new File(fileDir, ObjectIndex.FILENAME).length() < 12 + 2 * (2 + 64 + 64) * 33);
+        }
+
+        Collection<IndexedObject> objs = ObjectIndex.load(fileDir);
+        assertNotNull(objs);
+        assertEquals(1, objs.size());
+        assertEquals(numUpdates, objs.iterator().next().objVersion);
+    }
+
+    @Test
+    public void testSegmentStorageLayoutBasics() throws Exception {
+        basicTests(new SegmentStorageLayout(config, new MetadataCache()));
+    }
+
+    @Test
+    public void testSegmentStorageLayoutWithChecksumsBasics() throws Exception {
+
+        JavaChecksumProvider j = new JavaChecksumProvider();
+        ChecksumFactory.getInstance().addProvider(j);
+        SetupUtils.CHECKSUMS_ON = true;
+        OSDConfig configCSUM = SetupUtils.createOSD1Config();
+        SetupUtils.CHECKSUMS_ON = false;
+        basicTests(new SegmentStorageLayout(configCSUM, new MetadataCache()));
+    }
+
+    @Test
+    public void testSegmentStorageLayoutGetObjectList() throws Exception {
+        getObjectListTest(new SegmentStorageLayout(config, new MetadataCache()));
+    }
+
+    @Test
+    public void testSegmentStorageLayoutGetFileIDList() throws Exception {
+        getFileIDListTest(new SegmentStorageLayout(config, new MetadataCache()));
+    }
+
+    @Test
+    public void testSegmentStorageLayoutRecoveryAndCompaction() throws Exception {
+
+        final String fileId = "ABCDEFG:0004";
+
+        Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0)
+                .build();
+        StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(r, 0);
+
+        // use small segments, so that the objects are spread across many
+        // segments
+        SegmentStorageLayout layout = new SegmentStorageLayout(config, new MetadataCache(), 4096, 50);
+        FileMetadata md = layout.getFileMetadata(sp, fileId);
+
+        // write 100 objects, overwrite most of them and delete the last one
+        for (long objNo = 0; objNo < 100; objNo++)
+            writeSmallObject(layout, md, fileId, objNo, 1, (byte) objNo);
+        for (long objNo = 0; objNo < 90; objNo++)
+            writeSmallObject(layout, md, fileId, objNo, 2, (byte) (objNo + 1));
+        layout.deleteObject(fileId, md, 99, 1);
+        layout.createPaddingObject("ABCDEFG:0005", layout.getFileMetadata(sp, "ABCDEFG:0005"), 0, 1, 0);
+        layout.deleteFile("ABCDEFG:0005", true);
+
+        // the index must be rebuilt from the segments
+        layout = new SegmentStorageLayout(config, new MetadataCache(), 4096, 50);
+        assertSmallObjects(layout, sp, fileId);
+        assertFalse(layout.fileExists("ABCDEFG:0005"));
+
+        // outdated object versions are removed by a compaction
+        final int numSegments = layout.getNumSegments();
+        assertTrue(layout.compact() > 0);
+        assertTrue(layout.getNumSegments() < numSegments);
+        assertEquals(layout.getNumSegments() + 1, new File(config.getObjDir(), SegmentStorageLayout.SEGMENT_DIR)
+                .list().length);
+        assertSmallObjects(layout, sp, fileId);
+
+        // the index must be loaded from the checkpoint
+        layout = new SegmentStorageLayout(config, new MetadataCache(), 4096, 50);
+        assertSmallObjects(layout, sp, fileId);
+        assertEquals(1, layout.getFileIDList().size());
+
+        layout.deleteFile(fileId, true);
+        assertFalse(layout.fileExists(fileId));
+        assertFalse(new SegmentStorageLayout(config, new MetadataCache(), 4096, 50).fileExists(fileId));
+    }
+
+    @Test
+    public void testSegmentStorageLayoutDeletionsAfterCompaction() throws Exception {
+
+        final String fileId = "ABCDEFG:0006";
+        final String deletedFileId = "ABCDEFG:0007";
+        final String tmpFileId = "ABCDEFG:0008";
+
+        Replica r = Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0)
+                .build();
+        StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(r, 0);
+
+        // each segment holds 32 objects
+        SegmentStorageLayout layout = new SegmentStorageLayout(config, new MetadataCache(), 4096, 50);
+        FileMetadata md = layout.getFileMetadata(sp, fileId);
+        FileMetadata deletedMd = layout.getFileMetadata(sp, deletedFileId);
+        FileMetadata tmpMd = layout.getFileMetadata(sp, tmpFileId);
+
+        // the first segment remains in use after the deletions
+        for (long objNo = 0; objNo < 28; objNo++)
+            writeSmallObject(layout, md, fileId, objNo, 1, (byte) objNo);
+        for (long objNo = 0; objNo < 4; objNo++)
+            writeSmallObject(layout, deletedMd, deletedFileId, objNo, 1, (byte) objNo);
+        layout.deleteObject(fileId, md, 5, 1);
+        layout.deleteFile(deletedFileId, true);
+
+        // the segment with the deletions is filled with outdated objects
+        for (long objNo = 0; objNo < 40; objNo++)
+            writeSmallObject(layout, tmpMd, tmpFileId, objNo, 1, (byte) objNo);
+        layout.deleteFile(tmpFileId, true);
+        for (long objNo = 28; objNo < 64; objNo++)
+            writeSmallObject(layout, md, fileId, objNo, 1, (byte) objNo);
+
+        assertEquals(1, layout.compact());
+
+        // all segments are replayed if the checkpoint is corrupt
+        FileOutputStream out = new FileOutputStream(new File(new File(config.getObjDir(),
+                SegmentStorageLayout.SEGMENT_DIR), SegmentStorageLayout.CHECKPOINT_FILENAME));
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        layout = new SegmentStorageLayout(config, new MetadataCache(), 4096, 50);
+        md = layout.getFileMetadata(sp, fileId);
+        assertEquals(0, md.getLatestObjectVersion(5));
+        for (long objNo = 0; objNo < 64; objNo++) {
+            if (objNo != 5)
+                assertEquals(1, md.getLatestObjectVersion(objNo));
+        }
+        assertFalse(layout.fileExists(deletedFileId));
+        assertFalse(layout.fileExists(tmpFileId));
+    }
+
+    private static void writeSmallObject(StorageLayout layout, FileMetadata md, String fileId, long objNo,
+            long version, byte value) throws IOException {
+        ReusableBuffer data = BufferPool.allocate(64);
+        while (data.hasRemaining())
+            data.put(value);
+        data.flip();
+        layout.writeObject(fileId, md, data, objNo, 0, version, false, false);
+    }
+
+    private static void assertSmallObjects(StorageLayout layout, StripingPolicyImpl sp, String fileId)
+            throws IOException {
+
+        FileMetadata md = layout.getFileMetadata(sp, fileId);
+        assertEquals(98, md.getLastObjectNumber());
+        assertEquals(98 * sp.getStripeSizeForObject(0) + 64, md.getFilesize());
+        assertEquals(0, md.getLatestObjectVersion(99));
+
+        for (long objNo = 0; objNo < 99; objNo++) {
+            final long version = objNo < 90 ? 2 : 1;
+            assertEquals(version, md.getLatestObjectVersion(objNo));
+
+            ObjectInformation oinfo = layout.readObject(fileId, md, objNo, 0, StorageLayout.FULL_OBJECT_LENGTH,
+                    version);
+            assertEquals(64, oinfo.getData().capacity());
+            while (oinfo.getData().hasRemaining())
+                assertEquals((byte) (objNo < 90 ? objNo + 1 : objNo), oinfo.getData().get());
+            BufferPool.free(oinfo.getData());
+        }
+    }
+
     /**
      * @param layout
      * @throws IOException
@@ -8,19 +8,281 @@
 
 package org.xtreemfs.osd;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestEnvironment;
 import org.xtreemfs.TestHelper;
+import org.xtreemfs.common.xloc.StripingPolicyImpl;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.generatedinterfaces.RPC.RPCHeader.ErrorResponse;
+import org.xtreemfs.foundation.util.FSUtils;
+import org.xtreemfs.osd.stages.StorageStage;
+import org.xtreemfs.osd.stages.StorageStage.WriteObjectCallback;
+import org.xtreemfs.osd.storage.CowPolicy;
+import org.xtreemfs.osd.storage.FileMetadata;
+import org.xtreemfs.osd.storage.HashStorageLayout;
+import org.xtreemfs.osd.storage.MetadataCache;
+import org.xtreemfs.osd.storage.SegmentStorageLayout;
+import org.xtreemfs.osd.storage.StorageLayout;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
 
-// TODO
+/**
+ * Runs with each storage layout the OSD can be configured with.
+ */
+@RunWith(Parameterized.class)
 public class StorageStageTest {
     @Rule
-    public final TestRule testLog = TestHelper.testLog;
+    public final TestRule       testLog  = TestHelper.testLog;
+
+    private static final String fileId   = "ABCDEF:1";
+
+    private final String        storageLayout;
+
+    private TestEnvironment     testEnv;
+
+    private OSD                 osd;
+
+    private StorageStage        stage;
+
+    /** number of objects forced to disk by the layout of the stage */
+    private final AtomicInteger syncs    = new AtomicInteger();
+
+    private volatile boolean    failSync;
+
+    /** if set, writes of the layout of the stage wait for it */
+    private volatile CountDownLatch writesQueued;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> storageLayouts() {
+        return Arrays.asList(new Object[][] { { HashStorageLayout.class.getSimpleName() },
+                { SegmentStorageLayout.class.getSimpleName() } });
+    }
 
+    public StorageStageTest(String storageLayout) {
+        this.storageLayout = storageLayout;
+    }
+
+    @BeforeClass
+    public static void initializeTest() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        FSUtils.delTree(new File(SetupUtils.TEST_DIR));
+
+        testEnv = new TestEnvironment(new TestEnvironment.Services[] { TestEnvironment.Services.DIR_SERVICE,
+                TestEnvironment.Services.TIME_SYNC, TestEnvironment.Services.UUID_RESOLVER });
+        testEnv.start();
+
+        HashMap<String, String> props = SetupUtils.createOSD1Config().toHashMap();
+        // synchronous writes must be committed long before the delay, as soon
+        // as the queue of the stage is empty
+        props.put("group_commit.max_delay_ms", "60000");
+        props.put("storage_layout", storageLayout);
+        osd = new OSD(new OSDConfig(props));
+
+        // a separate stage on the OSD with its own object directory, which
+        // counts the objects forced to disk
+        props.put("object_dir", SetupUtils.TEST_DIR + "/storagestage");
+        OSDConfig config = new OSDConfig(props);
+        MetadataCache cache = new MetadataCache();
+        StorageLayout layout;
+        if (storageLayout.equals(SegmentStorageLayout.class.getSimpleName()))
+            layout = new CountingSegmentStorageLayout(config, cache);
+        else
+            layout = new CountingHashStorageLayout(config, cache);
+        stage = new StorageStage(osd.getDispatcher(), cache, layout, 1, 100);
+        stage.start();
+        stage.waitForStartup();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        stage.shutdown();
+        stage.waitForShutdown();
+        osd.shutdown();
+        testEnv.shutdown();
+    }
+
+    /**
+     * Synchronous writes to the same object within the group commit delay
+     * share one force, and none of them is acknowledged before it.
+     */
     @Test
-    public void testDummy() {
+    public void testGroupCommit() throws Exception {
+        final int numWrites = 5;
+        final StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(Replica.newBuilder().setStripingPolicy(
+                SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0).build(), 0);
+
+        final CountDownLatch acked = new CountDownLatch(numWrites);
+        final List<Integer> syncsAtAck = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<ErrorResponse> errors = Collections.synchronizedList(new ArrayList<ErrorResponse>());
+
+        // the first write is processed only once all writes are queued
+        writesQueued = new CountDownLatch(1);
+        for (int i = 0; i < numWrites; i++) {
+            ReusableBuffer data = BufferPool.allocate(1024);
+            while (data.hasRemaining())
+                data.put((byte) i);
+            data.flip();
+
+            stage.writeObjectWithoutGMax(fileId, 0, sp, i * 1024, data, CowPolicy.PolicyNoCow, null, true, null,
+                    null, new WriteObjectCallback() {
+                        @Override
+                        public void writeComplete(OSDWriteResponse result, ErrorResponse error) {
+                            syncsAtAck.add(syncs.get());
+                            if (error != null)
+                                errors.add(error);
+                            acked.countDown();
+                        }
+                    });
+        }
+        writesQueued.countDown();
+
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        assertTrue(errors.isEmpty());
+        assertEquals(1, syncs.get());
+        for (int syncs : syncsAtAck)
+            assertEquals(1, syncs);
+    }
+
+    /**
+     * A single synchronous write is committed as soon as no further requests
+     * are queued, without waiting for the group commit delay.
+     */
+    @Test
+    public void testSingleSyncWriteIsNotDelayed() throws Exception {
+        final StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(Replica.newBuilder().setStripingPolicy(
+                SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0).build(), 0);
+
+        for (int i = 0; i < 3; i++) {
+            final CountDownLatch acked = new CountDownLatch(1);
+            final ErrorResponse[] error = new ErrorResponse[1];
+            stage.writeObjectWithoutGMax(fileId, 0, sp, 0, BufferPool.allocate(1024), CowPolicy.PolicyNoCow,
+                    null, true, null, null, new WriteObjectCallback() {
+                        @Override
+                        public void writeComplete(OSDWriteResponse result, ErrorResponse err) {
+                            error[0] = err;
+                            acked.countDown();
+                        }
+                    });
+
+            assertTrue(acked.await(10, TimeUnit.SECONDS));
+            assertNull(error[0]);
+            assertEquals(i + 1, syncs.get());
+        }
+    }
+
+    /**
+     * A synchronous write is not acknowledged if the object version cannot be
+     * forced to disk.
+     */
+    @Test
+    public void testFailedGroupCommit() throws Exception {
+        final StripingPolicyImpl sp = StripingPolicyImpl.getPolicy(Replica.newBuilder().setStripingPolicy(
+                SetupUtils.getStripingPolicy(1, 64)).setReplicationFlags(0).build(), 0);
+        failSync = true;
+
+        final CountDownLatch acked = new CountDownLatch(1);
+        final ErrorResponse[] error = new ErrorResponse[1];
+        stage.writeObjectWithoutGMax(fileId, 0, sp, 0, BufferPool.allocate(1024), CowPolicy.PolicyNoCow, null,
+                true, null, null, new WriteObjectCallback() {
+                    @Override
+                    public void writeComplete(OSDWriteResponse result, ErrorResponse err) {
+                        error[0] = err;
+                        acked.countDown();
+                    }
+                });
+
+        assertTrue(acked.await(10, TimeUnit.SECONDS));
+        assertNotNull(error[0]);
+    }
+
+    private void checkSync() throws IOException {
+        if (failSync)
+            throw new IOException("simulated failure");
+    }
+
+    private void awaitWritesQueued() throws IOException {
+        final CountDownLatch latch = writesQueued;
+        if (latch == null)
+            return;
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new IOException("interrupted");
+        }
+    }
+
+    private final class CountingHashStorageLayout extends HashStorageLayout {
+
+        CountingHashStorageLayout(OSDConfig config, MetadataCache cache) throws IOException {
+            super(config, cache);
+        }
+
+        @Override
+        public void writeObject(String fileId, FileMetadata md, ReusableBuffer data, long objNo, int offset,
+                long newVersion, boolean sync, boolean cow) throws IOException {
+            awaitWritesQueued();
+            super.writeObject(fileId, md, data, objNo, offset, newVersion, sync, cow);
+        }
+
+        @Override
+        public void syncObject(String fileId, FileMetadata md, long objNo, long version) throws IOException {
+            checkSync();
+            super.syncObject(fileId, md, objNo, version);
+            syncs.incrementAndGet();
+        }
+    }
+
+    private final class CountingSegmentStorageLayout extends SegmentStorageLayout {
+
+        CountingSegmentStorageLayout(OSDConfig config, MetadataCache cache) throws IOException {
+            super(config, cache);
+        }
+
+        @Override
+        public void writeObject(String fileId, FileMetadata md, ReusableBuffer data, long objNo, int offset,
+                long newVersion, boolean sync, boolean cow) throws IOException {
+            awaitWritesQueued();
+            super.writeObject(fileId, md, data, objNo, offset, newVersion, sync, cow);
+        }
 
+        @Override
+        public void syncObject(String fileId, FileMetadata md, long objNo, long version) throws IOException {
+            checkSync();
+            super.syncObject(fileId, md, objNo, version);
+            syncs.incrementAndGet();
+        }
     }
 
 //    /*
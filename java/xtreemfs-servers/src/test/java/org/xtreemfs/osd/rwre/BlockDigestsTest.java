@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.osd.rwre.BlockDigests.Range;
+
+/**
+ * Tests the delta sync of outdated objects and measures the number of bytes
+ * it transfers compared to fetching the whole object.
+ */
+public class BlockDigestsTest {
+    @Rule
+    public final TestRule       testLog     = TestHelper.testLog;
+
+    private static final int    OBJECT_SIZE = 1024 * 1024;
+
+    private static final int    BLOCK_SIZE  = 4096;
+
+    private final Random        random      = new Random(42);
+
+    @Test
+    public void testVersionChangeOnly() throws Exception {
+        byte[] local = randomBytes(OBJECT_SIZE);
+
+        int transferred = sync(local, local.clone());
+        // only the digests are transferred
+        assertEquals(digestBytes(OBJECT_SIZE), transferred);
+    }
+
+    @Test
+    public void testSmallUpdate() throws Exception {
+        byte[] local = randomBytes(OBJECT_SIZE);
+        byte[] remote = local.clone();
+        // a write of 3 KB across a block boundary
+        for (int i = 10000; i < 13000; i++) {
+            remote[i] = (byte) ~remote[i];
+        }
+
+        int transferred = sync(local, remote);
+        assertEquals(digestBytes(OBJECT_SIZE) + 2 * BLOCK_SIZE, transferred);
+        assertTrue("transferred " + transferred + " bytes", transferred < OBJECT_SIZE / 50);
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        byte[] local = randomBytes(OBJECT_SIZE / 2 + 100);
+        byte[] remote = Arrays.copyOf(local, OBJECT_SIZE);
+        System.arraycopy(randomBytes(OBJECT_SIZE / 2), 0, remote, OBJECT_SIZE / 2, OBJECT_SIZE / 2);
+
+        int transferred = sync(local, remote);
+        // the partial last block of the local version has to be fetched again
+        assertEquals(digestBytes(OBJECT_SIZE) + OBJECT_SIZE / 2, transferred);
+    }
+
+    @Test
+    public void testScatteredUpdates() throws Exception {
+        byte[] local = randomBytes(OBJECT_SIZE);
+        byte[] remote = local.clone();
+        for (int i = 0; i < OBJECT_SIZE; i += 64 * 1024) {
+            remote[i + 17] ^= 1;
+        }
+        remote[OBJECT_SIZE - 1] ^= 1;
+
+        int transferred = sync(local, remote);
+        assertEquals(digestBytes(OBJECT_SIZE) + 17 * BLOCK_SIZE, transferred);
+    }
+
+    @Test
+    public void testRandomObject() throws Exception {
+        // an unrelated object of the same size is transferred completely
+        int transferred = sync(randomBytes(OBJECT_SIZE), randomBytes(OBJECT_SIZE));
+        assertEquals(digestBytes(OBJECT_SIZE) + OBJECT_SIZE, transferred);
+    }
+
+    @Test
+    public void testTruncatedObject() throws Exception {
+        byte[] local = randomBytes(OBJECT_SIZE);
+        byte[] remote = Arrays.copyOf(local, 1000);
+
+        long[] localDigests = BlockDigests.compute(ReusableBuffer.wrap(local), BLOCK_SIZE);
+        long[] remoteDigests = BlockDigests.compute(ReusableBuffer.wrap(remote), BLOCK_SIZE);
+        assertNull(BlockDigests.getDifferingRanges(localDigests, local.length, remoteDigests, remote.length,
+                BLOCK_SIZE));
+    }
+
+    /**
+     * Turns the local version into the remote version like a replica reset
+     * does, checks the result and returns the number of bytes transferred.
+     */
+    private int sync(byte[] local, byte[] remote) {
+
+        final ReusableBuffer localData = ReusableBuffer.wrap(local);
+        final ReusableBuffer remoteData = ReusableBuffer.wrap(remote);
+
+        // fetched from the remote OSD
+        long[] remoteDigests = BlockDigests.compute(remoteData, BLOCK_SIZE);
+        int transferred = 4 + remoteDigests.length * 8;
+
+        long[] localDigests = BlockDigests.compute(localData, BLOCK_SIZE);
+        List<Range> ranges = BlockDigests.getDifferingRanges(localDigests, local.length, remoteDigests,
+                remote.length, BLOCK_SIZE);
+
+        // fetched from the remote OSD
+        ReusableBuffer rangeData = BufferPool.allocate(Math.max(1, BlockDigests.getLength(ranges)));
+        for (Range range : ranges) {
+            rangeData.put(remote, range.getOffset(), range.getLength());
+        }
+        rangeData.flip();
+        transferred += rangeData.remaining();
+
+        ReusableBuffer patched = BlockDigests.patch(localData, remote.length, ranges, rangeData);
+        try {
+            byte[] result = new byte[patched.remaining()];
+            patched.get(result);
+            assertArrayEquals(remote, result);
+        } finally {
+            BufferPool.free(patched);
+            BufferPool.free(rangeData);
+        }
+
+        return transferred;
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static int digestBytes(int objectSize) {
+        return 4 + (objectSize + BLOCK_SIZE - 1) / BLOCK_SIZE * 8;
+    }
+
+}
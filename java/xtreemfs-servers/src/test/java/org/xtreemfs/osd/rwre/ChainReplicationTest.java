@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.ReplicaUpdatePolicies;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.osd.OSDConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Runs the tests of {@link RWReplicationTest} with writes forwarded along the
+ * chain of backups (rwr.chain_replication), and checks that writes succeed if
+ * a backup of the chain is dead.
+ */
+public class ChainReplicationTest extends RWReplicationTest {
+
+    @Override
+    protected OSDConfig[] createOSDConfigs() throws Exception {
+        OSDConfig[] configs = super.createOSDConfigs();
+        for (int i = 0; i < configs.length; i++) {
+            HashMap<String, String> props = configs[i].toHashMap();
+            props.put("rwr.chain_replication", "true");
+            configs[i] = new OSDConfig(props);
+        }
+        return configs;
+    }
+
+    @Test
+    public void testWriteWithDeadTail() throws Exception {
+        writeWithDeadBackup(NUM_OSDS - 1);
+    }
+
+    @Test
+    public void testWriteWithDeadMiddleBackup() throws Exception {
+        writeWithDeadBackup(1);
+    }
+
+    /**
+     * Writes an object with all OSDs running, shuts down the given backup and
+     * writes another object, which must be acknowledged by the remaining
+     * backup (WqRq requires one of two backups).
+     */
+    private void writeWithDeadBackup(int deadOSD) throws Exception {
+        Capability cap = new Capability(fileId, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_TRUNC.getNumber()
+                | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 60, System.currentTimeMillis(), "", 0, false,
+                SnapConfig.SNAP_CONFIG_SNAPS_DISABLED, 0, configs[0].getCapabilitySecret());
+        List<Replica> rlist = new LinkedList<Replica>();
+        for (OSDConfig osd : this.configs) {
+            rlist.add(Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, 128))
+                    .setReplicationFlags(0).addOsdUuids(osd.getUUID().toString()).build());
+        }
+        XLocSet locSet = XLocSet.newBuilder().setReadOnlyFileSize(0)
+                .setReplicaUpdatePolicy(ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ).setVersion(1)
+                .addAllReplicas(rlist).build();
+        FileCredentials fc = FileCredentials.newBuilder().setXcap(cap.getXCap()).setXlocs(locSet).build();
+
+        final OSDServiceClient client = testEnv.getOSDClient();
+        final InetSocketAddress osd1 = new InetSocketAddress("localhost", configs[0].getPort());
+        ObjectData objdata = ObjectData.newBuilder().setChecksum(0).setZeroPadding(0).setInvalidChecksumOnOsd(false)
+                .build();
+
+        // acquires the lease, the first OSD becomes the primary
+        RPCResponse<OSDWriteResponse> r = client.write(osd1, RPCAuthentication.authNone,
+                RPCAuthentication.userService, fc, fileId, 0, 0, 0, 0, objdata, createData("Yagga"));
+        r.get();
+        r.freeBuffers();
+
+        osds[deadOSD].shutdown();
+        osds[deadOSD] = null;
+
+        r = client.write(osd1, RPCAuthentication.authNone, RPCAuthentication.userService, fc, fileId, 1, 0, 0, 0,
+                objdata, createData("Moeep"));
+        r.get();
+        r.freeBuffers();
+
+        RPCResponse<ObjectData> r2 = client.read(osd1, RPCAuthentication.authNone, RPCAuthentication.userService,
+                fc, fileId, 1, -1, 0, 5);
+        r2.get();
+        assertEquals("Moeep", new String(r2.getData().getData()));
+        r2.freeBuffers();
+    }
+
+    private static ReusableBuffer createData(String pattern) {
+        ReusableBuffer rb = BufferPool.allocate(1024);
+        while (rb.remaining() >= pattern.length())
+            rb.put(pattern.getBytes());
+        rb.limit(rb.capacity());
+        rb.position(0);
+        return rb;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.xtreemfs.SetupUtils;
+import org.xtreemfs.TestEnvironment;
+import org.xtreemfs.TestHelper;
+import org.xtreemfs.common.Capability;
+import org.xtreemfs.common.ReplicaUpdatePolicies;
+import org.xtreemfs.foundation.buffer.BufferPool;
+import org.xtreemfs.foundation.buffer.ReusableBuffer;
+import org.xtreemfs.foundation.logging.Logging;
+import org.xtreemfs.foundation.pbrpc.client.PBRPCException;
+import org.xtreemfs.foundation.pbrpc.client.RPCAuthentication;
+import org.xtreemfs.foundation.pbrpc.client.RPCResponse;
+import org.xtreemfs.osd.OSD;
+import org.xtreemfs.osd.OSDConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.FileCredentials;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.OSDWriteResponse;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.Replica;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SYSTEM_V_FCNTL;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.SnapConfig;
+import org.xtreemfs.pbrpc.generatedinterfaces.GlobalTypes.XLocSet;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSD.ObjectData;
+import org.xtreemfs.pbrpc.generatedinterfaces.OSDServiceClient;
+
+/**
+ * Checks how a replica which missed writes is reset when it becomes the
+ * primary.
+ */
+public class RWReplicationResetTest {
+    @Rule
+    public final TestRule       testLog          = TestHelper.testLog;
+
+    private static final int    NUM_OSDS         = 3;
+
+    private static final String fileId           = "ABCDEF:1";
+
+    private static final int    OBJECT_SIZE      = 128 * 1024;
+
+    private static final int    DELTA_BLOCK_SIZE = 4096;
+
+    private static final int    NUM_RESET_OBJECTS = 32;
+
+    /**
+     * time to wait for a new primary, which has to wait for the lease of a
+     * dead primary to expire
+     */
+    private static final long   PRIMARY_TIMEOUT_MS = 120 * 1000;
+
+    private OSD[]               osds;
+
+    private OSDConfig[]         configs;
+
+    private TestEnvironment     testEnv;
+
+    private FileCredentials     fc;
+
+    private OSDServiceClient    client;
+
+    private ObjectData          objdata;
+
+    @BeforeClass
+    public static void initializeTest() throws Exception {
+        Logging.start(SetupUtils.DEBUG_LEVEL, SetupUtils.DEBUG_CATEGORIES);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        testEnv = new TestEnvironment(new TestEnvironment.Services[] { TestEnvironment.Services.DIR_SERVICE,
+                TestEnvironment.Services.TIME_SYNC, TestEnvironment.Services.UUID_RESOLVER,
+                TestEnvironment.Services.OSD_CLIENT, TestEnvironment.Services.MRC,
+                TestEnvironment.Services.MRC_CLIENT });
+        testEnv.start();
+
+        osds = new OSD[NUM_OSDS];
+        configs = SetupUtils.createMultipleOSDConfigs(NUM_OSDS);
+        for (int i = 0; i < osds.length; i++) {
+            HashMap<String, String> props = configs[i].toHashMap();
+            props.put("rwr.delta_sync_block_size", Integer.toString(DELTA_BLOCK_SIZE));
+            configs[i] = new OSDConfig(props);
+            osds[i] = new OSD(configs[i]);
+        }
+
+        Capability cap = new Capability(fileId, SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_TRUNC.getNumber()
+                | SYSTEM_V_FCNTL.SYSTEM_V_FCNTL_H_O_RDWR.getNumber(), 60, System.currentTimeMillis(), "", 0, false,
+                SnapConfig.SNAP_CONFIG_SNAPS_DISABLED, 0, configs[0].getCapabilitySecret());
+        List<Replica> rlist = new LinkedList<Replica>();
+        for (OSDConfig osd : configs) {
+            rlist.add(Replica.newBuilder().setStripingPolicy(SetupUtils.getStripingPolicy(1, OBJECT_SIZE / 1024))
+                    .setReplicationFlags(0).addOsdUuids(osd.getUUID().toString()).build());
+        }
+        XLocSet locSet = XLocSet.newBuilder().setReadOnlyFileSize(0)
+                .setReplicaUpdatePolicy(ReplicaUpdatePolicies.REPL_UPDATE_PC_WQRQ).setVersion(1)
+                .addAllReplicas(rlist).build();
+        fc = FileCredentials.newBuilder().setXcap(cap.getXCap()).setXlocs(locSet).build();
+
+        client = testEnv.getOSDClient();
+        objdata = ObjectData.newBuilder().setChecksum(0).setZeroPadding(0).setInvalidChecksumOnOsd(false).build();
+    }
+
+    @After
+    public void tearDown() {
+        if (osds != null) {
+            for (OSD osd : osds) {
+                if (osd != null)
+                    osd.shutdown();
+            }
+        }
+
+        testEnv.shutdown();
+    }
+
+    /**
+     * The second OSD misses a small change of an object while it is down.
+     * When it becomes the primary, it must fetch only the changed block of
+     * the object from the third OSD.
+     */
+    @Test
+    public void testDeltaSyncReset() throws Exception {
+        final InetSocketAddress osd1 = new InetSocketAddress("localhost", configs[0].getPort());
+        final InetSocketAddress osd2 = new InetSocketAddress("localhost", configs[1].getPort());
+
+        byte[] data = new byte[OBJECT_SIZE];
+        new Random(42).nextBytes(data);
+        write(osd1, 0, 0, data, 0, data.length);
+        // the write only waits for one of the backups
+        Thread.sleep(1000);
+
+        osds[1].shutdown();
+        osds[1] = null;
+
+        final int changeOffset = 2 * DELTA_BLOCK_SIZE;
+        for (int i = changeOffset; i < changeOffset + DELTA_BLOCK_SIZE; i++) {
+            data[i] = (byte) ~data[i];
+        }
+        write(osd1, 0, changeOffset, data, changeOffset, DELTA_BLOCK_SIZE);
+
+        osds[0].shutdown();
+        osds[0] = null;
+        osds[1] = new OSD(configs[1]);
+
+        // makes the second OSD the primary, which resets its replica from the third OSD
+        writeToNewPrimary(osd2, 1);
+
+        assertArrayEquals(data, read(osd2, 0, data.length));
+
+        final RWReplicationStage stage = osds[1].getDispatcher().getRWReplicationStage();
+        final long fetched = stage.getNumResetBytesFetched();
+        assertTrue("nothing was fetched", fetched > 0);
+        assertTrue(fetched + " bytes were fetched for a changed block of " + DELTA_BLOCK_SIZE + " bytes",
+                fetched < OBJECT_SIZE / 4);
+        assertTrue("delta sync saved nothing", stage.getNumResetBytesSaved() > OBJECT_SIZE / 2);
+    }
+
+    /**
+     * The second OSD misses several objects while it is down. When it becomes
+     * the primary, it must fetch them from both other OSDs.
+     */
+    @Test
+    public void testResetFromSeveralOSDs() throws Exception {
+        final InetSocketAddress osd2 = new InetSocketAddress("localhost", configs[1].getPort());
+
+        byte[][] objects = writeWithSecondOSDDown(NUM_RESET_OBJECTS);
+
+        writeToNewPrimary(osd2, NUM_RESET_OBJECTS);
+
+        for (int i = 0; i < objects.length; i++) {
+            assertArrayEquals(objects[i], read(osd2, i, OBJECT_SIZE));
+        }
+
+        final RWReplicationStage stage = osds[1].getDispatcher().getRWReplicationStage();
+        for (int i : new int[] { 0, 2 }) {
+            long[] stats = stage.getTransferStats(configs[i].getUUID().getAddress());
+            assertNotNull("no connection to OSD " + i, stats);
+            assertTrue("no object was fetched from OSD " + i, stats[0] > OBJECT_SIZE);
+        }
+    }
+
+    /**
+     * The first OSD is shut down while the second OSD fetches objects from it
+     * during its reset. The objects must then be fetched from the third OSD.
+     */
+    @Test
+    public void testResetWithFailedSource() throws Exception {
+        final InetSocketAddress osd2 = new InetSocketAddress("localhost", configs[1].getPort());
+
+        byte[][] objects = writeWithSecondOSDDown(NUM_RESET_OBJECTS);
+
+        final OSD source = osds[0];
+        osds[0] = null;
+        final RWReplicationStage stage = osds[1].getDispatcher().getRWReplicationStage();
+        final Thread killer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (stage.getNumResetBytesFetched() == 0) {
+                        Thread.sleep(1);
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                } finally {
+                    source.shutdown();
+                }
+            }
+        };
+        killer.start();
+        try {
+            writeToNewPrimary(osd2, NUM_RESET_OBJECTS);
+        } finally {
+            killer.interrupt();
+            killer.join();
+        }
+
+        for (int i = 0; i < objects.length; i++) {
+            assertArrayEquals(objects[i], read(osd2, i, OBJECT_SIZE));
+        }
+    }
+
+    /**
+     * Writes objects of random data via the first OSD while the second OSD is
+     * down, and restarts the second OSD.
+     */
+    private byte[][] writeWithSecondOSDDown(int numObjects) throws Exception {
+        final InetSocketAddress osd1 = new InetSocketAddress("localhost", configs[0].getPort());
+
+        osds[1].shutdown();
+        osds[1] = null;
+
+        byte[][] objects = new byte[numObjects][OBJECT_SIZE];
+        Random random = new Random(42);
+        for (int i = 0; i < numObjects; i++) {
+            random.nextBytes(objects[i]);
+            write(osd1, i, 0, objects[i], 0, OBJECT_SIZE);
+        }
+
+        osds[1] = new OSD(configs[1]);
+        return objects;
+    }
+
+    private void write(InetSocketAddress osd, long objNo, int offset, byte[] data, int dataOffset, int length)
+            throws Exception {
+        ReusableBuffer rb = BufferPool.allocate(length);
+        rb.put(data, dataOffset, length);
+        rb.flip();
+        RPCResponse<OSDWriteResponse> r = client.write(osd, RPCAuthentication.authNone,
+                RPCAuthentication.userService, fc, fileId, objNo, 0, offset, 0, objdata, rb);
+        try {
+            r.get();
+        } finally {
+            r.freeBuffers();
+        }
+    }
+
+    /**
+     * Writes to the given OSD until it has become the primary.
+     */
+    private void writeToNewPrimary(InetSocketAddress osd, long objNo) throws Exception {
+        final byte[] data = "Yagga".getBytes();
+        final long timeout = System.currentTimeMillis() + PRIMARY_TIMEOUT_MS;
+        while (true) {
+            try {
+                write(osd, objNo, 0, data, 0, data.length);
+                return;
+            } catch (PBRPCException ex) {
+                if (System.currentTimeMillis() > timeout)
+                    fail("OSD did not become the primary: " + ex);
+                Thread.sleep(1000);
+            }
+        }
+    }
+
+    private byte[] read(InetSocketAddress osd, long objNo, int length) throws Exception {
+        RPCResponse<ObjectData> r = client.read(osd, RPCAuthentication.authNone, RPCAuthentication.userService,
+                fc, fileId, objNo, -1, 0, length);
+        try {
+            r.get();
+            return r.getData().getData();
+        } finally {
+            r.freeBuffers();
+        }
+    }
+}
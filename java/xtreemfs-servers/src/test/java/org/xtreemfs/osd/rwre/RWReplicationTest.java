@@ -63,12 +63,12 @@ public class RWReplicationTest {
     @Rule
     public final TestRule       testLog  = TestHelper.testLog;
 
-    private OSD[]               osds;
-    private OSDConfig[]         configs;
-    private TestEnvironment     testEnv;
+    protected OSD[]             osds;
+    protected OSDConfig[]       configs;
+    protected TestEnvironment   testEnv;
 
-    private final static int    NUM_OSDS = 3;
-    private static final String fileId   = "ABCDEF:1";
+    protected final static int  NUM_OSDS = 3;
+    protected static final String fileId = "ABCDEF:1";
 
     @BeforeClass
     public static void initializeTest() throws Exception {
@@ -91,7 +91,7 @@ public class RWReplicationTest {
         testEnv.start();
 
         osds = new OSD[NUM_OSDS];
-        configs = SetupUtils.createMultipleOSDConfigs(NUM_OSDS);
+        configs = createOSDConfigs();
         for (int i = 0; i < osds.length; i++) {
             osds[i] = new OSD(configs[i]);
         }
@@ -99,6 +99,14 @@ public class RWReplicationTest {
     }
 
 
+    /**
+     * Creates the configurations of the OSDs. May be overridden to run the
+     * tests with other replication settings.
+     */
+    protected OSDConfig[] createOSDConfigs() throws Exception {
+        return SetupUtils.createMultipleOSDConfigs(NUM_OSDS);
+    }
+
     @After
     public void tearDown() {
         if (osds != null) {
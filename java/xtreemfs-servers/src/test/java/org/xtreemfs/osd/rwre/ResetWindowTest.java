@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 by Zuse Institute Berlin
+ *
+ * Licensed under the BSD License, see LICENSE file for details.
+ *
+ */
+
+package org.xtreemfs.osd.rwre;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ResetWindowTest {
+
+    private static final long LATENCY = 1000000;
+
+    @Test
+    public void testGrowsByOnePerWindow() {
+        ResetWindow window = new ResetWindow(4, 1, 100);
+        assertEquals(4, window.getSize());
+
+        for (int i = 0; i < 3; i++) {
+            window.fetchSucceeded(LATENCY);
+        }
+        assertEquals(4, window.getSize());
+        window.fetchSucceeded(LATENCY);
+        assertEquals(5, window.getSize());
+
+        // the next increase requires a window of 5 fetches
+        for (int i = 0; i < 4; i++) {
+            window.fetchSucceeded(LATENCY);
+        }
+        assertEquals(5, window.getSize());
+        window.fetchSucceeded(LATENCY);
+        assertEquals(6, window.getSize());
+    }
+
+    @Test
+    public void testGrowsUpToMaxSize() {
+        ResetWindow window = new ResetWindow(2, 1, 3);
+        for (int i = 0; i < 100; i++) {
+            window.fetchSucceeded(LATENCY);
+        }
+        assertEquals(3, window.getSize());
+    }
+
+    @Test
+    public void testShrinksOnDelayedFetch() {
+        ResetWindow window = new ResetWindow(4, 2, 100);
+        window.fetchSucceeded(LATENCY);
+        window.fetchSucceeded(LATENCY);
+
+        window.fetchSucceeded(3 * LATENCY);
+        assertEquals(3, window.getSize());
+
+        // the successes before the delayed fetch do not count
+        for (int i = 0; i < 2; i++) {
+            window.fetchSucceeded(LATENCY);
+        }
+        assertEquals(3, window.getSize());
+        window.fetchSucceeded(LATENCY);
+        assertEquals(4, window.getSize());
+
+        for (int i = 0; i < 10; i++) {
+            window.fetchSucceeded(3 * LATENCY);
+        }
+        assertEquals(2, window.getSize());
+    }
+
+    @Test
+    public void testFetchTwiceAsSlowIsNotDelayed() {
+        ResetWindow window = new ResetWindow(4, 1, 100);
+        window.fetchSucceeded(LATENCY);
+        window.fetchSucceeded(2 * LATENCY);
+        assertEquals(4, window.getSize());
+    }
+
+    @Test
+    public void testHalvesOnFailure() {
+        ResetWindow window = new ResetWindow(20, 3, 100);
+        window.fetchFailed();
+        assertEquals(10, window.getSize());
+        window.fetchFailed();
+        assertEquals(5, window.getSize());
+        window.fetchFailed();
+        assertEquals(3, window.getSize());
+        window.fetchFailed();
+        assertEquals(3, window.getSize());
+    }
+
+    @Test
+    public void testFailureResetsSuccesses() {
+        ResetWindow window = new ResetWindow(8, 1, 100);
+        for (int i = 0; i < 7; i++) {
+            window.fetchSucceeded(LATENCY);
+        }
+        window.fetchFailed();
+        assertEquals(4, window.getSize());
+
+        for (int i = 0; i < 3; i++) {
+            window.fetchSucceeded(LATENCY);
+        }
+        assertEquals(4, window.getSize());
+        window.fetchSucceeded(LATENCY);
+        assertEquals(5, window.getSize());
+    }
+
+    @Test
+    public void testFastestFetchAges() {
+        ResetWindow window = new ResetWindow(4, 1, 1000);
+        window.fetchSucceeded(LATENCY);
+
+        // the fastest fetch time grows slowly, until fetches of three times its duration are no longer delayed
+        int delayed = 0;
+        for (int i = 0; i < 1000 && window.getSize() <= 4; i++) {
+            window.fetchSucceeded(3 * LATENCY);
+            if (window.getSize() == 1)
+                delayed++;
+        }
+        assertEquals(5, window.getSize());
+        assertTrue(delayed > 0);
+    }
+}